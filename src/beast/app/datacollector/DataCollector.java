@@ -3,36 +3,35 @@ package beast.app.datacollector;
 import beast.app.tools.LogCombiner;
 import beast.app.util.Arguments;
 import beast.app.util.Utils;
-import beast.app.utils.ChromosomeLabel;
 import beast.core.Description;
 import beast.core.util.Log;
 import beast.evolution.alignment.ScsAlignment;
 import beast.evolution.alignment.ScsBackgroundInfo;
+import beast.evolution.alignment.ScsBinaryReadCounts;
 import beast.evolution.alignment.ScsLociInfo;
-import beast.evolution.alignment.VariantSiteInfo;
 import beast.evolution.alignment.sequence.CovSupSeq;
 import beast.evolution.alignment.sequence.FullSupsCovSeq;
 import beast.evolution.branchratemodel.ScsRandomLocalClockModel;
 import beast.evolution.branchratemodel.StrictClockModel;
 import beast.evolution.branchratemodel.UCRelaxedClockModel;
-import beast.math.util.MathFunctions;
 import beast.util.FileNameProcessor;
+import beast.util.XMLTemplateRewriter;
 import jam.console.ConsoleApplication;
 import org.jetbrains.annotations.NotNull;
 import org.w3c.dom.*;
-import org.xml.sax.SAXException;
 
 import javax.swing.*;
-import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
-import javax.xml.transform.OutputKeys;
-import javax.xml.transform.Transformer;
-import javax.xml.transform.TransformerException;
-import javax.xml.transform.TransformerFactory;
-import javax.xml.transform.dom.DOMSource;
-import javax.xml.transform.stream.StreamResult;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+import javax.xml.stream.events.Attribute;
+import javax.xml.stream.events.StartElement;
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
@@ -72,13 +71,33 @@ public class DataCollector {
     private final static String mutationsFlag = "=mutations=";
     private final static String backgroundFlag = "=background=";
 
+    // number of lines of candidate mutated sites handed to a parsing thread at a time
+    private final static int PARSE_CHUNK_SIZE = 4096;
+
+    // memory budget (in bytes) for sorting candidate mutated sites; -1 for a quarter of the maximum heap size
+    protected long memoryBudget = -1;
+
+    // number of threads parsing candidate mutated sites
+    protected int nrOfThreads = 1;
+
     // structures to store read data
-    protected List<String>[] dataMutations;
-    protected List<String> dataMutationsInfo;
+    protected DataCollectorDialog.DataType datatype;
+    protected MutationSiteSorter dataMutations;
+    protected BitSet removedMutations; // ordinals of candidate mutated sites removed due to missing data
     protected List<String> dataBackground;
 
+    // ordinals and numbers of (missing) entries of candidate mutated sites, in the order of input; only used while reading
+    private int[] mutationOrdinals;
+    private int[] mutationEntryNums;
+    private int[] mutationMissingEntryNums;
+
+    // loci information and read counts of each cell (one section per cell) at kept sites in genomic order, separated by ';'
+    protected File dataMutationsInfoFile;
+    protected TextSpool dataMutationsSpool;
+
     // variables used to load data
     protected int nrOfCells;
+    protected int nrOfSampledCells;
     protected List<String> cellNames;
     protected List<String> excludedCellNames;
 
@@ -102,8 +121,54 @@ public class DataCollector {
             final String outputFileName,
             final String outputBaseName,
             final int[] sample,
-            final int[] backgroundNameOrder
+            final int[] backgroundNameOrder,
+            final String binaryFileName
+    ) throws RuntimeException {
+        this(
+                cellNamesFileName,
+                excludedCellNamesFileName,
+                compatibleWithSciPhi,
+                useSex,
+                missingDataThreshold,
+                filteredCellNamesFileName,
+                dataFileName,
+                datatype,
+                templateFileName,
+                outputFileName,
+                outputBaseName,
+                sample,
+                backgroundNameOrder,
+                binaryFileName,
+                -1,
+                1
+        );
+    }
+
+    /**
+     * @param memoryBudget memory budget (in bytes) for sorting candidate mutated sites, beyond which they are sorted
+     *                     on disk; -1 for a quarter of the maximum heap size
+     * @param nrOfThreads  number of threads parsing candidate mutated sites
+     */
+    public DataCollector(
+            final String cellNamesFileName,
+            final String excludedCellNamesFileName,
+            boolean compatibleWithSciPhi,
+            boolean useSex,
+            double missingDataThreshold,
+            final String filteredCellNamesFileName,
+            final String dataFileName,
+            final DataCollectorDialog.DataType datatype,
+            final String templateFileName,
+            final String outputFileName,
+            final String outputBaseName,
+            final int[] sample,
+            final int[] backgroundNameOrder,
+            final String binaryFileName,
+            final long memoryBudget,
+            final int nrOfThreads
     ) throws RuntimeException {
+        this.memoryBudget = memoryBudget;
+        this.nrOfThreads = Math.max(1, nrOfThreads);
 
         // 1. Parse cell names
         try {
@@ -114,28 +179,44 @@ public class DataCollector {
             throw new RuntimeException(e);
         }
 
-        // 2. Read data from dataFileName
         try {
-            readData(dataFileName, datatype, useSex, missingDataThreshold, sample);
-        } catch (Exception e) {
-            e.printStackTrace();
-            progressStream.println("Error reading data from '" + dataFileName + "'");
-            throw new RuntimeException(e);
-        }
+            // 2. Read data from dataFileName
+            try {
+                readData(dataFileName, datatype, useSex, missingDataThreshold, sample);
+            } catch (Exception e) {
+                e.printStackTrace();
+                progressStream.println("Error reading data from '" + dataFileName + "'");
+                throw new RuntimeException(e);
+            }
 
-        // 3. Process tags
-        try {
-            processTemplateDoc(
-                    filteredCellNamesFileName,
-                    templateFileName,
-                    outputFileName,
-                    backgroundNameOrder,
-                    outputBaseName
-            );
-        } catch (Exception e) {
-            e.printStackTrace();
-            progressStream.println("Error processing the template configuration file '" + templateFileName + "'");
-            throw new RuntimeException(e);
+            // 3. Process tags
+            try {
+                processTemplateDoc(
+                        filteredCellNamesFileName,
+                        templateFileName,
+                        outputFileName,
+                        backgroundNameOrder,
+                        outputBaseName,
+                        binaryFileName
+                );
+            } catch (Exception e) {
+                e.printStackTrace();
+                progressStream.println("Error processing the template configuration file '" + templateFileName + "'");
+                throw new RuntimeException(e);
+            }
+
+            // 4. Write read counts to a binary file
+            if (binaryFileName != null) {
+                try {
+                    writeBinaryData(binaryFileName);
+                } catch (Exception e) {
+                    e.printStackTrace();
+                    progressStream.println("Error writing binary data to '" + binaryFileName + "'");
+                    throw new RuntimeException(e);
+                }
+            }
+        } finally {
+            cleanUp();
         }
 
     }
@@ -208,7 +289,11 @@ public class DataCollector {
     } // parseCellNames
 
     /**
-     * load data from .tsv document into memory
+     * load data from .tsv document; candidate mutated sites are parsed once and sorted within a memory budget,
+     * beyond which they are sorted on disk
+     * <p>
+     * if more than one thread is specified, lines of candidate mutated sites are handed in chunks to a thread pool, and
+     * parsed sites are collected in the order of input, so that ordinals are the same as those of a sequential parse
      */
     public void readData(
             final String dataFileName,
@@ -217,152 +302,321 @@ public class DataCollector {
             double missingDataThreshold,
             final int[] sample
     ) throws IOException, RuntimeException {
-        List<String[]> mutationLines = new ArrayList<>();
+        this.datatype = datatype;
+        dataMutations = new MutationSiteSorter(getMemoryBudget());
+
+        // cells counted for missing data
+        final int[] indicesToKeptCells = missingDataThreshold > 0 && missingDataThreshold < 1 ? getIndicesToKeptCells() : null;
+
+        mutationOrdinals = new int[1024];
+        mutationEntryNums = new int[1024];
+        mutationMissingEntryNums = new int[1024];
 
         int numMutatedSites = 0;
         long numBackgroundSites = 0;
         int mutatedSitesCounter = 0;
 
+        // parallel parsing of candidate mutated sites
+        final ExecutorService pool = nrOfThreads > 1 ? Executors.newFixedThreadPool(nrOfThreads) : null;
+        final Deque<Future<MutationSite[]>> parsingChunks = new ArrayDeque<>();
+        List<String> chunk = new ArrayList<>(PARSE_CHUNK_SIZE);
+        int chunkOrdinal = 0;
+
+        // parsing speed
+        long parseStartTime = -1;
+        long parseTime = 0;
+        int parsedLinesCounter = 0;
+
         BufferedReader fin = new BufferedReader(new FileReader(dataFileName));
         String str;
 
         int flag = -1;
-        while (fin.ready()) {
-            str = fin.readLine().trim();
+        try {
+            while (fin.ready()) {
+                str = fin.readLine().trim();
 
-            // meet numSamples flag
-            if (str.equals(nrOfSamplesFlag)) {
-                flag = 0;
-                continue;
-            }
+                // meet numSamples flag
+                if (str.equals(nrOfSamplesFlag)) {
+                    flag = 0;
+                    continue;
+                }
 
-            // meet numCandidateMutatedSites flag
-            if (str.equals(nrOfMutatedSitesFlag)) {
-                flag = 1;
-                continue;
-            }
+                // meet numCandidateMutatedSites flag
+                if (str.equals(nrOfMutatedSitesFlag)) {
+                    flag = 1;
+                    continue;
+                }
 
-            // meet numBackgroundSites flag
-            if (str.equals(nrOfBackgroundSitesFlag)) {
-                flag = 2;
-                continue;
-            }
+                // meet numBackgroundSites flag
+                if (str.equals(nrOfBackgroundSitesFlag)) {
+                    flag = 2;
+                    continue;
+                }
 
-            // meet mutations flag
-            if (str.equals(mutationsFlag)) {
-                flag = 3;
-                continue;
-            }
+                // meet mutations flag
+                if (str.equals(mutationsFlag)) {
+                    flag = 3;
+                    continue;
+                }
 
-            // meet background flag
-            if (str.equals(backgroundFlag)) {
-                if (sample[1] == -1 && numMutatedSites != 0 && mutatedSitesCounter != numMutatedSites)
-                    throw new IOException("Error! Unmatched number of candidate mutated sites detected. " +
-                            numMutatedSites + " specified, " + mutatedSitesCounter + " counted under " +
-                            mutationsFlag + " section.");
-
-                // remove mutation sites to meet the threshold requirement of missing data percentage
-                if (missingDataThreshold < 1)
-                    removeMutationLines(
-                            mutationLines,
-                            missingDataThreshold
-                    );
-
-                // process mutations
-                sortAndParseMutationLines(
-                        mutationLines,
-                        datatype,
-                        sample[0]
-                );
+                // meet background flag
+                if (str.equals(backgroundFlag)) {
+                    // collect all parsed sites
+                    if (pool != null && !chunk.isEmpty()) {
+                        parsingChunks.add(submitMutationLines(pool, chunk, sample[0], useSex, indicesToKeptCells, chunkOrdinal));
+                        chunk = new ArrayList<>(PARSE_CHUNK_SIZE);
+                    }
+                    while (!parsingChunks.isEmpty())
+                        addMutationSites(parsingChunks.poll(), sample[0]);
 
-                flag = 4;
-                continue;
-            }
+                    if (parseStartTime > -1) {
+                        parseTime += System.nanoTime() - parseStartTime;
+                        parseStartTime = -1;
+                    }
+                    reportParsingSpeed(parsedLinesCounter, parseTime, nrOfThreads);
+
+                    if (sample[1] == -1 && numMutatedSites != 0 && mutatedSitesCounter != numMutatedSites)
+                        throw new IOException("Error! Unmatched number of candidate mutated sites detected. " +
+                                numMutatedSites + " specified, " + mutatedSitesCounter + " counted under " +
+                                mutationsFlag + " section.");
+
+                    // remove mutation sites to meet the threshold requirement of missing data percentage
+                    if (missingDataThreshold < 1)
+                        removedMutations = MissingDataFilter.removeMutationLines(
+                                Arrays.copyOf(mutationOrdinals, dataMutations.size()),
+                                Arrays.copyOf(mutationEntryNums, dataMutations.size()),
+                                Arrays.copyOf(mutationMissingEntryNums, dataMutations.size()),
+                                missingDataThreshold,
+                                progressStream
+                        );
+                    mutationOrdinals = mutationEntryNums = mutationMissingEntryNums = null;
+
+                    // sort mutations
+                    dataMutations.sort();
+                    if (dataMutations.getNrOfRuns() > 0)
+                        progressStream.println("Candidate mutated sites exceeding the memory budget are sorted on disk (" +
+                                dataMutations.getNrOfRuns() + " runs).");
+
+                    flag = 4;
+                    continue;
+                }
 
-            if (flag == 0) {
-                // starting with numOfCells
+                if (flag == 0) {
+                    // starting with numOfCells
 
-                nrOfCells = Integer.parseInt(str);
+                    nrOfCells = Integer.parseInt(str);
 
-                if (cellNames.size() != nrOfCells)
-                    throw new RuntimeException("The number of cells and the number of cell names provided do not " +
-                            "match: " + nrOfCells + " cells specified, but " + cellNames.size() + " cell " +
-                            "names provided. (" + this.getClass().getName() + ")");
+                    if (cellNames.size() != nrOfCells)
+                        throw new RuntimeException("The number of cells and the number of cell names provided do not " +
+                                "match: " + nrOfCells + " cells specified, but " + cellNames.size() + " cell " +
+                                "names provided. (" + this.getClass().getName() + ")");
 
-                flag = -1;
+                    flag = -1;
 
-            } else if (flag == 1) {
+                } else if (flag == 1) {
 
-                numMutatedSites = Integer.parseInt(str);
-                flag = -1;
+                    numMutatedSites = Integer.parseInt(str);
+                    flag = -1;
 
-            } else if (flag == 2) {
+                } else if (flag == 2) {
 
-                numBackgroundSites = Long.parseLong(str);
-                flag = -1;
+                    numBackgroundSites = Long.parseLong(str);
+                    flag = -1;
 
-            } else if (flag == 3) {
-                mutatedSitesCounter++;
+                } else if (flag == 3) {
+                    mutatedSitesCounter++;
 
-                if (sample[1] > -1 && mutatedSitesCounter >= sample[1])
-                    continue;
+                    if (sample[1] > -1 && mutatedSitesCounter >= sample[1])
+                        continue;
 
-                final String[] comp = str.split("\t");
+                    if (parseStartTime == -1)
+                        parseStartTime = System.nanoTime();
+                    parsedLinesCounter++;
 
-                final ChromosomeLabel chr = new ChromosomeLabel(comp[0].trim());
-                if (chr.isOnMitochondrial() || (!useSex && chr.isOnSex()))
-                    continue;
+                    if (pool == null) {
+                        final MutationSite site = MutationSite.parse(
+                                str,
+                                datatype,
+                                useSex,
+                                sample[0],
+                                indicesToKeptCells,
+                                mutatedSitesCounter - 1
+                        );
 
-                mutationLines.add(comp);
+                        if (site != null)
+                            addMutationSite(site, sample[0]);
+                    } else {
+                        if (chunk.isEmpty())
+                            chunkOrdinal = mutatedSitesCounter - 1;
 
-            } else if (flag == 4) {
+                        chunk.add(str);
 
-                long numCellTimesNumBGSites = 0;
+                        if (chunk.size() == PARSE_CHUNK_SIZE) {
+                            parsingChunks.add(submitMutationLines(pool, chunk, sample[0], useSex, indicesToKeptCells, chunkOrdinal));
+                            chunk = new ArrayList<>(PARSE_CHUNK_SIZE);
 
-                if (dataBackground == null)
-                    dataBackground = new ArrayList<>();
+                            // bound the number of lines in memory
+                            while (parsingChunks.size() > 2 * nrOfThreads)
+                                addMutationSites(parsingChunks.poll(), sample[0]);
+                        }
+                    }
 
-                String[] fullStr = str.split("\t");
+                } else if (flag == 4) {
 
-                if (datatype == DataCollectorDialog.DataType.CovSup) {
-                    if (fullStr.length % 2 == 0) {
-                        String[] partStr = new String[fullStr.length / 2];
+                    long numCellTimesNumBGSites = 0;
 
-                        for (int i = 0; i < fullStr.length; i += 2) {
-                            numCellTimesNumBGSites += Long.parseLong(fullStr[i + 1].trim());
+                    if (dataBackground == null)
+                        dataBackground = new ArrayList<>();
 
-                            partStr[i / 2] = fullStr[i].trim() + "," + fullStr[i + 1].trim();
-                        }
+                    String[] fullStr = str.split("\t");
 
-                        dataBackground.add(String.join(";", partStr));
-                    } else
-                        throw new RuntimeException("Background data length is not in an even number!");
-                }
+                    if (datatype == DataCollectorDialog.DataType.CovSup) {
+                        if (fullStr.length % 2 == 0) {
+                            String[] partStr = new String[fullStr.length / 2];
 
-                if (datatype == DataCollectorDialog.DataType.FullSupsCov) {
-                    for (String tmp : fullStr) {
-                        tmp = tmp.trim();
+                            for (int i = 0; i < fullStr.length; i += 2) {
+                                numCellTimesNumBGSites += Long.parseLong(fullStr[i + 1].trim());
 
-                        numCellTimesNumBGSites += Long.parseLong(tmp.split(",")[1].trim());
+                                partStr[i / 2] = fullStr[i].trim() + "," + fullStr[i + 1].trim();
+                            }
 
+                            dataBackground.add(String.join(";", partStr));
+                        } else
+                            throw new RuntimeException("Background data length is not in an even number!");
                     }
 
-                    dataBackground.add(String.join(";", fullStr));
-                }
+                    if (datatype == DataCollectorDialog.DataType.FullSupsCov) {
+                        for (String tmp : fullStr) {
+                            tmp = tmp.trim();
 
-                if (numBackgroundSites == 0)
-                    numBackgroundSites = numCellTimesNumBGSites / nrOfCells;
-                else if (numBackgroundSites != numCellTimesNumBGSites / nrOfCells)
-                    throw new RuntimeException("Please make sure the number of background sites are consistent in " +
-                            "every line of background information.");
+                            numCellTimesNumBGSites += Long.parseLong(tmp.split(",")[1].trim());
+
+                        }
+
+                        dataBackground.add(String.join(";", fullStr));
+                    }
+
+                    if (numBackgroundSites == 0)
+                        numBackgroundSites = numCellTimesNumBGSites / nrOfCells;
+                    else if (numBackgroundSites != numCellTimesNumBGSites / nrOfCells)
+                        throw new RuntimeException("Please make sure the number of background sites are consistent in " +
+                                "every line of background information.");
+
+                }
 
             }
 
-        }
+            // collect the remaining parsed sites if there is no background section
+            if (pool != null && !chunk.isEmpty())
+                parsingChunks.add(submitMutationLines(pool, chunk, sample[0], useSex, indicesToKeptCells, chunkOrdinal));
+            while (!parsingChunks.isEmpty())
+                addMutationSites(parsingChunks.poll(), sample[0]);
+        } finally {
+            fin.close();
 
-        fin.close();
+            if (pool != null)
+                pool.shutdownNow();
+        }
     } // readData
 
+    /**
+     * Parse a chunk of lines of candidate mutated sites in a thread pool.
+     *
+     * @param pool               apparently
+     * @param lines              lines of candidate mutated sites
+     * @param sampleCell         number of sampled cells
+     * @param useSex             whether using candidate sites from sex chromosomes or not
+     * @param indicesToKeptCells cells counted for missing data
+     * @param firstOrdinal       ordinal of the first line
+     * @return parsed sites in the order of lines, with null for those being ignored
+     */
+    private Future<MutationSite[]> submitMutationLines(
+            @NotNull ExecutorService pool,
+            @NotNull final List<String> lines,
+            final int sampleCell,
+            final boolean useSex,
+            final int[] indicesToKeptCells,
+            final int firstOrdinal
+    ) {
+        final DataCollectorDialog.DataType datatype = this.datatype;
+
+        return pool.submit(() -> {
+            MutationSite[] sites = new MutationSite[lines.size()];
+
+            for (int i = 0; i < sites.length; i++)
+                sites[i] = MutationSite.parse(lines.get(i), datatype, useSex, sampleCell, indicesToKeptCells, firstOrdinal + i);
+
+            return sites;
+        });
+    } // submitMutationLines
+
+    /**
+     * Wait for a chunk of candidate mutated sites to be parsed, and add them in order.
+     *
+     * @param chunk      apparently
+     * @param sampleCell number of sampled cells
+     * @throws IOException if interrupted or failed to add sites
+     */
+    private void addMutationSites(
+            @NotNull Future<MutationSite[]> chunk,
+            final int sampleCell
+    ) throws IOException {
+        final MutationSite[] sites;
+
+        try {
+            sites = chunk.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException)
+                throw (RuntimeException) e.getCause();
+
+            throw new IOException(e.getCause());
+        }
+
+        for (MutationSite site : sites) {
+            if (site != null)
+                addMutationSite(site, sampleCell);
+        }
+    } // addMutationSites
+
+    private void addMutationSite(
+            @NotNull final MutationSite site,
+            final int sampleCell
+    ) throws IOException {
+        initializeVariables(site.getNrOfCellsInLine(), sampleCell);
+
+        final int index = dataMutations.size();
+        if (index == mutationOrdinals.length) {
+            mutationOrdinals = Arrays.copyOf(mutationOrdinals, 2 * index);
+            mutationEntryNums = Arrays.copyOf(mutationEntryNums, 2 * index);
+            mutationMissingEntryNums = Arrays.copyOf(mutationMissingEntryNums, 2 * index);
+        }
+        mutationOrdinals[index] = site.getOrdinal();
+        mutationEntryNums[index] = site.getEntryNum();
+        mutationMissingEntryNums[index] = site.getMissingEntryNum();
+
+        dataMutations.add(site);
+    } // addMutationSite
+
+    private void reportParsingSpeed(
+            final int nrOfLines,
+            final long nanoseconds,
+            final int nrOfThreads
+    ) {
+        if (nrOfLines == 0) return;
+
+        final double seconds = nanoseconds / 1e9;
+        progressStream.println(String.format(
+                "Parsed %d lines of candidate mutated sites in %.2f seconds (%.0f lines/second; %d thread(s)).",
+                nrOfLines,
+                seconds,
+                seconds > 0 ? nrOfLines / seconds : 0.0,
+                nrOfThreads
+        ));
+    } // reportParsingSpeed
+
     private void initializeVariables(
             int numCellsPerLine,
             int sampleCell
@@ -375,59 +629,10 @@ public class DataCollector {
             nrOfCells = numCellsPerLine;
         }
 
-        // allocate memory for dataMutations
-        if (dataMutations == null) {
-            dataMutations = new List[sampleCell > -1 ? Math.min(sampleCell, nrOfCells) : nrOfCells];
-
-            for (int i = 0; i < dataMutations.length; i++)
-                dataMutations[i] = new ArrayList<>();
-        }
+        nrOfSampledCells = sampleCell > -1 ? Math.min(sampleCell, nrOfCells) : nrOfCells;
     } // initializeVariables
 
-    private void processCovSupDatatype(
-            @NotNull final String[] mutationLine,
-            final int sampleCell
-    ) {
-        // process mutations, (coverage, alternative reads)
-        if ((mutationLine.length - 4) % 2 == 0) {
-
-            initializeVariables((mutationLine.length - 4) / 2, sampleCell);
-
-            // load data of necessary length
-            for (int i = 4;
-                 i < (sampleCell > -1
-                         ? Math.min(4 + 2 * sampleCell, mutationLine.length)
-                         : mutationLine.length);
-                 i += 2) {
-                dataMutations[(i - 4) / 2].add(mutationLine[i].trim() + "," + mutationLine[i + 1].trim());
-            }
-        } else {
-            throw new RuntimeException("Mutation data length is not an even number!");
-        }
-    } // processCovSupDatatype
-
-    private void processFullSupsCovDataType(
-            @NotNull final String[] mutationLine,
-            final int sampleCell
-    ) {
-        initializeVariables(mutationLine.length - 4, sampleCell);
-
-        // load data of necessary length
-        for (int i = 4;
-             i < (sampleCell > -1
-                     ? Math.min(4 + sampleCell, mutationLine.length)
-                     : mutationLine.length);
-             i++) {
-            dataMutations[i - 4].add(String.join(",", mutationLine[i].trim().split(";")));
-        }
-    } // processFullSupsCovDataType
-
-    private void removeMutationLines(
-            @NotNull List<String[]> mutationLines,
-            final double missingDataThreshold
-    ) {
-        if (missingDataThreshold <= 0 || missingDataThreshold >= 1) return;
-
+    private int[] getIndicesToKeptCells() {
         int[] indicesToKeptCells = new int[cellNames.size() - (excludedCellNames == null ? 0 : excludedCellNames.size())];
         int j = 0;
         for (int i = 0; i < cellNames.size(); i++) {
@@ -437,69 +642,79 @@ public class DataCollector {
             }
         }
 
-        MissingDataComparator comp = new MissingDataComparator(indicesToKeptCells);
-
-        mutationLines.sort(comp);
+        return indicesToKeptCells;
+    } // getIndicesToKeptCells
 
-        int entryNum = comp.getEntryNum();
-        int missingEntryNum = comp.getMissingEntryNum();
+    private boolean isRemoved(@NotNull final MutationSite site) {
+        return removedMutations != null && removedMutations.get(site.getOrdinal());
+    } // isRemoved
 
-        double percentage = ((double) missingEntryNum) / entryNum;
-        progressStream.printf("Percentage of missing data (with some cells excluded, if specified) in the original data = %.3f\n", percentage);
-        if (percentage <= missingDataThreshold) {
-            progressStream.println("The specified threshold of missing data percentage (" + missingDataThreshold + ") is already met. Skip filtering.");
-            return;
-        }
+    /**
+     * @return the number of candidate mutated sites to be written
+     */
+    private int getNrOfKeptMutations() {
+        if (dataMutations == null) return 0;
 
-        int numSites = mutationLines.size();
-        progressStream.println("The number of sites in the original data = " + numSites);
+        return dataMutations.size() - (removedMutations == null ? 0 : removedMutations.cardinality());
+    } // getNrOfKeptMutations
 
-        Iterator<String[]> iter = mutationLines.iterator();
-        while (iter.hasNext()) {
-            final String[] line = iter.next();
-            iter.remove();
-            numSites--;
+    private long getMemoryBudget() {
+        if (memoryBudget > -1)
+            return memoryBudget;
 
-            final int[] tmp = comp.getEntryNum(line);
+        return Runtime.getRuntime().maxMemory() / 4;
+    } // getMemoryBudget
 
-            missingEntryNum -= tmp[0];
-            entryNum -= tmp[1];
+    /**
+     * Write loci information and read counts of each cell at kept sites to temporary files in genomic order, in a
+     * single pass over the sorted sites. Read counts of all cells go to a single spool, so that the number of open
+     * files does not grow with the number of cells.
+     *
+     * @throws IOException if failed to write
+     */
+    private void spoolMutations() throws IOException {
+        if (dataMutationsInfoFile != null) return;
 
-            percentage = ((double) missingEntryNum) / entryNum;
-            if (percentage <= missingDataThreshold) {
-                progressStream.printf("Current percentage of missing data = %.3f\n", percentage);
-                progressStream.println("Current number of sites = " + numSites);
-                break;
-            }
-        }
-    } // removeMutationLines
+        dataMutationsInfoFile = File.createTempFile("datacollector_loci_", ".txt");
+        dataMutationsInfoFile.deleteOnExit();
 
-    private void sortAndParseMutationLines(
-            @NotNull List<String[]> mutationLines,
-            final DataCollectorDialog.DataType datatype,
-            final int sampleCell
-    ) {
-        mutationLines.sort(new LociInfoComparator());
+        dataMutationsSpool = new TextSpool(nrOfSampledCells, getMemoryBudget());
 
-        for (String[] fullStr : mutationLines) {
-            // process mutation information, in default (chromosome, location, ref, alts)
-            if (dataMutationsInfo == null)
-                dataMutationsInfo = new ArrayList<>();
+        try (Writer lociOut = new BufferedWriter(new FileWriter(dataMutationsInfoFile))) {
+            final boolean[] first = {true};
+            dataMutations.forEach(site -> {
+                if (isRemoved(site)) return;
 
-            StringBuilder infoStr = new StringBuilder(fullStr[0].trim());
-            for (int i = 1; i < 4; i++)
-                infoStr.append(",").append(fullStr[i].trim());
-            dataMutationsInfo.add(infoStr.toString());
+                if (!first[0]) lociOut.write(';');
+                lociOut.write(site.getLocusInfo());
 
-            // process mutations, (coverage,alternative reads)
-            if (datatype == DataCollectorDialog.DataType.CovSup)
-                processCovSupDatatype(fullStr, sampleCell);
+                for (int i = 0; i < nrOfSampledCells; i++) {
+                    final StringBuilder sb = dataMutationsSpool.getBuffer(i);
+                    if (!first[0]) sb.append(';');
+                    site.appendCell(sb, i);
+                    dataMutationsSpool.flush(i);
+                }
 
-            // process mutations, (variant1,variant2,variant3;reads1,reads2,reads3,coverage)
-            if (datatype == DataCollectorDialog.DataType.FullSupsCov)
-                processFullSupsCovDataType(fullStr, sampleCell);
+                first[0] = false;
+            });
         }
-    } // sortAndParseMutationLines
+
+        dataMutationsSpool.finish();
+    } // spoolMutations
+
+    /**
+     * Close the sorter of candidate mutated sites and delete temporary files.
+     */
+    private void cleanUp() {
+        if (dataMutations != null)
+            dataMutations.close();
+
+        if (dataMutationsInfoFile != null && !dataMutationsInfoFile.delete())
+            dataMutationsInfoFile.deleteOnExit();
+
+        if (dataMutationsSpool != null)
+            dataMutationsSpool.close();
+    } // cleanUp
 
     /**
      * get the default attributes of data label
@@ -519,38 +734,63 @@ public class DataCollector {
     } // getDataDefaultAttrs
 
     /**
-     * make lociInfo label
+     * write lociInfo label
      *
-     * @param doc parsed object of source .xml
-     * @return a lociInfo element
+     * @param writer output of the configuration document
+     * @param indent indentation of the label
+     * @throws IOException        if failed to read spooled loci information
+     * @throws XMLStreamException if failed to write
      */
-    public Element makeLociInfoNode(@NotNull Document doc) {
-        Element lociInfoElem = doc.createElement("lociInfo");
-        lociInfoElem.setAttribute("spec", LOCIINFO_CLASS);
-        lociInfoElem.setAttribute("loci", "true");
-        lociInfoElem.setTextContent(String.join(";", dataMutationsInfo));
-        return lociInfoElem;
-    } // makeLociInfoNode
+    public void writeLociInfoNode(
+            @NotNull XMLStreamWriter writer,
+            final String indent
+    ) throws IOException, XMLStreamException {
+        spoolMutations();
+
+        writer.writeCharacters(indent);
+        writer.writeStartElement("lociInfo");
+        writer.writeAttribute("spec", LOCIINFO_CLASS);
+        writer.writeAttribute("loci", "true");
+        XMLTemplateRewriter.writeCharacters(writer, dataMutationsInfoFile);
+        writer.writeEndElement();
+    } // writeLociInfoNode
 
     /**
-     * make sequence label
+     * write sequence labels
      *
-     * @param doc parsed object of source .xml
-     * @return an array of sequence element
+     * @param filteredCellNamesFileName a file storing filtered cell names
+     * @param writer                    output of the configuration document
+     * @param indent                    indentation of the labels
+     * @throws IOException        if failed to read spooled read counts
+     * @throws XMLStreamException if failed to write
      */
-    public Element[] makeMutationsNode(
+    public void writeMutationsNode(
             final String filteredCellNamesFileName,
-            Document doc
-    ) {
-        Element[] mutationsElem;
-        if (excludedCellNames != null) {
-            mutationsElem = new Element[cellNames.size() - excludedCellNames.size()];
-        } else {
-            mutationsElem = new Element[cellNames.size()];
+            @NotNull XMLStreamWriter writer,
+            final String indent
+    ) throws IOException, XMLStreamException {
+        spoolMutations();
+
+        final int[] indices = getOrderedCellIndices();
+
+        for (int index : indices) {
+            writer.writeCharacters(indent);
+            writer.writeStartElement("sequence");
+            writer.writeAttribute("spec", MUTATIONS_CLASS);
+            writer.writeAttribute("taxon", cellNames.get(index));
+            dataMutationsSpool.writeCharacters(writer, index);
+            writer.writeEndElement();
         }
 
-        List<String> filteredCellNames = new ArrayList<>();
+        writeFilteredCellNames(filteredCellNamesFileName, indices);
+    } // writeMutationsNode
 
+    /**
+     * Indices of the cells to be written, sorted by cell names and with excluded cells removed.
+     *
+     * @return indices to cellNames
+     */
+    private int[] getOrderedCellIndices() {
         List<String> cellNamesCopy = new ArrayList<>(cellNames);
 
         int[] indices = new int[this.nrOfCells];
@@ -574,28 +814,34 @@ public class DataCollector {
             }
         }
 
-        int j = 0;
+        List<Integer> orderedIndices = new ArrayList<>();
         for (int i = 0; i < nrOfCells; i++) {
-            if (excludedCellNames == null || !excludedCellNames.contains(cellNamesCopy.get(i))) {
-                filteredCellNames.add(cellNamesCopy.get(i));
-
-                mutationsElem[j] = doc.createElement("sequence");
-                mutationsElem[j].setAttribute("spec", MUTATIONS_CLASS);
-                mutationsElem[j].setAttribute("taxon", cellNamesCopy.get(i));
-                mutationsElem[j].setTextContent(String.join(";", dataMutations[indices[i]]));
-                j++;
-            }
+            if (excludedCellNames == null || !excludedCellNames.contains(cellNamesCopy.get(i)))
+                orderedIndices.add(indices[i]);
         }
 
+        return orderedIndices.stream().mapToInt(Integer::intValue).toArray();
+    } // getOrderedCellIndices
+
+    /**
+     * Write the names of the cells to be written.
+     *
+     * @param filteredCellNamesFileName a file storing filtered cell names
+     * @param indices                   indices to cellNames, in order
+     */
+    private void writeFilteredCellNames(
+            final String filteredCellNamesFileName,
+            final int[] indices
+    ) {
         if (filteredCellNamesFileName != null) {
             PrintStream out;
             try {
                 out = new PrintStream(filteredCellNamesFileName);
 
-                for (int i = 0; i < filteredCellNames.size(); i++) {
-                    out.print(filteredCellNames.get(i));
+                for (int i = 0; i < indices.length; i++) {
+                    out.print(cellNames.get(indices[i]));
 
-                    if (i < filteredCellNames.size() - 1) {
+                    if (i < indices.length - 1) {
                         out.println();
                     }
                 }
@@ -605,108 +851,200 @@ public class DataCollector {
                 e.printStackTrace();
             }
         }
+    } // writeFilteredCellNames
+
+    /**
+     * Write loci information and read counts to a binary file, which is memory-mapped by ScsAlignment through
+     * 'binaryData' instead of parsing 'lociInfo' and 'sequence' elements.
+     *
+     * @param binaryFileName apparently
+     * @throws IOException if the file cannot be written
+     */
+    private void writeBinaryData(final String binaryFileName) throws IOException {
+        final int[] indices = getOrderedCellIndices();
+
+        List<String> orderedCellNames = new ArrayList<>(indices.length);
+        for (int i : indices)
+            orderedCellNames.add(cellNames.get(i));
+
+        final boolean isCovSup = datatype == DataCollectorDialog.DataType.CovSup;
+        final int nrOfValues = isCovSup ? 2 : 4;
+        final int nrOfNucs = isCovSup ? 0 : 3;
+
+        try (ScsBinaryReadCounts.Writer writer = new ScsBinaryReadCounts.Writer(
+                binaryFileName,
+                DATATYPE,
+                orderedCellNames,
+                getNrOfKeptMutations(),
+                nrOfValues,
+                nrOfNucs
+        )) {
+            if (dataMutations == null) return;
+
+            // loci are written while merging the sorted sites once; counts and nucleotides are spooled until then
+            File countsFile = File.createTempFile("datacollector_counts_", ".bin");
+            countsFile.deleteOnExit();
+            File nucsFile = File.createTempFile("datacollector_nucs_", ".bin");
+            nucsFile.deleteOnExit();
+
+            try {
+                try (DataOutputStream countsOut = new DataOutputStream(
+                        new BufferedOutputStream(new FileOutputStream(countsFile), 1 << 16));
+                     OutputStream nucsOut = new BufferedOutputStream(new FileOutputStream(nucsFile), 1 << 16)) {
+                    dataMutations.forEach(site -> {
+                        if (isRemoved(site)) return;
+
+                        writer.writeLocus(site.getChromosome(), site.getPosition(), site.getRef(), site.getAlts().split(","));
+
+                        // counts, always stored as (alternative reads..., coverage)
+                        for (int i : indices) {
+                            if (isCovSup) {
+                                // (coverage, alternative reads) -> (alternative reads, coverage)
+                                countsOut.writeInt(site.getCount(i, 1));
+                                countsOut.writeInt(site.getCount(i, 0));
+                            } else {
+                                for (int j = 0; j < nrOfValues; j++)
+                                    countsOut.writeInt(site.getCount(i, j));
+                            }
+
+                            for (int j = 0; j < nrOfNucs; j++)
+                                nucsOut.write(site.getNuc(i, j));
+                        }
+                    });
+                }
+
+                final long nrOfEntries = (long) getNrOfKeptMutations() * indices.length;
 
-        return mutationsElem;
-    } // makeMutationsNode
+                final int[] values = new int[nrOfValues];
+                try (DataInputStream in = new DataInputStream(
+                        new BufferedInputStream(new FileInputStream(countsFile), 1 << 16))) {
+                    for (long i = 0; i < nrOfEntries; i++) {
+                        for (int j = 0; j < nrOfValues; j++)
+                            values[j] = in.readInt();
+
+                        writer.writeCounts(values);
+                    }
+                }
+
+                if (nrOfNucs > 0) {
+                    final byte[] nucs = new byte[nrOfNucs];
+                    try (DataInputStream in = new DataInputStream(
+                            new BufferedInputStream(new FileInputStream(nucsFile), 1 << 16))) {
+                        for (long i = 0; i < nrOfEntries; i++) {
+                            in.readFully(nucs);
+                            writer.writeNucs(nucs);
+                        }
+                    }
+                }
+            } finally {
+                if (!countsFile.delete()) countsFile.deleteOnExit();
+                if (!nucsFile.delete()) nucsFile.deleteOnExit();
+            }
+        }
+    } // writeBinaryData
 
     /**
-     * make backgroundInfo label
+     * write backgroundInfo labels
      *
-     * @param doc                 parsed object of source .xml
-     * @param backgroundNameOrder
-     * @return an array of backgroundInfo element
+     * @param writer              output of the configuration document
+     * @param indent              indentation of the labels
+     * @param backgroundNameOrder apparently
+     * @throws XMLStreamException if failed to write
      */
-    public Element[] makeBackgroundNode(Document doc, final int[] backgroundNameOrder) {
-        Element[] backgroundElem = new Element[backgroundNameOrder.length];
+    public void writeBackgroundNode(
+            @NotNull XMLStreamWriter writer,
+            final String indent,
+            final int[] backgroundNameOrder
+    ) throws XMLStreamException {
         for (int i = 0; i < backgroundNameOrder.length; i++) {
-            backgroundElem[i] = doc.createElement("backgroundInfo");
-            backgroundElem[i].setAttribute("spec", BACKGROUND_CLASS);
-            backgroundElem[i].setAttribute("backgroundName", BACKGROUND_NAMES[backgroundNameOrder[i]]);
-            backgroundElem[i].setTextContent(String.join(";", dataBackground.get(i)));
+            writer.writeCharacters(indent);
+            writer.writeStartElement("backgroundInfo");
+            writer.writeAttribute("spec", BACKGROUND_CLASS);
+            writer.writeAttribute("backgroundName", BACKGROUND_NAMES[backgroundNameOrder[i]]);
+
+            writer.writeCharacters(dataBackground.get(i));
+
+            writer.writeEndElement();
         }
-        return backgroundElem;
-    } // makeBackgroundNode
+    } // writeBackgroundNode
 
     /**
-     * modify the data node
+     * get the attributes of the data node
      *
-     * @param filteredCellNamesFileName a file storing filtered cell names
-     * @param doc                       parsed object of source .xml
-     * @param dataNode                  a data node to be modified
-     * @param backgroundNameOrder       apparently
+     * @param dataNode start tag of the data node in the template (can be null)
+     * @return a map containing (key, value) pairs, in order
      */
-    private void buildDataNode(
-            final String filteredCellNamesFileName,
-            Document doc,
-            @NotNull Element dataNode,
-            final int[] backgroundNameOrder
-    ) {
+    private Map<String, String> getDataAttrs(StartElement dataNode) {
         Map<String, String> dataDefaultAttrs = getDataDefaultAttrs();
+        Map<String, String> dataAttrs = new LinkedHashMap<>();
 
-        // process attributes
-        if (dataNode.getAttributes().getLength() == 0) {
-            for (String key : dataDefaultAttrs.keySet()) {
-                if (dataDefaultAttrs.get(key).length() > 0)
-                    dataNode.setAttribute(key, dataDefaultAttrs.get(key));
-            }
-        } else {
-            List<String> uselessAttrs = new ArrayList<>();
-            List<String> processedAttrs = new ArrayList<>();
-
-            // replace some existing attributes (not "id")
-            for (int i = 0; i < dataNode.getAttributes().getLength(); i++) {
-                final String attr = dataNode.getAttributes().item(i).getNodeName();
-                if (dataDefaultAttrs.containsKey(attr)) {
-                    processedAttrs.add(attr);
-
-                    if (UPDATED_ATTRS.contains(attr))
-                        dataNode.setAttribute(attr, dataDefaultAttrs.get(attr));
-                } else
-                    uselessAttrs.add(attr);
-            }
+        // keep and replace some existing attributes (not "id"), and drop useless ones
+        if (dataNode != null) {
+            for (Iterator<?> it = dataNode.getAttributes(); it.hasNext(); ) {
+                final Attribute attr = (Attribute) it.next();
+                final String key = attr.getName().getLocalPart();
 
-            // add missing attributes
-            if (processedAttrs.size() != dataDefaultAttrs.keySet().size()) {
-                for (String key : dataDefaultAttrs.keySet()) {
-                    if (!processedAttrs.contains(key) && dataDefaultAttrs.get(key).length() > 0)
-                        dataNode.setAttribute(key, dataDefaultAttrs.get(key));
-                }
-            }
-
-            // remove useless attributes
-            if (uselessAttrs.size() > 0) {
-                for (String i : uselessAttrs) {
-                    dataNode.removeAttribute(i);
-                }
+                if (dataDefaultAttrs.containsKey(key))
+                    dataAttrs.put(key, UPDATED_ATTRS.contains(key) ? dataDefaultAttrs.get(key) : attr.getValue());
             }
         }
 
-        // process its children
-        // first, cleanup all the existing children
-        if (dataNode.getChildNodes().getLength() > 0) {
-            int size = dataNode.getChildNodes().getLength();
-            for (int i = 0; i < size; i++) {
-                dataNode.removeChild(dataNode.getChildNodes().item(0));
-            }
+        // add missing attributes
+        for (String key : dataDefaultAttrs.keySet()) {
+            if (!dataAttrs.containsKey(key) && dataDefaultAttrs.get(key).length() > 0)
+                dataAttrs.put(key, dataDefaultAttrs.get(key));
         }
 
-        // second, add default children
-        // lociInfo
-        if (dataMutationsInfo != null)
-            dataNode.appendChild(makeLociInfoNode(doc));
+        return dataAttrs;
+    } // getDataAttrs
 
-        // sequences
-        for (Element i : makeMutationsNode(filteredCellNamesFileName, doc)) {
-            dataNode.appendChild(i);
+    /**
+     * write the data node, with read counts streamed from the spooled files
+     *
+     * @param filteredCellNamesFileName a file storing filtered cell names
+     * @param writer                    output of the configuration document
+     * @param dataNode                  start tag of the data node to be replaced (can be null)
+     * @param backgroundNameOrder       apparently
+     * @param binaryFileName            a binary file of read counts, referred to instead of embedding read counts
+     * @throws IOException        if failed to read spooled data
+     * @throws XMLStreamException if failed to write
+     */
+    private void writeDataNode(
+            final String filteredCellNamesFileName,
+            @NotNull XMLStreamWriter writer,
+            StartElement dataNode,
+            final int[] backgroundNameOrder,
+            final String binaryFileName
+    ) throws IOException, XMLStreamException {
+        final String childIndent = "\n        ";
+
+        writer.writeStartElement("data");
+
+        // process attributes
+        for (Map.Entry<String, String> attr : getDataAttrs(dataNode).entrySet())
+            writer.writeAttribute(attr.getKey(), attr.getValue());
+
+        // add default children
+        if (binaryFileName != null) {
+            // lociInfo and sequences are loaded from the binary file
+            writer.writeAttribute("binaryData", binaryFileName);
+            writeFilteredCellNames(filteredCellNamesFileName, getOrderedCellIndices());
+        } else {
+            // lociInfo
+            if (getNrOfKeptMutations() > 0)
+                writeLociInfoNode(writer, childIndent);
+
+            // sequences
+            writeMutationsNode(filteredCellNamesFileName, writer, childIndent);
         }
 
         // backgroundInfo
-        if (dataBackground != null) {
-            for (Element i : makeBackgroundNode(doc, backgroundNameOrder)) {
-                dataNode.appendChild(i);
-            }
-        }
-    } // buildDataNode
+        if (dataBackground != null)
+            writeBackgroundNode(writer, childIndent, backgroundNameOrder);
+
+        writer.writeCharacters("\n    ");
+        writer.writeEndElement();
+    } // writeDataNode
 
     /**
      * change the value of "fileName" attribute of logger tags to the base name of input template configuration xml document
@@ -736,19 +1074,20 @@ public class DataCollector {
     } // processLogs
 
     /**
-     * update certain nodes if not using strict molecular clock
+     * find the state nodes to be updated if not using strict molecular clock
      *
-     * @param doc xml object
+     * @param scope xml element containing the branch rate model and the state
+     * @return ids of state nodes whose dimension depends on the number of cells
      */
-    private void updateNonStrictClockModel(@NotNull Document doc) {
-        NodeList branchRateModelNodes = doc.getElementsByTagName("branchRateModel");
+    private List<String> getNonStrictClockModelParams(@NotNull Element scope) {
+        NodeList branchRateModelNodes = scope.getElementsByTagName("branchRateModel");
 
         if (branchRateModelNodes == null || branchRateModelNodes.getLength() == 0) {
             progressStream.println("No 'branchRateModel' tags found.");
-            return;
+            return Collections.emptyList();
         } else if (branchRateModelNodes.getLength() > 1) {
             progressStream.println("More than one 'branchRateModel' tags found, while only one is expected.");
-            return;
+            return Collections.emptyList();
         }
 
         Node branchRateModelNode = branchRateModelNodes.item(0);
@@ -757,36 +1096,41 @@ public class DataCollector {
 
         final String[] branchRateModelName = specAttr.getNodeValue().split("\\.");
 
+        List<String> ids = new ArrayList<>();
+
         // strict molecular clock model
         if (STRICT_MOLECULAR_CLOCK_MODEL_CLASS.equals(specAttr.getNodeValue()) ||
                 STRICT_MOLECULAR_CLOCK_MODEL_CLASS.contains(branchRateModelName[branchRateModelName.length - 1]))
-            return;
+            return ids;
 
         // relaxed molecular clock model
         if (RELAXED_MOLECULAR_CLOCK_MODEL_CLASS.equals(specAttr.getNodeValue()) ||
                 RELAXED_MOLECULAR_CLOCK_MODEL_CLASS.contains(branchRateModelName[branchRateModelName.length - 1]))
-            updateNonStrictClockModelParamDim(doc, branchRateModelAttributes, RELAXED_MOLECULAR_CLOCK_MODEL_ATTRS);
+            getNonStrictClockModelParams(scope, branchRateModelAttributes, RELAXED_MOLECULAR_CLOCK_MODEL_ATTRS, ids);
 
         // random local clock model
         if (RANDOM_LOCAL_CLOCK_MODEL_CLASS.equals(specAttr.getNodeValue()) ||
                 RANDOM_LOCAL_CLOCK_MODEL_CLASS.contains(branchRateModelName[branchRateModelName.length - 1]))
-            updateNonStrictClockModelParamDim(doc, branchRateModelAttributes, RANDOM_LOCAL_CLOCK_MODEL_ATTRS);
-    } // updateNonStrictClockModel
+            getNonStrictClockModelParams(scope, branchRateModelAttributes, RANDOM_LOCAL_CLOCK_MODEL_ATTRS, ids);
+
+        return ids;
+    } // getNonStrictClockModelParams
 
     /**
-     * update parameter dimension based on the number of tips.
+     * collect ids of parameters whose dimension depends on the number of tips.
      *
-     * @param doc                  xml object
+     * @param scope                xml element containing the state
      * @param branchRateModelAttrs attributes of non-strict branch rate model
      * @param attrs                names of attributes to be updated
+     * @param ids                  where the ids are collected
      */
-    private void updateNonStrictClockModelParamDim(
-            @NotNull Document doc,
+    private void getNonStrictClockModelParams(
+            @NotNull Element scope,
             @NotNull NamedNodeMap branchRateModelAttrs,
-            @NotNull final List<String> attrs
+            @NotNull final List<String> attrs,
+            @NotNull List<String> ids
     ) {
-        // collect state nodes
-        NodeList stateTags = doc.getElementsByTagName("state");
+        NodeList stateTags = scope.getElementsByTagName("state");
         if (stateTags == null || stateTags.getLength() == 0) {
             progressStream.println("No 'state' tags found.");
             return;
@@ -794,7 +1138,6 @@ public class DataCollector {
             progressStream.println("More than one 'state' tags found, while only one is expected.");
             return;
         }
-        NodeList stateNodes = stateTags.item(0).getChildNodes();
 
         for (int i = 0; i < branchRateModelAttrs.getLength(); i++) {
             final Node attr = branchRateModelAttrs.item(i);
@@ -802,12 +1145,26 @@ public class DataCollector {
             if (attrs.contains(attr.getNodeName())) {
                 final Matcher matcher = ID_REF_PATTERN.matcher(attr.getNodeValue());
                 if (matcher.matches())
-                    updateParamDim(stateNodes, matcher.group(1));
+                    ids.add(matcher.group(1));
                 else
                     throw new IllegalArgumentException("Error! Invalid format for the value of " + attr.getNodeName());
             }
         }
-    } // updateRelaxedMolecularClockModel
+    } // getNonStrictClockModelParams
+
+    /**
+     * update dimensions of parameters in a state tag if not using strict molecular clock
+     *
+     * @param stateNode state tag
+     * @param ids       ids of state nodes to be updated
+     */
+    private void updateNonStrictClockModel(
+            @NotNull Node stateNode,
+            @NotNull List<String> ids
+    ) {
+        for (String id : ids)
+            updateParamDim(stateNode.getChildNodes(), id);
+    } // updateNonStrictClockModel
 
     private void updateParamDim(
             @NotNull NodeList stateNodes,
@@ -837,89 +1194,88 @@ public class DataCollector {
     } // updateParamDim
 
     /**
-     * load source .xml document, modify data node, and output to a new .xml document
+     * stream source .xml document to a new .xml document, replacing data node and modifying run node
      */
     public void processTemplateDoc(
             final String filteredCellNamesFileName,
             final String templateFileName,
             final String outputFileName,
             final int[] backgroundNameOrder,
-            String outputBaseName
-    ) throws TransformerException, ParserConfigurationException, IOException, SAXException {
-        DocumentBuilderFactory dbFac = DocumentBuilderFactory.newInstance();
-        dbFac.setIgnoringElementContentWhitespace(true);
-        Document doc;
-
-        doc = dbFac.newDocumentBuilder().parse(new File(templateFileName));
-        doc.getDocumentElement().normalize();
-
-        // filter "data" element whose parent node is "beast"
-        NodeList candidateDataNodes = doc.getElementsByTagName("data");
-//        if (candidateDataNodes == null || candidateDataNodes.getLength() == 0) {
-//            throw new RuntimeException("No tag named 'data' is found! Please check your input template. (" +
-//                    this.getClass().getName() + ")");
-//        }
-        Node dataNode = null;
-        for (int i = 0; i < candidateDataNodes.getLength(); i++) {
-            if (candidateDataNodes.item(i).getParentNode().getNodeName().equals("beast")) {
-                dataNode = candidateDataNodes.item(i);
-                break;
-            }
-        }
-
-        // update data element
-        if (dataNode == null) {
-            // no data element exist; create a new one
-
-            Element newDataNode = doc.createElement("data");
-            Node root;
-
-            if (doc.getElementsByTagName("beast").getLength() == 1) {
-                root = doc.getElementsByTagName("beast").item(0);
-            } else {
-                throw new RuntimeException("Only one 'beast' label is supposed to exist, but " + doc.getElementsByTagName("beast").getLength() + " found.");
-            }
-
-            buildDataNode(filteredCellNamesFileName, doc, newDataNode, backgroundNameOrder);
-            root.appendChild(newDataNode);
+            String outputBaseName,
+            final String binaryFileName
+    ) throws ParserConfigurationException, IOException, XMLStreamException {
+        final boolean[] dataWritten = {false};
+        final boolean[] loggersFound = {false};
+
+        // the branch rate model and the state can be anywhere in the document, so that both are looked for before
+        // streaming it
+        final List<String> clockModelParams = getNonStrictClockModelParams(
+                XMLTemplateRewriter.readElements(
+                        new File(templateFileName),
+                        (parents, element) -> element.getName().getLocalPart().equals("branchRateModel") ||
+                                element.getName().getLocalPart().equals("state")
+                ).getDocumentElement()
+        );
+
+        new XMLTemplateRewriter()
+                // replace the first "data" element whose parent node is "beast"
+                .replace(
+                        (parents, element) -> !dataWritten[0] && parents.size() == 1 && parents.get(0).equals("beast") &&
+                                element.getName().getLocalPart().equals("data"),
+                        (writer, element) -> {
+                            writeDataNode(filteredCellNamesFileName, writer, element, backgroundNameOrder, binaryFileName);
+                            dataWritten[0] = true;
+                        }
+                )
+                // modify "run" element, which is small enough to be edited as a DOM element
+                .edit(
+                        (parents, element) -> element.getName().getLocalPart().equals("run"),
+                        runNode -> {
+                            // filter "logger" elements whose parent node is "run" and have an attribute of "spec" equivalent to "Logger"
+                            NodeList candidateLoggerNodes = runNode.getElementsByTagName("logger");
+                            loggersFound[0] |= candidateLoggerNodes.getLength() > 0;
+
+                            List<Node> loggerNodes = new ArrayList<>();
+                            for (int i = 0; i < candidateLoggerNodes.getLength(); i++) {
+                                if (candidateLoggerNodes.item(i).getParentNode() == runNode &&
+                                        ((Element) candidateLoggerNodes.item(i)).getAttribute("spec").equals("Logger"))
+                                    loggerNodes.add(candidateLoggerNodes.item(i));
+                            }
+                            processLogs(loggerNodes, outputBaseName);
+
+                            // update certain nodes if not using strict molecular clock
+                            NodeList stateTags = runNode.getElementsByTagName("state");
+                            for (int i = 0; i < stateTags.getLength(); i++)
+                                updateNonStrictClockModel(stateTags.item(i), clockModelParams);
+                        }
+                )
+                // modify "state" element outside "run" (those inside are modified with "run")
+                .edit(
+                        (parents, element) -> !clockModelParams.isEmpty() &&
+                                element.getName().getLocalPart().equals("state"),
+                        stateNode -> updateNonStrictClockModel(stateNode, clockModelParams)
+                )
+                // no data element exists; create a new one
+                .appendTo(
+                        (parents, element) -> parents.isEmpty() && element.getName().getLocalPart().equals("beast"),
+                        (writer, element) -> {
+                            if (dataWritten[0]) return;
+
+                            writer.writeCharacters("    ");
+                            writeDataNode(filteredCellNamesFileName, writer, null, backgroundNameOrder, binaryFileName);
+                            writer.writeCharacters("\n");
+                            dataWritten[0] = true;
+                        }
+                )
+                .rewrite(new File(templateFileName), new File(outputFileName));
 
-        } else
-            buildDataNode(filteredCellNamesFileName, doc, (Element) dataNode, backgroundNameOrder);
+        if (!dataWritten[0])
+            throw new RuntimeException("Only one 'beast' label is supposed to exist as the root, but none found.");
 
-        // filter "logger" elements whose parent node is "run" and have an attribute of "spec" equivalent to "Logger"
-        NodeList candidateLoggerNodes = doc.getElementsByTagName("logger");
-        if (candidateLoggerNodes == null || candidateLoggerNodes.getLength() == 0) {
+        if (!loggersFound[0])
             throw new RuntimeException("No tags named 'logger' are found! Please check your input template. (" +
                     this.getClass().getName() + ")");
-        }
-        List<Node> loggerNodes = new ArrayList<>();
-        for (int i = 0; i < candidateLoggerNodes.getLength(); i++) {
-            if (candidateLoggerNodes.item(i).getParentNode().getNodeName().equals("run")) {
-                for (int j = 0; j < candidateLoggerNodes.item(i).getAttributes().getLength(); j++) {
-                    if (candidateLoggerNodes.item(i).getAttributes().item(j).getNodeName().equals("spec") &&
-                            candidateLoggerNodes.item(i).getAttributes().item(j).getNodeValue().equals("Logger")) {
-                        loggerNodes.add(candidateLoggerNodes.item(i));
-                    }
-                }
-            }
-        }
-        processLogs(loggerNodes, outputBaseName);
-
-        // update certain nodes if not using strict molecular clock
-        updateNonStrictClockModel(doc);
-
-        // save the xml document to outputTarget
-        Transformer tf = TransformerFactory.newInstance().newTransformer();
-        tf.setOutputProperty(OutputKeys.INDENT, "yes");
-        DOMSource domS = new DOMSource(doc);
-        File outputConfig = new File(outputFileName);
-
-        if (outputFileName.contains("/"))
-            outputConfig.getParentFile().mkdirs();
-
-        StreamResult sr = new StreamResult(outputConfig);
-        tf.transform(domS, sr);
-    } // processTargetDoc
+    } // processTemplateDoc
 
 
     //**********************************************
@@ -945,131 +1301,6 @@ public class DataCollector {
     } // setConstants
 
 
-    //************************************************
-    //*                Nested classes                *
-    //************************************************
-
-    static class LociInfoComparator implements Comparator<String[]> {
-        @Override
-        public int compare(String[] s1, String[] s2) throws RuntimeException {
-            if (s1.length != s2.length) {
-                throw new RuntimeException("Error: Compared string arrays do not share the same length." +
-                        Arrays.toString(s1) + ", " + Arrays.toString(s2));
-            }
-
-            // chromosome label
-            ChromosomeLabel cl1 = new ChromosomeLabel(s1[0]);
-            ChromosomeLabel cl2 = new ChromosomeLabel(s2[0]);
-            final int chrResult = cl1.compareTo(cl2);
-            if (chrResult != 0) {
-                return chrResult;
-            }
-
-            // position
-            final long pos1 = Long.parseLong(s1[1]);
-            final long pos2 = Long.parseLong(s2[1]);
-            if (pos1 > pos2) {
-                return 1;
-            } else if (pos1 < pos2) {
-                return -1;
-            }
-
-            // alt nucleotide
-            final int alt = s1[3].trim().toUpperCase().compareTo(s2[3].trim().toUpperCase());
-            if (alt > 0) {
-                return 1;
-            } else if (alt < 0) {
-                return -1;
-            }
-
-            // ref nucleotide
-            assert s1[2].trim().equalsIgnoreCase(s2[2].trim());
-
-            throw new RuntimeException("Duplicate sites information detected: " + s1[0] + ", " + s1[1] + ", " +
-                    s1[2] + ", " + s1[3]);
-        } // compare
-    } // class LociInfoComparator
-
-    static class MissingDataComparator implements Comparator<String[]> {
-
-        private final int[] indicesToKeptCells;
-        private final List<VariantSiteInfo> varInfo;
-
-        // The number of total entries of cells to be kept across all sites.
-        private int entryNum;
-
-        // The number of entries of missing data of cells to be kept across all sites.
-        private int missingEntryNum;
-
-        MissingDataComparator(final int[] indicesToKeptCells) {
-            this.indicesToKeptCells = indicesToKeptCells;
-            this.varInfo = new ArrayList<>();
-        } // MissingDataComparator
-
-        public int[] getEntryNum(final String[] o) {
-            int[] ret = {0, o.length - 4};
-
-            for (int i : this.indicesToKeptCells) {
-                final String[] comp = o[i + 4].split(",");
-                if (Integer.parseInt(comp[comp.length - 1]) == 0) ret[0]++;
-            }
-
-            return ret;
-        } // getEntryNum
-
-        @Override
-        public int compare(final String[] o1, final String[] o2) {
-            if (o1.length != o2.length) {
-                throw new RuntimeException("Error: Compared string arrays do not share the same length." +
-                        Arrays.toString(o1) + ", " + Arrays.toString(o2));
-            }
-
-            if (this.indicesToKeptCells.length > o1.length - 4 || MathFunctions.max(Arrays.stream(this.indicesToKeptCells).boxed().toArray(Integer[]::new)) > o1.length - 4) {
-                throw new RuntimeException("Error: indices exceed valid range.");
-            }
-
-            final VariantSiteInfo var1 = new VariantSiteInfo(
-                    o1[0],
-                    Long.parseLong(o1[1]),
-                    o1[2],
-                    o1[3].split(",")
-            );
-
-            final VariantSiteInfo var2 = new VariantSiteInfo(
-                    o2[0],
-                    Long.parseLong(o2[1]),
-                    o2[2],
-                    o2[3].split(",")
-            );
-
-            final int[] entryNum1 = getEntryNum(o1);
-            final int[] entryNum2 = getEntryNum(o2);
-
-            if (!this.varInfo.contains(var1)) {
-                this.varInfo.add(var1);
-                this.missingEntryNum += entryNum1[0];
-                this.entryNum += entryNum1[1];
-            }
-
-            if (!this.varInfo.contains(var2)) {
-                this.varInfo.add(var2);
-                this.missingEntryNum += entryNum2[0];
-                this.entryNum += entryNum2[1];
-            }
-
-            return Integer.compare(entryNum2[0], entryNum1[0]);
-        } // compare
-
-        public int getEntryNum() {
-            return entryNum;
-        } // getEntryNum
-
-        public int getMissingEntryNum() {
-            return missingEntryNum;
-        } // getMissingEntryNum
-    } // class MissingDataComparator
-
-
     //**********************************************
     //*                    Main                    *
     //**********************************************
@@ -1087,6 +1318,7 @@ public class DataCollector {
         String excludedCellNamesFileName = null;
         String filteredCellNamesFileName = null;
         String outputFileName = null;
+        String binaryFileName = null;
         String cellNameBaseName; // base name of cell names file
         String rootPath;
 
@@ -1102,6 +1334,8 @@ public class DataCollector {
         int[] sample = {-1, -1}; // cells, loci
         int[] backgroundNameOrder = {0, 1, 2, 3, 4};
         double missingDataThreshold = 1.0;
+        long memoryBudget = -1; // in bytes; -1 for a quarter of the maximum heap size
+        int nrOfThreads = 1;
 
         // No arguments provided, launch GUI
         if (args.length == 0) {
@@ -1175,10 +1409,13 @@ public class DataCollector {
                             new Arguments.StringOption("template", "template_configuration_file", "provides a configuration document ending with .xml -> MANDATORY"),
                             new Arguments.StringOption("exclude", "excluded_cell_names", "specifies names of the cells to be excluded -> OPTIONAL"),
                             new Arguments.StringOption("out", "output_file", "specifies the configuration file integrating with the input data -> OPTIONAL"),
+                            new Arguments.StringOption("binary", "binary_file", "writes loci information and read counts to a binary file, which is referred to by the configuration file instead of embedding them -> OPTIONAL"),
                             new Arguments.IntegerArrayOption("sample", 2, -1, 100000, "samples a part of the input data for test purposes; the first number defines the number of sampled cells, and the second number defines the number of sampled loci; by default, all the data will be loaded -> OPTIONAL"),
                             new Arguments.IntegerArrayOption("bgcs", 3, 0, 2, "specifies the order of background information for \"Coverage-Support\" datatype w.r.t. (coverage 0, variant 1, normal 2); default: 0 1 2; working with \"-datatype 0\" if specified -> OPTIONAL"),
                             new Arguments.IntegerArrayOption("bgfsc", 5, 0, 4, "specifies the order of background information for \"Full support-Coverage\" datatype w.r.t. (0 - variant1, 1 - variant2, 2 - variant3, 3 - normal, 4 - coverage); default: 0 1 2 3 4; working with \"-datatype 1\" if specified -> OPTIONAL"),
-                            new Arguments.RealOption("miss", 0.001, 1, "specifies the threshold of missing data percentage; set to 1 to turn off the selection; the programme will choose as many sites as possible without exceeding the specified threshold -> OPTIONAL")
+                            new Arguments.RealOption("miss", 0.001, 1, "specifies the threshold of missing data percentage; set to 1 to turn off the selection; the programme will choose as many sites as possible without exceeding the specified threshold -> OPTIONAL"),
+                            new Arguments.IntegerOption("memory", 1, Integer.MAX_VALUE, "specifies the memory budget (in MB) for sorting candidate mutated sites, beyond which they are sorted on disk; default: a quarter of the maximum heap size -> OPTIONAL"),
+                            new Arguments.IntegerOption("threads", 1, 1000, "specifies the number of threads parsing candidate mutated sites (default 1) -> OPTIONAL")
                     }
             );
 
@@ -1248,6 +1485,10 @@ public class DataCollector {
             if (arguments.hasOption("out"))
                 outputFileName = arguments.getStringOption("out");
 
+            // Set binaryFileName
+            if (arguments.hasOption("binary"))
+                binaryFileName = arguments.getStringOption("binary");
+
             // Set sample
             if (arguments.hasOption("sample"))
                 sample = arguments.getIntegerArrayOption("sample");
@@ -1282,6 +1523,14 @@ public class DataCollector {
             // Set missing data threshold
             if (arguments.hasOption("miss"))
                 missingDataThreshold = arguments.getRealOption("miss");
+
+            // Set memory budget
+            if (arguments.hasOption("memory"))
+                memoryBudget = arguments.getIntegerOption("memory") * 1024L * 1024L;
+
+            // Set number of threads
+            if (arguments.hasOption("threads"))
+                nrOfThreads = arguments.getIntegerOption("threads");
         }
 
         cellNameBaseName = FileNameProcessor.getBaseName(cellNamesFileName);
@@ -1312,6 +1561,9 @@ public class DataCollector {
                 filteredCellNamesFileName = filteredCellNamesFileName + tmp;
         }
 
+        if (binaryFileName != null && System.getProperty("data.collection.file.prefix") != null)
+            binaryFileName = System.getProperty("data.collection.file.prefix") + binaryFileName;
+
         setConstants(datatype);
 
         try {
@@ -1328,7 +1580,10 @@ public class DataCollector {
                     outputFileName,
                     FileNameProcessor.getBaseName(outputFileName),
                     sample,
-                    backgroundNameOrder
+                    backgroundNameOrder,
+                    binaryFileName,
+                    memoryBudget,
+                    nrOfThreads
             );
         } catch (Exception e) {
             e.printStackTrace();
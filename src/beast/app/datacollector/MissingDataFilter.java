@@ -0,0 +1,97 @@
+package beast.app.datacollector;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.PrintStream;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.stream.IntStream;
+
+/**
+ * Select candidate mutated sites to be removed so that the percentage of missing data meets a threshold, from the
+ * numbers of (missing) entries of each site counted while parsing.
+ */
+public final class MissingDataFilter {
+
+
+    //**********************************************
+    //*                Constructors                *
+    //**********************************************
+
+    private MissingDataFilter() {
+    }
+
+
+    //***********************************************
+    //*                   Methods                   *
+    //***********************************************
+
+    /**
+     * Remove candidate mutated sites with the most missing data first, until the percentage of missing data meets
+     * the threshold.
+     * <p>
+     * Sites are ordered by a counting sort on their numbers of missing entries, which are bounded by the number of
+     * cells, so that the whole procedure is linear in the number of sites.
+     *
+     * @param ordinals             ordinals of candidate mutated sites, in the order of input
+     * @param entryNums            number of entries of each site
+     * @param missingEntryNums     number of missing entries of each site, among cells to be kept
+     * @param missingDataThreshold apparently
+     * @param progressStream       apparently
+     * @return ordinals of removed sites
+     */
+    public static BitSet removeMutationLines(
+            @NotNull final int[] ordinals,
+            @NotNull final int[] entryNums,
+            @NotNull final int[] missingEntryNums,
+            final double missingDataThreshold,
+            @NotNull PrintStream progressStream
+    ) {
+        BitSet removed = new BitSet();
+
+        if (missingDataThreshold <= 0 || missingDataThreshold >= 1) return removed;
+
+        long entryNum = IntStream.range(0, ordinals.length).parallel().mapToLong(i -> entryNums[i]).sum();
+        long missingEntryNum = IntStream.range(0, ordinals.length).parallel().mapToLong(i -> missingEntryNums[i]).sum();
+
+        double percentage = ((double) missingEntryNum) / entryNum;
+        progressStream.printf("Percentage of missing data (with some cells excluded, if specified) in the original data = %.3f\n", percentage);
+        if (percentage <= missingDataThreshold) {
+            progressStream.println("The specified threshold of missing data percentage (" + missingDataThreshold + ") is already met. Skip filtering.");
+            return removed;
+        }
+
+        int numSites = ordinals.length;
+        progressStream.println("The number of sites in the original data = " + numSites);
+
+        // sites with more missing entries come first; ties are kept in the order of input
+        final int maxMissingEntryNum = Arrays.stream(missingEntryNums).max().orElse(0);
+        int[] starts = new int[maxMissingEntryNum + 2];
+        for (int i : missingEntryNums)
+            starts[maxMissingEntryNum - i + 1]++;
+        for (int i = 1; i < starts.length; i++)
+            starts[i] += starts[i - 1];
+
+        int[] order = new int[ordinals.length];
+        for (int i = 0; i < ordinals.length; i++)
+            order[starts[maxMissingEntryNum - missingEntryNums[i]]++] = i;
+
+        for (int i : order) {
+            removed.set(ordinals[i]);
+            numSites--;
+
+            missingEntryNum -= missingEntryNums[i];
+            entryNum -= entryNums[i];
+
+            percentage = ((double) missingEntryNum) / entryNum;
+            if (percentage <= missingDataThreshold) {
+                progressStream.printf("Current percentage of missing data = %.3f\n", percentage);
+                progressStream.println("Current number of sites = " + numSites);
+                break;
+            }
+        }
+
+        return removed;
+    } // removeMutationLines
+
+}
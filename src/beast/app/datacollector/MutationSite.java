@@ -0,0 +1,437 @@
+package beast.app.datacollector;
+
+import beast.app.utils.ChromosomeLabel;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A candidate mutated site from one line of the '=mutations=' section of a read counts document, parsed once into
+ * primitive arrays.
+ * <p>
+ * Read counts of each cell are stored as (coverage, alternative reads) for "Coverage-Support", and as
+ * (reads1, reads2, reads3, coverage) together with three nucleotides for "Full supports-Coverage".
+ */
+public class MutationSite implements Comparable<MutationSite> {
+
+
+    //***********************************************
+    //*                  Variables                  *
+    //***********************************************
+
+    // chromosome labels are interned so that they are parsed only once
+    private final static Map<String, ChromosomeLabel> CHROMOSOMES = new ConcurrentHashMap<>();
+
+    private final ChromosomeLabel chromosome;
+    private final long position;
+    private final String ref;
+    private final String alts;
+    private final String altsKey;
+
+    // index of the site among all candidate mutated sites passed to the collector, in the order of input
+    private final int ordinal;
+
+    // number of (all) cells in the line
+    private final int nrOfCellsInLine;
+
+    // number of entries in the line and entries with zero coverage of the kept cells, used to filter missing data
+    private final int entryNum;
+    private final int missingEntryNum;
+
+    // nucleotides and read counts of each (sampled) cell
+    private final int nrOfNucs;
+    private final int nrOfValues;
+    private final byte[] nucs;
+    private final int[] counts;
+
+
+    //**********************************************
+    //*                Constructors                *
+    //**********************************************
+
+    private MutationSite(
+            ChromosomeLabel chromosome,
+            long position,
+            String ref,
+            String alts,
+            int ordinal,
+            int nrOfCellsInLine,
+            int entryNum,
+            int missingEntryNum,
+            int nrOfNucs,
+            int nrOfValues,
+            byte[] nucs,
+            int[] counts
+    ) {
+        this.chromosome = chromosome;
+        this.position = position;
+        this.ref = ref;
+        this.alts = alts;
+        this.altsKey = alts.toUpperCase();
+        this.ordinal = ordinal;
+        this.nrOfCellsInLine = nrOfCellsInLine;
+        this.entryNum = entryNum;
+        this.missingEntryNum = missingEntryNum;
+        this.nrOfNucs = nrOfNucs;
+        this.nrOfValues = nrOfValues;
+        this.nucs = nucs;
+        this.counts = counts;
+    }
+
+
+    //***********************************************
+    //*                   Methods                   *
+    //***********************************************
+
+    /**
+     * Parse a line of the '=mutations=' section: chromosome, position, reference nucleotide, alternative
+     * nucleotides, followed by the read counts of cells separated by tabs.
+     *
+     * @param line               apparently
+     * @param datatype           apparently
+     * @param useSex             whether using candidate sites from sex chromosomes or not
+     * @param sampleCell         the number of sampled cells; -1 for all cells
+     * @param indicesToKeptCells indices of cells not excluded, used to count missing data; null if not needed
+     * @param ordinal            index of the site in the order of input
+     * @return parsed site, or null if the site is on the mitochondrial chromosome or on sex chromosomes but not used
+     */
+    public static MutationSite parse(
+            @NotNull final String line,
+            final DataCollectorDialog.DataType datatype,
+            boolean useSex,
+            final int sampleCell,
+            final int[] indicesToKeptCells,
+            final int ordinal
+    ) {
+        final String[] comp = line.split("\t");
+        if (comp.length < 4)
+            throw new IllegalArgumentException("Error! Insufficient amount of locus information or wrong format to " +
+                    "properly define a variant site: " + line);
+
+        final ChromosomeLabel chr = CHROMOSOMES.computeIfAbsent(comp[0].trim(), ChromosomeLabel::new);
+        if (chr.isOnMitochondrial() || (!useSex && chr.isOnSex()))
+            return null;
+
+        final int fieldNum = comp.length - 4;
+
+        final int nrOfCellsInLine;
+        final int nrOfNucs;
+        final int nrOfValues;
+        if (datatype == DataCollectorDialog.DataType.CovSup) {
+            // process mutations, (coverage, alternative reads)
+            if (fieldNum % 2 != 0)
+                throw new RuntimeException("Mutation data length is not an even number!");
+
+            nrOfCellsInLine = fieldNum / 2;
+            nrOfNucs = 0;
+            nrOfValues = 2;
+        } else {
+            // process mutations, (variant1,variant2,variant3;reads1,reads2,reads3,coverage)
+            nrOfCellsInLine = fieldNum;
+            nrOfNucs = 3;
+            nrOfValues = 4;
+        }
+
+        final int cellNum = sampleCell > -1 ? Math.min(sampleCell, nrOfCellsInLine) : nrOfCellsInLine;
+        byte[] nucs = new byte[cellNum * nrOfNucs];
+        int[] counts = new int[nrOfCellsInLine * nrOfValues];
+
+        // parse all cells, since missing data is counted before sampling
+        for (int i = 0; i < nrOfCellsInLine; i++) {
+            if (datatype == DataCollectorDialog.DataType.CovSup) {
+                counts[2 * i] = parseCount(comp[4 + 2 * i], line);
+                counts[2 * i + 1] = parseCount(comp[4 + 2 * i + 1], line);
+            } else {
+                final String field = comp[4 + i];
+                final int sep = field.indexOf(';');
+                if (sep < 0)
+                    throw new IllegalArgumentException("Error! Nucleotides and read counts should be separated by " +
+                            "';', but observing " + field.trim());
+
+                final String[] nucsStr = field.substring(0, sep).split(",");
+                final String[] countsStr = field.substring(sep + 1).split(",");
+                if (nucsStr.length != nrOfNucs || countsStr.length != nrOfValues)
+                    throw new IllegalArgumentException("The number of states is not unanimous across the data. " +
+                            "Expect to be " + (nrOfNucs + nrOfValues) + ", " + (nucsStr.length + countsStr.length) +
+                            " found in " + field.trim());
+
+                if (i < cellNum) {
+                    for (int j = 0; j < nrOfNucs; j++) {
+                        final String nuc = nucsStr[j].trim();
+                        if (nuc.length() != 1 || !Character.isAlphabetic(nuc.charAt(0)))
+                            throw new IllegalArgumentException("Error! Only a character of alphabetic is expected, " +
+                                    "but observing " + nuc);
+
+                        nucs[i * nrOfNucs + j] = (byte) nuc.charAt(0);
+                    }
+                }
+
+                for (int j = 0; j < nrOfValues; j++)
+                    counts[i * nrOfValues + j] = parseCount(countsStr[j], line);
+            }
+        }
+
+        // the last value of each field is the coverage for "Full supports-Coverage", or either the coverage or the
+        // alternative reads for "Coverage-Support", following the original counting of missing entries
+        int missingEntryNum = 0;
+        if (indicesToKeptCells != null) {
+            for (int i : indicesToKeptCells) {
+                if (i >= fieldNum)
+                    throw new RuntimeException("Error: indices exceed valid range.");
+
+                final int last = datatype == DataCollectorDialog.DataType.CovSup ? counts[i] : counts[i * nrOfValues + nrOfValues - 1];
+                if (last == 0) missingEntryNum++;
+            }
+        }
+
+        if (cellNum < nrOfCellsInLine) {
+            int[] sampled = new int[cellNum * nrOfValues];
+            System.arraycopy(counts, 0, sampled, 0, sampled.length);
+            counts = sampled;
+        }
+
+        return new MutationSite(
+                chr,
+                parsePosition(comp[1], line),
+                comp[2].trim(),
+                comp[3].trim(),
+                ordinal,
+                nrOfCellsInLine,
+                fieldNum,
+                missingEntryNum,
+                nrOfNucs,
+                nrOfValues,
+                nucs,
+                counts
+        );
+    } // parse
+
+    private static int parseCount(final String str, final String line) {
+        final int count;
+
+        try {
+            count = Integer.parseInt(str.trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Read counts should be non-negative integers. Non-integer data " +
+                    "type found in " + str.trim() + " of line: " + line);
+        }
+
+        if (count < 0)
+            throw new IllegalArgumentException("Read counts should be non-negative integers. Negative integer found " +
+                    "in " + str.trim() + " of line: " + line);
+
+        return count;
+    } // parseCount
+
+    private static long parsePosition(final String str, final String line) {
+        try {
+            return Long.parseLong(str.trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Error! Illegal position of a variant site: " + line);
+        }
+    } // parsePosition
+
+    /**
+     * Write the site in a binary format, to be read by {@link #read(DataInputStream)}.
+     *
+     * @param out apparently
+     * @throws IOException if failed to write
+     */
+    public void write(@NotNull DataOutputStream out) throws IOException {
+        out.writeUTF(chromosome.getFullLabel());
+        out.writeLong(position);
+        out.writeUTF(ref);
+        out.writeUTF(alts);
+        out.writeInt(ordinal);
+        out.writeInt(nrOfCellsInLine);
+        out.writeInt(entryNum);
+        out.writeInt(missingEntryNum);
+        out.writeInt(nrOfNucs);
+        out.writeInt(nrOfValues);
+
+        out.writeInt(nucs.length);
+        out.write(nucs);
+
+        out.writeInt(counts.length);
+        for (int i : counts)
+            out.writeInt(i);
+    } // write
+
+    /**
+     * Read a site written by {@link #write(DataOutputStream)}.
+     *
+     * @param in apparently
+     * @return apparently
+     * @throws IOException if failed to read
+     */
+    public static MutationSite read(@NotNull DataInputStream in) throws IOException {
+        final ChromosomeLabel chromosome = CHROMOSOMES.computeIfAbsent(in.readUTF(), ChromosomeLabel::new);
+        final long position = in.readLong();
+        final String ref = in.readUTF();
+        final String alts = in.readUTF();
+        final int ordinal = in.readInt();
+        final int nrOfCellsInLine = in.readInt();
+        final int entryNum = in.readInt();
+        final int missingEntryNum = in.readInt();
+        final int nrOfNucs = in.readInt();
+        final int nrOfValues = in.readInt();
+
+        byte[] nucs = new byte[in.readInt()];
+        in.readFully(nucs);
+
+        int[] counts = new int[in.readInt()];
+        for (int i = 0; i < counts.length; i++)
+            counts[i] = in.readInt();
+
+        return new MutationSite(
+                chromosome,
+                position,
+                ref,
+                alts,
+                ordinal,
+                nrOfCellsInLine,
+                entryNum,
+                missingEntryNum,
+                nrOfNucs,
+                nrOfValues,
+                nucs,
+                counts
+        );
+    } // read
+
+    /**
+     * @return approximate number of bytes occupied by the site in memory
+     */
+    public long getSizeInBytes() {
+        return 128L + nucs.length + 4L * counts.length + 4L * (ref.length() + alts.length());
+    } // getSizeInBytes
+
+    /**
+     * @return loci information in the format of (chromosome, location, ref, alts)
+     */
+    public String getLocusInfo() {
+        return chromosome.getFullLabel() + "," + position + "," + ref + "," + alts;
+    } // getLocusInfo
+
+    /**
+     * Append the read counts of a cell in the format of a sequence element, i.e., "coverage,alternative reads" or
+     * "variant1,variant2,variant3,reads1,reads2,reads3,coverage".
+     *
+     * @param sb        apparently
+     * @param cellIndex apparently
+     */
+    public void appendCell(@NotNull StringBuilder sb, final int cellIndex) {
+        for (int i = 0; i < nrOfNucs; i++)
+            sb.append((char) nucs[cellIndex * nrOfNucs + i]).append(',');
+
+        for (int i = 0; i < nrOfValues; i++) {
+            if (i > 0) sb.append(',');
+            sb.append(counts[cellIndex * nrOfValues + i]);
+        }
+    } // appendCell
+
+    /**
+     * Compare sites by chromosome, position and alternative nucleotides.
+     *
+     * @param o the other site
+     * @return apparently
+     * @throws RuntimeException if both sites share the same loci information
+     */
+    @Override
+    public int compareTo(@NotNull MutationSite o) throws RuntimeException {
+        // chromosome label
+        final int chrResult = this.chromosome.compareTo(o.chromosome);
+        if (chrResult != 0) {
+            return chrResult;
+        }
+
+        // position
+        if (this.position > o.position) {
+            return 1;
+        } else if (this.position < o.position) {
+            return -1;
+        }
+
+        // alt nucleotide
+        final int alt = this.altsKey.compareTo(o.altsKey);
+        if (alt > 0) {
+            return 1;
+        } else if (alt < 0) {
+            return -1;
+        }
+
+        // ref nucleotide
+        assert this.ref.equalsIgnoreCase(o.ref);
+
+        throw new RuntimeException("Duplicate sites information detected: " + this.chromosome.getFullLabel() + ", " +
+                this.position + ", " + this.ref + ", " + this.alts);
+    } // compareTo
+
+
+    //***********************************************
+    //*              Getter and Setter              *
+    //***********************************************
+
+    public String getChromosome() {
+        return chromosome.getFullLabel();
+    } // getChromosome
+
+    public long getPosition() {
+        return position;
+    } // getPosition
+
+    public String getRef() {
+        return ref;
+    } // getRef
+
+    public String getAlts() {
+        return alts;
+    } // getAlts
+
+    public int getOrdinal() {
+        return ordinal;
+    } // getOrdinal
+
+    public int getNrOfCellsInLine() {
+        return nrOfCellsInLine;
+    } // getNrOfCellsInLine
+
+    public int getEntryNum() {
+        return entryNum;
+    } // getEntryNum
+
+    public int getMissingEntryNum() {
+        return missingEntryNum;
+    } // getMissingEntryNum
+
+    public int getNrOfNucs() {
+        return nrOfNucs;
+    } // getNrOfNucs
+
+    public int getNrOfValues() {
+        return nrOfValues;
+    } // getNrOfValues
+
+    /**
+     * @param cellIndex apparently
+     * @param index     index of the value within the cell
+     * @return read count
+     */
+    public int getCount(final int cellIndex, final int index) {
+        return counts[cellIndex * nrOfValues + index];
+    } // getCount
+
+    /**
+     * @param cellIndex apparently
+     * @param index     index of the nucleotide within the cell
+     * @return nucleotide
+     */
+    public byte getNuc(final int cellIndex, final int index) {
+        return nucs[cellIndex * nrOfNucs + index];
+    } // getNuc
+
+}
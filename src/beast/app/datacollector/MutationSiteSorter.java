@@ -0,0 +1,297 @@
+package beast.app.datacollector;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Sort candidate mutated sites in genomic order with bounded memory.
+ * <p>
+ * Sites are kept in memory until their approximate size exceeds the memory budget, at which point they are sorted and
+ * spilled to a temporary run file. Iterating over the sites merges the runs, so that only one site per run is held in
+ * memory. At most a fixed number of runs are merged at a time; if there are more, they are first merged in passes into
+ * fewer and longer runs. Runs are deleted when the sorter is closed.
+ */
+public class MutationSiteSorter implements Closeable {
+
+
+    //***********************************************
+    //*                  Variables                  *
+    //***********************************************
+
+    private final static int BUFFER_SIZE = 1 << 16;
+
+    // the default maximum number of runs merged at a time, each of which holds an open file and a buffer
+    public final static int DEFAULT_MAX_FAN_IN = 64;
+
+    private final long memoryBudget;
+
+    private final int maxFanIn;
+
+    private final List<MutationSite> buffer = new ArrayList<>();
+    private long bufferedBytes = 0;
+
+    private final List<File> runs = new ArrayList<>();
+
+    private int size = 0;
+
+    private boolean sorted = false;
+
+
+    //**********************************************
+    //*                Constructors                *
+    //**********************************************
+
+    /**
+     * @param memoryBudget approximate number of bytes of sites kept in memory
+     */
+    public MutationSiteSorter(final long memoryBudget) {
+        this(memoryBudget, DEFAULT_MAX_FAN_IN);
+    }
+
+    /**
+     * @param memoryBudget approximate number of bytes of sites kept in memory
+     * @param maxFanIn     maximum number of runs merged at a time; at least 2
+     */
+    public MutationSiteSorter(final long memoryBudget, final int maxFanIn) {
+        if (maxFanIn < 2)
+            throw new IllegalArgumentException("Error! At least 2 runs should be merged at a time, but " + maxFanIn +
+                    " is given. (" + this.getClass().getName() + ")");
+
+        this.memoryBudget = memoryBudget;
+        this.maxFanIn = maxFanIn;
+    }
+
+
+    //***********************************************
+    //*                   Methods                   *
+    //***********************************************
+
+    /**
+     * Add a site; may spill sites to a run file.
+     *
+     * @param site apparently
+     * @throws IOException if failed to spill
+     */
+    public void add(@NotNull MutationSite site) throws IOException {
+        if (sorted)
+            throw new IllegalStateException("Error! Sites cannot be added after sorting. (" +
+                    this.getClass().getName() + ")");
+
+        buffer.add(site);
+        bufferedBytes += site.getSizeInBytes();
+        size++;
+
+        if (bufferedBytes > memoryBudget)
+            spill();
+    } // add
+
+    /**
+     * Sort the sites in memory and write them to a new run file.
+     *
+     * @throws IOException if failed to write
+     */
+    private void spill() throws IOException {
+        if (buffer.isEmpty()) return;
+
+        buffer.sort(MutationSite::compareTo);
+
+        File run = createRun();
+        try (DataOutputStream out = openRun(run)) {
+            for (MutationSite site : buffer)
+                site.write(out);
+        }
+
+        runs.add(run);
+        buffer.clear();
+        bufferedBytes = 0;
+    } // spill
+
+    /**
+     * Finish adding sites and sort them. The last sites are spilled as well if there is any run file, so that the
+     * memory is released before the sites are iterated. Runs are then merged in passes until no more than the maximum
+     * fan-in remain.
+     *
+     * @throws IOException if failed to spill or merge
+     */
+    public void sort() throws IOException {
+        if (sorted) return;
+
+        if (runs.isEmpty())
+            buffer.sort(MutationSite::compareTo);
+        else
+            spill();
+
+        while (runs.size() > maxFanIn) {
+            List<File> merged = new ArrayList<>((runs.size() + maxFanIn - 1) / maxFanIn);
+
+            for (int i = 0; i < runs.size(); i += maxFanIn) {
+                final List<File> group = runs.subList(i, Math.min(i + maxFanIn, runs.size()));
+
+                File run = createRun();
+                merged.add(run);
+                try (DataOutputStream out = openRun(run)) {
+                    merge(group, site -> site.write(out));
+                }
+
+                for (File j : group) {
+                    if (!j.delete())
+                        j.deleteOnExit();
+                }
+            }
+
+            runs.clear();
+            runs.addAll(merged);
+        }
+
+        sorted = true;
+    } // sort
+
+    /**
+     * Iterate over all sites in genomic order. Can be called multiple times.
+     *
+     * @param consumer apparently
+     * @throws IOException if failed to read run files
+     */
+    public void forEach(@NotNull SiteConsumer consumer) throws IOException {
+        sort();
+
+        if (runs.isEmpty()) {
+            MutationSite previous = null;
+            for (MutationSite site : buffer) {
+                // throws if duplicate sites are found
+                if (previous != null) previous.compareTo(site);
+
+                consumer.accept(site);
+                previous = site;
+            }
+
+            return;
+        }
+
+        merge(runs, consumer);
+    } // forEach
+
+    /**
+     * k-way merge of run files, checking for duplicate sites.
+     *
+     * @param group    run files to be merged, at most the maximum fan-in
+     * @param consumer apparently
+     * @throws IOException if failed to read run files
+     */
+    private static void merge(
+            @NotNull final List<File> group,
+            @NotNull SiteConsumer consumer
+    ) throws IOException {
+        List<DataInputStream> ins = new ArrayList<>(group.size());
+        try {
+            PriorityQueue<RunHead> heads = new PriorityQueue<>(group.size());
+
+            for (File run : group) {
+                DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(run), BUFFER_SIZE));
+                ins.add(in);
+
+                RunHead head = new RunHead(in);
+                if (head.next())
+                    heads.add(head);
+            }
+
+            MutationSite previous = null;
+            while (!heads.isEmpty()) {
+                RunHead head = heads.poll();
+                final MutationSite site = head.site;
+
+                // throws if duplicate sites are found
+                if (previous != null) previous.compareTo(site);
+
+                consumer.accept(site);
+                previous = site;
+
+                if (head.next())
+                    heads.add(head);
+            }
+        } finally {
+            for (DataInputStream in : ins)
+                in.close();
+        }
+    } // merge
+
+    private static File createRun() throws IOException {
+        File run = File.createTempFile("datacollector_run_", ".bin");
+        run.deleteOnExit();
+
+        return run;
+    } // createRun
+
+    private static DataOutputStream openRun(@NotNull final File run) throws IOException {
+        return new DataOutputStream(new BufferedOutputStream(new FileOutputStream(run), BUFFER_SIZE));
+    } // openRun
+
+    /**
+     * Delete run files.
+     */
+    @Override
+    public void close() {
+        for (File run : runs) {
+            if (!run.delete())
+                run.deleteOnExit();
+        }
+
+        runs.clear();
+        buffer.clear();
+    } // close
+
+
+    //***********************************************
+    //*              Getter and Setter              *
+    //***********************************************
+
+    public int size() {
+        return size;
+    } // size
+
+    public int getNrOfRuns() {
+        return runs.size();
+    } // getNrOfRuns
+
+
+    //************************************************
+    //*                Nested classes                *
+    //************************************************
+
+    public interface SiteConsumer {
+
+        void accept(MutationSite site) throws IOException;
+
+    } // interface SiteConsumer
+
+    private static class RunHead implements Comparable<RunHead> {
+
+        private final DataInputStream in;
+        private MutationSite site;
+
+        RunHead(DataInputStream in) {
+            this.in = in;
+        }
+
+        boolean next() throws IOException {
+            try {
+                site = MutationSite.read(in);
+                return true;
+            } catch (EOFException e) {
+                site = null;
+                return false;
+            }
+        } // next
+
+        @Override
+        public int compareTo(@NotNull RunHead o) {
+            return site.compareTo(o.site);
+        } // compareTo
+
+    } // class RunHead
+
+}
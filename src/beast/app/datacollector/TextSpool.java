@@ -0,0 +1,193 @@
+package beast.app.datacollector;
+
+import org.jetbrains.annotations.NotNull;
+
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Spool the texts of many sections (e.g., the read counts of each cell) to a single temporary file.
+ * <p>
+ * Text appended to a section is buffered in memory and written to the end of the file as a chunk when the buffer is
+ * full, so that only one file is open whatever the number of sections. The text of a section is read back by
+ * following its chunks in order. The file is deleted when the spool is closed.
+ */
+public class TextSpool implements Closeable {
+
+
+    //***********************************************
+    //*                  Variables                  *
+    //***********************************************
+
+    private final static int BUFFER_SIZE = 1 << 16;
+
+    private final static int MIN_CHUNK_SIZE = 1 << 10;
+    private final static int MAX_CHUNK_SIZE = 1 << 16;
+
+    private final File file;
+
+    private OutputStream out;
+    private long length = 0;
+
+    // number of chars of each section buffered before being written as a chunk
+    private final int chunkSize;
+
+    private final StringBuilder[] buffers;
+
+    // offsets and lengths (in bytes) of the chunks of each section, in order
+    private final List<List<long[]>> chunks;
+
+    private int maxChunkLength = 0;
+
+    private RandomAccessFile in;
+
+
+    //**********************************************
+    //*                Constructors                *
+    //**********************************************
+
+    /**
+     * @param nrOfSections apparently
+     * @param memoryBudget approximate number of bytes of text buffered in memory over all sections
+     * @throws IOException if failed to create the file
+     */
+    public TextSpool(final int nrOfSections, final long memoryBudget) throws IOException {
+        this.chunkSize = (int) Math.max(MIN_CHUNK_SIZE, Math.min(MAX_CHUNK_SIZE, memoryBudget / 2 / Math.max(1, nrOfSections)));
+
+        this.buffers = new StringBuilder[nrOfSections];
+        this.chunks = new ArrayList<>(nrOfSections);
+        for (int i = 0; i < nrOfSections; i++) {
+            buffers[i] = new StringBuilder();
+            chunks.add(new ArrayList<>());
+        }
+
+        file = File.createTempFile("datacollector_spool_", ".txt");
+        file.deleteOnExit();
+        out = new BufferedOutputStream(new FileOutputStream(file), BUFFER_SIZE);
+    }
+
+
+    //***********************************************
+    //*                   Methods                   *
+    //***********************************************
+
+    /**
+     * Buffer of a section to append text to; call {@link #flush(int)} after appending.
+     *
+     * @param section apparently
+     * @return apparently
+     */
+    public StringBuilder getBuffer(final int section) {
+        if (out == null)
+            throw new IllegalStateException("Error! Text cannot be appended after the spool is finished. (" +
+                    this.getClass().getName() + ")");
+
+        return buffers[section];
+    } // getBuffer
+
+    /**
+     * Write the buffered text of a section as a chunk if the buffer is full.
+     *
+     * @param section apparently
+     * @throws IOException if failed to write
+     */
+    public void flush(final int section) throws IOException {
+        if (buffers[section].length() >= chunkSize)
+            writeChunk(section);
+    } // flush
+
+    private void writeChunk(final int section) throws IOException {
+        final StringBuilder sb = buffers[section];
+        if (sb.length() == 0) return;
+
+        final byte[] bytes = sb.toString().getBytes(StandardCharsets.UTF_8);
+        out.write(bytes);
+
+        chunks.get(section).add(new long[]{length, bytes.length});
+        length += bytes.length;
+        maxChunkLength = Math.max(maxChunkLength, bytes.length);
+
+        sb.setLength(0);
+    } // writeChunk
+
+    /**
+     * Write the remaining buffered text of all sections and close the output.
+     *
+     * @throws IOException if failed to write
+     */
+    public void finish() throws IOException {
+        if (out == null) return;
+
+        for (int i = 0; i < buffers.length; i++) {
+            writeChunk(i);
+            buffers[i].trimToSize();
+        }
+
+        out.close();
+        out = null;
+    } // finish
+
+    /**
+     * Write the text of a section as character data, chunk by chunk.
+     *
+     * @param writer  apparently
+     * @param section apparently
+     * @throws IOException        if failed to read
+     * @throws XMLStreamException if failed to write
+     */
+    public void writeCharacters(
+            @NotNull XMLStreamWriter writer,
+            final int section
+    ) throws IOException, XMLStreamException {
+        finish();
+
+        if (in == null)
+            in = new RandomAccessFile(file, "r");
+
+        final byte[] bytes = new byte[maxChunkLength];
+        for (long[] chunk : chunks.get(section)) {
+            in.seek(chunk[0]);
+            in.readFully(bytes, 0, (int) chunk[1]);
+
+            // each chunk ends with a whole char, as it is encoded on its own
+            writer.writeCharacters(new String(bytes, 0, (int) chunk[1], StandardCharsets.UTF_8));
+        }
+    } // writeCharacters
+
+    /**
+     * Close and delete the file.
+     */
+    @Override
+    public void close() {
+        try {
+            if (out != null) out.close();
+            if (in != null) in.close();
+        } catch (IOException e) {
+            // nothing to do but deleting the file
+        }
+
+        out = null;
+        in = null;
+
+        if (!file.delete())
+            file.deleteOnExit();
+    } // close
+
+
+    //***********************************************
+    //*              Getter and Setter              *
+    //***********************************************
+
+    public int getNrOfSections() {
+        return buffers.length;
+    } // getNrOfSections
+
+    public int getNrOfChunks(final int section) {
+        return chunks.get(section).size();
+    } // getNrOfChunks
+
+}
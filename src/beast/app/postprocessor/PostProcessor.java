@@ -74,6 +74,7 @@ public class PostProcessor {
         String cachedEstimatesFileName = null;
         EstimatesTypeCollection.EstimatesType estimatesType = null;
         EstimatesTypeCollection.ModeKDEType modeKDEType = null;
+        EstimatesTypeCollection.ModeKDEMethod modeKDEMethod = EstimatesTypeCollection.ModeKDEMethod.EXACT;
         String mcmcSamplesFileName = null;
         String allelicInfoFileName = null;
         String gtAdoSamplesFileName = null;
@@ -83,6 +84,7 @@ public class PostProcessor {
         int cellThreshold = 1;
         boolean useMeanRate = true;
         boolean useOnlyBranchLength = true;
+        boolean sketchMedian = false;
 
         // No arguments provided, launch GUI
         if (args.length == 0) {
@@ -313,11 +315,13 @@ public class PostProcessor {
 
                             // VariantCaller
                             new Arguments.IntegerOption("threads", 1, 1000, " specifies the number of threads (default 1); recommending to use more -> OPTIONAL"),
-                            new Arguments.StringOption("cached", "cached_estimates_file", "specifies the cached estimates file -> OPTIONAL, conflicting with -estimates, -kdedist, -mcmclog, -allelic"),
+                            new Arguments.StringOption("cached", "cached_estimates_file", "specifies the cached estimates file -> OPTIONAL, conflicting with -estimates, -kdedist, -kdemethod, -mcmclog, -allelic, -mediansketch"),
                             new Arguments.StringOption("estimates", new String[]{"mean", "median", "mode", "all"}, false, "specifies which kind of estimates of samples will be used to perform variant calling (one of 'mean', 'median' (default), 'mode', and 'all', where the last option compares likelihoods between all situations and chooses the largest one) -> OPTIONAL, conflicting with -cached"),
                             new Arguments.StringOption("kdedist", new String[]{"gaussian", "epanechnikov", "rectangular", "triangular", "biweight", "cosine", "optcosine"}, false, "specifies which KDE distribution will be used if mode estimates is selected (one of 'gaussian' (default), 'epanechnikov', 'rectangular', 'triangular', 'biweight', 'cosine', 'optcosine') -> OPTIONAL, conflicting with -cached"),
+                            new Arguments.StringOption("kdemethod", new String[]{"exact", "binned"}, false, "specifies how the KDE is evaluated if mode estimates is selected (one of 'exact' (default, evaluating the KDE at every sample) and 'binned' (fast, approximating the KDE on a grid)) -> OPTIONAL, conflicting with -cached"),
                             new Arguments.StringOption("mcmclog", "mcmc_log_file", "specifies the log file containing MCMC samples -> OPTIONAL, conflicting with -cached"),
                             new Arguments.StringOption("allelic", "allelic_seq_info_file", "specifies the allelic sequencing coverage and raw variance sampled during MCMC -> OPTIONAL, conflicting with -cached"),
+                            new Arguments.Option("mediansketch", "approximates median estimates of allelic sequencing information with streaming P-square estimates, using constant memory per site instead of keeping all samples -> OPTIONAL, conflicting with -cached"),
                             new Arguments.StringOption("config", "config_file", "specifies the configuration file used to performing phylogenetic analisys (either xml or json) -> MANDATORY"),
                             new Arguments.StringOption("out", "vcf_file", "specifies a vcf file containing the output variant calling results -> OPTIONAL"),
                             new Arguments.Option("details", "marks whether to save details, including inferred genotypes and ternary matrix, if specified -> OPTIONAL"),
@@ -462,9 +466,11 @@ public class PostProcessor {
                 // Sanity check
                 if (arguments.hasOption("estimates") ||
                         arguments.hasOption("kdedist") ||
+                        arguments.hasOption("kdemethod") ||
                         arguments.hasOption("mcmclog") ||
-                        arguments.hasOption("allelic")) {
-                    Log.err.println("-cached flag conflicts with -estimates, -kdedist, -mcmclog, and -allelic");
+                        arguments.hasOption("allelic") ||
+                        arguments.hasOption("mediansketch")) {
+                    Log.err.println("-cached flag conflicts with -estimates, -kdedist, -kdemethod, -mcmclog, -allelic, and -mediansketch");
                     System.exit(1);
                 }
 
@@ -512,6 +518,14 @@ public class PostProcessor {
                     }
                 }
 
+                // Set how the KDE is evaluated for mode estimates
+                if (arguments.hasOption("kdemethod")) {
+                    String value = arguments.getStringOption("kdemethod").trim();
+                    if (value.equalsIgnoreCase("binned")) {
+                        modeKDEMethod = EstimatesTypeCollection.ModeKDEMethod.BINNED;
+                    }
+                }
+
                 // Set mcmcSamplesFileName
                 if (arguments.hasOption("mcmclog")) {
                     mcmcSamplesFileName = arguments.getStringOption("mcmclog");
@@ -526,6 +540,9 @@ public class PostProcessor {
                     allelicInfoFileName = arguments.getStringOption("allelic");
                 }
 
+                // Set how median estimates of allelic sequencing information are computed
+                sketchMedian = arguments.hasOption("mediansketch");
+
                 // Set gtAdoSamplesFileName
                 if (arguments.hasOption("gtado")) {
                     gtAdoSamplesFileName = arguments.getStringOption("gtado");
@@ -622,7 +639,9 @@ public class PostProcessor {
                             saveDetails,
                             cellThreshold,
                             useMeanRate,
-                            useOnlyBranchLength
+                            useOnlyBranchLength,
+                            sketchMedian,
+                            modeKDEMethod
                     );
                 }
             } catch (IOException e) {
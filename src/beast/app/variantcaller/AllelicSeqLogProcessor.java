@@ -2,15 +2,21 @@ package beast.app.variantcaller;
 
 import beast.core.Description;
 import beast.math.util.MathFunctions;
+import beast.math.util.StreamingQuantile;
 import beast.util.NoFileHeaderFoundException;
 import beast.util.NoMatchLengthException;
 import beast.util.NotSingleException;
+import org.jetbrains.annotations.NotNull;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 @Description("Load allelic sequencing log in an independent thread for variant calling.")
 public class AllelicSeqLogProcessor implements Runnable {
@@ -20,11 +26,25 @@ public class AllelicSeqLogProcessor implements Runnable {
     //*                  Variables                  *
     //***********************************************
 
+    // number of lines parsed by the threads at a time
+    private final static int BATCH_SIZE = 64;
+
+    private final static int BUFFER_SIZE = 1 << 16;
+
     private int numOfThreads = 1;
     private ExecutorService pool = null;
 
     private final String inputFileName;
 
+    private EstimatesTypeCollection.EstimatesType estimatesType;
+    private int burninPercentage;
+
+    // whether median estimates are approximated with streaming P-square estimates rather than computed from all samples
+    private boolean sketchMedian;
+
+    // how the KDE is evaluated for mode estimates
+    private EstimatesTypeCollection.ModeKDEMethod modeKDEMethod;
+
     private List<AllelicSeqLogEstimatesCaller> allelicSeqLogEstimatesCaller;
 
     private int numOfMatrices = 0;
@@ -48,6 +68,37 @@ public class AllelicSeqLogProcessor implements Runnable {
                                   EstimatesTypeCollection.EstimatesType estimatesType,
                                   EstimatesTypeCollection.ModeKDEType modeKDEType,
                                   int burninPercentage) {
+        this(numOfThreads, inputFileName, out, estimatesType, modeKDEType, burninPercentage, false);
+    }
+
+    /**
+     * @param sketchMedian whether median estimates are approximated with streaming P-square estimates, keeping five
+     *                     markers per value instead of all samples (by default, exact medians are computed)
+     */
+    public AllelicSeqLogProcessor(int numOfThreads,
+                                  final String inputFileName,
+                                  final PrintStream out,
+                                  EstimatesTypeCollection.EstimatesType estimatesType,
+                                  EstimatesTypeCollection.ModeKDEType modeKDEType,
+                                  int burninPercentage,
+                                  boolean sketchMedian) {
+        this(numOfThreads, inputFileName, out, estimatesType, modeKDEType, burninPercentage, sketchMedian,
+                EstimatesTypeCollection.ModeKDEMethod.EXACT);
+    }
+
+    /**
+     * @param sketchMedian  whether median estimates are approximated with streaming P-square estimates, keeping five
+     *                      markers per value instead of all samples (by default, exact medians are computed)
+     * @param modeKDEMethod how the KDE is evaluated for mode estimates
+     */
+    public AllelicSeqLogProcessor(int numOfThreads,
+                                  final String inputFileName,
+                                  final PrintStream out,
+                                  EstimatesTypeCollection.EstimatesType estimatesType,
+                                  EstimatesTypeCollection.ModeKDEType modeKDEType,
+                                  int burninPercentage,
+                                  boolean sketchMedian,
+                                  EstimatesTypeCollection.ModeKDEMethod modeKDEMethod) {
         this.numOfThreads = numOfThreads;
         this.inputFileName = inputFileName;
         AllelicSeqLogProcessor.out = out;
@@ -58,10 +109,14 @@ public class AllelicSeqLogProcessor implements Runnable {
 
         this.sitesMap = new HashMap<>();
 
+        this.estimatesType = estimatesType;
+        this.burninPercentage = burninPercentage;
+        this.sketchMedian = sketchMedian;
+        this.modeKDEMethod = modeKDEMethod;
+
         allelicSeqLogEstimatesCaller = new ArrayList<>();
         for (int i = 0; i < numOfThreads; i++) {
-            allelicSeqLogEstimatesCaller.add(new AllelicSeqLogEstimatesCaller(i,
-                    estimatesType, modeKDEType, burninPercentage));
+            allelicSeqLogEstimatesCaller.add(new AllelicSeqLogEstimatesCaller(i, estimatesType));
         }
 
         this.allelicSeqEstimates = new HashMap<>();
@@ -93,70 +148,170 @@ public class AllelicSeqLogProcessor implements Runnable {
     //*                   Methods                   *
     //***********************************************
 
+    /**
+     * Parse the allelic sequencing log.
+     * <p>
+     * The log is read twice at the byte level: the first pass counts the samples so that burn-in samples are skipped
+     * in the second pass without being parsed. Values of each site are fed to the estimator of the thread owning the
+     * site, so that only the statistics needed by the requested estimates are kept.
+     *
+     * @throws IOException                if failed to read
+     * @throws NoFileHeaderFoundException if a sample comes before the header
+     * @throws NoMatchLengthException     if a sample has unexpected number of values or matrices
+     */
     public void getAllelicSeqInfo() throws IOException, NoFileHeaderFoundException, NoMatchLengthException {
-        BufferedReader fin = new BufferedReader(new FileReader(this.inputFileName));
-        String str;
-        String[] parsedLine;
-        String[] sites = new String[0];
+        final int numOfSamples = countSamples();
+        final int burninCount = Math.max(0, (this.burninPercentage * numOfSamples) / 100);
+
+        String[] sites = null;
         int numOfSites = 0;
+        int sampleIndex = 0;
 
-        if (!fin.ready()) {
-            throw new IOException(this.inputFileName + " appears to be empty.");
-        }
+        final LineBatch batch = new LineBatch();
 
-        while (fin.ready()) {
-            str = fin.readLine().trim();
+        try (LineReader fin = new LineReader(this.inputFileName)) {
+            while (fin.readLine(batch, batch.size)) {
+                final int k = batch.size;
+                final ByteBuffer line = batch.buffers[k];
+                final int length = batch.lengths[k];
 
-            if (!str.startsWith("#")) {
-                parsedLine = str.split("\t");
+                if (length == 0) continue;
 
-                if (parsedLine[0].trim().equals("Sample")) {
-                    numOfSites = parsedLine.length - 1;
-                    sites = new String[numOfSites];
-                    System.arraycopy(parsedLine, 1, sites, 0, numOfSites);
-                } else {
-                    if (numOfSites == 0) {
-                        throw new NoFileHeaderFoundException(this.inputFileName + " contains no headers. Cannot " +
-                                "match the IDs.");
-                    } else if (numOfSites != parsedLine.length - 1) {
-                        throw new NoMatchLengthException(this.inputFileName + " contains a sample (" + parsedLine[0] +
-                                ") which has different values (" + (parsedLine.length - 1) + ") than expected (" +
-                                numOfSites + ").");
-                    } else {
-                        for (int i = 0; i < numOfSites; i++) {
-                            String[] tmpParsed = parsedLine[i + 1].trim().split(";");
-
-                            if (this.numOfMatrices == 0) {
-                                this.numOfMatrices = tmpParsed.length;
-                            } else {
-                                if (this.numOfMatrices != tmpParsed.length) {
-                                    throw new NoMatchLengthException("Expected number of matrices is " + this.numOfMatrices +
-                                            ", but " + tmpParsed.length + " matrices are found for site " + (i + 1) +
-                                            " at sample " + parsedLine[0]);
-                                }
-                            }
+                if (line.get(0) == '#') {
+                    // comments
+                    if (startsWith(line, length, "#site")) {
+                        final String str = decode(line, 0, length);
+                        this.sitesMapStr = appendToStr(this.sitesMapStr, str);
 
-                            for (int j = 0; j < this.numOfMatrices; j++) {
-                                put(i % this.numOfThreads, sites[i], this.numOfMatrices, j, tmpParsed[j].split(","));
-                            }
-                        }
+                        String[] parsedLine = str.substring(1).split("->");
+                        sitesMap.put(parsedLine[1], parsedLine[0]);
+                    }
+
+                    continue;
+                }
+
+                if (isHeader(line, length)) {
+                    if (sites == null) {
+                        String[] parsedLine = decode(line, 0, length).split("\t");
+                        numOfSites = parsedLine.length - 1;
+                        sites = Arrays.copyOfRange(parsedLine, 1, parsedLine.length);
                     }
+
+                    continue;
                 }
-            } else {
-                // comments
-                if (str.startsWith("#site")) {
-                    this.sitesMapStr = appendToStr(this.sitesMapStr, str);
 
-                    str = str.substring(1);
-                    parsedLine = str.split("->");
-                    sitesMap.put(parsedLine[1], parsedLine[0]);
+                if (sites == null) {
+                    throw new NoFileHeaderFoundException(this.inputFileName + " contains no headers. Cannot " +
+                            "match the IDs.");
+                }
+
+                // locate fields
+                if (batch.fieldEnds[k] == null || batch.fieldEnds[k].length != numOfSites + 1)
+                    batch.fieldEnds[k] = new int[numOfSites + 1];
+
+                final int numOfFields = splitFields(line, length, batch.fieldEnds[k]);
+                if (numOfFields != numOfSites + 1) {
+                    throw new NoMatchLengthException(this.inputFileName + " contains a sample (" +
+                            decode(line, 0, batch.fieldEnds[k][0]) + ") which has different values (" +
+                            (numOfFields - 1) + ") than expected (" + numOfSites + ").");
+                }
+
+                // burn-in samples are only checked
+                if (sampleIndex++ < burninCount) continue;
+
+                if (this.numOfMatrices == 0) {
+                    this.numOfMatrices = numOfSites == 0 ? 0 :
+                            count(line, batch.fieldEnds[k][0] + 1, batch.fieldEnds[k][1], ';') + 1;
+
+                    // shard sites across threads
+                    for (int i = 0; i < this.numOfThreads; i++) {
+                        allelicSeqLogEstimatesCaller.get(i).initLog(
+                                sites,
+                                (int) ((long) i * numOfSites / this.numOfThreads),
+                                (int) ((long) (i + 1) * numOfSites / this.numOfThreads),
+                                this.numOfMatrices,
+                                numOfSamples - burninCount
+                        );
+                    }
                 }
+
+                batch.size++;
+                if (batch.size == BATCH_SIZE)
+                    putLog(batch);
             }
-        }
 
-        fin.close();
+            putLog(batch);
+        }
     } // getAllelicSeqInfo
 
+    /**
+     * Count the samples in the log, i.e. lines which are neither empty, comments nor headers.
+     *
+     * @return number of samples
+     * @throws IOException if failed to read or the log is empty
+     */
+    private int countSamples() throws IOException {
+        int numOfSamples = 0;
+        boolean isEmpty = true;
+
+        final LineBatch batch = new LineBatch();
+
+        try (LineReader fin = new LineReader(this.inputFileName)) {
+            while (fin.readLine(batch, 0)) {
+                isEmpty = false;
+
+                final ByteBuffer line = batch.buffers[0];
+                final int length = batch.lengths[0];
+
+                if (length > 0 && line.get(0) != '#' && !isHeader(line, length))
+                    numOfSamples++;
+            }
+        }
+
+        if (isEmpty) {
+            throw new IOException(this.inputFileName + " appears to be empty.");
+        }
+
+        return numOfSamples;
+    } // countSamples
+
+    /**
+     * Feed a batch of samples to the threads, each of which parses the sites it owns.
+     *
+     * @param batch apparently
+     * @throws NoMatchLengthException if a sample has unexpected number of matrices
+     */
+    private void putLog(@NotNull LineBatch batch) throws NoMatchLengthException {
+        if (batch.size == 0) return;
+
+        try {
+            if (this.numOfThreads > 1) {
+                List<Callable<Void>> tasks = new ArrayList<>(this.numOfThreads);
+                for (AllelicSeqLogEstimatesCaller caller : allelicSeqLogEstimatesCaller) {
+                    tasks.add(() -> {
+                        caller.putLog(batch);
+                        return null;
+                    });
+                }
+
+                for (Future<Void> future : pool.invokeAll(tasks))
+                    future.get();
+            } else {
+                allelicSeqLogEstimatesCaller.get(0).putLog(batch);
+            }
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+            System.exit(1);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof NoMatchLengthException)
+                throw (NoMatchLengthException) e.getCause();
+
+            throw new RuntimeException(e.getCause());
+        }
+
+        batch.size = 0;
+    } // putLog
+
     public void getCachedEstimates(Map<String, Map<String, Double>> mcmcSamplesEstimates,
                                    EstimatesTypeCollection estimatesTypeCollection) throws IOException, NullPointerException, NoMatchLengthException, NotSingleException {
         String str;
@@ -324,17 +479,6 @@ public class AllelicSeqLogProcessor implements Runnable {
         fin.close();
     } // getCachedEstimates
 
-    public void put(int id, String key, int numOfMatrices) {
-        if (this.allelicSeqLogEstimatesCaller.get(id).getLog(key) == null) {
-            this.allelicSeqLogEstimatesCaller.get(id).putLog(key, new ArrayList[numOfMatrices][2]);
-        }
-    } // put
-
-    public void put(int id, String key, int numOfMatrices, int matrixIndex, String[] values) {
-        put(id, key, numOfMatrices);
-        this.allelicSeqLogEstimatesCaller.get(id).putLog(key, matrixIndex, values);
-    } // put
-
     @Override
     public void run() {
         try {
@@ -372,6 +516,9 @@ public class AllelicSeqLogProcessor implements Runnable {
         } catch (InterruptedException e) {
             e.printStackTrace();
             System.exit(1);
+        } finally {
+            if (pool != null)
+                pool.shutdown();
         }
 
         for (AllelicSeqLogEstimatesCaller i : allelicSeqLogEstimatesCaller) {
@@ -396,58 +543,181 @@ public class AllelicSeqLogProcessor implements Runnable {
     } // getNumOfMatrices
 
 
+    //**********************************************
+    //*               Static methods               *
+    //**********************************************
+
+    private static boolean isHeader(@NotNull ByteBuffer line, final int length) {
+        return startsWith(line, length, "Sample") && (length == 6 || line.get(6) <= ' ');
+    } // isHeader
+
+    private static boolean startsWith(@NotNull ByteBuffer line, final int length, @NotNull final String prefix) {
+        if (length < prefix.length()) return false;
+
+        for (int i = 0; i < prefix.length(); i++) {
+            if (line.get(i) != prefix.charAt(i))
+                return false;
+        }
+
+        return true;
+    } // startsWith
+
+    /**
+     * Locate tab-separated fields of a line.
+     *
+     * @param line      apparently
+     * @param length    apparently
+     * @param fieldEnds output; the end (exclusive) of each field, as long as there is room
+     * @return number of fields
+     */
+    private static int splitFields(@NotNull ByteBuffer line, final int length, int @NotNull [] fieldEnds) {
+        int numOfFields = 0;
+
+        for (int i = 0; i <= length; i++) {
+            if (i == length || line.get(i) == '\t') {
+                if (numOfFields < fieldEnds.length)
+                    fieldEnds[numOfFields] = i;
+
+                numOfFields++;
+            }
+        }
+
+        return numOfFields;
+    } // splitFields
+
+    private static int count(@NotNull ByteBuffer line, final int from, final int to, final char c) {
+        int count = 0;
+
+        for (int i = from; i < to; i++) {
+            if (line.get(i) == c)
+                count++;
+        }
+
+        return count;
+    } // count
+
+    private static int indexOf(@NotNull ByteBuffer line, final int from, final int to, final char c) {
+        for (int i = from; i < to; i++) {
+            if (line.get(i) == c)
+                return i;
+        }
+
+        return to;
+    } // indexOf
+
+    private static String decode(@NotNull ByteBuffer line, final int from, final int to) {
+        final byte[] bytes = new byte[to - from];
+        for (int i = 0; i < bytes.length; i++)
+            bytes[i] = line.get(from + i);
+
+        return new String(bytes, StandardCharsets.UTF_8);
+    } // decode
+
+
     //**********************************************
     //*               Nested classes               *
     //**********************************************
 
     class AllelicSeqLogEstimatesCaller implements Callable<Double> {
 
-        // 1st dimension: number of matrices
-        // 2nd dimension: 0: cov; 1: var
-        private Map<String, List<Double>[][]> allelicSeqLog;
+        // 1st dimension: sites owned by this thread
+        // 2nd dimension: number of matrices
+        // 3rd dimension: 0: cov; 1: var
+        private SampleEstimator[][][] allelicSeqLog;
         private Map<String, Map<String, double[][]>> allelicSeqEstimates;
 
         private final int threadNr;
 
         private EstimatesTypeCollection.EstimatesType estimatesType;
-        private EstimatesTypeCollection.ModeKDEType modeKDEType;
-        private int burninPercentage;
+
+        private String[] sites;
+        private int fromSite;
+        private int toSite;
+        private int numOfMatrices;
 
         public AllelicSeqLogEstimatesCaller(int threadNr,
-                                            EstimatesTypeCollection.EstimatesType estimatesType,
-                                            EstimatesTypeCollection.ModeKDEType modeKDEType,
-                                            int burninPercentage) {
+                                            EstimatesTypeCollection.EstimatesType estimatesType) {
             this.threadNr = threadNr;
             this.estimatesType = estimatesType;
-            this.modeKDEType = modeKDEType;
-            this.burninPercentage = burninPercentage;
 
-            allelicSeqLog = new HashMap<>();
+            allelicSeqLog = new SampleEstimator[0][][];
             allelicSeqEstimates = new HashMap<>();
         }
 
-        public void putLog(String key, List<Double>[][] value) {
-            allelicSeqLog.put(key, value);
-        } // putLog
+        /**
+         * Allocate estimators for sites between {@param fromSite} (inclusive) and {@param toSite} (exclusive).
+         *
+         * @param sites         names of all sites
+         * @param fromSite      apparently
+         * @param toSite        apparently
+         * @param numOfMatrices apparently
+         * @param numOfSamples  number of samples after burn-in
+         */
+        public void initLog(String[] sites, int fromSite, int toSite, int numOfMatrices, int numOfSamples) {
+            this.sites = sites;
+            this.fromSite = fromSite;
+            this.toSite = toSite;
+            this.numOfMatrices = numOfMatrices;
+
+            allelicSeqLog = new SampleEstimator[toSite - fromSite][numOfMatrices][2];
+            for (SampleEstimator[][] site : allelicSeqLog) {
+                for (SampleEstimator[] matrix : site) {
+                    for (int j = 0; j < 2; j++) {
+                        if (this.estimatesType == EstimatesTypeCollection.EstimatesType.MEAN)
+                            matrix[j] = new MeanEstimator();
+                        else if (this.estimatesType == EstimatesTypeCollection.EstimatesType.MEDIAN && sketchMedian)
+                            matrix[j] = new MedianEstimator();
+                        else
+                            matrix[j] = new SampleBuffer(this.estimatesType, modeKDEMethod, numOfSamples);
+                    }
+                }
+            }
+        } // initLog
+
+        /**
+         * Parse values of the owned sites from a batch of samples.
+         *
+         * @param batch apparently
+         * @throws NoMatchLengthException if a sample has unexpected number of matrices
+         */
+        public void putLog(@NotNull LineBatch batch) throws NoMatchLengthException {
+            for (int k = 0; k < batch.size; k++) {
+                final ByteBuffer line = batch.buffers[k];
+                final int[] fieldEnds = batch.fieldEnds[k];
+
+                for (int i = fromSite; i < toSite; i++) {
+                    final int to = fieldEnds[i + 1];
+                    int start = fieldEnds[i] + 1;
+
+                    final SampleEstimator[][] site = allelicSeqLog[i - fromSite];
+
+                    for (int j = 0; j < this.numOfMatrices; j++) {
+                        final int end = indexOf(line, start, to, ';');
+
+                        // too few or too many matrices
+                        if (start > to || (j == this.numOfMatrices - 1 && end != to)) {
+                            throw new NoMatchLengthException("Expected number of matrices is " + this.numOfMatrices +
+                                    ", but " + (count(line, fieldEnds[i] + 1, to, ';') + 1) +
+                                    " matrices are found for site " + (i + 1) + " at sample " +
+                                    decode(line, 0, fieldEnds[0]));
+                        }
 
-        public void putLog(String key, int matrixIndex, String[] values) {
-            List<Double>[][] tmp = getLog(key);
+                        final int comma = indexOf(line, start, end, ',');
+                        if (comma == end) {
+                            throw new NoMatchLengthException("Expected allelic sequencing coverage and raw variance " +
+                                    "for matrix " + (j + 1) + " of site " + (i + 1) + " at sample " +
+                                    decode(line, 0, fieldEnds[0]) + ", but only one value is found.");
+                        }
 
-            if (tmp[matrixIndex][0] == null) {
-                tmp[matrixIndex][0] = new ArrayList<>();
-            }
-            tmp[matrixIndex][0].add(Double.valueOf(values[0]));
+                        site[j][0].add(TraceLog.parseDouble(line, start, comma));
+                        site[j][1].add(TraceLog.parseDouble(line, comma + 1, indexOf(line, comma + 1, end, ',')));
 
-            if (tmp[matrixIndex][1] == null) {
-                tmp[matrixIndex][1] = new ArrayList<>();
+                        start = end + 1;
+                    }
+                }
             }
-            tmp[matrixIndex][1].add(Double.valueOf(values[1]));
         } // putLog
 
-        public List<Double>[][] getLog(String key) {
-            return allelicSeqLog.get(key);
-        } // getLog
-
         public Map<String, Map<String, double[][]>> getAllelicSeqEstimates() {
             return this.allelicSeqEstimates;
         } // collectAllelicSeqEstimates
@@ -457,12 +727,19 @@ public class AllelicSeqLogProcessor implements Runnable {
             AllelicSeqLogProcessor.out.println(">>> Thread " + this.threadNr + " is starting...");
 
             try {
-                MathFunctions.getArrEstimates(
-                        this.estimatesType,
-                        this.burninPercentage,
-                        this.allelicSeqLog,
-                        this.allelicSeqEstimates
-                );
+                for (int i = fromSite; i < toSite; i++) {
+                    Map<String, double[][]> estimates = new HashMap<>();
+
+                    for (int j = 0; j < this.numOfMatrices; j++) {
+                        for (int k = 0; k < 2; k++)
+                            allelicSeqLog[i - fromSite][j][k].putEstimates(estimates, this.numOfMatrices, j, k);
+                    }
+
+                    // release samples as soon as possible
+                    allelicSeqLog[i - fromSite] = null;
+
+                    this.allelicSeqEstimates.put(this.sites[i], estimates);
+                }
             } catch (Exception e) {
                 AllelicSeqLogProcessor.out.println("Something went wrong in thread " + this.threadNr);
                 e.printStackTrace();
@@ -476,4 +753,204 @@ public class AllelicSeqLogProcessor implements Runnable {
 
     } // class AllelicSeqLogEstimatesCaller
 
+    /**
+     * Samples of one value (allelic sequencing coverage or raw variance of a matrix at a site).
+     */
+    private interface SampleEstimator {
+
+        void add(double value);
+
+        /**
+         * @param estimates     output
+         * @param numOfMatrices the number of matrices
+         * @param matrixIndex   which matrix it is?
+         * @param index         allelic sequencing coverage or raw variance?
+         */
+        void putEstimates(Map<String, double[][]> estimates, int numOfMatrices, int matrixIndex, int index);
+
+    } // interface SampleEstimator
+
+    /**
+     * Keeps all samples, for median and mode estimates.
+     */
+    private static class SampleBuffer implements SampleEstimator {
+
+        private final EstimatesTypeCollection.EstimatesType estimatesType;
+        private final EstimatesTypeCollection.ModeKDEMethod modeKDEMethod;
+
+        private double[] values;
+        private int size = 0;
+
+        SampleBuffer(
+                EstimatesTypeCollection.EstimatesType estimatesType,
+                EstimatesTypeCollection.ModeKDEMethod modeKDEMethod,
+                int capacity
+        ) {
+            this.estimatesType = estimatesType;
+            this.modeKDEMethod = modeKDEMethod;
+            this.values = new double[Math.max(1, capacity)];
+        }
+
+        @Override
+        public void add(double value) {
+            if (size == values.length)
+                values = Arrays.copyOf(values, 2 * size);
+
+            values[size++] = value;
+        } // add
+
+        @Override
+        public void putEstimates(Map<String, double[][]> estimates, int numOfMatrices, int matrixIndex, int index) {
+            MathFunctions.getArrEstimates(
+                    this.estimatesType,
+                    this.modeKDEMethod,
+                    size == values.length ? values : Arrays.copyOf(values, size),
+                    estimates,
+                    numOfMatrices,
+                    matrixIndex,
+                    2,
+                    index
+            );
+        } // putEstimates
+
+    } // class SampleBuffer
+
+    private static class MeanEstimator implements SampleEstimator {
+
+        private double sum = 0;
+        private int size = 0;
+
+        @Override
+        public void add(double value) {
+            sum += value;
+            size++;
+        } // add
+
+        @Override
+        public void putEstimates(Map<String, double[][]> estimates, int numOfMatrices, int matrixIndex, int index) {
+            estimates.computeIfAbsent(EstimatesTypeCollection.EstimatesType.MEAN.toString().toLowerCase(), k -> new double[numOfMatrices][2]);
+            estimates.get(EstimatesTypeCollection.EstimatesType.MEAN.toString().toLowerCase())[matrixIndex][index] = sum / size;
+        } // putEstimates
+
+    } // class MeanEstimator
+
+    private static class MedianEstimator implements SampleEstimator {
+
+        private final StreamingQuantile median = new StreamingQuantile(0.5);
+
+        @Override
+        public void add(double value) {
+            median.add(value);
+        } // add
+
+        @Override
+        public void putEstimates(Map<String, double[][]> estimates, int numOfMatrices, int matrixIndex, int index) {
+            estimates.computeIfAbsent(EstimatesTypeCollection.EstimatesType.MEDIAN.toString().toLowerCase(), k -> new double[numOfMatrices][2]);
+            estimates.get(EstimatesTypeCollection.EstimatesType.MEDIAN.toString().toLowerCase())[matrixIndex][index] = median.getQuantile();
+        } // putEstimates
+
+    } // class MedianEstimator
+
+    /**
+     * Reusable buffers of lines read from the log.
+     */
+    private static class LineBatch {
+
+        private final byte[][] bytes = new byte[BATCH_SIZE][];
+        private final ByteBuffer[] buffers = new ByteBuffer[BATCH_SIZE];
+        private final int[] lengths = new int[BATCH_SIZE];
+        private final int[][] fieldEnds = new int[BATCH_SIZE][];
+
+        private int size = 0;
+
+    } // class LineBatch
+
+    /**
+     * Reads trimmed lines as bytes.
+     */
+    private static class LineReader implements Closeable {
+
+        private final InputStream in;
+
+        private final byte[] buffer = new byte[BUFFER_SIZE];
+        private int position = 0;
+        private int limit = 0;
+
+        LineReader(String fileName) throws FileNotFoundException {
+            this.in = new FileInputStream(fileName);
+        }
+
+        /**
+         * @param batch where the line is stored
+         * @param k     index of the line in {@param batch}
+         * @return false if the end of file is reached
+         * @throws IOException if failed to read
+         */
+        boolean readLine(@NotNull LineBatch batch, int k) throws IOException {
+            if (batch.bytes[k] == null) {
+                batch.bytes[k] = new byte[1 << 10];
+                batch.buffers[k] = ByteBuffer.wrap(batch.bytes[k]);
+            }
+
+            byte[] bytes = batch.bytes[k];
+            int length = 0;
+            boolean isEOF = true;
+
+            while (true) {
+                if (position == limit) {
+                    limit = in.read(buffer);
+                    position = 0;
+
+                    if (limit <= 0) {
+                        limit = 0;
+                        break;
+                    }
+                }
+
+                isEOF = false;
+
+                int end = position;
+                while (end < limit && buffer[end] != '\n') end++;
+
+                if (length + end - position > bytes.length) {
+                    bytes = Arrays.copyOf(bytes, Math.max(2 * bytes.length, length + end - position));
+                    batch.bytes[k] = bytes;
+                    batch.buffers[k] = ByteBuffer.wrap(bytes);
+                }
+
+                System.arraycopy(buffer, position, bytes, length, end - position);
+                length += end - position;
+
+                if (end < limit) {
+                    position = end + 1;
+                    break;
+                }
+
+                position = limit;
+            }
+
+            if (isEOF)
+                return false;
+
+            // trim
+            int from = 0;
+            while (from < length && bytes[from] <= ' ') from++;
+            while (length > from && bytes[length - 1] <= ' ') length--;
+
+            if (from > 0) {
+                System.arraycopy(bytes, from, bytes, 0, length - from);
+                length -= from;
+            }
+
+            batch.lengths[k] = length;
+            return true;
+        } // readLine
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        } // close
+
+    } // class LineReader
+
 }
@@ -46,9 +46,28 @@ public class EstimatesTypeCollection {
         }
     }
 
+    public enum ModeKDEMethod {
+        EXACT("exact"),
+        BINNED("binned");
+
+        String desc;
+
+        ModeKDEMethod(String s) {
+            desc = s;
+        }
+
+        @Override
+        public String toString() {
+            return desc;
+        }
+    }
+
     private EstimatesType estimatesType;
     private ModeKDEType modeKDEType;
 
+    // how the KDE is evaluated for mode estimates
+    private ModeKDEMethod modeKDEMethod = ModeKDEMethod.EXACT;
+
 
     //***********************************************
     //*                 Constructor                 *
@@ -64,6 +83,12 @@ public class EstimatesTypeCollection {
         this.modeKDEType = modeKDEType;
     }
 
+    public EstimatesTypeCollection(EstimatesType estimatesType, ModeKDEType modeKDEType, ModeKDEMethod modeKDEMethod) {
+        this.estimatesType = estimatesType;
+        this.modeKDEType = modeKDEType;
+        this.modeKDEMethod = modeKDEMethod;
+    }
+
 
     //***********************************************
     //*                   Methods                   *
@@ -77,6 +102,10 @@ public class EstimatesTypeCollection {
         this.modeKDEType = modeKDEType;
     }
 
+    public void setModeKDEMethod(ModeKDEMethod modeKDEMethod) {
+        this.modeKDEMethod = modeKDEMethod;
+    }
+
     public EstimatesType getEstimatesType() {
         return this.estimatesType;
     }
@@ -85,4 +114,8 @@ public class EstimatesTypeCollection {
         return this.modeKDEType;
     }
 
+    public ModeKDEMethod getModeKDEMethod() {
+        return this.modeKDEMethod;
+    }
+
 }
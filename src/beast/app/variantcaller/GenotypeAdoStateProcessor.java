@@ -3,27 +3,38 @@ package beast.app.variantcaller;
 import beast.evolution.alignment.VariantSiteInfo;
 import org.jetbrains.annotations.NotNull;
 
-import java.io.BufferedReader;
-import java.io.FileReader;
-import java.io.IOException;
-import java.io.PrintStream;
+import java.io.*;
 import java.util.*;
 import java.util.concurrent.*;
 
+/**
+ * Summarise genotypes and ADO states sampled during MCMC.
+ * <p>
+ * The log is streamed once after counting its samples. Each thread owns a disjoint range of sites and counts, for
+ * every (site, cell), how often each genotype and ADO state is sampled after burn-in; no sample is stored.
+ */
 public class GenotypeAdoStateProcessor {
 
+    // number of lines parsed by the threads at a time
+    private final static int BATCH_SIZE = 64;
+
     private final String inputFileName;
     private final double burnin;
 
     private final int threadNum;
     private final ExecutorService threadPool;
-    private GenotypeAdoState[] genotypeAdoStates = null;
 
     private final String genotypeFileName;
     private final String adoStateFileName;
 
     List<SampleProcessor> sampleProcessors;
 
+    private int cellNum = 0;
+    private int siteNum = 0;
+    private String[] cellNames = null;
+    private String[] pseudoSiteNames = null;
+    private final Map<String, VariantSiteInfo> siteNamesMap;
+
     private static PrintStream out;
 
     public GenotypeAdoStateProcessor(
@@ -35,7 +46,7 @@ public class GenotypeAdoStateProcessor {
             final PrintStream out
     ) {
         this.threadNum = threadNum;
-        this.threadPool = Executors.newFixedThreadPool(threadNum);
+        this.threadPool = threadNum > 1 ? Executors.newFixedThreadPool(threadNum) : null;
 
         this.inputFileName = inputFileName;
         this.genotypeFileName = genotypeFileName;
@@ -43,110 +54,269 @@ public class GenotypeAdoStateProcessor {
         this.burnin = burninPercentage / 100.0;
 
         this.sampleProcessors = new ArrayList<>();
+        this.siteNamesMap = new HashMap<>();
 
         GenotypeAdoStateProcessor.out = out;
         SampleProcessor.setLogStream(out);
     }
 
     public void processGenotypeAdoStateSamples() throws IOException, InterruptedException, ExecutionException {
-        int cellNum = 0, siteNum = 0, sampleIndex = 0;
-        String[] cellNames, pseudoSiteNames = null;
-        Map<String, VariantSiteInfo> siteNamesMap = new HashMap<>();
-        String line;
+        try {
+            final int validSampleIndex = (int) Math.ceil(this.burnin * countSamples());
+            readSamples(validSampleIndex);
+
+            for (SampleProcessor processor : sampleProcessors)
+                processor.finish();
+        } finally {
+            if (threadPool != null)
+                threadPool.shutdown();
+        }
+
+        if (cellNames != null && cellNum != cellNames.length)
+            throw new RuntimeException("Error! The number of cells in samples does not match the number of real cell names.");
+
+        if (genotypeFileName != null)
+            saveModes(genotypeFileName, true);
+
+        if (adoStateFileName != null)
+            saveModes(adoStateFileName, false);
+    }
+
+    /**
+     * @return the number of samples, i.e. lines after the pseudo site names which are neither empty nor comments
+     * @throws IOException if failed to read or the file is empty
+     */
+    private int countSamples() throws IOException {
+        int sampleNum = 0;
+        boolean headerFound = false;
+
+        try (BufferedReader fin = new BufferedReader(new FileReader(this.inputFileName))) {
+            String line = fin.readLine();
+            if (line == null)
+                throw new IOException(this.inputFileName + " appears empty.");
+
+            for (; line != null; line = fin.readLine()) {
+                line = line.trim();
+
+                if (line.isEmpty() || line.startsWith("#")) continue;
+
+                if (headerFound)
+                    sampleNum++;
+                else
+                    headerFound = true;
+            }
+        }
+
+        return sampleNum;
+    }
 
-        Future<GenotypeAdoState[]>[] threadedGenotypeAdoStates = new Future[this.threadNum];
+    /**
+     * Stream samples to the threads in batches; samples with index smaller than {@param validSampleIndex} are burn-in
+     * and only checked.
+     *
+     * @param validSampleIndex apparently
+     * @throws IOException          if failed to read
+     * @throws InterruptedException if interrupted while waiting for the threads
+     * @throws ExecutionException   if a thread failed to parse a sample
+     */
+    private void readSamples(final int validSampleIndex) throws IOException, InterruptedException, ExecutionException {
+        int sampleIndex = 0;
+        long previousSample = Long.MIN_VALUE;
+
+        final String[] lines = new String[BATCH_SIZE];
+        final int[][] fieldEnds = new int[BATCH_SIZE][];
+        int batchSize = 0;
 
         /*
          * 0: processing the first line which contains pseudo site names.
-         * 1: reaching samples but the number of cells is unknown.
          * 2: processing samples.
          * 3: processing real cell names.
          * 4: processing real site names.
          */
         int mode = 0;
 
-        BufferedReader fin = new BufferedReader(new FileReader(this.inputFileName));
-        if (!fin.ready())
-            throw new IOException(this.inputFileName + " appears empty.");
-        while (fin.ready()) {
-            line = fin.readLine().trim();
-
-            if (line.isEmpty()) continue;
-
-            if (line.startsWith("#Cells:"))
-                mode = 3;
-            else if (line.startsWith("#Sites map")) {
-                mode = 4;
-                continue;
-            } else if (mode != 4 && line.startsWith("#"))
-                continue;
-
-            switch (mode) {
-                case 0:
-                    pseudoSiteNames = getPseudoSiteNames(line);
-                    siteNum = pseudoSiteNames.length;
-                    mode++;
-                    break;
-                case 1:
-                    cellNum = getCellNum(line);
-                    genotypeAdoStates = new GenotypeAdoState[cellNum * siteNum];
-                    for (int i = 0; i < this.threadNum; i++)
-//                        sampleProcessors.add(
-//                                new SampleProcessor(
-//                                        i,
-//                                        cellNum,
-//                                        siteNum,
-//                                        pseudoSiteNames
-//                                )
-//                        );
-                    mode++;
-                case 2:
-                    sampleProcessors.get(sampleIndex % this.threadNum).addLine(line);
-                    sampleIndex++;
-                    break;
-                case 3:
-                    for (int i = 0; i < this.threadNum; i++)
-                        threadedGenotypeAdoStates[i] = threadPool.submit(sampleProcessors.get(i));
-                    cellNames = getCellNames(line);
-                    if (cellNum != cellNames.length)
-                        throw new RuntimeException("Error! The number of cells in samples does not match the number of real cell names.");
-                    break;
-                case 4:
-                    processSiteMap(line, siteNamesMap);
-                    break;
-                default:
-                    throw new RuntimeException("Error! Unrecognized mode. The file containing samples of genotypes and ado states is illegally formed.");
+        try (BufferedReader fin = new BufferedReader(new FileReader(this.inputFileName))) {
+            String line;
+
+            while ((line = fin.readLine()) != null) {
+                line = line.trim();
+
+                if (line.isEmpty()) continue;
+
+                if (line.startsWith("#Cells:"))
+                    mode = 3;
+                else if (line.startsWith("#Sites map")) {
+                    mode = 4;
+                    continue;
+                } else if (mode != 4 && line.startsWith("#"))
+                    continue;
+
+                switch (mode) {
+                    case 0:
+                        pseudoSiteNames = getPseudoSiteNames(line);
+                        siteNum = pseudoSiteNames.length;
+                        mode = 2;
+                        break;
+                    case 2:
+                        if (fieldEnds[batchSize] == null || fieldEnds[batchSize].length != siteNum + 1)
+                            fieldEnds[batchSize] = new int[siteNum + 1];
+
+                        if (splitFields(line, fieldEnds[batchSize]) != siteNum + 1)
+                            throw new RuntimeException("Error! Sample " + getSampleName(line) + " has a different " +
+                                    "number of sites from the header (" + siteNum + ").");
+
+                        final long sample = Long.parseLong(line.substring(0, fieldEnds[batchSize][0]).trim());
+                        if (sample <= previousSample)
+                            throw new RuntimeException("Error! Duplicate or unordered samples found for sample " +
+                                    sample + ".");
+                        previousSample = sample;
+
+                        // burn-in
+                        if (sampleIndex++ < validSampleIndex) break;
+
+                        if (sampleProcessors.isEmpty())
+                            initSampleProcessors(line, fieldEnds[batchSize]);
+
+                        lines[batchSize++] = line;
+                        if (batchSize == BATCH_SIZE) {
+                            addSamples(lines, fieldEnds, batchSize);
+                            batchSize = 0;
+                        }
+                        break;
+                    case 3:
+                        cellNames = getCellNames(line);
+                        break;
+                    case 4:
+                        processSiteMap(line, siteNamesMap);
+                        break;
+                    default:
+                        throw new RuntimeException("Error! Unrecognized mode. The file containing samples of genotypes and ado states is illegally formed.");
+                }
             }
+
+            addSamples(lines, fieldEnds, batchSize);
         }
-        fin.close();
+    }
 
-        GenotypeAdoState.setValidSampleIndex((int) Math.ceil(this.burnin * sampleIndex));
+    private void initSampleProcessors(final String line, final int[] fieldEnds) {
+        cellNum = siteNum == 0 ? 0 : getCellNum(line, fieldEnds[0] + 1, fieldEnds[1]);
+
+        // shard sites across threads
+        for (int i = 0; i < this.threadNum; i++)
+            sampleProcessors.add(
+                    new SampleProcessor(
+                            i,
+                            cellNum,
+                            (int) ((long) i * siteNum / this.threadNum),
+                            (int) ((long) (i + 1) * siteNum / this.threadNum)
+                    )
+            );
+    }
+
+    private void addSamples(
+            final String[] lines,
+            final int[][] fieldEnds,
+            final int size
+    ) throws InterruptedException, ExecutionException {
+        if (size == 0) return;
+
+        if (threadPool == null) {
+            sampleProcessors.get(0).addSamples(lines, fieldEnds, size);
+            return;
+        }
+
+        List<Callable<Void>> tasks = new ArrayList<>(this.threadNum);
+        for (SampleProcessor processor : sampleProcessors)
+            tasks.add(() -> {
+                processor.addSamples(lines, fieldEnds, size);
+                return null;
+            });
+
+        for (Future<Void> future : threadPool.invokeAll(tasks))
+            future.get();
+    }
 
-        for (int i = 0; i < siteNum; i++) {
-            for (int j = 0; j < cellNum; j++) {
-                final int index = i * cellNum + j;
+    /**
+     * Write the most frequently sampled genotypes or ADO states, one line per site and one column per cell.
+     *
+     * @param fileName   apparently
+     * @param isGenotype genotypes if true, ADO states otherwise
+     * @throws IOException if failed to write
+     */
+    private void saveModes(final String fileName, final boolean isGenotype) throws IOException {
+        try (PrintStream fout = new PrintStream(new BufferedOutputStream(new FileOutputStream(fileName)))) {
+            if (cellNames != null)
+                fout.println("#Cells: " + String.join(",", cellNames));
 
-                for (int k = 0; k < threadNum; k++) {
-                    if (k == 0)
-                        genotypeAdoStates[index] = threadedGenotypeAdoStates[k].get()[index];
-                    else
-                        genotypeAdoStates[index].addSamples(threadedGenotypeAdoStates[k].get()[index].getSamples());
+            for (int i = 0; i < siteNum; i++) {
+                final VariantSiteInfo siteName = siteNamesMap.get(pseudoSiteNames[i]);
+                fout.print(siteName == null ? pseudoSiteNames[i] : siteName.toString(",", true));
+
+                for (int j = 0; j < cellNum; j++) {
+                    fout.print("\t");
+                    fout.print(isGenotype ? getModeGenotype(i, j) : getModeAdoState(i, j));
                 }
 
-                assert genotypeAdoStates[index].checkSampleSize(sampleIndex);
-                genotypeAdoStates[index].setSiteName(siteNamesMap.get(genotypeAdoStates[index].getPseudoSiteName()));
-                genotypeAdoStates[index].sortAndCount(true);
+                fout.println();
             }
         }
     }
 
+    private SampleProcessor getSampleProcessor(final int siteIndex) {
+        if (siteIndex < 0 || siteIndex >= siteNum)
+            throw new IllegalArgumentException("Error! Site index " + siteIndex + " out of range [0, " + siteNum + ").");
+
+        for (SampleProcessor processor : sampleProcessors)
+            if (processor.hasSite(siteIndex))
+                return processor;
+
+        throw new IllegalStateException("Error! No samples have been processed.");
+    }
+
+    public String getModeGenotype(int siteIndex, int cellIndex) {
+        return getSampleProcessor(siteIndex).getModeGenotype(siteIndex, cellIndex);
+    }
+
+    public int getModeAdoState(int siteIndex, int cellIndex) {
+        return getSampleProcessor(siteIndex).getModeAdoState(siteIndex, cellIndex);
+    }
+
+    public Map<String, Double> getGenotypeFreq(int siteIndex, int cellIndex) {
+        return getSampleProcessor(siteIndex).getGenotypeFreq(siteIndex, cellIndex);
+    }
+
+    public Map<Integer, Double> getAdoStateFreq(int siteIndex, int cellIndex) {
+        return getSampleProcessor(siteIndex).getAdoStateFreq(siteIndex, cellIndex);
+    }
+
+    public int getCellNum() {
+        return cellNum;
+    }
+
+    public int getSiteNum() {
+        return siteNum;
+    }
+
+    public String[] getCellNames() {
+        return cellNames;
+    }
+
+    public VariantSiteInfo getSiteName(int siteIndex) {
+        return siteNamesMap.get(pseudoSiteNames[siteIndex]);
+    }
+
     private String[] getPseudoSiteNames(final String line) {
         String[] parsedLine = line.split("\t");
         return Arrays.copyOfRange(parsedLine, 1, parsedLine.length);
     }
 
-    private int getCellNum(final String line) {
-        return line.split("\t")[1].split(";").length;
+    private int getCellNum(final String line, final int from, final int to) {
+        int num = 1;
+        for (int i = from; i < to; i++)
+            if (line.charAt(i) == ';')
+                num++;
+
+        return num;
     }
 
     private String[] getCellNames(final String line) {
@@ -170,241 +340,265 @@ public class GenotypeAdoStateProcessor {
                 );
     }
 
+    static String getSampleName(final String line) {
+        final int end = line.indexOf('\t');
+        return end < 0 ? line : line.substring(0, end);
+    }
+
+    /**
+     * @param line      apparently
+     * @param fieldEnds output; the end (exclusive) of each tab-separated field, as long as there is room
+     * @return number of fields
+     */
+    private static int splitFields(final String line, final int[] fieldEnds) {
+        int fieldNum = 0;
+
+        for (int i = 0; i <= line.length(); i++) {
+            if (i == line.length() || line.charAt(i) == '\t') {
+                if (fieldNum < fieldEnds.length)
+                    fieldEnds[fieldNum] = i;
+
+                fieldNum++;
+            }
+        }
+
+        return fieldNum;
+    }
+
 }
 
-class SampleProcessor implements Callable<GenotypeAdoState[]> {
+/**
+ * Counts genotypes and ADO states sampled for the sites between {@code fromSite} (inclusive) and {@code toSite}
+ * (exclusive).
+ */
+class SampleProcessor {
+
+    // ADO states are numbers of dropped alleles; larger ones indicate a corrupted log
+    final static int MAX_ADO_STATE = 255;
 
     private final int id;
-    private final List<String> lines;
     private final int cellNum;
-    private final int siteNum;
+    private final int fromSite;
+    private final int toSite;
     private static PrintStream out;
-    private final String[] pseudoSiteNames;
+
+    // genotypes seen so far, indexed by their codes
+    private final List<String> genotypes;
+
+    // [genotype code or ADO state][(site - fromSite) * cellNum + cell]
+    private final List<int[]> genotypeCounts;
+    private final List<int[]> adoStateCounts;
+
+    private int sampleNum = 0;
 
     public SampleProcessor(
             int id,
             int cellNum,
             int fromSite,
-            int toSite,
-            String[] pseudoSiteNames
+            int toSite
     ) {
         this.id = id;
-        this.lines = new ArrayList<>();
         this.cellNum = cellNum;
-        this.siteNum = toSite - fromSite;
-        this.pseudoSiteNames = new String[this.siteNum];
-        System.arraycopy(pseudoSiteNames, fromSite, this.pseudoSiteNames, 0, this.siteNum);
+        this.fromSite = fromSite;
+        this.toSite = toSite;
+
+        this.genotypes = new ArrayList<>();
+        this.genotypeCounts = new ArrayList<>();
+        this.adoStateCounts = new ArrayList<>();
     }
 
     public static void setLogStream(final PrintStream s) {
         out = s;
     }
 
-    public void addLine(final String line) {
-        this.lines.add(line);
+    public boolean hasSite(int siteIndex) {
+        return siteIndex >= fromSite && siteIndex < toSite;
     }
 
-    @Override
-    public GenotypeAdoState[] call() {
-        synchronized (SampleProcessor.class) {
-            out.println("[Thread " + this.id + "] Starting to process samples of genotypes and ado states...");
+    /**
+     * Count genotypes and ADO states of the owned sites in a batch of samples.
+     *
+     * @param lines     samples
+     * @param fieldEnds the end of each tab-separated field of the samples
+     * @param size      number of samples in the batch
+     */
+    public void addSamples(final String[] lines, final int[][] fieldEnds, final int size) {
+        if (sampleNum == 0) {
+            synchronized (SampleProcessor.class) {
+                out.println("[Thread " + this.id + "] Starting to process samples of genotypes and ado states...");
+            }
         }
 
-        GenotypeAdoState[] genotypeAdoStates = new GenotypeAdoState[this.siteNum * this.cellNum];
+        for (int k = 0; k < size; k++) {
+            final String line = lines[k];
 
-        for (String line : lines) {
-            final String[] parsedLine = line.trim().split("\t");
-            final long sample = Long.parseLong(parsedLine[0]);
+            for (int i = fromSite; i < toSite; i++) {
+                final int to = fieldEnds[k][i + 1];
+                int start = fieldEnds[k][i] + 1;
 
-            assert parsedLine.length == siteNum + 1;
+                for (int j = 0; j < cellNum; j++) {
+                    final int end = indexOf(line, ';', start, to);
 
-            for (int i = 0; i < siteNum; i++) {
-                final String[] parsedSite = parsedLine[i + 1].trim().split(";");
+                    if (start > to || (j == cellNum - 1 && end != to))
+                        throw new RuntimeException("Error! The number of cells at site " + (i + 1) + " of sample " +
+                                GenotypeAdoStateProcessor.getSampleName(line) + " is different from " + cellNum + ".");
 
-                assert parsedSite.length == cellNum;
+                    final int comma = indexOf(line, ',', start, end);
+                    if (comma == end)
+                        throw new RuntimeException("Error! Missing ADO state for cell " + (j + 1) + " at site " +
+                                (i + 1) + " of sample " + GenotypeAdoStateProcessor.getSampleName(line) + ".");
 
-                for (int j = 0; j < cellNum; j++) {
-                    final int index = i * cellNum + j;
-
-                    if (genotypeAdoStates[index] == null)
-                        genotypeAdoStates[index] = new GenotypeAdoState(pseudoSiteNames[i]);
-
-                    final String[] parsedCell = parsedSite[j].trim().split(",");
-                    genotypeAdoStates[index].addSample(
-                            new Sample(
-                                    sample,
-                                    parsedCell[0],
-                                    Integer.parseInt(parsedCell[1])
-                            )
-                    );
+                    final int index = (i - fromSite) * cellNum + j;
+                    count(genotypeCounts, getGenotypeCode(line, start, comma), genotypes.size() - 1, index);
+                    count(adoStateCounts, parseAdoState(line, comma + 1, end), MAX_ADO_STATE, index);
+
+                    start = end + 1;
                 }
             }
         }
 
+        sampleNum += size;
+    }
+
+    public void finish() {
         synchronized (SampleProcessor.class) {
             out.println("[Thread " + this.id + "] Done.");
         }
-
-        return genotypeAdoStates;
     }
 
-}
-
-class GenotypeAdoState {
-
-    static private int validSampleIndex = 0;
-
-    private final String pseudoSiteName;
-    private VariantSiteInfo siteName;
+    private void count(@NotNull List<int[]> counts, final int code, final int maxCode, final int index) {
+        if (code < 0 || code > maxCode)
+            throw new IllegalArgumentException("Error! Value " + code + " out of range [0, " + maxCode + "].");
 
-    private final List<Sample> samples;
+        while (counts.size() <= code)
+            counts.add(new int[(toSite - fromSite) * cellNum]);
 
-    private final Map<String, Integer> genotypeCount;
-    private final Map<Integer, Integer> adoStateCount;
-
-    private final Map<String, Double> genotypeFreq;
-    private final Map<Integer, Double> adoStateFreq;
-
-    public static void setValidSampleIndex(int val) {
-        validSampleIndex = val;
+        counts.get(code)[index]++;
     }
 
-    public GenotypeAdoState(String pseudoSiteName) {
-        this.pseudoSiteName = pseudoSiteName;
+    private int getGenotypeCode(final String line, int from, int to) {
+        while (from < to && line.charAt(from) <= ' ') from++;
+        while (to > from && line.charAt(to - 1) <= ' ') to--;
 
-        this.samples = new ArrayList<>();
-
-        this.genotypeCount = new HashMap<>();
-        this.adoStateCount = new HashMap<>();
+        final int len = to - from;
+        for (int i = 0; i < genotypes.size(); i++) {
+            final String genotype = genotypes.get(i);
+            if (genotype.length() == len && line.regionMatches(from, genotype, 0, len))
+                return i;
+        }
 
-        this.genotypeFreq = new HashMap<>();
-        this.adoStateFreq = new HashMap<>();
+        genotypes.add(line.substring(from, to));
+        return genotypes.size() - 1;
     }
 
-    public boolean checkSampleSize(int val) {
-        return val == samples.size();
-    }
+    private static int parseAdoState(final String line, int from, int to) {
+        while (from < to && line.charAt(from) <= ' ') from++;
+        while (to > from && line.charAt(to - 1) <= ' ') to--;
 
-    public void setSiteName(VariantSiteInfo siteName) {
-        this.siteName = siteName;
-    }
+        if (from == to || to - from > 9)
+            throw new NumberFormatException("Error! Illegal ADO state: " + line.substring(from, to));
 
-    public String getPseudoSiteName() {
-        return this.pseudoSiteName;
-    }
+        int val = 0;
+        for (int i = from; i < to; i++) {
+            final char c = line.charAt(i);
+            if (c < '0' || c > '9')
+                throw new NumberFormatException("Error! Illegal ADO state: " + line.substring(from, to));
 
-    public void addSample(Sample val) {
-        if (this.samples.contains(val))
-            throw new RuntimeException("Error! Duplicate samples found for sample " + val.getSample() + " and site " + pseudoSiteName);
+            val = 10 * val + (c - '0');
+        }
 
-        this.samples.add(val);
+        return val;
     }
 
-    public void addSamples(List<Sample> vals) {
-        this.samples.addAll(vals);
-    }
+    private static int indexOf(final String line, final char c, final int from, final int to) {
+        for (int i = from; i < to; i++)
+            if (line.charAt(i) == c)
+                return i;
 
-    public List<Sample> getSamples() {
-        return this.samples;
+        return to;
     }
 
-    public void sortAndCount(boolean doSort) {
-        if (doSort)
-            Collections.sort(this.samples);
-
-        for (int i = validSampleIndex; i < samples.size(); i++) {
-            final String genotype = samples.get(i).getGenotype();
-            final int adoState = samples.get(i).getAdoState();
-
-            genotypeCount.put(genotype, genotypeCount.getOrDefault(genotype, 0) + 1);
-            adoStateCount.put(adoState, adoStateCount.getOrDefault(adoState, 0) + 1);
+    /**
+     * @return the most frequent code, the smallest one among ties; -1 if no sample is counted
+     */
+    private static int getModeCode(@NotNull List<int[]> counts, final int index) {
+        int mode = -1;
+        int max = 0;
+
+        for (int i = 0; i < counts.size(); i++) {
+            if (counts.get(i)[index] > max) {
+                max = counts.get(i)[index];
+                mode = i;
+            }
         }
 
-        getFreqFromCount(genotypeCount, genotypeFreq);
-        getFreqFromCount(adoStateCount, adoStateFreq);
+        return mode;
     }
 
-    private static <K> void getFreqFromCount(
-            @NotNull Map<K, Integer> count,
-            @NotNull Map<K, Double> freq
-    ) {
-        final int valSum = Arrays.stream(count.values().toArray(new Integer[0])).mapToInt(Integer::intValue).sum();
+    private int getIndex(int siteIndex, int cellIndex) {
+        if (cellIndex < 0 || cellIndex >= cellNum)
+            throw new IllegalArgumentException("Error! Cell index " + cellIndex + " out of range [0, " + cellNum + ").");
 
-        for (K key : count.keySet())
-            freq.put(key, ((double) count.get(key)) / valSum);
+        return (siteIndex - fromSite) * cellNum + cellIndex;
     }
 
-}
-
-class Sample implements Comparable<Sample> {
-
-    private final long sample;
-    private final String genotype;
-    private final int adoState;
+    /**
+     * Ties are broken by the lexicographically smallest genotype rather than by genotype codes, which depend on the
+     * order genotypes are seen by each processor, and hence on the number of threads.
+     *
+     * @return the most frequently sampled genotype, or null if no sample is counted
+     */
+    public String getModeGenotype(int siteIndex, int cellIndex) {
+        final int index = getIndex(siteIndex, cellIndex);
 
-    public Sample() {
-        throw new RuntimeException("Error! Unsupported constructor.");
-    }
+        String mode = null;
+        int max = 0;
 
-    public Sample(
-            long sample,
-            String genotype,
-            int adoState
-    ) {
-        this.sample = sample;
-        this.genotype = genotype;
-        this.adoState = adoState;
-    }
+        for (int i = 0; i < genotypeCounts.size(); i++) {
+            final int count = genotypeCounts.get(i)[index];
 
-    public long getSample() {
-        return sample;
-    }
+            if (count > max || (count > 0 && count == max && genotypes.get(i).compareTo(mode) < 0)) {
+                max = count;
+                mode = genotypes.get(i);
+            }
+        }
 
-    public String getGenotype() {
-        return genotype;
+        return mode;
     }
 
-    public int getAdoState() {
-        return adoState;
+    /**
+     * Ties are broken by the smallest ADO state.
+     *
+     * @return the most frequently sampled ADO state, or -1 if no sample is counted
+     */
+    public int getModeAdoState(int siteIndex, int cellIndex) {
+        return getModeCode(adoStateCounts, getIndex(siteIndex, cellIndex));
     }
 
-    @Override
-    public boolean equals(Object o) {
-        if (this == o) return true;
-        if (o == null || getClass() != o.getClass()) return false;
+    public Map<String, Double> getGenotypeFreq(int siteIndex, int cellIndex) {
+        final int index = getIndex(siteIndex, cellIndex);
 
-        Sample sample1 = (Sample) o;
+        Map<String, Double> freq = new HashMap<>();
+        for (int i = 0; i < genotypeCounts.size(); i++)
+            if (genotypeCounts.get(i)[index] > 0)
+                freq.put(genotypes.get(i), ((double) genotypeCounts.get(i)[index]) / sampleNum);
 
-        if (sample != sample1.sample) return false;
-        if (adoState != sample1.adoState) return false;
-        return genotype.equals(sample1.genotype);
+        return freq;
     }
 
-    @Override
-    public int hashCode() {
-        int result = (int) (sample ^ (sample >>> 32));
-        result = 31 * result + genotype.hashCode();
-        result = 31 * result + adoState;
-        return result;
-    }
-
-    @Override
-    public int compareTo(@NotNull Sample o) {
-        if (this == o) return 0;
+    public Map<Integer, Double> getAdoStateFreq(int siteIndex, int cellIndex) {
+        final int index = getIndex(siteIndex, cellIndex);
 
-        if (this.sample > o.sample)
-            return 1;
-        else if (this.sample < o.sample)
-            return -1;
+        Map<Integer, Double> freq = new HashMap<>();
+        for (int i = 0; i < adoStateCounts.size(); i++)
+            if (adoStateCounts.get(i)[index] > 0)
+                freq.put(i, ((double) adoStateCounts.get(i)[index]) / sampleNum);
 
-        final int val = this.genotype.compareTo(o.genotype);
-        if (val != 0) return val;
+        return freq;
+    }
 
-        if (this.adoState > o.adoState)
-            return 1;
-        else if (this.adoState < o.adoState)
-            return -1;
-        return 0;
+    public int getSampleNum() {
+        return sampleNum;
     }
 
 }
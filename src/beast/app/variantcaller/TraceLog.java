@@ -0,0 +1,372 @@
+package beast.app.variantcaller;
+
+import beast.util.NoFileHeaderFoundException;
+import beast.util.NoMatchLengthException;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Column store of a tab-separated BEAST trace log.
+ * <p>
+ * The log is memory-mapped and scanned byte by byte; values are parsed in place and appended to growable primitive
+ * columns, one per logged variable (the 'Sample' column is dropped). Burn-in is applied as an offset to the columns.
+ */
+public class TraceLog {
+
+
+    //***********************************************
+    //*                  Variables                  *
+    //***********************************************
+
+    // size of each mapped window of the log
+    private final static long WINDOW_SIZE = 1L << 28;
+
+    private final static double[] POWERS_OF_TEN = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10,
+            1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+
+    private final String fileName;
+
+    private String[] variables = null;
+    private Map<String, Integer> variableIndices;
+
+    // columns[variable][sample]
+    private double[][] columns;
+    private int nrOfSamples = 0;
+
+
+    //**********************************************
+    //*                Constructors                *
+    //**********************************************
+
+    /**
+     * Load a trace log.
+     *
+     * @param fileName apparently
+     * @throws IOException                if failed to read or the log is empty
+     * @throws NoFileHeaderFoundException if a sample comes before the header
+     * @throws NoMatchLengthException     if a sample has a different number of values from the header
+     */
+    public TraceLog(final String fileName) throws IOException, NoFileHeaderFoundException, NoMatchLengthException {
+        this(fileName, WINDOW_SIZE);
+    }
+
+    /**
+     * Load a trace log, mapping at most {@param windowSize} bytes at a time.
+     *
+     * @param fileName   apparently
+     * @param windowSize size of each mapped window of the log, which must be longer than any line
+     * @throws IOException                if failed to read or the log is empty
+     * @throws NoFileHeaderFoundException if a sample comes before the header
+     * @throws NoMatchLengthException     if a sample has a different number of values from the header
+     */
+    TraceLog(
+            final String fileName,
+            final long windowSize
+    ) throws IOException, NoFileHeaderFoundException, NoMatchLengthException {
+        this.fileName = fileName;
+
+        try (RandomAccessFile file = new RandomAccessFile(new File(fileName), "r");
+             FileChannel channel = file.getChannel()) {
+            final long size = channel.size();
+
+            if (size == 0)
+                throw new IOException(fileName + " appears empty.");
+
+            long position = 0;
+            while (position < size) {
+                final int length = (int) Math.min(windowSize, size - position);
+                final MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+                final boolean last = position + length == size;
+
+                int lineStart = 0;
+                for (int i = 0; i < length; i++) {
+                    if (buffer.get(i) == '\n') {
+                        parseLine(buffer, lineStart, i);
+                        lineStart = i + 1;
+                    }
+                }
+
+                if (last) {
+                    if (lineStart < length)
+                        parseLine(buffer, lineStart, length);
+
+                    position = size;
+                } else {
+                    if (lineStart == 0)
+                        throw new IOException(fileName + " contains a line longer than " + windowSize + " bytes.");
+
+                    // the incomplete line is mapped again in the next window
+                    position += lineStart;
+                }
+            }
+        }
+
+        if (variables == null)
+            variables = new String[0];
+    }
+
+
+    //***********************************************
+    //*                   Methods                   *
+    //***********************************************
+
+    private void parseLine(
+            @NotNull ByteBuffer buffer,
+            int from,
+            int to
+    ) throws NoFileHeaderFoundException, NoMatchLengthException {
+        // trim
+        while (from < to && buffer.get(from) <= ' ') from++;
+        while (to > from && buffer.get(to - 1) <= ' ') to--;
+
+        if (from == to || buffer.get(from) == '#')
+            return;
+
+        if (startsWith(buffer, from, to, "Sample")) {
+            parseHeader(buffer, from, to);
+            return;
+        }
+
+        if (variables == null)
+            throw new NoFileHeaderFoundException(fileName + " contains no headers. Cannot match the IDs.");
+
+        if (columns.length > 0 && nrOfSamples == columns[0].length) {
+            final int capacity = 2 * nrOfSamples;
+            for (int i = 0; i < columns.length; i++)
+                columns[i] = Arrays.copyOf(columns[i], capacity);
+        }
+
+        // skip the 'Sample' column
+        int start = indexOf(buffer, from, to, '\t');
+        int index = 0;
+        while (start < to) {
+            final int end = indexOf(buffer, start + 1, to, '\t');
+
+            if (index < columns.length)
+                columns[index][nrOfSamples] = parseDouble(buffer, start + 1, end);
+
+            index++;
+            start = end;
+        }
+
+        if (index != variables.length)
+            throw new NoMatchLengthException(fileName + " contains a sample (" +
+                    decode(buffer, from, indexOf(buffer, from, to, '\t')) + ") which has more values (" + index +
+                    ") than expected (" + variables.length + ").");
+
+        nrOfSamples++;
+    } // parseLine
+
+    private void parseHeader(
+            @NotNull ByteBuffer buffer,
+            final int from,
+            final int to
+    ) {
+        final String[] names = decode(buffer, from, to).split("\t");
+
+        variables = Arrays.copyOfRange(names, 1, names.length);
+        variableIndices = new HashMap<>();
+        for (int i = 0; i < variables.length; i++)
+            variableIndices.put(variables[i], i);
+
+        columns = new double[variables.length][Math.max(16, nrOfSamples)];
+        nrOfSamples = 0;
+    } // parseHeader
+
+    /**
+     * Get the index of the first sample after burn-in.
+     *
+     * @param burninPercentage apparently
+     * @return offset to the columns
+     */
+    public int getBurninOffset(final int burninPercentage) {
+        return Math.max(0, (burninPercentage * nrOfSamples) / 100);
+    } // getBurninOffset
+
+
+    //***********************************************
+    //*              Getter and Setter              *
+    //***********************************************
+
+    public List<String> getVariables() {
+        return Collections.unmodifiableList(Arrays.asList(variables));
+    } // getVariables
+
+    /**
+     * The returned array is backed by the log and may be longer than the number of samples.
+     *
+     * @param variable name of a logged variable
+     * @return samples of the variable, or null if not logged
+     */
+    public double[] getColumn(final String variable) {
+        final Integer index = variableIndices == null ? null : variableIndices.get(variable);
+        return index == null ? null : columns[index];
+    } // getColumn
+
+    public int getNrOfSamples() {
+        return nrOfSamples;
+    } // getNrOfSamples
+
+
+    //**********************************************
+    //*               Static methods               *
+    //**********************************************
+
+    /**
+     * Parse a decimal number between {@param from} (inclusive) and {@param to} (exclusive) without creating strings.
+     * <p>
+     * Numbers whose digits fit into 53 bits and whose decimal exponent is within +/-22 are exactly converted with a
+     * single multiplication or division; others fall back to {@link Double#parseDouble(String)}, so that results are
+     * always identical to it.
+     *
+     * @param buffer apparently
+     * @param from   apparently
+     * @param to     apparently
+     * @return parsed value
+     */
+    public static double parseDouble(
+            @NotNull ByteBuffer buffer,
+            int from,
+            int to
+    ) {
+        // trim
+        while (from < to && buffer.get(from) <= ' ') from++;
+        while (to > from && buffer.get(to - 1) <= ' ') to--;
+
+        int i = from;
+        boolean negative = false;
+        if (i < to && (buffer.get(i) == '-' || buffer.get(i) == '+')) {
+            negative = buffer.get(i) == '-';
+            i++;
+        }
+
+        long mantissa = 0;
+        int nrOfDigits = 0;
+        int exponent = 0;
+        boolean hasDigits = false;
+
+        // integer part
+        while (i < to && buffer.get(i) >= '0' && buffer.get(i) <= '9') {
+            if (mantissa != 0 || buffer.get(i) != '0') {
+                if (nrOfDigits < 18)
+                    mantissa = 10 * mantissa + (buffer.get(i) - '0');
+                nrOfDigits++;
+            }
+            hasDigits = true;
+            i++;
+        }
+
+        // fraction part
+        if (i < to && buffer.get(i) == '.') {
+            i++;
+            while (i < to && buffer.get(i) >= '0' && buffer.get(i) <= '9') {
+                if (mantissa != 0 || buffer.get(i) != '0') {
+                    if (nrOfDigits < 18)
+                        mantissa = 10 * mantissa + (buffer.get(i) - '0');
+                    nrOfDigits++;
+                }
+                exponent--;
+                hasDigits = true;
+                i++;
+            }
+        }
+
+        // exponent part
+        if (hasDigits && i < to && (buffer.get(i) == 'e' || buffer.get(i) == 'E')) {
+            i++;
+            boolean negativeExponent = false;
+            if (i < to && (buffer.get(i) == '-' || buffer.get(i) == '+')) {
+                negativeExponent = buffer.get(i) == '-';
+                i++;
+            }
+
+            int exp = 0;
+            boolean hasExpDigits = false;
+            while (i < to && buffer.get(i) >= '0' && buffer.get(i) <= '9' && exp < 10000) {
+                exp = 10 * exp + (buffer.get(i) - '0');
+                hasExpDigits = true;
+                i++;
+            }
+
+            if (!hasExpDigits)
+                hasDigits = false;
+
+            exponent += negativeExponent ? -exp : exp;
+        }
+
+        if (hasDigits && i == to && nrOfDigits <= 15 && mantissa < (1L << 53)) {
+            double value = mantissa;
+
+            if (mantissa == 0)
+                value = 0.0;
+            else if (exponent < 0 && exponent >= -22)
+                value /= POWERS_OF_TEN[-exponent];
+            else if (exponent >= 0 && exponent <= 22)
+                value *= POWERS_OF_TEN[exponent];
+            else
+                return Double.parseDouble(decode(buffer, from, to));
+
+            return negative ? -value : value;
+        }
+
+        // NaN, Infinity, too many digits, and malformed numbers
+        return Double.parseDouble(decode(buffer, from, to));
+    } // parseDouble
+
+    private static boolean startsWith(
+            @NotNull ByteBuffer buffer,
+            final int from,
+            final int to,
+            @NotNull final String prefix
+    ) {
+        if (to - from < prefix.length()) return false;
+
+        for (int i = 0; i < prefix.length(); i++) {
+            if (buffer.get(from + i) != prefix.charAt(i))
+                return false;
+        }
+
+        return true;
+    } // startsWith
+
+    private static int indexOf(
+            @NotNull ByteBuffer buffer,
+            final int from,
+            final int to,
+            final char c
+    ) {
+        for (int i = from; i < to; i++) {
+            if (buffer.get(i) == c)
+                return i;
+        }
+
+        return to;
+    } // indexOf
+
+    private static String decode(
+            @NotNull ByteBuffer buffer,
+            final int from,
+            final int to
+    ) {
+        final byte[] bytes = new byte[to - from];
+        for (int i = 0; i < bytes.length; i++)
+            bytes[i] = buffer.get(from + i);
+
+        return new String(bytes, StandardCharsets.UTF_8);
+    } // decode
+
+}
@@ -23,6 +23,7 @@ import java.util.*;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 public class VariantCaller {
 
@@ -56,18 +57,103 @@ public class VariantCaller {
             final boolean useMeanRate,
             final boolean useOnlyBranchLength
     ) throws IOException, InterruptedException {
-        Map<String, List<Double>> mcmcSamples = new HashMap<>();
+        this(
+                numOfThreads,
+                burninPercentage,
+                estimatesType,
+                modeKDEType,
+                mcmcSamplesFileName,
+                allelicInfoFileName,
+                gtAdoSamplesFileName,
+                modelConfigFileName,
+                inputTreeFileName,
+                outputVCFileName,
+                saveDetails,
+                cellThreshold,
+                useMeanRate,
+                useOnlyBranchLength,
+                false
+        );
+    }
+
+    /**
+     * @param sketchMedian whether median estimates of allelic sequencing information are approximated with streaming
+     *                     P-square estimates rather than computed from all samples
+     */
+    public VariantCaller(
+            int numOfThreads,
+            int burninPercentage,
+            EstimatesTypeCollection.EstimatesType estimatesType,
+            EstimatesTypeCollection.ModeKDEType modeKDEType,
+            String mcmcSamplesFileName,
+            String allelicInfoFileName,
+            String gtAdoSamplesFileName,
+            String modelConfigFileName,
+            String inputTreeFileName,
+            String outputVCFileName,
+            boolean saveDetails,
+            final int cellThreshold,
+            final boolean useMeanRate,
+            final boolean useOnlyBranchLength,
+            final boolean sketchMedian
+    ) throws IOException, InterruptedException {
+        this(
+                numOfThreads,
+                burninPercentage,
+                estimatesType,
+                modeKDEType,
+                mcmcSamplesFileName,
+                allelicInfoFileName,
+                gtAdoSamplesFileName,
+                modelConfigFileName,
+                inputTreeFileName,
+                outputVCFileName,
+                saveDetails,
+                cellThreshold,
+                useMeanRate,
+                useOnlyBranchLength,
+                sketchMedian,
+                EstimatesTypeCollection.ModeKDEMethod.EXACT
+        );
+    }
+
+    /**
+     * @param sketchMedian  whether median estimates of allelic sequencing information are approximated with streaming
+     *                      P-square estimates rather than computed from all samples
+     * @param modeKDEMethod how the KDE is evaluated for mode estimates
+     */
+    public VariantCaller(
+            int numOfThreads,
+            int burninPercentage,
+            EstimatesTypeCollection.EstimatesType estimatesType,
+            EstimatesTypeCollection.ModeKDEType modeKDEType,
+            String mcmcSamplesFileName,
+            String allelicInfoFileName,
+            String gtAdoSamplesFileName,
+            String modelConfigFileName,
+            String inputTreeFileName,
+            String outputVCFileName,
+            boolean saveDetails,
+            final int cellThreshold,
+            final boolean useMeanRate,
+            final boolean useOnlyBranchLength,
+            final boolean sketchMedian,
+            final EstimatesTypeCollection.ModeKDEMethod modeKDEMethod
+    ) throws IOException, InterruptedException {
+        TraceLog mcmcSamples;
         Map<String, Map<String, Double>> mcmcSamplesEstimates = new HashMap<>();
 
         AllelicSeqLogProcessor allelicSeqLog = null;
         if (allelicInfoFileName != null)
             allelicSeqLog = new AllelicSeqLogProcessor(
-                    1,
+                    numOfThreads,
                     allelicInfoFileName,
                     Log.err,
                     estimatesType,
                     modeKDEType,
-                    burninPercentage
+                    burninPercentage,
+                    sketchMedian,
+                    modeKDEMethod
             );
 
         GenotypeAdoStateProcessor gtAdoLog = null;
@@ -116,7 +202,7 @@ public class VariantCaller {
         progressStream.println();
         progressStream.println(">>> Reading the MCMC samples log... [Thread " + Thread.currentThread().getId() + "]");
         try {
-            getMCMCSamples(mcmcSamplesFileName, mcmcSamples);
+            mcmcSamples = getMCMCSamples(mcmcSamplesFileName);
         } catch (Exception e) {
             e.printStackTrace();
             Log.err.println("Error parsing MCMC samples log: " + e.getMessage());
@@ -128,7 +214,8 @@ public class VariantCaller {
         progressStream.println();
         progressStream.println(">>> Estimating model variables... [Thread " + Thread.currentThread().getId() + "]");
         try {
-            MathFunctions.getEstimates(estimatesType, modeKDEType, burninPercentage, mcmcSamples, mcmcSamplesEstimates);
+            MathFunctions.getEstimates(estimatesType, modeKDEType, modeKDEMethod, burninPercentage, mcmcSamples,
+                    mcmcSamplesEstimates);
         } catch (Exception e) {
             e.printStackTrace();
             Log.err.println("Error getting estimates for allelic sequencing information: " + e.getMessage());
@@ -179,7 +266,7 @@ public class VariantCaller {
                 modelConfigFileName,
                 inputTreeFileName,
                 outputVCFileName,
-                new EstimatesTypeCollection(estimatesType, modeKDEType),
+                new EstimatesTypeCollection(estimatesType, modeKDEType, modeKDEMethod),
                 mcmcSamplesEstimates,
                 allelicSeqLog,
                 saveDetails,
@@ -388,50 +475,14 @@ public class VariantCaller {
         return parsedTrees.get(0);
     } // getTree
 
-    public void getMCMCSamples(final String mcmcSamplesFileName, Map<String, List<Double>> mcmcSamples) throws IOException, NoFileHeaderFoundException, NoMatchLengthException {
-        BufferedReader fin = new BufferedReader(new FileReader(mcmcSamplesFileName));
-        String str;
-        String[] parsedLine;
-        String[] variables = new String[0];
-        int numOfVariables = 0;
-
-        if (!fin.ready()) {
-            throw new IOException(mcmcSamplesFileName + " appears empty.");
-        }
-
-        while (fin.ready()) {
-            str = fin.readLine().trim();
-
-            if (!str.startsWith("#")) {
-                parsedLine = str.split("\t");
-
-                if (str.startsWith("Sample")) {
-                    numOfVariables = parsedLine.length - 1;
-
-                    variables = new String[numOfVariables];
-                    System.arraycopy(parsedLine, 1, variables, 0, numOfVariables);
-
-                    for (int i = 1; i != numOfVariables + 1; i++) {
-                        mcmcSamples.put(parsedLine[i], new ArrayList<>());
-                    }
-                } else {
-                    if (numOfVariables == 0) {
-                        throw new NoFileHeaderFoundException(mcmcSamplesFileName + " contains no headers. Cannot " +
-                                "match the IDs.");
-                    } else if (numOfVariables != parsedLine.length - 1) {
-                        throw new NoMatchLengthException(mcmcSamplesFileName + " contains a sample (" + parsedLine[0] +
-                                ") which has more values (" + (parsedLine.length - 1) + ") than expected (" +
-                                numOfVariables + ").");
-                    } else {
-                        for (int i = 0; i != numOfVariables; i++) {
-                            mcmcSamples.get(variables[i]).add(Double.valueOf(parsedLine[i + 1]));
-                        }
-                    }
-                }
-            }
-        }
-
-        fin.close();
+    /**
+     * Load MCMC samples into primitive columns, one per logged variable.
+     *
+     * @param mcmcSamplesFileName apparently
+     * @return MCMC samples
+     */
+    public TraceLog getMCMCSamples(final String mcmcSamplesFileName) throws IOException, NoFileHeaderFoundException, NoMatchLengthException {
+        return new TraceLog(mcmcSamplesFileName);
     } // getMCMCSamples
 
     public String getVariantCallingFileName(final String baseFileName, final String rootFileName, final String suffix) {
@@ -566,36 +617,78 @@ public class VariantCaller {
         out.println(">>> Loading model configuration file(s)... [Thread " + Thread.currentThread().getId() + "]");
         out.flush();
 
-        // Load configuration file and compute posterior
-        for (int i = 0; i < numOfModels; i++) {
-            out.println();
+        // Load configuration files one at a time. Parsing initializes the likelihoods, which take their number of
+        // threads from BeastMCMC.m_nThreads and may time likelihood evaluations to tune it; neither should be
+        // disturbed by other models. The thread budget is shared among the models computed concurrently.
+        final int nrOfThreads = Math.max(1, BeastMCMC.m_nThreads);
+        final int nrOfModelThreads = Math.min(numOfModels, nrOfThreads);
 
-            // Load configuration file
-            out.println(">>> Loading '" + modelFileNames[i] + "'... [Thread " + Thread.currentThread().getId() + "]");
-            out.flush();
-            try {
-                models[i] = getModel(modelFileNames[i]);
-            } catch (JSONException | XMLParserException | IOException e) {
-                e.printStackTrace();
-                out.println("Error parsing model configuration file: " + e.getMessage());
-                return;
+        BeastMCMC.m_nThreads = Math.max(1, nrOfThreads / nrOfModelThreads);
+        try {
+            for (int i = 0; i < numOfModels; i++) {
+                if (!loadModel(i, modelFileNames, models, out))
+                    return;
             }
-            out.println(">>> Done.");
-            out.flush();
+        } finally {
+            BeastMCMC.m_nThreads = nrOfThreads;
+        }
+
+        // Compute posteriors, concurrently if more than one thread is available.
+        if (nrOfModelThreads == 1) {
+            for (int i = 0; i < numOfModels; i++) {
+                if (!computePosterior(i, modelFileNames, models, logPosteriors, logTreeLikelihoods, out))
+                    return;
+            }
+        } else {
+            // logs of each model, including those printed by the model through Log, are buffered and printed in order
+            final PrintStream info = Log.info, warning = Log.warning, err = Log.err;
+            Log.info = new PrintStream(new ModelLogStream(info), true);
+            Log.warning = new PrintStream(new ModelLogStream(warning), true);
+            Log.err = new PrintStream(new ModelLogStream(err), true);
+
+            ExecutorService pool = Executors.newFixedThreadPool(nrOfModelThreads);
 
-            // Compute posterior
             try {
-                models[i].run();
-            } catch (Exception e) {
-                e.printStackTrace();
-                out.println("Error! Something is wrong when computing posterior for '" + modelFileNames[i] + "'");
-                return;
+                List<Future<Boolean>> evaluated = new ArrayList<>(numOfModels);
+                ByteArrayOutputStream[] logs = new ByteArrayOutputStream[numOfModels];
+                for (int i = 0; i < numOfModels; i++) {
+                    final int index = i;
+                    logs[i] = new ByteArrayOutputStream();
+                    final PrintStream log = new PrintStream(logs[i], true);
+
+                    evaluated.add(pool.submit(() -> {
+                        ModelLogStream.target.set(log);
+                        try {
+                            return computePosterior(index, modelFileNames, models, logPosteriors, logTreeLikelihoods, log);
+                        } finally {
+                            ModelLogStream.target.remove();
+                        }
+                    }));
+                }
+
+                for (int i = 0; i < numOfModels; i++) {
+                    boolean succeeded;
+                    try {
+                        succeeded = evaluated.get(i).get();
+                    } catch (InterruptedException | ExecutionException e) {
+                        e.printStackTrace();
+                        out.println("Error! Something is wrong when computing posterior for '" + modelFileNames[i] + "'");
+                        succeeded = false;
+                    }
+
+                    out.print(logs[i].toString());
+                    out.flush();
+
+                    if (!succeeded)
+                        return;
+                }
+            } finally {
+                pool.shutdownNow();
+
+                Log.info = info;
+                Log.warning = warning;
+                Log.err = err;
             }
-            logPosteriors[i] = ((VariantCall) models[i]).getLogPosterior();
-            logTreeLikelihoods[i] = ((VariantCall) models[i]).getLogTreeLikelihood();
-            out.println(">>> Log posterior: " + String.format(FLOAT_FORMAT, logPosteriors[i]));
-            out.println(">>> Log tree likelihood: " + String.format(FLOAT_FORMAT, logTreeLikelihoods[i]));
-            out.flush();
         }
 
         // If more than one configuration file provided, find the one with the largest posterior
@@ -655,6 +748,78 @@ public class VariantCaller {
 
     } // callVariants
 
+    /**
+     * Load a model configuration file.
+     *
+     * @param index          index of the model
+     * @param modelFileNames apparently
+     * @param models         where the loaded model is stored
+     * @param out            log of the model
+     * @return whether succeeded or not
+     */
+    private boolean loadModel(
+            final int index,
+            final String[] modelFileNames,
+            Runnable[] models,
+            PrintStream out
+    ) {
+        out.println();
+
+        // Load configuration file
+        out.println(">>> Loading '" + modelFileNames[index] + "'... [Thread " + Thread.currentThread().getId() + "]");
+        out.flush();
+        try {
+            models[index] = getModel(modelFileNames[index]);
+        } catch (JSONException | XMLParserException | IOException e) {
+            e.printStackTrace(out);
+            out.println("Error parsing model configuration file: " + e.getMessage());
+            return false;
+        }
+        out.println(">>> Done.");
+        out.flush();
+
+        return true;
+    } // loadModel
+
+    /**
+     * Compute the posterior of a loaded model.
+     *
+     * @param index              index of the model
+     * @param modelFileNames     apparently
+     * @param models             loaded models
+     * @param logPosteriors      where the log posterior is stored
+     * @param logTreeLikelihoods where the log tree likelihood is stored
+     * @param out                log of the model
+     * @return whether succeeded or not
+     */
+    private boolean computePosterior(
+            final int index,
+            final String[] modelFileNames,
+            Runnable[] models,
+            double[] logPosteriors,
+            double[] logTreeLikelihoods,
+            PrintStream out
+    ) {
+        out.println();
+        out.println(">>> Computing posterior for '" + modelFileNames[index] + "'... [Thread " + Thread.currentThread().getId() + "]");
+        out.flush();
+
+        try {
+            models[index].run();
+        } catch (Exception e) {
+            e.printStackTrace(out);
+            out.println("Error! Something is wrong when computing posterior for '" + modelFileNames[index] + "'");
+            return false;
+        }
+        logPosteriors[index] = ((VariantCall) models[index]).getLogPosterior();
+        logTreeLikelihoods[index] = ((VariantCall) models[index]).getLogTreeLikelihood();
+        out.println(">>> Log posterior: " + String.format(FLOAT_FORMAT, logPosteriors[index]));
+        out.println(">>> Log tree likelihood: " + String.format(FLOAT_FORMAT, logTreeLikelihoods[index]));
+        out.flush();
+
+        return true;
+    } // computePosterior
+
 
     //**********************************************
     //*               Static methods               *
@@ -683,6 +848,7 @@ public class VariantCaller {
         String cachedEstimatesFileName = null;
         EstimatesTypeCollection.EstimatesType estimatesType = null;
         EstimatesTypeCollection.ModeKDEType modeKDEType = null;
+        EstimatesTypeCollection.ModeKDEMethod modeKDEMethod = EstimatesTypeCollection.ModeKDEMethod.EXACT;
         String mcmcSamplesFileName = null;
         String allelicInfoFileName = null;
         String gtAdoSamplesFileName = null;
@@ -860,9 +1026,10 @@ public class VariantCaller {
                             // Generate configuration file and run
                             new Arguments.IntegerOption("burnin", 0, 99, "specifies the percentage of samples to be considered as 'burn-in' -> MANDATORY (or -b)"),
                             new Arguments.IntegerOption("b", 0, 99, "the same as 'burn-in' -> MANDATORY (or -burnin)"),
-                            new Arguments.StringOption("cached", "cached_estimates_file", "specifies the cached estimates file -> OPTIONAL, conflicting with -estimates, -kdedist, -mcmclog, -allelic"),
+                            new Arguments.StringOption("cached", "cached_estimates_file", "specifies the cached estimates file -> OPTIONAL, conflicting with -estimates, -kdedist, -kdemethod, -mcmclog, -allelic"),
                             new Arguments.StringOption("estimates", new String[]{"mean", "median", "mode", "all"}, false, "specifies which kind of estimates of samples will be used to perform variant calling (one of 'mean', 'median' (default), 'mode', and 'all', where the last option compares likelihoods between all situations and chooses the largest one) -> OPTIONAL, conflicting with -cached"),
                             new Arguments.StringOption("kdedist", new String[]{"gaussian", "epanechnikov", "rectangular", "triangular", "biweight", "cosine", "optcosine"}, false, "specifies which KDE distribution will be used if mode estimates is selected (one of 'gaussian' (default), 'epanechnikov', 'rectangular', 'triangular', 'biweight', 'cosine', 'optcosine') -> OPTIONAL, conflicting with -cached"),
+                            new Arguments.StringOption("kdemethod", new String[]{"exact", "binned"}, false, "specifies how the KDE is evaluated if mode estimates is selected (one of 'exact' (default, evaluating the KDE at every sample) and 'binned' (fast, approximating the KDE on a grid)) -> OPTIONAL, conflicting with -cached"),
                             new Arguments.StringOption("mcmclog", "mcmc_log_file", "specifies the log file containing MCMC samples -> OPTIONAL, conflicting with -cached"),
 //                            new Arguments.StringOption("allelic", "allelic_seq_info_file", "specifies the allelic sequencing coverage and raw variance sampled during MCMC -> OPTIONAL, conflicting with -cached"),
 //                            new Arguments.StringOption("gtado", "genotype_ado_state_samples_file", "specifies the genotypes and ado states sampled during MCMC -> OPTIONAL, conflicting with -cached"),
@@ -946,10 +1113,11 @@ public class VariantCaller {
                     // Sanity check
                     if (arguments.hasOption("estimates") ||
                             arguments.hasOption("kdedist") ||
+                            arguments.hasOption("kdemethod") ||
                             arguments.hasOption("mcmclog") ||
                             arguments.hasOption("allelic") ||
                             arguments.hasOption("gtado")) {
-                        Log.err.println("-cached flag conflicts with -estimates, -kdedist, -mcmclog, and -allelic");
+                        Log.err.println("-cached flag conflicts with -estimates, -kdedist, -kdemethod, -mcmclog, and -allelic");
                         System.exit(1);
                     }
 
@@ -985,6 +1153,14 @@ public class VariantCaller {
                         }
                     }
 
+                    // Set how the KDE is evaluated for mode estimates
+                    if (arguments.hasOption("kdemethod")) {
+                        String value = arguments.getStringOption("kdemethod").trim();
+                        if (value.equalsIgnoreCase("binned")) {
+                            modeKDEMethod = EstimatesTypeCollection.ModeKDEMethod.BINNED;
+                        }
+                    }
+
                     // Set mcmcSamplesFileName
                     if (arguments.hasOption("mcmclog")) {
                         mcmcSamplesFileName = arguments.getStringOption("mcmclog");
@@ -1068,7 +1244,9 @@ public class VariantCaller {
                                 saveDetails,
                                 cellThreshold,
                                 useMeanRate,
-                                useOnlyBranchLength
+                                useOnlyBranchLength,
+                                false,
+                                modeKDEMethod
                         );
                     }
                 } catch (IOException e) {
@@ -1085,4 +1263,46 @@ public class VariantCaller {
 
     } // main
 
+
+
+    //**********************************************
+    //*               Nested classes               *
+    //**********************************************
+
+    /**
+     * Writes to the log of the model computed by the current thread, or threads started by it, and to the original
+     * stream elsewhere.
+     */
+    private static class ModelLogStream extends OutputStream {
+
+        static final InheritableThreadLocal<PrintStream> target = new InheritableThreadLocal<>();
+
+        private final PrintStream original;
+
+        ModelLogStream(final PrintStream original) {
+            this.original = original;
+        }
+
+        private PrintStream getStream() {
+            final PrintStream stream = target.get();
+            return stream == null ? original : stream;
+        } // getStream
+
+        @Override
+        public void write(int b) {
+            getStream().write(b);
+        } // write
+
+        @Override
+        public void write(@NotNull byte[] b, int off, int len) {
+            getStream().write(b, off, len);
+        } // write
+
+        @Override
+        public void flush() {
+            getStream().flush();
+        } // flush
+
+    } // class ModelLogStream
+
 }
@@ -12,20 +12,14 @@ import beast.app.variantcallingmodeladaptor.seqcovmodelmodifier.SeqCovModelModif
 import beast.core.Description;
 import beast.core.util.Log;
 import beast.util.FileNameProcessor;
+import beast.util.XMLTemplateRewriter;
 import jam.console.ConsoleApplication;
 import org.jetbrains.annotations.NotNull;
 import org.w3c.dom.*;
-import org.xml.sax.SAXException;
 
 import javax.swing.*;
-import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
-import javax.xml.transform.OutputKeys;
-import javax.xml.transform.Transformer;
-import javax.xml.transform.TransformerException;
-import javax.xml.transform.TransformerFactory;
-import javax.xml.transform.dom.DOMSource;
-import javax.xml.transform.stream.StreamResult;
+import javax.xml.stream.XMLStreamException;
 import java.io.File;
 import java.io.IOException;
 import java.io.PrintStream;
@@ -80,13 +74,17 @@ public class VariantCallingModelAdaptor {
 
     final static private Pattern ID_REF_PATTERN = Pattern.compile("@(.+)");
 
+    // tags to be modified or read; everything else in the configuration file is copied as is
+    final static private XMLTemplateRewriter.ElementMatcher ADAPTED_TAGS_MATCHER = (parents, element) ->
+            element.getName().getLocalPart().equals("run") || element.getName().getLocalPart().equals("lociInfo");
+
 
     //***********************************************
     //*                  Variables                  *
     //***********************************************
 
-    private DocumentBuilderFactory dbFac;
-    private Document doc;
+    private File configFile;
+    private Document doc; // only contains 'run' and 'lociInfo' tags
 
     private int numOfAdaptedConfigFiles = 0;
     private List<String> adaptedConfigFileNames = null;
@@ -143,12 +141,11 @@ public class VariantCallingModelAdaptor {
         // List the output file
         listOutputFileNames(configFileName, outputFileName, 1, estimatesTypeCollection);
 
-        // Load configuration file
-        this.dbFac = DocumentBuilderFactory.newInstance();
-        this.dbFac.setIgnoringElementContentWhitespace(true);
+        // Load 'run' and 'lociInfo' tags of configuration file; the rest is streamed when saving
+        this.configFile = new File(configFileName);
         try {
-            this.doc = this.dbFac.newDocumentBuilder().parse(new File(configFileName));
-        } catch (SAXException | IOException | ParserConfigurationException e) {
+            this.doc = XMLTemplateRewriter.readElements(this.configFile, ADAPTED_TAGS_MATCHER);
+        } catch (XMLStreamException | IOException | ParserConfigurationException e) {
             e.printStackTrace();
             progressStream.println("Error parsing configuration file: " + e.getMessage());
             return;
@@ -178,7 +175,7 @@ public class VariantCallingModelAdaptor {
                     useMeanRate,
                     useOnlyBranchLength
             );
-        } catch (TransformerException e) {
+        } catch (IOException | XMLStreamException | ParserConfigurationException e) {
             e.printStackTrace();
             progressStream.println("Something is wrong when modifying configuration file.");
         }
@@ -213,12 +210,11 @@ public class VariantCallingModelAdaptor {
         // List the output file
         listOutputFileNames(configFileName, outputFileName, 0, estimatesTypeCollection);
 
-        // Load configuration file
-        this.dbFac = DocumentBuilderFactory.newInstance();
-        this.dbFac.setIgnoringElementContentWhitespace(true);
+        // Load 'run' and 'lociInfo' tags of configuration file; the rest is streamed when saving
+        this.configFile = new File(configFileName);
         try {
-            this.doc = this.dbFac.newDocumentBuilder().parse(new File(configFileName));
-        } catch (SAXException | IOException | ParserConfigurationException e) {
+            this.doc = XMLTemplateRewriter.readElements(this.configFile, ADAPTED_TAGS_MATCHER);
+        } catch (XMLStreamException | IOException | ParserConfigurationException e) {
             e.printStackTrace();
             progressStream.println("Error parsing configuration file: " + e.getMessage());
             return;
@@ -499,7 +495,7 @@ public class VariantCallingModelAdaptor {
             final int cellThreshold,
             final boolean useMeanRate,
             final boolean useOnlyBranchLength
-    ) throws TransformerException {
+    ) throws IOException, XMLStreamException, ParserConfigurationException {
         SeqCovModelModifier seqCovModelModifier = null;
         List<Node> paraNodes = new ArrayList<>();
 
@@ -772,19 +768,17 @@ public class VariantCallingModelAdaptor {
                         adaptedConfigEstimateTypes.get(i)
                 );
 
-            // Save modified configuration file to disk
-            Transformer tf = TransformerFactory.newInstance().newTransformer();
-            tf.setOutputProperty(OutputKeys.INDENT, "yes");
-            DOMSource src = new DOMSource(this.doc);
+            // Save modified configuration file to disk, streaming everything but the modified 'run' tag
             if (System.getProperty("variant.calling.file.prefix") != null) {
                 adaptedConfigFileNames.set(i, System.getProperty("variant.calling.file.prefix") + adaptedConfigFileNames.get(i));
             }
             File outputConfigFile = new File(adaptedConfigFileNames.get(i));
-            if (adaptedConfigFileNames.get(i).contains("/")) {
-                outputConfigFile.getParentFile().mkdirs();
-            }
-            StreamResult sr = new StreamResult(outputConfigFile);
-            tf.transform(src, sr);
+            new XMLTemplateRewriter()
+                    .replace(
+                            (parents, element) -> element.getName().getLocalPart().equals("run"),
+                            (writer, element) -> XMLTemplateRewriter.writeNode(writer, runTag)
+                    )
+                    .rewrite(this.configFile, outputConfigFile);
 
             // Print some information
             progressStream.print(">>> ");
@@ -5,8 +5,10 @@ import beast.core.Input;
 import beast.core.util.Log;
 import beast.util.FileNameProcessor;
 
+import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
 import java.io.PrintStream;
 
 public class VariantsLogger extends BEASTObject {
@@ -41,6 +43,9 @@ public class VariantsLogger extends BEASTObject {
     //*                  Variables                  *
     //***********************************************
 
+    // size of the buffer of each output file
+    private final static int BUFFER_SIZE = 1 << 16;
+
     private String vcFileName;
     private String adoFileName = null;
     private String genotypesFileName = null;
@@ -117,7 +122,7 @@ public class VariantsLogger extends BEASTObject {
             Log.err.println("Overwriting " + this.vcFileName + "...");
         if (this.vcFileName.contains("/"))
             vcFile.getParentFile().mkdirs();
-        this.vcfOut = new PrintStream(vcFile);
+        this.vcfOut = openStream(vcFile);
 
         if (this.saveDetails) {
             if (System.getProperty("variant.calling.file.prefix") != null)
@@ -125,66 +130,77 @@ public class VariantsLogger extends BEASTObject {
             final File adoFile = new File(this.adoFileName);
             if (adoFile.exists())
                 Log.err.println("Overwriting " + this.adoFileName + "...");
-            this.adoOut = new PrintStream(this.adoFileName);
+            this.adoOut = openStream(adoFile);
 
             if (System.getProperty("variant.calling.file.prefix") != null)
                 this.genotypesFileName = System.getProperty("variant.calling.file.prefix") + this.genotypesFileName;
             final File genotypesFile = new File(this.genotypesFileName);
             if (genotypesFile.exists())
                 Log.err.println("Overwriting " + this.genotypesFileName + "...");
-            this.genotypesOut = new PrintStream(this.genotypesFileName);
+            this.genotypesOut = openStream(genotypesFile);
 
             if (System.getProperty("variant.calling.file.prefix") != null)
                 this.ternaryFileName = System.getProperty("variant.calling.file.prefix") + this.ternaryFileName;
             final File ternaryFile = new File(this.ternaryFileName);
             if (ternaryFile.exists())
                 Log.err.println("Overwriting " + this.ternaryFileName + "...");
-            this.ternaryOut = new PrintStream(this.ternaryFileName);
+            this.ternaryOut = openStream(ternaryFile);
 
             if (System.getProperty("variant.calling.file.prefix") != null)
                 this.cellNamesFileName = System.getProperty("variant.calling.file.prefix") + this.cellNamesFileName;
             final File cellNamesFile = new File(this.cellNamesFileName);
             if (cellNamesFile.exists())
                 Log.err.println("Overwriting " + this.cellNamesFileName + "...");
-            this.cellNamesOut = new PrintStream(this.cellNamesFileName);
+            this.cellNamesOut = openStream(cellNamesFile);
 
             if (System.getProperty("variant.calling.file.prefix") != null)
                 this.lociInfoFileName = System.getProperty("variant.calling.file.prefix") + this.lociInfoFileName;
             final File lociInfoFile = new File(this.lociInfoFileName);
             if (lociInfoFile.exists())
                 Log.err.println("Overwriting " + this.lociInfoFileName + "...");
-            this.lociInfoOut = new PrintStream(this.lociInfoFileName);
+            this.lociInfoOut = openStream(lociInfoFile);
 
             if (System.getProperty("variant.calling.file.prefix") != null)
                 this.probsFileName = System.getProperty("variant.calling.file.prefix") + this.probsFileName;
             final File probsFile = new File(this.probsFileName);
             if (probsFile.exists())
                 Log.err.println("Overwriting " + this.probsFileName + "...");
-            this.probsOut = new PrintStream(this.probsFileName);
+            this.probsOut = openStream(probsFile);
 
             if (System.getProperty("variant.calling.file.prefix") != null)
                 this.treeFileName = System.getProperty("variant.calling.file.prefix") + this.treeFileName;
             final File treeFile = new File(this.treeFileName);
             if (treeFile.exists())
                 Log.err.println("Overwriting " + this.treeFileName + "...");
-            this.treeOut = new PrintStream(this.treeFileName);
+            this.treeOut = openStream(treeFile);
 
             if (System.getProperty("variant.calling.file.prefix") != null)
                 this.allelicInfoFileName = System.getProperty("variant.calling.file.prefix") + this.allelicInfoFileName;
             final File allelicInfoFile = new File(this.allelicInfoFileName);
             if (allelicInfoFile.exists())
                 Log.err.println("Overwriting " + this.allelicInfoFileName + "...");
-            this.allelicInfoOut = new PrintStream(this.allelicInfoFileName);
+            this.allelicInfoOut = openStream(allelicInfoFile);
 
             if (System.getProperty("variant.calling.file.prefix") != null)
                 this.sizeFactorFileName = System.getProperty("variant.calling.file.prefix") + this.sizeFactorFileName;
             final File sizeFactorFile = new File(this.sizeFactorFileName);
             if (sizeFactorFile.exists())
                 Log.err.println("Overwriting " + this.sizeFactorFileName + "...");
-            this.sizeFactorOut = new PrintStream(this.sizeFactorFileName);
+            this.sizeFactorOut = openStream(sizeFactorFile);
         }
     } // openFiles
 
+    /**
+     * Open a buffered stream; it has to be closed for all output to be flushed.
+     *
+     * @param file apparently
+     * @return buffered PrintStream
+     * @throws FileNotFoundException if failed to open the file
+     */
+    protected static PrintStream openStream(File file) throws FileNotFoundException {
+        return new PrintStream(new BufferedOutputStream(new FileOutputStream(file), BUFFER_SIZE));
+    } // openStream
+
     public void init() {
 
         try {
@@ -218,6 +234,12 @@ public class VariantsLogger extends BEASTObject {
 
         this.vcfOut.close();
 
+        if (this.adoOut != null)
+            this.adoOut.close();
+
+        if (this.genotypesOut != null)
+            this.genotypesOut.close();
+
         if (this.cellNamesOut != null)
             this.cellNamesOut.close();
 
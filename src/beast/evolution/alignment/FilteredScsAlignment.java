@@ -40,6 +40,11 @@ public class FilteredScsAlignment extends ScsAlignment {
      */
     int[] filter;
 
+    /**
+     * maps pattern nr to pattern nr in the shared pattern storage *
+     */
+    int[] patternMap;
+
 
     //**********************************************
     //*                Constructors                *
@@ -63,6 +68,8 @@ public class FilteredScsAlignment extends ScsAlignment {
         manipulatedNrOfBackgroundSites = manipulatedNrOfBackgroundSitesInput.get();
         lociExistence = data.lociExistence;
         sequences = data.sequences;
+        binaryReadCounts = data.binaryReadCounts;
+        lociOffset = data.lociOffset;
 
         parseFilterSpec();
         calcFilter();
@@ -116,88 +123,91 @@ public class FilteredScsAlignment extends ScsAlignment {
     } // parseInt
 
     private void calcFilter() {
-        boolean[] isUsed = new boolean[alignmentInput.get().getLociNr()];
-        for (int i = 0; i < to.length; i++) {
-            for (int k = from[i]; k <= to[i]; k += step[i]) {
-                isUsed[k] = true;
-            }
-        }
+        final int nrOfLoci = alignmentInput.get().getLociNr();
 
         // count
         int k = 0;
-        for (boolean b : isUsed) {
-            if (b) {
-                k++;
-            }
+        for (int i = 0; i < to.length; i++) {
+            if (to[i] >= from[i])
+                k += (to[i] - from[i]) / step[i] + 1;
         }
 
-        // set up index set
-        filter = new int[k];
+        // collect selected loci without touching the others
+        int[] indices = new int[k];
         k = 0;
-        for (int i = 0; i < isUsed.length; i++) {
-            if (isUsed[i]) {
-                filter[k++] = i;
+        for (int i = 0; i < to.length; i++) {
+            for (int j = from[i]; j <= to[i]; j += step[i]) {
+                if (j < 0 || j >= nrOfLoci)
+                    throw new IllegalArgumentException("Error! Filter " + filterInput.get() + " selects site " +
+                            (j + 1) + ", but only " + nrOfLoci + " sites are available. (" +
+                            this.getClass().getName() + ")");
+
+                indices[k++] = j;
             }
         }
+
+        // set up index set, sorted and without duplicates
+        Arrays.sort(indices);
+        k = 0;
+        for (int i = 0; i < indices.length; i++) {
+            if (i == 0 || indices[i] != indices[i - 1])
+                indices[k++] = indices[i];
+        }
+        filter = Arrays.copyOf(indices, k);
     } // calcFilter
 
     /**
-     * calculate patterns from sequence data
+     * Build patterns as a view over the pattern storage of the input alignment, without copying read counts or
+     * compressing patterns again.
+     * Patterns keep the order of the input alignment, which is the same as compressing the filtered loci.
      */
     private void calcPatterns() {
-        parsedSequences = alignmentInput.get().getParsedSequences();
-        int taxonNr = parsedSequences.size();
+        ScsAlignment data = alignmentInput.get();
+        parsedSequences = data.getParsedSequences();
         lociNr = filter.length;
-        lociNrTotal = alignmentInput.get().lociNrTotal;
-
-        // convert parsedSequences to transposed data
-        int[][][] data = new int[lociNr][taxonNr][];
-        for (int i = 0; i < taxonNr; i++) {
-            for (int j = 0; j < lociNr; j++) {
-                data[j][i] = parsedSequences.get(i).get(filter[j]);
-            }
-        }
+        lociNrTotal = data.lociNrTotal;
 
         // save loci information
         loci = new ArrayList<>();
         for (int i = 0; i < lociNr; i++) {
-            loci.add(alignmentInput.get().getLociInfo(filter[i]));
+            loci.add(data.getLociInfo(filter[i]));
         }
 
-        // sort data
-        SiteComparator comparator = new SiteComparator();
-        Arrays.sort(data, comparator);
-
-        // count patterns in sorted data
-        int patterns = 1;
-        int[] weights = new int[lociNr];
-        weights[0] = 1;
-        for (int i = 1; i < lociNr; i++) {
-            if (comparator.compare(data[i - 1], data[i]) != 0) {
-                patterns++;
-                data[patterns - 1] = data[i];
-            }
-            weights[patterns - 1]++;
-        }
-
-        // reserve memory for patterns
-        patternWeight = new int[patterns];
-        sitePatterns = new int[patterns][taxonNr][];
-        for (int i = 0; i < patterns; i++) {
-            patternWeight[i] = weights[i];
-            System.arraycopy(data[i], 0, sitePatterns[i], 0, taxonNr);
+        // patterns of the input alignment used by the filtered loci
+        int[] inputPatterns = new int[lociNr];
+        for (int i = 0; i < lociNr; i++)
+            inputPatterns[i] = data.getPatternIndex(filter[i]);
+
+        int[] usedPatterns = inputPatterns.clone();
+        Arrays.sort(usedPatterns);
+        int patterns = 0;
+        for (int i = 0; i < usedPatterns.length; i++) {
+            if (i == 0 || usedPatterns[i] != usedPatterns[i - 1])
+                usedPatterns[patterns++] = usedPatterns[i];
         }
+        usedPatterns = Arrays.copyOf(usedPatterns, patterns);
 
         // find patterns for the loci
+        patternWeight = new int[patterns];
         patternIndex = new int[lociNr];
-        int[][] tmp = new int[taxonNr][];
         for (int i = 0; i < lociNr; i++) {
-            for (int j = 0; j < taxonNr; j++) {
-                tmp[j] = parsedSequences.get(j).get(filter[i]);
-            }
-            patternIndex[i] = Arrays.binarySearch(sitePatterns, tmp, comparator);
+            patternIndex[i] = Arrays.binarySearch(usedPatterns, inputPatterns[i]);
+            patternWeight[patternIndex[i]]++;
+        }
+
+        // share pattern storage with the input alignment
+        patternMap = usedPatterns;
+        if (data instanceof FilteredScsAlignment) {
+            for (int i = 0; i < patterns; i++)
+                patternMap[i] = ((FilteredScsAlignment) data).patternMap[patternMap[i]];
         }
 
+        shortSitePatterns = data.shortSitePatterns;
+        intSitePatterns = data.intSitePatterns;
+        patternCoverages = data.patternCoverages;
+        nrOfPatternTaxa = data.nrOfPatternTaxa;
+        nrOfPatternValues = data.nrOfPatternValues;
+
         // report some statistics
         Log.info.println("Filter " + filterInput.get());
         Log.info.println(getTaxonCount() + " taxa");
@@ -205,6 +215,11 @@ public class FilteredScsAlignment extends ScsAlignment {
         Log.info.println(getPatternCount() + " patterns");
     } // calcPatterns
 
+    @Override
+    protected int getPatternCellIndex(int taxonIndex, int patternIndex_) {
+        return super.getPatternCellIndex(taxonIndex, patternMap[patternIndex_]);
+    } // getPatternCellIndex
+
     /**
      * return indices of the sites that the filter uses
      */
@@ -221,7 +236,7 @@ public class FilteredScsAlignment extends ScsAlignment {
      */
     @Override
     public int getSequencingCoverageOfLocus(int taxonIndex, int locusIndex) {
-        return super.getSequencingCoverageOfLocus(taxonIndex, this.filter[locusIndex]);
+        return alignmentInput.get().getSequencingCoverageOfLocus(taxonIndex, this.filter[locusIndex]);
     }
 
     /**
@@ -233,7 +248,7 @@ public class FilteredScsAlignment extends ScsAlignment {
      */
     @Override
     public char[] getAltNucs(int taxonIndex, int locusIndex) {
-        return super.getAltNucs(taxonIndex, this.filter[locusIndex]);
+        return alignmentInput.get().getAltNucs(taxonIndex, this.filter[locusIndex]);
     }
 
     /**
@@ -246,7 +261,7 @@ public class FilteredScsAlignment extends ScsAlignment {
      */
     @Override
     public int[] getAlleleDepth(int taxonIndex, int locusIndex, char[] altNucs) {
-        return super.getAlleleDepth(taxonIndex, this.filter[locusIndex], altNucs);
+        return alignmentInput.get().getAlleleDepth(taxonIndex, this.filter[locusIndex], altNucs);
     }
 
 }
@@ -12,8 +12,10 @@ import beast.math.util.MathFunctions;
 import beast.util.BEASTClassLoader;
 import beast.util.PackageManager;
 
+import java.io.IOException;
 import java.io.PrintStream;
 import java.util.*;
+import java.util.stream.IntStream;
 
 @Description("Class representing single cell sequencing alignment data")
 public class ScsAlignment extends Map<String> {
@@ -38,6 +40,13 @@ public class ScsAlignment extends Map<String> {
      */
     final static String[] IMPLEMENTATION_DIR = {"beast.evolution.datatype"};
 
+    /**
+     * system properties set by a worker process of ShardedScsTreeLikelihood: the alignment whose ID is the value of
+     * SHARD_DATA_PROPERTY only loads the loci of its shard, [from]-[to] (first locus is 1), from binary data
+     */
+    public final static String SHARD_DATA_PROPERTY = "beast.scs.shard.data";
+    public final static String SHARD_LOCI_PROPERTY = "beast.scs.shard.loci";
+
     /**
      * ascertainment bias correction
      * <p>
@@ -85,7 +94,11 @@ public class ScsAlignment extends Map<String> {
             Input.Validate.OPTIONAL);
 
     final public Input<List<ScsSequence>> scsSequenceInput = new Input<>("sequence", "single-cell " +
-            "sequencing read counts data", new ArrayList<>(), Input.Validate.REQUIRED);
+            "sequencing read counts data", new ArrayList<>(), Input.Validate.OPTIONAL);
+
+    final public Input<String> binaryDataInput = new Input<>("binaryData", "a binary file of single-cell " +
+            "sequencing read counts data and loci information written by DataCollector, which is memory-mapped " +
+            "instead of parsing 'sequence' and 'lociInfo'");
 
     final public Input<String> dataTypeInput = new Input<>("dataType", "data type, one of " + types,
             FULL_SUPS_COV_DATATYPE, types.toArray(new String[0]));
@@ -120,12 +133,32 @@ public class ScsAlignment extends Map<String> {
                     "background sites is not enough for acquisition bias correction. This is mutually exclusive " +
                     "with 'bgSitesNumInput'.");
 
+    final public Input<Boolean> headerOnlyInput = new Input<>("headerOnly", "only read the cell names and the " +
+            "number of loci from 'binaryData', without loci information, read counts or patterns; enough for the " +
+            "coordinator of ShardedScsTreeLikelihood, whose worker processes load their shards in full regardless " +
+            "(default: false)", false);
+
 
     /**
      * list of sequences in the alignment
      */
     protected List<ScsSequence> sequences = new ArrayList<>();
 
+    /**
+     * memory-mapped read counts if loaded from a binary file; null otherwise
+     */
+    protected ScsBinaryReadCounts binaryReadCounts = null;
+
+    /**
+     * index of the first loaded locus in binary data; not 0 only if a shard of loci is loaded
+     */
+    protected int lociOffset = 0;
+
+    /**
+     * true if only the header of binary data is loaded, see headerOnlyInput
+     */
+    protected boolean headerOnly = false;
+
     /**
      * list of parsed sequences in the alignment
      */
@@ -191,9 +224,22 @@ public class ScsAlignment extends Map<String> {
     protected int[] patternWeight;
 
     /**
-     * pattern state encodings *
+     * pattern state encodings, stored flat as #patterns x #taxa x #values per cell *
+     * only one of them is used: shorts if all values fit, ints otherwise
+     */
+    protected short[] shortSitePatterns;
+    protected int[] intSitePatterns;
+
+    /**
+     * number of taxa and values per (pattern, taxon) cell in the flat pattern storage *
+     */
+    protected int nrOfPatternTaxa;
+    protected int nrOfPatternValues;
+
+    /**
+     * sequencing coverage of each (pattern, taxon) cell *
      */
-    protected int[][][] sitePatterns; // #patterns x #taxa
+    protected int[] patternCoverages; // #patterns x #taxa
 
     /**
      * maps site nr to pattern nr *
@@ -236,6 +282,11 @@ public class ScsAlignment extends Map<String> {
 
     @Override
     public void initAndValidate() {
+        if (binaryDataInput.get() != null) {
+            initializeWithBinaryData();
+            return;
+        }
+
         if (scsSequenceInput.get().size() == 0) {
             throw new IllegalArgumentException("No single-cell read counts sequencing data defined!");
         }
@@ -323,6 +374,98 @@ public class ScsAlignment extends Map<String> {
         calcPatterns();
     } // initializeWithSequenceList
 
+    /**
+     * Initialize the alignment from a memory-mapped binary file written by DataCollector.
+     */
+    private void initializeWithBinaryData() {
+        if (scsSequenceInput.get().size() > 0 || scsLociInfoInput.get() != null)
+            throw new IllegalArgumentException("Error! 'binaryData' should not be specified together with " +
+                    "'sequence' or 'lociInfo'. (" + this.getClass().getName() + ")");
+
+        // a worker process of ShardedScsTreeLikelihood only loads the loci of its shard
+        final boolean isShard = getID() != null && getID().equals(System.getProperty(SHARD_DATA_PROPERTY));
+        headerOnly = headerOnlyInput.get() && !isShard;
+
+        try {
+            binaryReadCounts = headerOnly ? ScsBinaryReadCounts.loadHeader(binaryDataInput.get()) :
+                    ScsBinaryReadCounts.load(binaryDataInput.get());
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Error! Failed to load binary data from '" + binaryDataInput.get() +
+                    "': " + e.getMessage() + " (" + this.getClass().getName() + ")");
+        }
+
+        lociExistence = true;
+        lociNr = binaryReadCounts.getNrOfLoci();
+        loci = binaryReadCounts.getLoci();
+
+        if (isShard)
+            initializeShard(System.getProperty(SHARD_LOCI_PROPERTY));
+
+        // initialize the data type
+        initDataType();
+
+        if (!m_dataType.getTypeDescription().equals(binaryReadCounts.getDataTypeDescription()))
+            throw new IllegalArgumentException("Error! The data type of binary data is '" +
+                    binaryReadCounts.getDataTypeDescription() + "', but '" + m_dataType.getTypeDescription() +
+                    "' is specified. (" + this.getClass().getName() + ")");
+
+        this.sequences = new ArrayList<>();
+
+        // read counts stay in the mapped buffers; patterns are compressed from there directly
+        taxaNames.clear();
+        parsedSequences.clear();
+
+        for (int taxonIndex = 0; taxonIndex < binaryReadCounts.getNrOfCells(); taxonIndex++) {
+            final String taxon = binaryReadCounts.getCellNames().get(taxonIndex);
+
+            if (taxaNames.contains(taxon))
+                throw new RuntimeException("Duplicate taxon found in alignment: " + taxon + "(" +
+                        this.getClass().getName() + ")");
+
+            taxaNames.add(taxon);
+        }
+
+        lociNrTotal = lociNr;
+
+        if (!headerOnly)
+            calcPatterns();
+
+        // initialize background information
+        initializeBackgroundInfo();
+
+        Log.info.println(toString(false));
+    } // initializeWithBinaryData
+
+    /**
+     * Restrict the alignment loaded from binary data to a range of loci.
+     *
+     * @param range [from]-[to], first locus is 1
+     */
+    private void initializeShard(final String range) {
+        final String[] strs = range == null ? new String[0] : range.split("-");
+        if (strs.length != 2)
+            throw new IllegalArgumentException("Error! Illegal range of loci '" + range + "', expecting [from]-[to]. (" +
+                    this.getClass().getName() + ")");
+
+        final int from;
+        final int to;
+        try {
+            from = Integer.parseInt(strs[0].trim()) - 1;
+            to = Integer.parseInt(strs[1].trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Error! Illegal range of loci '" + range + "', expecting [from]-[to]. (" +
+                    this.getClass().getName() + ")");
+        }
+
+        if (from < 0 || to > lociNr || from >= to)
+            throw new IllegalArgumentException("Error! Range of loci '" + range + "' is out of 1-" + lociNr + ". (" +
+                    this.getClass().getName() + ")");
+
+        lociOffset = from;
+        lociNr = to - from;
+        loci = loci.subList(from, to);
+    } // initializeShard
+
     private void initializeBackgroundInfo() {
         nrOfBackgroundSites = 0;
         manipulatedNrOfBackgroundSites = 0;
@@ -428,52 +571,194 @@ public class ScsAlignment extends Map<String> {
      * calculate patterns from sequence data
      */
     private void calcPatterns() {
-        int taxonNr = parsedSequences.size();
+        int[] loci = new int[lociNr];
+        for (int i = 0; i < lociNr; i++)
+            loci[i] = i;
+
+        calcPatterns(loci);
+    } // calcPatterns
 
-        // convert parsedSequences to transposed data
-        int[][][] data = new int[lociNr][taxonNr][];
-        for (int i = 0; i < taxonNr; i++) {
-            for (int j = 0; j < lociNr; j++) {
-                data[j][i] = parsedSequences.get(i).get(j);
+    /**
+     * Calculate patterns from selected loci of sequence data in linear time.
+     * <p>
+     * Every site gets a fingerprint (computed in parallel), sites are grouped by fingerprint, and sites sharing a
+     * fingerprint are compared in full to rule out collisions. Only the unique patterns are then sorted with
+     * {@link SiteComparator}, so that the order of patterns is deterministic and the same as sorting all sites.
+     *
+     * @param loci indices of loci in sequence data
+     */
+    private void calcPatterns(final int[] loci) {
+        final int taxonNr = taxaNames.size();
+        final int siteNr = loci.length;
+
+        // fingerprint every site
+        final long[] fingerprints = new long[siteNr];
+        IntStream.range(0, siteNr).parallel().forEach(i -> fingerprints[i] = getSiteFingerprint(loci[i]));
+
+        // group sites by fingerprint; uniqueSites stores the first locus of each unique pattern
+        java.util.Map<Long, List<Integer>> fingerprint2Unique = new HashMap<>();
+        List<Integer> uniqueSites = new ArrayList<>();
+        int[] site2Unique = new int[siteNr];
+        for (int i = 0; i < siteNr; i++) {
+            List<Integer> candidates = fingerprint2Unique.computeIfAbsent(fingerprints[i], k -> new ArrayList<>(1));
+
+            int unique = -1;
+            for (int candidate : candidates) {
+                if (isSameSite(uniqueSites.get(candidate), loci[i])) {
+                    unique = candidate;
+                    break;
+                }
             }
+
+            if (unique == -1) {
+                unique = uniqueSites.size();
+                uniqueSites.add(loci[i]);
+                candidates.add(unique);
+            }
+
+            site2Unique[i] = unique;
         }
 
-        // sort data
-        SiteComparator comparator = new SiteComparator();
-        Arrays.sort(data, comparator);
-
-        // count patterns in sorted data
-        int patterns = 1;
-        int[] weights = new int[lociNr];
-        weights[0] = 1;
-        for (int i = 1; i < lociNr; i++) {
-            if (comparator.compare(data[i - 1], data[i]) != 0) {
-                patterns++;
-                data[patterns - 1] = data[i];
+        // transpose unique patterns
+        final int patterns = uniqueSites.size();
+        int[][][] data = new int[patterns][taxonNr][];
+        for (int i = 0; i < patterns; i++) {
+            for (int j = 0; j < taxonNr; j++) {
+                data[i][j] = getReadCountsOfLocus(j, uniqueSites.get(i), createReadCountsBuffer());
             }
-            weights[patterns - 1]++;
         }
 
+        // sort unique patterns
+        SiteComparator comparator = new SiteComparator();
+        Integer[] order = new Integer[patterns];
+        for (int i = 0; i < patterns; i++)
+            order[i] = i;
+        Arrays.sort(order, (o1, o2) -> comparator.compare(data[o1], data[o2]));
+
+        int[] unique2Pattern = new int[patterns];
+        for (int i = 0; i < patterns; i++)
+            unique2Pattern[order[i]] = i;
+
         // reserve memory for patterns
         patternWeight = new int[patterns];
-        sitePatterns = new int[patterns][taxonNr][];
-        for (int i = 0; i < patterns; i++) {
-            patternWeight[i] = weights[i];
-            System.arraycopy(data[i], 0, sitePatterns[i], 0, taxonNr);
-            System.arraycopy(data[i], 0, sitePatterns[i], 0, taxonNr);
-        }
+        int[][][] sortedPatterns = new int[patterns][][];
+        for (int i = 0; i < patterns; i++)
+            sortedPatterns[i] = data[order[i]];
+        storePatterns(sortedPatterns, taxonNr);
 
         // find patterns for the loci
-        patternIndex = new int[lociNr];
-        int[][] tmp = new int[taxonNr][];
-        for (int i = 0; i < lociNr; i++) {
+        patternIndex = new int[siteNr];
+        for (int i = 0; i < siteNr; i++) {
+            patternIndex[i] = unique2Pattern[site2Unique[i]];
+            patternWeight[patternIndex[i]]++;
+        }
+    } // calcPatterns
+
+    /**
+     * Store patterns in a flat primitive array and precompute sequencing coverage of each (pattern, taxon) cell.
+     *
+     * @param patterns sorted patterns, #patterns x #taxa x #values per cell
+     * @param taxonNr  number of taxa
+     */
+    private void storePatterns(final int[][][] patterns, final int taxonNr) {
+        nrOfPatternTaxa = taxonNr;
+        nrOfPatternValues = patterns.length > 0 && taxonNr > 0 ? patterns[0][0].length : 0;
+
+        int maxValue = 0;
+        for (int[][] pattern : patterns) {
+            for (int[] cell : pattern) {
+                if (cell.length != nrOfPatternValues)
+                    throw new IllegalArgumentException("Error! The number of values per cell is not unanimous " +
+                            "across the data. Expect to be " + nrOfPatternValues + ", " + cell.length + " found. (" +
+                            this.getClass().getName() + ")");
+
+                for (int value : cell)
+                    maxValue = Math.max(maxValue, value);
+            }
+        }
+
+        final boolean useShort = maxValue <= Short.MAX_VALUE;
+        shortSitePatterns = useShort ? new short[patterns.length * taxonNr * nrOfPatternValues] : null;
+        intSitePatterns = useShort ? null : new int[patterns.length * taxonNr * nrOfPatternValues];
+        patternCoverages = new int[patterns.length * taxonNr];
+
+        int offset = 0;
+        for (int i = 0; i < patterns.length; i++) {
             for (int j = 0; j < taxonNr; j++) {
-                tmp[j] = parsedSequences.get(j).get(i);
+                for (int value : patterns[i][j]) {
+                    if (useShort)
+                        shortSitePatterns[offset] = (short) value;
+                    else
+                        intSitePatterns[offset] = value;
+
+                    offset++;
+                }
+
+                patternCoverages[i * taxonNr + j] = m_dataType.getSequencingCoverage(patterns[i][j]);
             }
+        }
+    } // storePatterns
 
-            patternIndex[i] = Arrays.binarySearch(sitePatterns, tmp, comparator);
+    /**
+     * FNV-1a hash of read counts of all taxa at a locus.
+     *
+     * @param locus index of locus in sequence data
+     * @return fingerprint
+     */
+    private long getSiteFingerprint(final int locus) {
+        final int[] buffer = createReadCountsBuffer();
+        long hash = 0xcbf29ce484222325L;
+
+        for (int i = 0; i < taxaNames.size(); i++) {
+            for (int value : getReadCountsOfLocus(i, locus, buffer)) {
+                hash ^= value;
+                hash *= 0x100000001b3L;
+            }
         }
-    } // calcPatterns
+
+        return hash;
+    } // getSiteFingerprint
+
+    /**
+     * @param locus1 index of locus in sequence data
+     * @param locus2 index of locus in sequence data
+     * @return whether all taxa have the same read counts at both loci
+     */
+    private boolean isSameSite(final int locus1, final int locus2) {
+        final int[] buffer1 = createReadCountsBuffer();
+        final int[] buffer2 = createReadCountsBuffer();
+
+        for (int i = 0; i < taxaNames.size(); i++) {
+            if (!Arrays.equals(getReadCountsOfLocus(i, locus1, buffer1), getReadCountsOfLocus(i, locus2, buffer2)))
+                return false;
+        }
+
+        return true;
+    } // isSameSite
+
+    /**
+     * @return a buffer for {@link #getReadCountsOfLocus(int, int, int[])}; null if read counts are parsed from text
+     */
+    private int[] createReadCountsBuffer() {
+        return binaryReadCounts == null ? null : new int[binaryReadCounts.getNrOfReadCounts(m_dataType)];
+    } // createReadCountsBuffer
+
+    /**
+     * Read counts of a taxon at a locus, without allocating an array per entry: parsed read counts are returned as
+     * they are, and binary read counts are copied from the mapped buffers into {@param buffer}.
+     *
+     * @param taxonIndex which taxon?
+     * @param locus      index of locus in sequence data
+     * @param buffer     see {@link #createReadCountsBuffer()}
+     * @return read counts, which should not be modified or kept
+     */
+    private int[] getReadCountsOfLocus(final int taxonIndex, final int locus, final int[] buffer) {
+        if (binaryReadCounts == null)
+            return parsedSequences.get(taxonIndex).get(locus);
+
+        binaryReadCounts.getReadCounts(m_dataType, taxonIndex, lociOffset + locus, buffer);
+        return buffer;
+    } // getReadCountsOfLocus
 
     /**
      * Pretty printing of vital statistics of an alignment including id, #taxa, #sites, #patterns
@@ -487,14 +772,17 @@ public class ScsAlignment extends Map<String> {
 
         if (singleLine) {
             builder.append(": [taxa, loci, unique patterns] = [" + getTaxonCount() + ", " + getLociNr() + ", " +
-                    getPatternCount() + "]");
+                    (headerOnly ? "-" : getPatternCount()) + "]");
         } else {
             builder.append("\n");
             builder.append("  " + getTaxonCount() + " taxa");
             builder.append("\n");
             builder.append("  " + getLociNr() + (getLociNr() == 1 ? " locus" : " loci"));
             builder.append("\n");
-            if (getLociNr() > 1) {
+            if (headerOnly) {
+                builder.append("  header only");
+                builder.append("\n");
+            } else if (getLociNr() > 1) {
                 builder.append("  " + getPatternCount() + " unique patterns");
                 builder.append("\n");
             }
@@ -502,6 +790,13 @@ public class ScsAlignment extends Map<String> {
         return builder.toString();
     } // toString
 
+    private void checkPatterns() {
+        if (headerOnly)
+            throw new IllegalStateException("Error! Only the header of binary data is loaded for " + getID() +
+                    ", which has no loci information, read counts or patterns. Unset 'headerOnly' unless it is only " +
+                    "used by the coordinator of ShardedScsTreeLikelihood. (" + this.getClass().getName() + ")");
+    } // checkPatterns
+
 
     //************************************************
     //*                Nested classes                *
@@ -555,6 +850,8 @@ public class ScsAlignment extends Map<String> {
      * the position of the immutable Integer List in the outer List, which corresponds
      * to the nodeNr of the corresponding leaf node and the position of the
      * taxon name in the taxaNames list.
+     * <p>
+     * Empty if the alignment is loaded from binary data, whose read counts are only kept in the mapped buffers.
      *
      * @return integer representation of sequence alignment
      */
@@ -581,23 +878,100 @@ public class ScsAlignment extends Map<String> {
      * @return Number of unique character patterns in alignment.
      */
     public int getPatternCount() {
-        return sitePatterns.length;
+        checkPatterns();
+        return patternWeight.length;
     } // getPatternCount
 
+    /**
+     * Copies all patterns out of the flat storage; avoid in hot loops.
+     *
+     * @return patterns, #patterns x #taxa x #values per cell
+     */
     public int[][][] getPattern() {
-        return sitePatterns;
+        int[][][] patterns = new int[getPatternCount()][][];
+        for (int i = 0; i < patterns.length; i++)
+            patterns[i] = getPattern(i);
+
+        return patterns;
     } // getPattern
 
+    /**
+     * Copies a pattern out of the flat storage; avoid in hot loops.
+     *
+     * @param patternIndex_ index of pattern
+     * @return pattern, #taxa x #values per cell
+     */
     public int[][] getPattern(int patternIndex_) {
-        return sitePatterns[patternIndex_];
+        int[][] pattern = new int[getTaxonCount()][];
+        for (int i = 0; i < pattern.length; i++)
+            pattern[i] = getPattern(i, patternIndex_);
+
+        return pattern;
     } // getPattern
 
+    /**
+     * Copies a (pattern, taxon) cell out of the flat storage; in hot loops use
+     * {@link #getPattern(int, int, int[])} or {@link #getPatternOffset(int, int)} instead.
+     *
+     * @param taxonIndex    index of taxon
+     * @param patternIndex_ index of pattern
+     * @return read counts
+     */
     public int[] getPattern(int taxonIndex, int patternIndex_) {
-        return sitePatterns[patternIndex_][taxonIndex];
+        int[] counts = new int[nrOfPatternValues];
+        getPattern(taxonIndex, patternIndex_, counts);
+        return counts;
+    } // getPattern
+
+    /**
+     * Copies a (pattern, taxon) cell into a caller-provided buffer.
+     *
+     * @param taxonIndex    index of taxon
+     * @param patternIndex_ index of pattern
+     * @param counts        buffer of length at least {@link #getNrOfPatternValues()}
+     */
+    public void getPattern(int taxonIndex, int patternIndex_, int[] counts) {
+        final int offset = getPatternOffset(taxonIndex, patternIndex_);
+
+        if (shortSitePatterns != null) {
+            for (int i = 0; i < nrOfPatternValues; i++)
+                counts[i] = shortSitePatterns[offset + i];
+        } else
+            System.arraycopy(intSitePatterns, offset, counts, 0, nrOfPatternValues);
     } // getPattern
 
+    /**
+     * @param taxonIndex    index of taxon
+     * @param patternIndex_ index of pattern
+     * @return index of the (pattern, taxon) cell in the flat storage
+     */
+    protected int getPatternCellIndex(int taxonIndex, int patternIndex_) {
+        return patternIndex_ * nrOfPatternTaxa + taxonIndex;
+    } // getPatternCellIndex
+
+    /**
+     * @param taxonIndex    index of taxon
+     * @param patternIndex_ index of pattern
+     * @return offset of the first value of the (pattern, taxon) cell, to be used with {@link #getPatternValue(int)}
+     */
+    public int getPatternOffset(int taxonIndex, int patternIndex_) {
+        return getPatternCellIndex(taxonIndex, patternIndex_) * nrOfPatternValues;
+    } // getPatternOffset
+
+    /**
+     * @param offset offset into the flat storage, see {@link #getPatternOffset(int, int)}
+     * @return the value at {@param offset}
+     */
+    public int getPatternValue(int offset) {
+        return shortSitePatterns != null ? shortSitePatterns[offset] : intSitePatterns[offset];
+    } // getPatternValue
+
+    public int getNrOfPatternValues() {
+        return nrOfPatternValues;
+    } // getNrOfPatternValues
+
     public int getSequencingCoverageOfPattern(int taxonIndex, int patternIndex_) {
-        return m_dataType.getSequencingCoverage(sitePatterns[patternIndex_][taxonIndex]);
+        return patternCoverages[getPatternCellIndex(taxonIndex, patternIndex_)];
     } // getSequencingCoverage
 
     public int getSequencingCoverage(int[] counts) {
@@ -626,6 +1000,7 @@ public class ScsAlignment extends Map<String> {
     } // getPatternIndex
 
     public int[] getPatternIndexArray() {
+        checkPatterns();
         return patternIndex;
     } // getPatternIndex
 
@@ -633,7 +1008,7 @@ public class ScsAlignment extends Map<String> {
      * @return Total number of sites in alignment.
      */
     public int getSiteCount() {
-        return patternIndex.length;
+        return headerOnly ? lociNr : patternIndex.length;
     }
 
     /**
@@ -643,7 +1018,12 @@ public class ScsAlignment extends Map<String> {
         return lociNr;
     } // getLociNr
 
+    public boolean isHeaderOnly() {
+        return headerOnly;
+    } // isHeaderOnly
+
     public VariantSiteInfo getLociInfo(int locus) {
+        checkPatterns();
         return loci.get(locus);
     } // getLociInfo
 
@@ -655,6 +1035,9 @@ public class ScsAlignment extends Map<String> {
      * @return coverage
      */
     public int getSequencingCoverageOfLocus(int taxonIndex, int locusIndex) {
+        if (this.binaryReadCounts != null)
+            return this.binaryReadCounts.getCoverage(taxonIndex, lociOffset + locusIndex);
+
         return this.sequences.get(taxonIndex).getCoverage(locusIndex);
     } // getCoverage
 
@@ -666,6 +1049,9 @@ public class ScsAlignment extends Map<String> {
      * @return alternative nucleotides
      */
     public char[] getAltNucs(int taxonIndex, int locusIndex) {
+        if (this.binaryReadCounts != null)
+            return this.binaryReadCounts.getAltNucs(taxonIndex, lociOffset + locusIndex);
+
         return this.sequences.get(taxonIndex).getAltNucs(locusIndex);
     } // getAltNucs
 
@@ -680,15 +1066,19 @@ public class ScsAlignment extends Map<String> {
     public int[] getAlleleDepth(int taxonIndex, int locusIndex, char[] altNucs) {
         int[] results = new int[(altNucs != null && altNucs.length > 0) ? altNucs.length + 1 : 1];
 
-        results[0] = this.sequences.get(taxonIndex).getRefReads(locusIndex);
+        results[0] = this.binaryReadCounts != null ?
+                this.binaryReadCounts.getRefReads(taxonIndex, lociOffset + locusIndex) :
+                this.sequences.get(taxonIndex).getRefReads(locusIndex);
 
         if (altNucs != null && altNucs.length > 0) {
-            final char[] altNucsCell = this.sequences.get(taxonIndex).getAltNucs(locusIndex);
+            final char[] altNucsCell = getAltNucs(taxonIndex, locusIndex);
 
             for (int i = 0; i < altNucs.length; i++) {
                 for (int j = 0; j < altNucsCell.length; j++) {
                     if (Character.toUpperCase(altNucs[i]) == Character.toUpperCase(altNucsCell[j])) {
-                        results[i + 1] = this.sequences.get(taxonIndex).getAltReads(locusIndex, j);
+                        results[i + 1] = this.binaryReadCounts != null ?
+                                this.binaryReadCounts.getAltReads(taxonIndex, lociOffset + locusIndex, j) :
+                                this.sequences.get(taxonIndex).getAltReads(locusIndex, j);
                         break;
                     }
                 }
@@ -705,6 +1095,7 @@ public class ScsAlignment extends Map<String> {
      * @return Pattern weight array.
      */
     public int[] getWeights() {
+        checkPatterns();
         return patternWeight;
     } // getWeights
 
@@ -741,9 +1132,11 @@ public class ScsAlignment extends Map<String> {
     /**
      * get ascertainment bias correction value
      *
-     * @param logConstRoot   log-likelihood for constant site
+     * @param logConstRoot   log-likelihood for constant site of each pattern, counted as many times as the pattern
+     *                       weight when summing over constant sites
      * @param returnConstSum return only the sum of the likelihoods of constant sites
-     * @return ascertainment bias correction value
+     * @return ascertainment bias correction value, or the sum over constant sites if returnConstSum is set for
+     * Felsenstein's correction
      */
     public double getAscBiasCorrection(
             final double[] logConstRoot,
@@ -769,8 +1162,10 @@ public class ScsAlignment extends Map<String> {
      * <p>
      * -n * log(1.0 - c)
      * n: number of candidate mutated sites
+     * <p>
+     * Each pattern contributes as many times as its weight.
      *
-     * @param logConstRoot log-likelihood for constant site
+     * @param logConstRoot log-likelihood for constant site of each pattern
      * @return ascertainment bias correction value
      */
     protected double getAscBiasCorrectionLewis(double[] logConstRoot) {
@@ -787,7 +1182,7 @@ public class ScsAlignment extends Map<String> {
      * w * log(c)
      * w: number of background sites
      *
-     * @param logConstRoot   log-likelihood for constant site
+     * @param logConstRoot   log-likelihood for constant site of each pattern
      * @param returnConstSum return only the sum of the likelihoods of constant sites
      * @return ascertainment bias correction value
      */
@@ -797,12 +1192,12 @@ public class ScsAlignment extends Map<String> {
 
         switch (meanAscBiasCorrectionInput.get()) {
             case mean:
-                corr = MathFunctions.logSumExp(logConstRoot);
-                corrected = (corr - Math.log(logConstRoot.length)) * getManipulatedNrOfBackgroundSites();
+                corr = MathFunctions.logSumExp(logConstRoot, patternWeight);
+                corrected = (corr - Math.log(getSiteCount())) * getManipulatedNrOfBackgroundSites();
                 break;
             case geometric:
-                corr = MathFunctions.sum(logConstRoot);
-                corrected = corr * getManipulatedNrOfBackgroundSites() / logConstRoot.length;
+                corr = MathFunctions.sum(logConstRoot, patternWeight);
+                corrected = corr * getManipulatedNrOfBackgroundSites() / getSiteCount();
                 break;
             default:
                 throw new IllegalArgumentException("Error! Illegal value for meanAscBiasCorrection.");
@@ -6,7 +6,6 @@ import beast.core.Input;
 import beast.evolution.datatype.CovSup;
 import beast.evolution.datatype.FullSupsCov;
 import beast.evolution.datatype.ReadCounts;
-import com.google.common.primitives.Longs;
 
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -110,58 +109,163 @@ public class ScsBackgroundInfo extends BEASTObject {
     } // initBackgroundInfoType
 
     /**
-     * save the background information into an ArrayList consisting of ImmutableList
+     * save the background information into an ArrayList consisting of pairs of (reads, occurrences)
+     * <p>
+     * The value is scanned once, character by character, and numbers are accumulated directly into primitive pairs,
+     * so that no intermediate copies of the (possibly huge) value are made. Whitespace is ignored. The value is
+     * interpreted in the same way as splitting it by semicolons and each entry by commas: empty entries or values
+     * are only allowed at the end, and otherwise rejected as non-integers.
      */
     private void initBackgroundInfo() throws IllegalArgumentException {
-        // remove spaces
-        String data = dataInput.get().trim().replaceAll("\\s+", "");
+        final String data = dataInput.get();
 
         this.backgroundList = new ArrayList<>();
 
-        // separate different counts
-        String[] ctsInfo = data.split(";");
+        long[] readCountsOccurrences = new long[2];
+        int nrOfValues = 0;
 
-        List<Long> readCountsOccurrences = new ArrayList<>();
-        for (String str : ctsInfo) {
-            readCountsOccurrences.clear();
+        // empty entries and values are only rejected once something follows them
+        int nrOfEmptyEntries = 0;
+        int nrOfEmptyValues = 0;
 
-            String[] indiInfo = str.split(",");
+        int entryStart = 0;
+        int valueStart = 0;
+        boolean isEmptyValue = true;
 
-            // convert string to integer
-            for (String str_2 : indiInfo) {
-                long integer;
+        // the value being parsed, in the same way as Long.parseLong()
+        long value = 0;
+        boolean isNegative = false;
+        boolean hasDigit = false;
+        boolean isValid = true;
 
-                // mark non-integer data type as -1
-                try {
-                    integer = Long.parseLong(str_2.trim());
-                } catch (NumberFormatException e) {
-                    integer = -1;
-                }
+        // the whole value is empty
+        if (isBlank(data, 0, data.length()))
+            throw nonIntegerException(data, 0, data.length());
 
-                if (integer < 0)
-                    throw new IllegalArgumentException("Read counts and corresponding occurrences should both be " +
-                            "non-negative integers. Negative integer or non-integer data type found in " + str_2 +
-                            ". (" + this.getClass().getName() + ")");
-                else
-                    readCountsOccurrences.add(integer);
+        // a sentinel semicolon is appended to close the last entry
+        for (int i = 0; i <= data.length(); i++) {
+            final char c = i < data.length() ? data.charAt(i) : ';';
 
-            }
+            if (c == ',' || c == ';') {
+                if (isEmptyValue) {
+                    nrOfEmptyValues++;
+                } else {
+                    if (nrOfEmptyEntries > 0)
+                        throw nonIntegerException(data, entryStart, entryStart);
+
+                    if (nrOfEmptyValues > 0)
+                        throw nonIntegerException(data, valueStart, valueStart);
 
-            // size of readCountsOccurrences should be 2
-            if (readCountsOccurrences.size() != 2)
-                throw new IllegalArgumentException("Background information should be in a form of " +
-                        "'the number of read count + the corresponding unique occurrences', nothing more or less. " +
-                        readCountsOccurrences.toString() + "found. (" + this.getClass().getName() + ")");
+                    // negative or non-integer data type
+                    if (!hasDigit || !isValid || (isNegative && value != 0))
+                        throw nonIntegerException(data, valueStart, i);
+
+                    if (nrOfValues < 2)
+                        readCountsOccurrences[nrOfValues] = value;
+                    nrOfValues++;
+                }
 
-            this.backgroundInfoPoints += readCountsOccurrences.get(1);
+                value = 0;
+                isNegative = false;
+                hasDigit = false;
+                isValid = true;
+                isEmptyValue = true;
+                valueStart = i + 1;
+
+                if (c == ';') {
+                    if (nrOfValues == 0 && nrOfEmptyValues == 1) {
+                        // an empty entry
+                        nrOfEmptyEntries++;
+                    } else {
+                        if (nrOfEmptyEntries > 0)
+                            throw nonIntegerException(data, entryStart, entryStart);
+
+                        // size of readCountsOccurrences should be 2
+                        if (nrOfValues != 2)
+                            throw new IllegalArgumentException("Background information should be in a form of " +
+                                    "'the number of read count + the corresponding unique occurrences', nothing more or less. " +
+                                    getValues(data, entryStart, i) + "found. (" + this.getClass().getName() + ")");
+
+                        this.backgroundInfoPoints += readCountsOccurrences[1];
+                        this.backgroundList.add(readCountsOccurrences);
+
+                        readCountsOccurrences = new long[2];
+                    }
+
+                    nrOfValues = 0;
+                    nrOfEmptyValues = 0;
+                    entryStart = i + 1;
+                }
+            } else if (!isWhitespace(c)) {
+                if (isEmptyValue) {
+                    // values before this one in the entry are empty
+                    if (nrOfEmptyValues > 0)
+                        throw nonIntegerException(data, valueStart, valueStart);
+
+                    isEmptyValue = false;
+                    valueStart = i;
+
+                    if (c == '-' || c == '+') {
+                        isNegative = c == '-';
+                        continue;
+                    }
+                }
 
-            this.backgroundList.add(Longs.toArray(readCountsOccurrences));
+                if (c >= '0' && c <= '9' && value <= (Long.MAX_VALUE - (c - '0')) / 10) {
+                    value = value * 10 + (c - '0');
+                    hasDigit = true;
+                } else
+                    isValid = false;
+            }
         }
 
         // sort and check if current counts has appeared before
         backgroundList.sort(new CombiComparator());
     } // initBackgroundInfo
 
+    private IllegalArgumentException nonIntegerException(final String data, final int from, final int to) {
+        return new IllegalArgumentException("Read counts and corresponding occurrences should both be " +
+                "non-negative integers. Negative integer or non-integer data type found in " +
+                removeWhitespaces(data, from, to) + ". (" + this.getClass().getName() + ")");
+    } // nonIntegerException
+
+    /**
+     * @return values of a valid entry, formatted as a list
+     */
+    private static String getValues(final String data, final int from, final int to) {
+        List<Long> values = new ArrayList<>();
+        for (String value : removeWhitespaces(data, from, to).split(","))
+            values.add(Long.parseLong(value));
+
+        return values.toString();
+    } // getValues
+
+    private static String removeWhitespaces(final String data, final int from, final int to) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = from; i < to; i++) {
+            if (!isWhitespace(data.charAt(i)))
+                sb.append(data.charAt(i));
+        }
+
+        return sb.toString();
+    } // removeWhitespaces
+
+    private static boolean isBlank(final String data, final int from, final int to) {
+        for (int i = from; i < to; i++) {
+            if (!isWhitespace(data.charAt(i)))
+                return false;
+        }
+
+        return true;
+    } // isBlank
+
+    /**
+     * @return whether {@param c} is matched by the regular expression "\\s"
+     */
+    static boolean isWhitespace(final char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
+    } // isWhitespace
+
     public boolean sanityCheckDataType(ReadCounts dataType) {
         return (this.backgroundInfoType == BackgroundInfoType.Universal) ||
                 (dataType instanceof CovSup && this.backgroundInfoType == BackgroundInfoType.CovSup) ||
@@ -0,0 +1,638 @@
+package beast.evolution.alignment;
+
+import beast.evolution.datatype.CovSup;
+import beast.evolution.datatype.ReadCounts;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A compact binary container of single-cell read counts, as an alternative to read counts embedded in the
+ * configuration file as text. Written by DataCollector and memory-mapped by ScsAlignment.
+ * <p>
+ * Layout (big-endian):
+ * <pre>
+ * header      magic, version, data type, #cells, #loci, #values per entry, #alternative nucleotides per entry
+ * cells       cell names
+ * loci table  per locus: chromosome, position, reference nucleotide, alternative nucleotides
+ * counts      column-major int values: for each locus, for each cell, (alternative reads..., coverage)
+ * nucleotides column-major bytes: for each locus, for each cell, alternative nucleotides (if any)
+ * </pre>
+ * Strings are stored as their length in bytes followed by UTF-8 bytes. The counts start at a multiple of 4 bytes.
+ */
+public class ScsBinaryReadCounts {
+
+
+    //***********************************************
+    //*                  Variables                  *
+    //***********************************************
+
+    private final static int MAGIC = 0x53435342; // "SCSB"
+
+    private final static int VERSION = 1;
+
+    /**
+     * the largest number of bytes mapped at once
+     */
+    private final static long MAX_MAPPED_BYTES = Integer.MAX_VALUE;
+
+    private final String dataTypeDescription;
+
+    private final List<String> cellNames;
+
+    private final List<VariantSiteInfo> loci;
+
+    private final int nrOfCells;
+
+    private final int nrOfLoci;
+
+    /**
+     * number of int values of each entry: alternative reads and coverage
+     */
+    private final int nrOfValues;
+
+    /**
+     * number of alternative nucleotides of each entry; 0 if not stored
+     */
+    private final int nrOfNucs;
+
+    /**
+     * mapped counts and nucleotides, each block holding lociPerBlock loci; null if only the header is loaded
+     */
+    private final IntBuffer[] counts;
+    private final ByteBuffer[] nucs;
+    private final int lociPerBlock;
+
+
+    //**********************************************
+    //*                Constructors                *
+    //**********************************************
+
+    private ScsBinaryReadCounts(
+            String dataTypeDescription,
+            List<String> cellNames,
+            List<VariantSiteInfo> loci,
+            int nrOfLoci,
+            int nrOfValues,
+            int nrOfNucs,
+            IntBuffer[] counts,
+            ByteBuffer[] nucs,
+            int lociPerBlock
+    ) {
+        this.dataTypeDescription = dataTypeDescription;
+        this.cellNames = cellNames;
+        this.loci = loci;
+        this.nrOfCells = cellNames.size();
+        this.nrOfLoci = nrOfLoci;
+        this.nrOfValues = nrOfValues;
+        this.nrOfNucs = nrOfNucs;
+        this.counts = counts;
+        this.nucs = nucs;
+        this.lociPerBlock = lociPerBlock;
+    }
+
+
+    //***********************************************
+    //*                   Methods                   *
+    //***********************************************
+
+    /**
+     * Memory-map a binary file of read counts.
+     *
+     * @param fileName apparently
+     * @return loaded read counts
+     * @throws IOException if the file cannot be read or is not in the binary format
+     */
+    public static ScsBinaryReadCounts load(final String fileName) throws IOException {
+        return load(fileName, false);
+    } // load
+
+    /**
+     * Read only the header and cell names of a binary file of read counts, without the loci table or mapping the
+     * counts. Only the data type, cell names and numbers of cells and loci are available.
+     *
+     * @param fileName apparently
+     * @return header of read counts
+     * @throws IOException if the file cannot be read or is not in the binary format
+     */
+    public static ScsBinaryReadCounts loadHeader(final String fileName) throws IOException {
+        return load(fileName, true);
+    } // loadHeader
+
+    private static ScsBinaryReadCounts load(final String fileName, final boolean headerOnly) throws IOException {
+        try (RandomAccessFile file = new RandomAccessFile(fileName, "r");
+             FileChannel channel = file.getChannel()) {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file.getFD())));
+
+            if (in.readInt() != MAGIC)
+                throw new IOException("Error! " + fileName + " is not a binary read counts file.");
+
+            final int version = in.readInt();
+            if (version != VERSION)
+                throw new IOException("Error! Unsupported version of binary read counts file: " + version +
+                        " (expecting " + VERSION + ").");
+
+            long position = 8;
+
+            final byte[] dataType = readBytes(in);
+            position += 4 + dataType.length;
+
+            final int nrOfCells = in.readInt();
+            final int nrOfLoci = in.readInt();
+            final int nrOfValues = in.readInt();
+            final int nrOfNucs = in.readInt();
+            position += 16;
+
+            List<String> cellNames = new ArrayList<>(nrOfCells);
+            for (int i = 0; i < nrOfCells; i++) {
+                final byte[] name = readBytes(in);
+                position += 4 + name.length;
+
+                cellNames.add(new String(name, StandardCharsets.UTF_8));
+            }
+
+            if (headerOnly)
+                return new ScsBinaryReadCounts(
+                        new String(dataType, StandardCharsets.UTF_8),
+                        cellNames,
+                        null,
+                        nrOfLoci,
+                        nrOfValues,
+                        nrOfNucs,
+                        null,
+                        null,
+                        0
+                );
+
+            List<VariantSiteInfo> loci = new ArrayList<>(nrOfLoci);
+            for (int i = 0; i < nrOfLoci; i++) {
+                final byte[] chr = readBytes(in);
+                final long pos = in.readLong();
+                final byte[] ref = readBytes(in);
+                position += 4 + chr.length + 8 + 4 + ref.length;
+
+                String[] alts = new String[in.readInt()];
+                position += 4;
+                for (int j = 0; j < alts.length; j++) {
+                    final byte[] alt = readBytes(in);
+                    position += 4 + alt.length;
+
+                    alts[j] = new String(alt, StandardCharsets.UTF_8);
+                }
+
+                loci.add(
+                        new VariantSiteInfo(
+                                new String(chr, StandardCharsets.UTF_8),
+                                pos,
+                                new String(ref, StandardCharsets.UTF_8),
+                                alts
+                        )
+                );
+            }
+
+            position = align(position);
+
+            // map counts and nucleotides block by block
+            final long bytesPerLocus = (long) nrOfCells * nrOfValues * 4;
+            final int lociPerBlock = (int) Math.max(1, Math.min(nrOfLoci, MAX_MAPPED_BYTES / Math.max(1, bytesPerLocus)));
+            final int nrOfBlocks = nrOfLoci == 0 ? 0 : (nrOfLoci - 1) / lociPerBlock + 1;
+
+            final long nucsStart = position + bytesPerLocus * nrOfLoci;
+            final long nucsPerLocus = (long) nrOfCells * nrOfNucs;
+            if (channel.size() < nucsStart + nucsPerLocus * nrOfLoci)
+                throw new IOException("Error! " + fileName + " is truncated.");
+
+            IntBuffer[] counts = new IntBuffer[nrOfBlocks];
+            ByteBuffer[] nucs = new ByteBuffer[nrOfNucs > 0 ? nrOfBlocks : 0];
+            for (int i = 0; i < nrOfBlocks; i++) {
+                final int lociInBlock = Math.min(lociPerBlock, nrOfLoci - i * lociPerBlock);
+
+                counts[i] = channel.map(
+                        FileChannel.MapMode.READ_ONLY,
+                        position + bytesPerLocus * i * lociPerBlock,
+                        bytesPerLocus * lociInBlock
+                ).asIntBuffer();
+
+                if (nrOfNucs > 0)
+                    nucs[i] = channel.map(
+                            FileChannel.MapMode.READ_ONLY,
+                            nucsStart + nucsPerLocus * i * lociPerBlock,
+                            nucsPerLocus * lociInBlock
+                    );
+            }
+
+            return new ScsBinaryReadCounts(
+                    new String(dataType, StandardCharsets.UTF_8),
+                    cellNames,
+                    loci,
+                    nrOfLoci,
+                    nrOfValues,
+                    nrOfNucs,
+                    counts,
+                    nucs,
+                    lociPerBlock
+            );
+        }
+    } // load
+
+    /**
+     * Write read counts to a binary file.
+     *
+     * @param fileName            apparently
+     * @param dataTypeDescription description of the data type, e.g., "full supports-coverage"
+     * @param cellNames           names of cells in order
+     * @param loci                information of each locus in a form of 'chromosome,position,reference,alternatives'
+     * @param readCounts          read counts of each cell at each locus, in the same form as the value of a sequence
+     *                            ('c,ma' for coverage-support, 'n1,n2,n3,r1,r2,r3,c' for full supports-coverage)
+     * @throws IOException if the file cannot be written
+     */
+    public static void write(
+            final String fileName,
+            final String dataTypeDescription,
+            final List<String> cellNames,
+            final List<String> loci,
+            final List<List<String>> readCounts
+    ) throws IOException {
+        if (cellNames.size() != readCounts.size())
+            throw new IllegalArgumentException("Error! The number of cells (" + cellNames.size() + ") does not " +
+                    "match the number of sequences (" + readCounts.size() + ").");
+
+        for (List<String> i : readCounts) {
+            if (i.size() != loci.size())
+                throw new IllegalArgumentException("Error! Incompatible loci number: expecting " + loci.size() +
+                        ", observing " + i.size());
+        }
+
+        final boolean isCovSup = new CovSup().getTypeDescription().equals(dataTypeDescription);
+
+        // determine the number of alternative nucleotides and values from the first entry
+        final String[] first = readCounts.isEmpty() || loci.isEmpty() ? new String[0] : readCounts.get(0).get(0).split(",");
+        int nrOfNucs = 0;
+        while (nrOfNucs < first.length && isNuc(first[nrOfNucs]))
+            nrOfNucs++;
+        final int nrOfValues = first.length - nrOfNucs;
+
+        try (Writer writer = new Writer(fileName, dataTypeDescription, cellNames, loci.size(), nrOfValues, nrOfNucs)) {
+            for (String i : loci) {
+                final String[] info = i.split(",");
+                if (info.length < 4)
+                    throw new IllegalArgumentException("Error! Insufficient amount of locus information or wrong " +
+                            "format to properly define a variant site: " + i);
+
+                writer.writeLocus(
+                        info[0].trim(),
+                        Long.parseLong(info[1].trim()),
+                        info[2].trim(),
+                        Arrays.copyOfRange(info, 3, info.length)
+                );
+            }
+
+            // counts, always stored as (alternative reads..., coverage)
+            int[] values = new int[nrOfValues];
+            for (int i = 0; i < loci.size(); i++) {
+                for (List<String> cell : readCounts) {
+                    final String[] entry = cell.get(i).split(",");
+                    if (entry.length != nrOfNucs + nrOfValues)
+                        throw new IllegalArgumentException("The number of states is not unanimous across the " +
+                                "data. Expect to be " + (nrOfNucs + nrOfValues) + ", " + entry.length + " found.");
+
+                    for (int j = 0; j < nrOfValues; j++) {
+                        values[j] = Integer.parseInt(entry[nrOfNucs + j].trim());
+
+                        if (values[j] < 0)
+                            throw new IllegalArgumentException("Read counts should be non-negative integers. " +
+                                    "Negative integer found in " + cell.get(i));
+                    }
+
+                    if (isCovSup) {
+                        // (coverage, alternative reads) -> (alternative reads, coverage)
+                        final int cov = values[0];
+                        values[0] = values[1];
+                        values[1] = cov;
+                    }
+
+                    writer.writeCounts(values);
+                }
+            }
+
+            // nucleotides
+            if (nrOfNucs > 0) {
+                byte[] entryNucs = new byte[nrOfNucs];
+                for (int i = 0; i < loci.size(); i++) {
+                    for (List<String> cell : readCounts) {
+                        final String[] entry = cell.get(i).split(",");
+
+                        for (int j = 0; j < nrOfNucs; j++) {
+                            if (!isNuc(entry[j]))
+                                throw new IllegalArgumentException("Error! Only a character of alphabetic is " +
+                                        "expected, but observing " + entry[j]);
+
+                            entryNucs[j] = (byte) entry[j].trim().charAt(0);
+                        }
+
+                        writer.writeNucs(entryNucs);
+                    }
+                }
+            }
+        }
+    } // write
+
+    /**
+     * Read counts of a cell at a locus, in the same layout as produced by the data type from text.
+     *
+     * @param dataType   apparently
+     * @param taxonIndex which cell?
+     * @param locusIndex which locus?
+     * @return read counts
+     */
+    public int[] getReadCounts(final ReadCounts dataType, final int taxonIndex, final int locusIndex) {
+        int[] results = new int[getNrOfReadCounts(dataType)];
+        getReadCounts(dataType, taxonIndex, locusIndex, results);
+        return results;
+    } // getReadCounts
+
+    /**
+     * Read counts of a cell at a locus copied into a caller-provided buffer, so that no array is allocated per entry.
+     *
+     * @param dataType   apparently
+     * @param taxonIndex which cell?
+     * @param locusIndex which locus?
+     * @param results    buffer of length at least {@link #getNrOfReadCounts(ReadCounts)}
+     */
+    public void getReadCounts(final ReadCounts dataType, final int taxonIndex, final int locusIndex, int[] results) {
+        final IntBuffer block = counts[locusIndex / lociPerBlock];
+        final int offset = getOffset(taxonIndex, locusIndex) * nrOfValues;
+
+        // (coverage, alternative reads)
+        if (dataType instanceof CovSup) {
+            results[0] = block.get(offset + 1);
+            results[1] = block.get(offset);
+            return;
+        }
+
+        // (alternative reads..., reference reads, coverage)
+        int sum = 0;
+        for (int i = 0; i < nrOfValues - 1; i++) {
+            results[i] = block.get(offset + i);
+            sum += results[i];
+        }
+        results[nrOfValues] = block.get(offset + nrOfValues - 1);
+        results[nrOfValues - 1] = results[nrOfValues] - sum;
+    } // getReadCounts
+
+    /**
+     * @param dataType apparently
+     * @return number of values of read counts of a cell at a locus, in the layout of {@param dataType}
+     */
+    public int getNrOfReadCounts(final ReadCounts dataType) {
+        return dataType instanceof CovSup ? 2 : nrOfValues + 1;
+    } // getNrOfReadCounts
+
+    public int getCoverage(final int taxonIndex, final int locusIndex) {
+        return counts[locusIndex / lociPerBlock].get(getOffset(taxonIndex, locusIndex) * nrOfValues + nrOfValues - 1);
+    } // getCoverage
+
+    public int getAltReads(final int taxonIndex, final int locusIndex, final int altNucIndex) {
+        return counts[locusIndex / lociPerBlock].get(getOffset(taxonIndex, locusIndex) * nrOfValues + altNucIndex);
+    } // getAltReads
+
+    public int getRefReads(final int taxonIndex, final int locusIndex) {
+        final IntBuffer block = counts[locusIndex / lociPerBlock];
+        final int offset = getOffset(taxonIndex, locusIndex) * nrOfValues;
+
+        int refReads = block.get(offset + nrOfValues - 1);
+        for (int i = 0; i < nrOfValues - 1; i++)
+            refReads -= block.get(offset + i);
+
+        return refReads;
+    } // getRefReads
+
+    public char[] getAltNucs(final int taxonIndex, final int locusIndex) {
+        char[] results = new char[nrOfValues - 1];
+
+        if (nrOfNucs == 0) {
+            Arrays.fill(results, 'N');
+            return results;
+        }
+
+        final ByteBuffer block = nucs[locusIndex / lociPerBlock];
+        final int offset = getOffset(taxonIndex, locusIndex) * nrOfNucs;
+        for (int i = 0; i < results.length; i++)
+            results[i] = (char) block.get(offset + i);
+
+        return results;
+    } // getAltNucs
+
+    /**
+     * @param taxonIndex which cell?
+     * @param locusIndex which locus?
+     * @return index of the entry within its block
+     */
+    private int getOffset(final int taxonIndex, final int locusIndex) {
+        return (locusIndex % lociPerBlock) * nrOfCells + taxonIndex;
+    } // getOffset
+
+    private static boolean isNuc(final String str) {
+        final String s = str.trim();
+        return s.length() == 1 && Character.isAlphabetic(s.charAt(0));
+    } // isNuc
+
+    private static long align(final long position) {
+        return (position + 3) / 4 * 4;
+    } // align
+
+    private static void writeString(DataOutputStream out, final String str) throws IOException {
+        final byte[] bytes = str.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    } // writeString
+
+    private static byte[] readBytes(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return bytes;
+    } // readBytes
+
+
+    //***********************************************
+    //*              Getter and Setter              *
+    //***********************************************
+
+    public String getDataTypeDescription() {
+        return dataTypeDescription;
+    }
+
+    public List<String> getCellNames() {
+        return cellNames;
+    }
+
+    /**
+     * @return information of each locus; null if only the header is loaded
+     */
+    public List<VariantSiteInfo> getLoci() {
+        return loci;
+    }
+
+    public int getNrOfCells() {
+        return nrOfCells;
+    }
+
+    public int getNrOfLoci() {
+        return nrOfLoci;
+    }
+
+    public boolean isHeaderOnly() {
+        return counts == null;
+    }
+
+
+    //************************************************
+    //*                Nested classes                *
+    //************************************************
+
+    /**
+     * Write read counts to a binary file section by section without holding them in memory: the loci table first,
+     * then the counts of each cell at each locus, and then the nucleotides, both in the order of loci and cells.
+     */
+    public static class Writer implements Closeable {
+
+        private final DataOutputStream out;
+
+        private final int nrOfCells;
+        private final int nrOfLoci;
+        private final int nrOfValues;
+        private final int nrOfNucs;
+
+        private long lociWritten = 0;
+        private long countsWritten = 0;
+        private long nucsWritten = 0;
+
+        /**
+         * Write the header and cell names.
+         *
+         * @param fileName            apparently
+         * @param dataTypeDescription description of the data type, e.g., "full supports-coverage"
+         * @param cellNames           names of cells in order
+         * @param nrOfLoci            number of loci to be written
+         * @param nrOfValues          number of int values of each entry: alternative reads and coverage
+         * @param nrOfNucs            number of alternative nucleotides of each entry; 0 if not stored
+         * @throws IOException if the file cannot be written
+         */
+        public Writer(
+                final String fileName,
+                final String dataTypeDescription,
+                final List<String> cellNames,
+                final int nrOfLoci,
+                final int nrOfValues,
+                final int nrOfNucs
+        ) throws IOException {
+            this.nrOfCells = cellNames.size();
+            this.nrOfLoci = nrOfLoci;
+            this.nrOfValues = nrOfValues;
+            this.nrOfNucs = nrOfNucs;
+
+            File file = new File(fileName);
+            if (file.getParentFile() != null)
+                file.getParentFile().mkdirs();
+
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16));
+
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            writeString(out, dataTypeDescription);
+            out.writeInt(nrOfCells);
+            out.writeInt(nrOfLoci);
+            out.writeInt(nrOfValues);
+            out.writeInt(nrOfNucs);
+
+            for (String i : cellNames)
+                writeString(out, i);
+
+            if (nrOfLoci == 0)
+                pad();
+        }
+
+        /**
+         * Write the information of the next locus.
+         *
+         * @param chr  chromosome
+         * @param pos  position
+         * @param ref  reference nucleotide
+         * @param alts alternative nucleotides
+         * @throws IOException if the file cannot be written
+         */
+        public void writeLocus(final String chr, final long pos, final String ref, final String[] alts) throws IOException {
+            if (lociWritten == nrOfLoci)
+                throw new IllegalStateException("Error! More than " + nrOfLoci + " loci are written.");
+
+            writeString(out, chr);
+            out.writeLong(pos);
+            writeString(out, ref);
+            out.writeInt(alts.length);
+            for (String i : alts)
+                writeString(out, i.trim());
+
+            lociWritten++;
+
+            if (lociWritten == nrOfLoci)
+                pad();
+        } // writeLocus
+
+        /**
+         * padding, so that counts start at a multiple of 4 bytes
+         */
+        private void pad() throws IOException {
+            for (long i = out.size(); i < align(out.size()); i++)
+                out.writeByte(0);
+        } // pad
+
+        /**
+         * Write the counts of the next entry, in the order of cells within each locus.
+         *
+         * @param values (alternative reads..., coverage)
+         * @throws IOException if the file cannot be written
+         */
+        public void writeCounts(final int[] values) throws IOException {
+            if (lociWritten != nrOfLoci)
+                throw new IllegalStateException("Error! Counts are written before all loci.");
+
+            for (int i = 0; i < nrOfValues; i++)
+                out.writeInt(values[i]);
+
+            countsWritten++;
+        } // writeCounts
+
+        /**
+         * Write the alternative nucleotides of the next entry, in the order of cells within each locus.
+         *
+         * @param nucs apparently
+         * @throws IOException if the file cannot be written
+         */
+        public void writeNucs(final byte[] nucs) throws IOException {
+            if (countsWritten != (long) nrOfLoci * nrOfCells)
+                throw new IllegalStateException("Error! Nucleotides are written before all counts.");
+
+            out.write(nucs, 0, nrOfNucs);
+
+            nucsWritten++;
+        } // writeNucs
+
+        @Override
+        public void close() throws IOException {
+            out.close();
+
+            if (lociWritten != nrOfLoci || countsWritten != (long) nrOfLoci * nrOfCells ||
+                    (nrOfNucs > 0 && nucsWritten != (long) nrOfLoci * nrOfCells))
+                throw new IOException("Error! Incomplete binary read counts file: " + lociWritten + " loci, " +
+                        countsWritten + " count entries and " + nucsWritten + " nucleotide entries are written.");
+        } // close
+
+    } // class Writer
+
+} // class ScsBinaryReadCounts
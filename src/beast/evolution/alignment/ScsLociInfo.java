@@ -5,7 +5,6 @@ import beast.core.Description;
 import beast.core.Input;
 
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.List;
 
 @Description("Loci information of single sequence read counts data in an alignment")
@@ -82,36 +81,78 @@ public class ScsLociInfo extends BEASTObject {
 
     /**
      * save the loci information into an ArrayList consisting of ImmutableList
+     * <p>
+     * The value is scanned once, character by character, and only the fields of each locus are copied out. Whitespace
+     * is ignored. The value is interpreted in the same way as splitting it by semicolons and each locus by commas:
+     * empty loci and fields are only allowed at the end, and otherwise rejected as insufficient locus information.
      */
     private void initLoci() {
         lociList = new ArrayList<>();
 
-        String data = dataInput.get().trim().replaceAll("\\s+", "");
-
-        // separate different loci
-        String[] liInfo = data.split(";");
-
-        for (String str : liInfo) {
-            String[] lsInfo = str.split(",");
-
-            if (lsInfo.length < 4)
-                throw new IllegalArgumentException("Error! Insufficient amount of locus information or wrong format " +
-                        "to properly define a variant site: " + str);
-
-            // save locus information
-            lociList.add(
-                    new VariantSiteInfo(
-                            lsInfo[0],
-                            Long.parseLong(lsInfo[1]),
-                            lsInfo[2],
-                            Arrays.copyOfRange(lsInfo, 3, lsInfo.length)
-                    )
-            );
+        final String data = dataInput.get();
+
+        List<String> fields = new ArrayList<>();
+        StringBuilder field = new StringBuilder();
+
+        // empty loci are only rejected once something follows them
+        int nrOfEmptyLoci = 0;
+
+        // the whole value is empty
+        boolean isEmpty = true;
+        for (int i = 0; i < data.length() && isEmpty; i++)
+            isEmpty = ScsBackgroundInfo.isWhitespace(data.charAt(i));
+        if (isEmpty)
+            throw insufficientInfoException("");
+
+        // a sentinel semicolon is appended to close the last locus
+        for (int i = 0; i <= data.length(); i++) {
+            final char c = i < data.length() ? data.charAt(i) : ';';
+
+            if (c == ',' || c == ';') {
+                fields.add(field.toString());
+                field.setLength(0);
+
+                if (c == ';') {
+                    if (fields.size() == 1 && fields.get(0).isEmpty()) {
+                        // an empty locus
+                        nrOfEmptyLoci++;
+                    } else {
+                        if (nrOfEmptyLoci > 0)
+                            throw insufficientInfoException("");
+
+                        // trailing empty fields are dropped
+                        int nrOfFields = fields.size();
+                        while (nrOfFields > 0 && fields.get(nrOfFields - 1).isEmpty())
+                            nrOfFields--;
+
+                        if (nrOfFields < 4)
+                            throw insufficientInfoException(String.join(",", fields));
+
+                        // save locus information
+                        lociList.add(
+                                new VariantSiteInfo(
+                                        fields.get(0),
+                                        Long.parseLong(fields.get(1)),
+                                        fields.get(2),
+                                        fields.subList(3, nrOfFields).toArray(new String[0])
+                                )
+                        );
+                    }
+
+                    fields.clear();
+                }
+            } else if (!ScsBackgroundInfo.isWhitespace(c))
+                field.append(c);
         }
 
         lociNr = lociList.size();
     } // initLoci
 
+    private static IllegalArgumentException insufficientInfoException(final String locus) {
+        return new IllegalArgumentException("Error! Insufficient amount of locus information or wrong format " +
+                "to properly define a variant site: " + locus);
+    } // insufficientInfoException
+
     /**
      * getter method for outside calls
      *
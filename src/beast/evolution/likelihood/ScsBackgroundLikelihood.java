@@ -10,8 +10,16 @@ import beast.evolution.rawreadcountsmodel.RawReadCountsModelInterface;
 import beast.math.distributions.BetaBinomial;
 import beast.math.distributions.DirichletMultinomial;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.List;
 import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import static org.apache.commons.math.special.Gamma.logGamma;
 
@@ -34,6 +42,22 @@ public class ScsBackgroundLikelihood extends Distribution {
     public final Input<Boolean> runAnalysisInput = new Input<>("runAnalysis", "for debug purpose",
             Input.Validate.OPTIONAL);
 
+    public final Input<Integer> threadsInput = new Input<>("threads", "number of threads used to sum up " +
+            "background information with a great many distinct read counts (default 1, i.e., sequentially)",
+            1, Input.Validate.OPTIONAL);
+
+    /**
+     * Maximum number of steps of the recurrence log Gamma(a + n + 1) = log Gamma(a + n) + log(a + n) from a value of
+     * log Gamma evaluated directly; beyond it, log Gamma is evaluated directly again, so that rounding errors do not
+     * accumulate over long runs of read counts.
+     */
+    private final static int MAX_LADDER_STEPS = 32;
+
+    /**
+     * Minimum number of distinct read counts summed up by a single thread.
+     */
+    private final static int MIN_CHUNK_SIZE = 1 << 14;
+
     /**
      * the parameters of wild type genotype situation
      */
@@ -49,6 +73,28 @@ public class ScsBackgroundLikelihood extends Distribution {
 
     private boolean runAnalysis;
 
+    /**
+     * Read counts and occurrences of each part of background information in ascending order of read counts.
+     * [#parts][#distinct read counts]
+     */
+    private long[][] readCounts;
+    private long[][] occurrences;
+
+    /**
+     * Ranges of read counts summed up by each thread.
+     * [#parts][#chunks + 1]
+     */
+    private int[][] chunkPoints;
+
+    private ExecutorService pool = null;
+
+    /**
+     * the parameters of wild type genotype situation with which logP was computed, so that the background
+     * likelihood is only computed when they change
+     */
+    private double[] cachedParams = null;
+    private double[] storedCachedParams = null;
+
 
     //***********************************************
     //*                   Methods                   *
@@ -68,8 +114,46 @@ public class ScsBackgroundLikelihood extends Distribution {
             runAnalysis = false;
         else
             runAnalysis = runAnalysisInput.get();
+
+        initBackgroundInfo();
     } // initAndValidate
 
+    /**
+     * Copy background information to primitive arrays sorted by read counts, and split them among threads.
+     */
+    private void initBackgroundInfo() {
+        if (backgroundInfo == null) return;
+
+        final int nrOfThreads = Math.max(1, threadsInput.get() == null ? 1 : threadsInput.get());
+        boolean parallel = false;
+
+        readCounts = new long[backgroundInfo.size()][];
+        occurrences = new long[backgroundInfo.size()][];
+        chunkPoints = new int[backgroundInfo.size()][];
+
+        for (int i = 0; i < backgroundInfo.size(); i++) {
+            List<long[]> items = new ArrayList<>(backgroundInfo.get(i));
+            items.sort(Comparator.comparingLong(item -> item[0]));
+
+            readCounts[i] = new long[items.size()];
+            occurrences[i] = new long[items.size()];
+            for (int j = 0; j < items.size(); j++) {
+                readCounts[i][j] = items.get(j)[0];
+                occurrences[i][j] = items.get(j)[1];
+            }
+
+            final int nrOfChunks = Math.max(1, Math.min(nrOfThreads, items.size() / MIN_CHUNK_SIZE));
+            chunkPoints[i] = new int[nrOfChunks + 1];
+            for (int j = 0; j < nrOfChunks; j++)
+                chunkPoints[i][j + 1] = chunkPoints[i][j] + items.size() / nrOfChunks + (j < items.size() % nrOfChunks ? 1 : 0);
+
+            parallel |= nrOfChunks > 1;
+        }
+
+        if (parallel)
+            pool = Executors.newFixedThreadPool(nrOfThreads);
+    } // initBackgroundInfo
+
 
     //**********************************************
     //*            Distribution methods            *
@@ -78,6 +162,9 @@ public class ScsBackgroundLikelihood extends Distribution {
     /**
      * compute the log likelihood of background information
      * alpha <-> delta, beta <-> tau
+     * <p>
+     * The background likelihood only depends on the parameters of wild type genotype situation, so it is only
+     * computed when they change, e.g., not when only the tree or ADO parameters are proposed.
      *
      * @return log likelihood of background information
      */
@@ -86,6 +173,9 @@ public class ScsBackgroundLikelihood extends Distribution {
         // get the latest parameters of beta-binomial or Dirichlet-multinomial distribution for situation 1
         rawReadCountsModel.getWildTypeNucReadCountModelParams(this.wildTypeNucReadCountsModelParams);
 
+        if (cachedParams != null && Arrays.equals(cachedParams, this.wildTypeNucReadCountsModelParams))
+            return this.logP;
+
         if (this.rawReadCountsModel.getNucReadCountsModelDistribution() instanceof BetaBinomial)
             calculateLogPBetaBinomial();
         else if (this.rawReadCountsModel.getNucReadCountsModelDistribution() instanceof DirichletMultinomial)
@@ -94,6 +184,8 @@ public class ScsBackgroundLikelihood extends Distribution {
             throw new IllegalArgumentException("Error! Cannot process such a distribution: " +
                     this.rawReadCountsModel.getNucReadCountsModelDistribution().getClass().getName());
 
+        cachedParams = this.wildTypeNucReadCountsModelParams.clone();
+
         return this.logP;
     } // calculateLogP
 
@@ -102,8 +194,8 @@ public class ScsBackgroundLikelihood extends Distribution {
 
         assert this.backgroundInfo != null;
 
-        double tmp = 0.0;
-        this.logP = 0.0;
+        final double alpha = this.wildTypeNucReadCountsModelParams[0];
+        final double beta = this.wildTypeNucReadCountsModelParams[1];
 
         final long startTime = System.currentTimeMillis();
         if (this.runAnalysis)
@@ -114,56 +206,33 @@ public class ScsBackgroundLikelihood extends Distribution {
          * nrOfBackgroundSites * nrOfTaxa * (logGamma(alpha + beta) - logGamma(alpha) - logGamma(beta))
          * which only depends on the parameter in the error model (beta-binomial distribution)
          */
-        this.logP = this.nrOfBackgroundSites * this.nrOfTaxa * (logGamma(this.wildTypeNucReadCountsModelParams[0] + this.wildTypeNucReadCountsModelParams[1]) - logGamma(this.wildTypeNucReadCountsModelParams[0]) - logGamma(this.wildTypeNucReadCountsModelParams[1]));
-        if (runAnalysis) {
-            tmp = this.logP;
-            System.out.println("  Part 1 (likelihood of error model parameters): " + String.format("%.5f", tmp));
-        }
+        final double part1 = this.nrOfBackgroundSites * this.nrOfTaxa * (logGamma(alpha + beta) - logGamma(alpha) - logGamma(beta));
 
         /*
          * second, compute:
          * sum(m) (N_m * logGamma(m + alpha))
          * regarding variant
-         */
-        for (long[] var : this.backgroundInfo.get(0)) {
-            this.logP += var[1] * logGamma(var[0] + this.wildTypeNucReadCountsModelParams[0]);
-        }
-        if (this.runAnalysis) {
-            tmp = this.logP - tmp;
-            System.out.println("  Part 2 (variant likelihood): " + String.format("%.5f", tmp));
-        }
-
-        /*
          * third, compute:
          * sum(c - m) (N_{c - m} * logGamma(c - m + beta))
          * regarding normal
-         */
-        for (long[] nor : backgroundInfo.get(1)) {
-            this.logP += nor[1] * logGamma(nor[0] + this.wildTypeNucReadCountsModelParams[1]);
-        }
-        if (this.runAnalysis) {
-            tmp = this.logP - tmp;
-            System.out.println("  Part 3 (normal likelihood): " + String.format("%.5f", tmp));
-        }
-
-        /*
          * fourth, compute:
          * - sum(c) (N_{c} * logGamma(c + alpha + beta))
          * regarding coverage
          */
-        for (long[] cov : backgroundInfo.get(2)) {
-            this.logP -= cov[1] * logGamma(cov[0] + this.wildTypeNucReadCountsModelParams[0] + this.wildTypeNucReadCountsModelParams[1]);
-        }
-        if (this.runAnalysis) {
-            tmp = this.logP - tmp;
-            System.out.println("  Part 4 (coverage likelihood): " + String.format("%.5f", tmp));
-            System.out.println("  Final likelihood: " + String.format("%.5f", this.logP));
-        }
+        final double[] sums = sumLogGamma(new double[]{alpha, beta, alpha + beta});
+
+        this.logP = part1 + sums[0] + sums[1] - sums[2];
 
         final long endTime = System.currentTimeMillis();
 
-        if (this.runAnalysis)
+        if (this.runAnalysis) {
+            System.out.println("  Part 1 (likelihood of error model parameters): " + String.format("%.5f", part1));
+            System.out.println("  Part 2 (variant likelihood): " + String.format("%.5f", sums[0]));
+            System.out.println("  Part 3 (normal likelihood): " + String.format("%.5f", sums[1]));
+            System.out.println("  Part 4 (coverage likelihood): " + String.format("%.5f", -sums[2]));
+            System.out.println("  Final likelihood: " + String.format("%.5f", this.logP));
             System.out.println("  Run time: " + (endTime - startTime) + " milliseconds.\n");
+        }
     } // calculateLogPBetaBinom
 
     private void calculateLogPDirichletMultinomial() {
@@ -171,9 +240,6 @@ public class ScsBackgroundLikelihood extends Distribution {
 
         assert this.backgroundInfo != null;
 
-        double tmp = 0.0;
-        this.logP = 0.0;
-
         final long startTime = System.currentTimeMillis();
         if (this.runAnalysis)
             System.out.println("Background likelihood computation:");
@@ -183,89 +249,141 @@ public class ScsBackgroundLikelihood extends Distribution {
          * nrOfBackgroundSites * nrOfTaxa * (logGamma(alpha_0) - logGamma(alpha_1) - logGamma(alpha_2) - logGamma(alpha_3) - logGamma(alpha_4))
          * which only depends on the parameter in the model of nucleotide read counts (Dirichlet-multinomial distribution)
          */
-        this.logP = this.nrOfBackgroundSites * this.nrOfTaxa * (
+        final double part1 = this.nrOfBackgroundSites * this.nrOfTaxa * (
                 logGamma(this.wildTypeNucReadCountsModelParams[4])
                         - logGamma(this.wildTypeNucReadCountsModelParams[0])
                         - logGamma(this.wildTypeNucReadCountsModelParams[1])
                         - logGamma(this.wildTypeNucReadCountsModelParams[2])
                         - logGamma(this.wildTypeNucReadCountsModelParams[3])
         );
-        if (this.runAnalysis) {
-            tmp = this.logP;
-            System.out.println("  Part 1 (likelihood of error model parameters): " + String.format("%.5f", tmp));
-        }
 
         /*
          * second, compute (occurrence of 0 will be excluded):
          * - sum(c) (N_{c} * logGamma(alpha_0 + c))
          * regarding coverage
+         * third to fifth, compute:
+         * sum(m_i) (N_{m_i} * logGamma(alpha_i + m_i)), i = 1, 2, 3
+         * regarding variant1, variant2 and variant3
+         * sixth, compute:
+         * sum(m_4) N_{m_4} * (logGamma(alpha_4 + m_4))
+         * regarding normal
          */
-        for (final long[] item : this.backgroundInfo.get(4)) {
-            this.logP -= item[1] * logGamma(this.wildTypeNucReadCountsModelParams[4] + item[0]);
-        }
-        if (this.runAnalysis) {
-            tmp = this.logP - tmp;
-            System.out.println("  Part 2 (coverage likelihood): " + String.format("%.5f", tmp));
-        }
+        final double[] sums = sumLogGamma(this.wildTypeNucReadCountsModelParams);
 
-        /*
-         * third, compute:
-         * sum(m_1) (N_{m_1} * logGamma(alpha_1 + m_1))
-         * regarding variant1
-         */
-        for (final long[] item : this.backgroundInfo.get(0)) {
-            this.logP += item[1] * logGamma(this.wildTypeNucReadCountsModelParams[0] + item[0]);
-        }
-        if (this.runAnalysis) {
-            tmp = this.logP - tmp;
-            System.out.println("  Part 3 (variant1 likelihood): " + String.format("%.5f", tmp));
-        }
+        this.logP = part1 - sums[4] + sums[0] + sums[1] + sums[2] + sums[3];
+
+        final long endTime = System.currentTimeMillis();
 
-        /*
-         * fourth, compute:
-         * sum(m_2) (N_{m_2} * logGamma(alpha_2 + m_2))
-         * regarding variant2
-         */
-        for (final long[] item : this.backgroundInfo.get(1)) {
-            this.logP += item[1] * logGamma(this.wildTypeNucReadCountsModelParams[1] + item[0]);
-        }
         if (this.runAnalysis) {
-            tmp = this.logP - tmp;
-            System.out.println("  Part 4 (variant2 likelihood): " + String.format("%.5f", tmp));
+            System.out.println("  Part 1 (likelihood of error model parameters): " + String.format("%.5f", part1));
+            System.out.println("  Part 2 (coverage likelihood): " + String.format("%.5f", -sums[4]));
+            System.out.println("  Part 3 (variant1 likelihood): " + String.format("%.5f", sums[0]));
+            System.out.println("  Part 4 (variant2 likelihood): " + String.format("%.5f", sums[1]));
+            System.out.println("  Part 5 (variant3 likelihood): " + String.format("%.5f", sums[2]));
+            System.out.println("  Part 6 (normal likelihood): " + String.format("%.5f", sums[3]));
+            System.out.println("  Final likelihood: " + String.format("%.5f", this.logP));
+            System.out.println("  Run time: " + (endTime - startTime) + " milliseconds.\n");
         }
+    } // calculateLogPDirichletMultinomial
 
-        /*
-         * fifth, compute:
-         * sum(m_3) (N_{m_3} * logGamma(alpha_3 + m_3))
-         * regarding variant3
-         */
-        for (final long[] item : this.backgroundInfo.get(2)) {
-            this.logP += item[1] * logGamma(this.wildTypeNucReadCountsModelParams[2] + item[0]);
+    /**
+     * Compute sum(n) (N_n * logGamma(alpha + n)) for each part of background information, in parallel if there
+     * are enough distinct read counts.
+     *
+     * @param alphas alpha of each part of background information, respectively
+     * @return sums of each part
+     */
+    private double[] sumLogGamma(final double[] alphas) {
+        double[] sums = new double[readCounts.length];
+
+        if (pool == null) {
+            for (int i = 0; i < readCounts.length; i++)
+                sums[i] = sumLogGamma(readCounts[i], occurrences[i], alphas[i], 0, readCounts[i].length);
+
+            return sums;
         }
-        if (this.runAnalysis) {
-            tmp = this.logP - tmp;
-            System.out.println("  Part 5 (variant3 likelihood): " + String.format("%.5f", tmp));
+
+        List<Callable<Double>> callers = new ArrayList<>();
+        for (int i = 0; i < readCounts.length; i++) {
+            for (int j = 0; j < chunkPoints[i].length - 1; j++)
+                callers.add(new LogGammaSumCaller(readCounts[i], occurrences[i], alphas[i], chunkPoints[i][j], chunkPoints[i][j + 1]));
         }
 
-        /*
-         * sixth, compute:
-         * sum(m_4) N_{m_4} * (logGamma(alpha_4 + m_4))
-         * regarding normal
-         */
-        for (final long[] item : this.backgroundInfo.get(3)) {
-            this.logP += item[1] * logGamma(this.wildTypeNucReadCountsModelParams[3] + item[0]);
+        try {
+            List<Future<Double>> futures = pool.invokeAll(callers);
+
+            int index = 0;
+            for (int i = 0; i < readCounts.length; i++) {
+                for (int j = 0; j < chunkPoints[i].length - 1; j++)
+                    sums[i] += futures.get(index++).get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while computing background likelihood (" + this.getClass().getName() + ")", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException)
+                throw (RuntimeException) e.getCause();
+
+            throw new RuntimeException(e.getCause());
         }
-        if (this.runAnalysis) {
-            tmp = this.logP - tmp;
-            System.out.println("  Part 6 (normal likelihood): " + String.format("%.5f", tmp));
-            System.out.println("  Final likelihood: " + String.format("%.5f", this.logP));
+
+        return sums;
+    } // sumLogGamma
+
+    /**
+     * Compute sum(n) (N_n * logGamma(alpha + n)) over a range of distinct read counts in ascending order.
+     * logGamma is evaluated at the beginning of each ladder, and stepped with the recurrence from the previous read
+     * count within the ladder; a new ladder begins once a read count is more than MAX_LADDER_STEPS away from the
+     * beginning of the current one.
+     *
+     * @param counts      distinct read counts in ascending order
+     * @param occurrences occurrences of each read count
+     * @param alpha       apparently
+     * @param from        first index, inclusive
+     * @param to          last index, exclusive
+     * @return the sum
+     */
+    static double sumLogGamma(
+            final long[] counts,
+            final long[] occurrences,
+            final double alpha,
+            final int from,
+            final int to
+    ) {
+        double sum = 0.0;
+        double value = 0.0;
+
+        // read count at which the current ladder begins
+        long anchor = 0;
+
+        for (int i = from; i < to; i++) {
+            if (i == from || counts[i] - anchor > MAX_LADDER_STEPS) {
+                value = logGamma(alpha + counts[i]);
+                anchor = counts[i];
+            } else {
+                for (long n = counts[i - 1]; n < counts[i]; n++)
+                    value += Math.log(alpha + n);
+            }
+
+            sum += occurrences[i] * value;
         }
 
-        final long endTime = System.currentTimeMillis();
+        return sum;
+    } // sumLogGamma
 
-        if (this.runAnalysis)
-            System.out.println("  Run time: " + (endTime - startTime) + " milliseconds.\n");
-    } // calculateLogPDirichletMultinomial
+    @Override
+    public void store() {
+        super.store();
+
+        storedCachedParams = cachedParams;
+    } // store
+
+    @Override
+    public void restore() {
+        super.restore();
+
+        cachedParams = storedCachedParams;
+    } // restore
 
     /**
      * @return a list of unique ids for the state nodes that form the argument
@@ -295,4 +413,35 @@ public class ScsBackgroundLikelihood extends Distribution {
     public void sample(State state, Random random) {
     }
 
+
+    //**********************************************
+    //*               Nested classes               *
+    //**********************************************
+
+    /**
+     * Sum up a range of distinct read counts of one part of background information.
+     */
+    private static class LogGammaSumCaller implements Callable<Double> {
+
+        private final long[] counts;
+        private final long[] occurrences;
+        private final double alpha;
+        private final int from;
+        private final int to;
+
+        LogGammaSumCaller(long[] counts, long[] occurrences, double alpha, int from, int to) {
+            this.counts = counts;
+            this.occurrences = occurrences;
+            this.alpha = alpha;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        public Double call() {
+            return sumLogGamma(counts, occurrences, alpha, from, to);
+        }
+
+    } // class LogGammaSumCaller
+
 }
@@ -58,6 +58,13 @@ public abstract class ScsGenericTreeLikelihood extends Distribution {
                     "(`GenotypeAdoStateLogger`) to log genotypes and ADO states should also be defined.",
             false, Input.Validate.OPTIONAL);
 
+    final public Input<Integer> leafThreadsInput = new Input<>("leafThreads",
+            "number of threads used to compute the partial likelihoods of leaves in parallel across taxa, " +
+                    "which happens at initialization and whenever a parameter of the raw read counts model " +
+                    "is changed (default 1, i.e., sequentially). Threaded and sharded likelihoods share these threads " +
+                    "among all their threads or worker processes.",
+            1, Input.Validate.OPTIONAL);
+
 
     //***********************************************
     //*                  Variables                  *
@@ -0,0 +1,251 @@
+package beast.evolution.likelihood;
+
+import beast.core.MCMC;
+import beast.core.Runnable;
+import beast.core.State;
+import beast.core.StateNode;
+import beast.evolution.alignment.ScsAlignment;
+import beast.util.XMLParser;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Worker process of {@link ShardedScsTreeLikelihood}.
+ * <p>
+ * Arguments: configuration file, ID of the sharded likelihood, ID of its alignment, range of sites of the shard,
+ * index of the shard, port of the coordinator on the loopback address.
+ * <p>
+ * The worker loads the configuration file, in which the alignment only loads the loci of the shard from binary data,
+ * and the sharded likelihood builds a ScsTreeLikelihood on them. The worker mirrors the MCMC steps of the
+ * coordinator: STORE, RESTORE and ACCEPT follow the CalculationNode methods of the coordinator, and for each
+ * EVALUATE the coordinator sends the values of state nodes which have changed; the worker applies them in the same
+ * way as operators do, recomputes the likelihood of its shard incrementally, and replies with the log-likelihood and
+ * the sum of the likelihoods of constant sites.
+ * <p>
+ * The worker connects to the coordinator before loading the configuration file, and replies whether its model is
+ * built, so that failures are reported by the coordinator rather than only printed by the worker. The worker exits
+ * with a non-zero status on any failure.
+ */
+public class ScsLikelihoodWorker {
+
+
+    //***********************************************
+    //*                  Variables                  *
+    //***********************************************
+
+    /**
+     * the longest error message sent to the coordinator, well within the limit of DataOutputStream.writeUTF
+     */
+    private final static int MAX_ERROR_LENGTH = 8192;
+
+
+    //***********************************************
+    //*                   Methods                   *
+    //***********************************************
+
+    public static void main(String[] args) {
+        int status;
+
+        try {
+            status = run(args) ? 0 : 1;
+        } catch (Throwable e) {
+            e.printStackTrace();
+            status = 1;
+        }
+
+        System.exit(status);
+    } // main
+
+    /**
+     * @param args apparently
+     * @return true if the worker stops on request without any failure
+     * @throws IOException if the connection to the coordinator fails
+     */
+    private static boolean run(String[] args) throws IOException {
+        if (args.length != 6)
+            throw new IllegalArgumentException("Usage: ScsLikelihoodWorker <xml> <likelihood ID> <alignment ID> " +
+                    "<sites> <shard index> <port>");
+
+        final String likelihoodID = args[1];
+        final int shardIndex = Integer.parseInt(args[4]);
+        final int port = Integer.parseInt(args[5]);
+
+        try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), port)) {
+            socket.setTcpNoDelay(true);
+
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+
+            out.writeInt(shardIndex);
+            out.flush();
+
+            final ShardedScsTreeLikelihood sharded;
+            final State state;
+            try {
+                System.setProperty(ShardedScsTreeLikelihood.SHARD_ID_PROPERTY, likelihoodID);
+                System.setProperty(ScsAlignment.SHARD_DATA_PROPERTY, args[2]);
+                System.setProperty(ScsAlignment.SHARD_LOCI_PROPERTY, args[3]);
+
+                Runnable runnable = new XMLParser(new HashMap<>(), null, false).parseFile(new File(args[0]));
+                if (!(runnable instanceof MCMC))
+                    throw new IllegalArgumentException("Error! The configuration file should define an MCMC analysis.");
+
+                sharded = ShardedScsTreeLikelihood.workerShards.get(likelihoodID);
+                if (sharded == null)
+                    throw new IllegalArgumentException("Error! No ShardedScsTreeLikelihood with ID '" + likelihoodID +
+                            "' is found.");
+
+                state = sharded.stateInput.get();
+                state.initialise();
+                state.setPosterior(sharded);
+            } catch (Exception e) {
+                e.printStackTrace();
+
+                out.writeBoolean(false);
+                out.writeUTF(getErrorMessage(e));
+                out.flush();
+                return false;
+            }
+
+            out.writeBoolean(true);
+            out.flush();
+
+            return serve(sharded, state, in, out);
+        }
+    } // run
+
+    /**
+     * Answer messages of the coordinator until it asks to stop.
+     *
+     * @param sharded apparently
+     * @param state   apparently
+     * @param in      messages from the coordinator
+     * @param out     replies to the coordinator
+     * @return true if the coordinator asks to stop and nothing failed
+     * @throws IOException if the connection to the coordinator fails
+     */
+    private static boolean serve(
+            final ShardedScsTreeLikelihood sharded,
+            final State state,
+            final DataInputStream in,
+            final DataOutputStream out
+    ) throws IOException {
+        final List<StateNode> stateNodes = state.stateNodeInput.get();
+
+        // whether the state is stored, and whether it has been evaluated since then
+        boolean stored = false;
+        boolean evaluated = false;
+
+        // failure of a message which is not replied, reported at the next evaluation
+        String error = null;
+        boolean failed = false;
+
+        while (true) {
+            final int message;
+            try {
+                message = in.readInt();
+            } catch (EOFException e) {
+                System.err.println("Error! The coordinator is gone without stopping the worker.");
+                return false;
+            }
+
+            if (message == ShardedScsTreeLikelihood.STOP) break;
+
+            try {
+                switch (message) {
+                    case ShardedScsTreeLikelihood.STORE:
+                        state.store(-1);
+                        stored = true;
+                        evaluated = false;
+                        break;
+
+                    case ShardedScsTreeLikelihood.RESTORE:
+                        state.restore();
+                        if (evaluated)
+                            state.restoreCalculationNodes();
+                        state.setEverythingDirty(false);
+                        stored = false;
+                        evaluated = false;
+                        break;
+
+                    case ShardedScsTreeLikelihood.ACCEPT:
+                        if (evaluated)
+                            state.acceptCalculationNodes();
+                        state.setEverythingDirty(false);
+                        stored = false;
+                        evaluated = false;
+                        break;
+
+                    case ShardedScsTreeLikelihood.EVALUATE:
+                        // read changed state nodes before anything else, so that the stream stays in sync on failure
+                        byte[] changed = new byte[in.readInt()];
+                        in.readFully(changed);
+
+                        try {
+                            if (error != null)
+                                throw new RuntimeException(error);
+
+                            if (!stored)
+                                state.store(-1);
+
+                            DataInputStream values = new DataInputStream(new ByteArrayInputStream(changed));
+                            final boolean full = values.readBoolean();
+                            final int nrOfChanged = values.readInt();
+                            for (int i = 0; i < nrOfChanged; i++)
+                                ShardedScsTreeLikelihood.readStateNode(values, stateNodes.get(values.readInt()));
+
+                            if (full)
+                                state.setEverythingDirty(true);
+
+                            state.storeCalculationNodes();
+                            state.checkCalculationNodesDirtiness();
+
+                            final double logP = sharded.calculateLogP();
+                            final double constSum = sharded.getShardLikelihood().getBiasCorr();
+
+                            stored = true;
+                            evaluated = true;
+
+                            out.writeBoolean(true);
+                            out.writeDouble(logP);
+                            out.writeDouble(constSum);
+                        } catch (Exception e) {
+                            e.printStackTrace();
+                            failed = true;
+
+                            out.writeBoolean(false);
+                            out.writeUTF(getErrorMessage(e));
+                        }
+
+                        out.flush();
+                        break;
+
+                    default:
+                        throw new IllegalArgumentException("Error! Unknown message " + message + ".");
+                }
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+                failed = true;
+
+                if (error == null)
+                    error = getErrorMessage(e);
+            }
+        }
+
+        return !failed;
+    } // serve
+
+    /**
+     * @param e apparently
+     * @return the type and message of {@param e}, short enough to be sent to the coordinator
+     */
+    private static String getErrorMessage(final Throwable e) {
+        final String message = e.toString();
+        return message.length() > MAX_ERROR_LENGTH ? message.substring(0, MAX_ERROR_LENGTH) + "..." : message;
+    } // getErrorMessage
+
+}
@@ -28,6 +28,7 @@ import com.google.common.primitives.Ints;
 
 import java.io.PrintStream;
 import java.util.*;
+import java.util.concurrent.*;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
@@ -53,6 +54,11 @@ public class ScsTreeLikelihood extends ScsGenericTreeLikelihood {
     //*                  Variables                  *
     //***********************************************
 
+    /**
+     * seconds an idle leaf thread waits before it exits
+     */
+    private final static long LEAF_THREAD_KEEP_ALIVE_SECONDS = 60;
+
     /**
      * calculation engine *
      */
@@ -246,6 +252,28 @@ public class ScsTreeLikelihood extends ScsGenericTreeLikelihood {
      */
     private boolean MLGenotypesAndAdosUpdated;
 
+    /**
+     * number of threads used to compute partial likelihoods of leaves across taxa
+     */
+    protected int leafThreadCount;
+
+    /**
+     * thread pool to compute partial likelihoods of leaves; null if leaves are processed sequentially
+     */
+    protected ExecutorService leafPool;
+
+    /**
+     * thread pool for leaves owned by an enclosing likelihood and shared by all its tree likelihoods; null if this
+     * tree likelihood owns its pool
+     */
+    private ExecutorService sharedLeafPool = null;
+
+    /**
+     * specified a set of ranges of leaves assigned to each leaf thread
+     * first leafPoints contains 0, then one point for each thread
+     */
+    protected int[] leafPoints;
+
 
     //**********************************************
     //*                Constructors                *
@@ -370,6 +398,8 @@ public class ScsTreeLikelihood extends ScsGenericTreeLikelihood {
 
         resetVariables();
 
+        initLeafThreads();
+
         likelihoodCore = new ScsBeerLikelihoodCore(nrOfStates);
         initCore();
 
@@ -444,32 +474,146 @@ public class ScsTreeLikelihood extends ScsGenericTreeLikelihood {
         );
 
         final long startTime = System.currentTimeMillis();
-        for (Node i : treeInput.get().getExternalNodes()) {
-            final int nodeIndex = i.getNr();
+        computeAllLeafPartials(true);
+        final long endTime = System.currentTimeMillis();
+        if (runTimeAnalysis)
+            System.out.println("Initially set all leaf partials: " + (endTime - startTime) + " milliseconds (" +
+                    leafThreadCount + " leaf thread(s)).");
+
+        hasDirt = Tree.IS_FILTHY;
+        updateLeaves = true;
+
+        for (int i = 0; i < nrOfInternalNodes; i++)
+            likelihoodCore.createNodePartials(i + nrOfExternalNodes);
+    } // initCore
+
+    /**
+     * Decide the number of threads used for leaves and split leaves as evenly as possible among them.
+     */
+    protected void initLeafThreads() {
+        leafThreadCount = Math.max(1, Math.min(leafThreadsInput.get() == null ? 1 : leafThreadsInput.get(), nrOfExternalNodes));
+
+        leafPoints = new int[leafThreadCount + 1];
+        for (int i = 0; i < leafThreadCount; i++)
+            leafPoints[i + 1] = leafPoints[i] + nrOfExternalNodes / leafThreadCount + (i < nrOfExternalNodes % leafThreadCount ? 1 : 0);
+
+        if (leafThreadCount > 1)
+            leafPool = sharedLeafPool != null ? sharedLeafPool : newLeafPool(leafThreadCount);
+    } // initLeafThreads
+
+    /**
+     * Release the threads used for leaves; leaves are computed sequentially afterwards. A shared pool is left to the
+     * likelihood owning it.
+     */
+    public void shutdownLeafThreads() {
+        if (leafPool != null) {
+            if (leafPool != sharedLeafPool)
+                leafPool.shutdownNow();
+
+            leafPool = null;
+        }
+    } // shutdownLeafThreads
+
+    /**
+     * Create a pool of daemon threads for leaves, which never keeps the JVM alive. Idle threads exit after
+     * {@link #LEAF_THREAD_KEEP_ALIVE_SECONDS}, because leaves are only recomputed when a parameter of the raw read
+     * counts model changes, and a pool of a discarded likelihood holds no threads for long.
+     *
+     * @param nrOfThreads number of threads
+     * @return the thread pool
+     */
+    static ExecutorService newLeafPool(final int nrOfThreads) {
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(
+                nrOfThreads,
+                nrOfThreads,
+                LEAF_THREAD_KEEP_ALIVE_SECONDS,
+                TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "ScsTreeLikelihood-leaves");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+        );
+        pool.allowCoreThreadTimeOut(true);
+
+        return pool;
+    } // newLeafPool
+
+    /**
+     * Compute partial likelihoods of all leaves, either at initialization or during MCMC.
+     * <p>
+     * Leaves are independent of each other: every leaf writes only its own partials buffer in the likelihood core,
+     * and the caches in the raw read counts model are indexed by taxon. Therefore, leaves are processed in parallel
+     * if more than one leaf thread is used.
+     *
+     * @param initialize whether to initialize leaf partials or to recompute them
+     */
+    protected void computeAllLeafPartials(final boolean initialize) {
+        final List<Node> leaves = treeInput.get().getExternalNodes();
+
+        if (leafPool == null) {
+            for (Node leaf : leaves)
+                computeLeafPartials(leaf, initialize);
+
+            return;
+        }
 
+        List<Callable<Void>> callers = new ArrayList<>(leafThreadCount);
+        for (int i = 0; i < leafThreadCount; i++)
+            callers.add(new LeafPartialsCaller(leaves, leafPoints[i], leafPoints[i + 1], initialize));
+
+        try {
+            for (Future<Void> future : leafPool.invokeAll(callers))
+                future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while computing leaf partials (" + this.getClass().getName() + ")", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException)
+                throw (RuntimeException) e.getCause();
+
+            throw new RuntimeException(e.getCause());
+        }
+    } // computeAllLeafPartials
+
+    /**
+     * Compute and set partial likelihoods of a single leaf.
+     *
+     * @param node       leaf node
+     * @param initialize whether to initialize leaf partials or to recompute them
+     */
+    private void computeLeafPartials(final Node node, final boolean initialize) {
+        final int nodeIndex = node.getNr();
+
+        if (initialize) {
             likelihoodCore.setNodePartials(
                     nodeIndex,
                     (traceMLGenotypes ?
                             rawReadCountsModel.initializeLeafLikelihood(
-                                    i,
+                                    node,
                                     MLGenotypesNodes
                             ) :
-                            rawReadCountsModel.initializeLeafLikelihood(i)
+                            rawReadCountsModel.initializeLeafLikelihood(node)
                     )
             );
 
             ((ScsBeerLikelihoodCore) likelihoodCore).storeLeafPartials(nodeIndex);
-        }
-        final long endTime = System.currentTimeMillis();
-        if (runTimeAnalysis)
-            System.out.println("Initially set all leaf partials: " + (endTime - startTime) + " milliseconds.");
-
-        hasDirt = Tree.IS_FILTHY;
-        updateLeaves = true;
+        } else {
+            setIndexForUpdate(nodeIndex);
 
-        for (int i = 0; i < nrOfInternalNodes; i++)
-            likelihoodCore.createNodePartials(i + nrOfExternalNodes);
-    } // initCore
+            likelihoodCore.setNodePartials(
+                    nodeIndex,
+                    (traceMLGenotypes ?
+                            rawReadCountsModel.computeLeafLikelihood(
+                                    node,
+                                    MLGenotypesNodes[currentMLGenotypesNodeIndex[nodeIndex]][nodeIndex]
+                            ) :
+                            rawReadCountsModel.computeLeafLikelihood(node)
+                    )
+            );
+        }
+    } // computeLeafPartials
 
     /**
      * Update leaf likelihoods for changed patterns.
@@ -550,9 +694,19 @@ public class ScsTreeLikelihood extends ScsGenericTreeLikelihood {
         if (node == null)
             return Tree.IS_CLEAN;
 
-        if (node.isRoot())
+        if (node.isRoot()) {
             MLGenotypesAndAdosUpdated = false;
 
+            // with multiple leaf threads, recompute all leaves at once before visiting the tree
+            if (updateLeaves && !isPartial && leafPool != null) {
+                final long startTime = System.currentTimeMillis();
+                computeAllLeafPartials(false);
+                final long endTime = System.currentTimeMillis();
+                if (runTimeAnalysis)
+                    runTime[2] += (endTime - startTime);
+            }
+        }
+
         int update = (node.isDirty() | hasDirt);
 
         final int nodeIndex = node.getNr();
@@ -584,25 +738,13 @@ public class ScsTreeLikelihood extends ScsGenericTreeLikelihood {
         }
 
         // If the node is a leaf, update partials if it is in post-processing stage or a parameter of raw read counts model is being explored or computing tree likelihood at the first time
-        if (node.isLeaf() && updateLeaves) {
-            // if in post-processing stage, update the index of current partial likelihoods
-            if (!isPartial)
-                setIndexForUpdate(nodeIndex);
-
+        // (already done at the root if leaves are processed by multiple threads)
+        if (node.isLeaf() && updateLeaves && (isPartial || leafPool == null)) {
             final long startTime2 = System.currentTimeMillis();
             if (isPartial)
                 updateLeafLikelihoods(node);
             else
-                likelihoodCore.setNodePartials(
-                        nodeIndex,
-                        (traceMLGenotypes ?
-                                rawReadCountsModel.computeLeafLikelihood(
-                                        node,
-                                        MLGenotypesNodes[currentMLGenotypesNodeIndex[nodeIndex]][nodeIndex]
-                                ) :
-                                rawReadCountsModel.computeLeafLikelihood(node)
-                        )
-                );
+                computeLeafPartials(node, false);
             final long endTime2 = System.currentTimeMillis();
             if (runTimeAnalysis) {
                 if (isPartial)
@@ -2625,17 +2767,13 @@ public class ScsTreeLikelihood extends ScsGenericTreeLikelihood {
     private void calcLogP(boolean returnConstSum) {
         logP = 0.0;
 
-        List<Double> logConstRootAll = new ArrayList<>();
         for (int i = 0; i < scsDataInput.get().getPatternCount(); i++) {
-            final int weight = scsDataInput.get().getPatternWeight(i);
-
-            logP += patternLogLikelihoods[i] * weight;
-            logConstRootAll.addAll(Collections.nCopies(weight, logConstRoot[i]));
+            logP += patternLogLikelihoods[i] * scsDataInput.get().getPatternWeight(i);
         }
 
         if (useAscBiasCorrection) {
             biasCorr = scsDataInput.get().getAscBiasCorrection(
-                    logConstRootAll.stream().mapToDouble(Double::doubleValue).toArray(),
+                    logConstRoot,
                     returnConstSum
             );
 
@@ -2778,6 +2916,32 @@ public class ScsTreeLikelihood extends ScsGenericTreeLikelihood {
 
     } // class ListComparator
 
+    /**
+     * compute partial likelihoods for a contiguous range of leaves
+     */
+    class LeafPartialsCaller implements Callable<Void> {
+        private final List<Node> leaves;
+        private final int from;
+        private final int to;
+        private final boolean initialize;
+
+        public LeafPartialsCaller(List<Node> leaves, int from, int to, boolean initialize) {
+            this.leaves = leaves;
+            this.from = from;
+            this.to = to;
+            this.initialize = initialize;
+        }
+
+        @Override
+        public Void call() {
+            for (int i = from; i < to; i++)
+                computeLeafPartials(leaves.get(i), initialize);
+
+            return null;
+        }
+
+    } // class LeafPartialsCaller
+
 
     //***********************************************
     //*          Calculation nodes methods          *
@@ -2924,6 +3088,17 @@ public class ScsTreeLikelihood extends ScsGenericTreeLikelihood {
     //*              Getter and Setter              *
     //***********************************************
 
+    /**
+     * Compute leaves with a pool owned by an enclosing likelihood rather than with a pool of this tree likelihood, so
+     * that tree likelihoods computing different patterns do not multiply the number of leaf threads. Should be called
+     * before initialization; the pool should have at least 'leafThreads' threads.
+     *
+     * @param pool created by {@link #newLeafPool(int)}; null to use a pool of this tree likelihood
+     */
+    void setSharedLeafPool(ExecutorService pool) {
+        sharedLeafPool = pool;
+    } // setSharedLeafPool
+
     /**
      * Get the variantsInfo object. Only used by multithreading when maximum likelihood genotypes and ADO states
      * are being traced and logged during MCMC.
@@ -0,0 +1,784 @@
+package beast.evolution.likelihood;
+
+import beast.core.Description;
+import beast.core.Input;
+import beast.core.State;
+import beast.core.StateNode;
+import beast.core.parameter.BooleanParameter;
+import beast.core.parameter.IntegerParameter;
+import beast.core.parameter.RealParameter;
+import beast.core.util.Log;
+import beast.evolution.alignment.ScsAlignment;
+import beast.evolution.tree.Node;
+import beast.evolution.tree.ScsTree;
+import beast.evolution.tree.Tree;
+import org.w3c.dom.Element;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import java.io.*;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+@Description("tree likelihood with patterns sharded across worker processes on the same machine, each of which " +
+        "computes a ScsTreeLikelihood on its own range of patterns")
+public class ShardedScsTreeLikelihood extends ScsGenericTreeLikelihood {
+
+
+    //**********************************************
+    //*                   Inputs                   *
+    //**********************************************
+
+    final public Input<State> stateInput = new Input<>("state", "state of the MCMC, whose changed values are " +
+            "sent to workers before each likelihood evaluation", Input.Validate.REQUIRED);
+
+    final public Input<Integer> workersInput = new Input<>("workers", "number of worker processes (default 2)", 2);
+
+    final public Input<String> workerXMLInput = new Input<>("workerXML", "the configuration file (XML) of this " +
+            "analysis, which is loaded by each worker process to build its own model", Input.Validate.REQUIRED);
+
+    final public Input<String> workerJVMArgsInput = new Input<>("workerJVMArgs", "space delimited arguments " +
+            "passed to the Java virtual machine of each worker process, e.g. '-Xmx8g'");
+
+    final public Input<String> workerClassPathInput = new Input<>("workerClassPath", "class path of worker " +
+            "processes, which should contain BEAST and this package (default the class path of this process)");
+
+    final public Input<Integer> workerTimeoutInput = new Input<>("workerTimeout", "seconds to wait for all worker " +
+            "processes to build their models and connect (default 600)", 600);
+
+    final public Input<String> proportionsInput = new Input<>("proportions", "specifies proportions of patterns " +
+            "used per worker as space delimited string, in the same format as that of ThreadedScsTreeLikelihood. " +
+            "If not specified, all workers get the same proportion of patterns.");
+
+    final public Input<ThreadedScsTreeLikelihood.Scaling> scalingInput = new Input<>("scaling", "type of scaling " +
+            "to use, one of " + Arrays.toString(ThreadedScsTreeLikelihood.Scaling.values()) + ". If not specified, " +
+            "the -beagle_scaling flag is used.", ThreadedScsTreeLikelihood.Scaling._default,
+            ThreadedScsTreeLikelihood.Scaling.values());
+
+
+    //***********************************************
+    //*                  Variables                  *
+    //***********************************************
+
+    /**
+     * system property set by a worker process before loading the configuration file, together with
+     * {@link ScsAlignment#SHARD_DATA_PROPERTY} and {@link ScsAlignment#SHARD_LOCI_PROPERTY}
+     */
+    final static String SHARD_ID_PROPERTY = "beast.scs.shard.id";
+
+    /**
+     * system property set by the coordinator on a worker process: number of leaf threads of the shard, so that
+     * 'leafThreads' is shared by all workers rather than used by each of them
+     */
+    final static String SHARD_LEAF_THREADS_PROPERTY = "beast.scs.shard.leafThreads";
+
+    /**
+     * messages from the coordinator to workers; STORE, RESTORE and ACCEPT mirror the CalculationNode methods of the
+     * coordinator, and only EVALUATE is replied
+     */
+    final static int STOP = 0;
+    final static int EVALUATE = 1;
+    final static int STORE = 2;
+    final static int RESTORE = 3;
+    final static int ACCEPT = 4;
+
+    /**
+     * sharded likelihoods built in a worker process, identified by ID
+     */
+    final static Map<String, ShardedScsTreeLikelihood> workerShards = new HashMap<>();
+
+    /**
+     * in a worker process, the tree likelihood of its shard; null in the coordinator
+     */
+    private ScsTreeLikelihood shardLikelihood = null;
+
+    private int workerCount;
+
+    // specified a set ranges of patterns assigned to each worker
+    // first patternPoints contains 0, then one point for each worker
+    private int[] patternPoints;
+
+    private Process[] workers;
+    private Socket[] sockets;
+    private DataInputStream[] fromWorkers;
+    private DataOutputStream[] toWorkers;
+
+    private double[] logPByWorker;
+    private double[] constSumByWorker;
+
+    /**
+     * whether workers have the same values of all state nodes as the coordinator; if so, only dirty state nodes
+     * are sent for evaluation
+     */
+    private boolean synced = false;
+
+    /**
+     * whether workers have evaluated since the last store()
+     */
+    private boolean evaluated = false;
+
+
+    //***********************************************
+    //*                   Methods                   *
+    //***********************************************
+
+    @Override
+    public void initAndValidate() {
+        if (getID() == null)
+            throw new IllegalArgumentException("Error! An ID is required to identify the likelihood in worker " +
+                    "processes (" + this.getClass().getName() + ")");
+
+        if (scsDataInput.get().getID() == null || scsDataInput.get().binaryDataInput.get() == null)
+            throw new IllegalArgumentException("Error! The alignment should have an ID and be loaded from " +
+                    "'binaryData', so that each worker process only loads its own shard of loci (" +
+                    this.getClass().getName() + ")");
+
+        if (rawReadCountsModelInput.get().isInVariantCallingMode())
+            throw new IllegalArgumentException("Error! Variant calling mode is not supported; use " +
+                    "ThreadedScsTreeLikelihood instead (" + this.getClass().getName() + ")");
+
+        if (traceMLGenotypesInput.get())
+            throw new IllegalArgumentException("Error! 'traceMLGenotypes' is not supported; use " +
+                    "ThreadedScsTreeLikelihood instead (" + this.getClass().getName() + ")");
+
+        // sanity check: alignment should have same #taxa as tree
+        if (scsDataInput.get().getTaxonCount() != treeInput.get().getLeafNodeCount())
+            throw new IllegalArgumentException("The number of nodes in the tree does not match the number of sequences");
+
+        if (useLogPartialsInput.get() != null)
+            useLogPartials = useLogPartialsInput.get();
+        else
+            useLogPartials = true;
+
+        useAscBiasCorrection = scsDataInput.get().isAscBiasCorrection();
+
+        final String shardID = System.getProperty(SHARD_ID_PROPERTY);
+        if (shardID == null)
+            initCoordinator();
+        else if (shardID.equals(getID()))
+            initShard();
+
+        // otherwise, this is a worker process for another sharded likelihood, and nothing is computed here
+    } // initAndValidate
+
+    /**
+     * In a worker process, build the tree likelihood of the shard. The alignment has only loaded the loci of the
+     * shard from binary data, and the raw read counts model is deeply initialized with the patterns of the shard only.
+     */
+    private void initShard() {
+        if (!scsDataInput.get().getID().equals(System.getProperty(ScsAlignment.SHARD_DATA_PROPERTY)))
+            throw new IllegalArgumentException("Error! The alignment '" + scsDataInput.get().getID() + "' is not " +
+                    "loaded as a shard (" + this.getClass().getName() + ")");
+
+        shardLikelihood = new ScsTreeLikelihood();
+        shardLikelihood.setID(getID() + "_" + System.getProperty(ScsAlignment.SHARD_LOCI_PROPERTY));
+        shardLikelihood.initByName(
+                "scsData", scsDataInput.get(),
+                "tree", treeInput.get(),
+                "siteModel", siteModelInput.get(),
+                "branchRateModel", branchRateModelInput.get(),
+                "rawReadCountsModel", rawReadCountsModelInput.get(),
+                "runTimeAnalysis", runTimeAnalysisInput.get(),
+                "useLogPartials", useLogPartials,
+                "traceMLGenotypes", false,
+                "leafThreads", Integer.getInteger(SHARD_LEAF_THREADS_PROPERTY, leafThreadsInput.get()),
+                "scaling", scalingInput.get() + ""
+        );
+        shardLikelihood.getOutputs().add(this);
+
+        workerShards.put(getID(), this);
+    } // initShard
+
+    /**
+     * In the coordinator process, launch worker processes and wait for them to connect.
+     */
+    private void initCoordinator() {
+        workerCount = Math.max(1, workersInput.get());
+
+        if (!scsDataInput.get().isHeaderOnly())
+            Log.info.println("Hint: set 'headerOnly' of " + scsDataInput.get().getID() + " to true, unless " +
+                    "something else uses its read counts, so that the coordinator of " + getID() + " does not load " +
+                    "them; worker processes load their shards in full regardless.");
+
+        patternPoints = ThreadedScsTreeLikelihood.calcPatternPoints(scsDataInput.get().getSiteCount(), workerCount,
+                proportionsInput.get());
+
+        logPByWorker = new double[workerCount];
+        constSumByWorker = new double[workerCount];
+
+        workers = new Process[workerCount];
+        sockets = new Socket[workerCount];
+        fromWorkers = new DataInputStream[workerCount];
+        toWorkers = new DataOutputStream[workerCount];
+
+        Runtime.getRuntime().addShutdownHook(new Thread(this::stopWorkers));
+
+        final long deadline = System.currentTimeMillis() + Math.max(1, workerTimeoutInput.get()) * 1000L;
+
+        try (ServerSocket server = new ServerSocket(0, workerCount, InetAddress.getLoopbackAddress())) {
+            server.setSoTimeout(Math.max(1, workerTimeoutInput.get()) * 1000);
+
+            for (int i = 0; i < workerCount; i++)
+                workers[i] = launchWorker(i, server.getLocalPort());
+
+            for (int i = 0; i < workerCount; i++) {
+                Socket socket = server.accept();
+                socket.setTcpNoDelay(true);
+
+                DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+                final int shardIndex = in.readInt();
+                if (shardIndex < 0 || shardIndex >= workerCount || sockets[shardIndex] != null)
+                    throw new IllegalArgumentException("Error! Unexpected worker " + shardIndex + " (" + this.getClass().getName() + ")");
+
+                sockets[shardIndex] = socket;
+                fromWorkers[shardIndex] = in;
+                toWorkers[shardIndex] = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            }
+
+            // workers connect before building their models, and then reply whether they succeed
+            String error = null;
+            for (int i = 0; i < workerCount; i++) {
+                sockets[i].setSoTimeout((int) Math.max(1, deadline - System.currentTimeMillis()));
+
+                if (!fromWorkers[i].readBoolean() && error == null)
+                    error = "Error! Worker " + i + " failed to build its model: " + fromWorkers[i].readUTF();
+
+                sockets[i].setSoTimeout(0);
+            }
+
+            if (error != null) {
+                stopWorkers();
+                throw new IllegalArgumentException(error + " (" + this.getClass().getName() + ")");
+            }
+        } catch (SocketTimeoutException e) {
+            final String exited = getExitedWorkers();
+            stopWorkers();
+            throw new IllegalArgumentException("Error! Worker processes did not build their models and connect " +
+                    "within " + workerTimeoutInput.get() + " seconds" + exited + " (" + this.getClass().getName() +
+                    ")", e);
+        } catch (EOFException e) {
+            final String exited = getExitedWorkers();
+            stopWorkers();
+            throw new RuntimeException("Error! A worker process closed its connection before building its model" +
+                    exited + " (" + this.getClass().getName() + ")", e);
+        } catch (IOException e) {
+            stopWorkers();
+            throw new RuntimeException(e);
+        }
+
+        Log.info.println(this.getClass().getSimpleName() + "(" + getID() + ") uses " + workerCount + " worker process(es)");
+        for (int i = 0; i < workerCount; i++)
+            Log.info.println("  worker " + i + ": sites " + (patternPoints[i] + 1) + "-" + patternPoints[i + 1]);
+    } // initCoordinator
+
+    /**
+     * @return worker processes which have exited and their exit values, or an empty string if none has
+     */
+    private String getExitedWorkers() {
+        StringBuilder exited = new StringBuilder();
+        for (int i = 0; i < workerCount; i++) {
+            if (workers[i] != null && !workers[i].isAlive())
+                exited.append(exited.length() == 0 ? "; " : ", ").append("worker ").append(i)
+                        .append(" exited with ").append(workers[i].exitValue());
+        }
+
+        return exited.toString();
+    } // getExitedWorkers
+
+    /**
+     * Launch a worker process computing a shard.
+     *
+     * @param shardIndex index of the shard
+     * @param port       port of the coordinator on the loopback address
+     * @return the worker process
+     * @throws IOException if the process cannot be started
+     */
+    private Process launchWorker(final int shardIndex, final int port) throws IOException {
+        List<String> command = new ArrayList<>();
+        command.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+
+        if (workerJVMArgsInput.get() != null && !workerJVMArgsInput.get().trim().isEmpty())
+            command.addAll(Arrays.asList(workerJVMArgsInput.get().trim().split("\\s+")));
+
+        // split leaf threads among workers as evenly as possible
+        final int leafThreads = leafThreadsInput.get() == null ? 1 : leafThreadsInput.get();
+        command.add("-D" + SHARD_LEAF_THREADS_PROPERTY + "=" +
+                Math.max(1, leafThreads / workerCount + (shardIndex < leafThreads % workerCount ? 1 : 0)));
+
+        command.add("-cp");
+        command.add(workerClassPathInput.get() == null ? System.getProperty("java.class.path") : workerClassPathInput.get());
+        command.add(ScsLikelihoodWorker.class.getName());
+        command.add(workerXMLInput.get());
+        command.add(getID());
+        command.add(scsDataInput.get().getID());
+        command.add((patternPoints[shardIndex] + 1) + "-" + patternPoints[shardIndex + 1]);
+        command.add(String.valueOf(shardIndex));
+        command.add(String.valueOf(port));
+
+        return new ProcessBuilder(command).inheritIO().start();
+    } // launchWorker
+
+    /**
+     * Ask workers to exit and release their connections.
+     */
+    synchronized void stopWorkers() {
+        if (workers == null) return;
+
+        for (int i = 0; i < workerCount; i++) {
+            try {
+                if (toWorkers[i] != null) {
+                    toWorkers[i].writeInt(STOP);
+                    toWorkers[i].flush();
+                }
+
+                if (sockets[i] != null)
+                    sockets[i].close();
+            } catch (IOException e) {
+                // the worker is gone already
+            }
+
+            if (workers[i] != null)
+                workers[i].destroy();
+        }
+
+        workers = null;
+    } // stopWorkers
+
+    @Override
+    public double calculateLogP() {
+        if (shardLikelihood != null) {
+            logP = shardLikelihood.calculateLogPByThread();
+            return logP;
+        }
+
+        if (workers == null)
+            throw new RuntimeException("Error! Worker processes are not running, probably because of an earlier " +
+                    "failure (" + this.getClass().getName() + ")");
+
+        try {
+            final byte[] changed = writeChangedStateNodes();
+
+            // workers compute in parallel once all requests are sent
+            for (DataOutputStream out : toWorkers) {
+                out.writeInt(EVALUATE);
+                out.writeInt(changed.length);
+                out.write(changed);
+                out.flush();
+            }
+
+            // read all replies, so that the streams stay in sync on failure
+            String error = null;
+            for (int i = 0; i < workerCount; i++) {
+                if (fromWorkers[i].readBoolean()) {
+                    logPByWorker[i] = fromWorkers[i].readDouble();
+                    constSumByWorker[i] = fromWorkers[i].readDouble();
+                } else {
+                    final String message = fromWorkers[i].readUTF();
+                    if (error == null)
+                        error = "Error! Worker " + i + " failed: " + message;
+                }
+            }
+
+            if (error != null) {
+                stopWorkers();
+                throw new RuntimeException(error + " (" + this.getClass().getName() + ")");
+            }
+        } catch (IOException e) {
+            final String exited = getExitedWorkers();
+            stopWorkers();
+            throw new RuntimeException("Error! Lost the connection to worker processes" + exited + " (" +
+                    this.getClass().getName() + ")", e);
+        }
+
+        synced = true;
+        evaluated = true;
+
+        logP = 0;
+        for (double f : logPByWorker)
+            logP += f;
+
+        if (useAscBiasCorrection) {
+            biasCorr = scsDataInput.get().getAscBiasCorrection(constSumByWorker);
+
+            logP += biasCorr;
+        }
+
+        return logP;
+    } // calculateLogP
+
+    /**
+     * Serialize state nodes whose values workers do not have yet, i.e., dirty ones, or all of them if workers are not
+     * in sync.
+     *
+     * @return a flag whether all state nodes are sent, the number of sent state nodes, and the index and values of
+     * each
+     * @throws IOException never for an in-memory stream
+     */
+    private byte[] writeChangedStateNodes() throws IOException {
+        final List<StateNode> stateNodes = stateInput.get().stateNodeInput.get();
+
+        List<Integer> changed = new ArrayList<>();
+        for (int i = 0; i < stateNodes.size(); i++) {
+            if (!synced || stateNodes.get(i).somethingIsDirty())
+                changed.add(i);
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+
+        out.writeBoolean(changed.size() == stateNodes.size());
+        out.writeInt(changed.size());
+        for (int i : changed) {
+            out.writeInt(i);
+            writeStateNode(out, stateNodes.get(i));
+        }
+
+        out.flush();
+        return bytes.toByteArray();
+    } // writeChangedStateNodes
+
+    /**
+     * Send a message which is not replied to all workers.
+     *
+     * @param message one of STORE, RESTORE and ACCEPT
+     */
+    private void sendToWorkers(final int message) {
+        try {
+            for (DataOutputStream out : toWorkers) {
+                out.writeInt(message);
+                out.flush();
+            }
+        } catch (IOException e) {
+            stopWorkers();
+            throw new RuntimeException(e);
+        }
+    } // sendToWorkers
+
+    /**
+     * @return a list of unique ids for the state nodes that form the argument
+     */
+    @Override
+    public List<String> getArguments() {
+        return Collections.singletonList(scsDataInput.get().getID());
+    } // getArguments
+
+    @Override
+    public void callVariants() {
+        throw new IllegalArgumentException("Unsupported function.");
+    } // callVariants
+
+
+    //***********************************************
+    //*              Getter and Setter              *
+    //***********************************************
+
+    /**
+     * In a worker process, the tree likelihood of the shard.
+     *
+     * @return the tree likelihood; null in the coordinator
+     */
+    ScsTreeLikelihood getShardLikelihood() {
+        return shardLikelihood;
+    } // getShardLikelihood
+
+    /**
+     * Is tracing maximum likelihood genotypes or not.
+     *
+     * @return always no
+     */
+    @Override
+    public boolean isTraceMLGenotypes() {
+        return false;
+    } // isTraceMLGenotypes
+
+    /**
+     * for the purpose of debug
+     * must be overridden
+     *
+     * @param inDebugMode in debug mode or not
+     */
+    @Override
+    public void updateInDebugMode(final boolean inDebugMode) {
+        if (shardLikelihood != null)
+            shardLikelihood.updateInDebugMode(inDebugMode);
+    } // updateInDebugMode
+
+    @Override
+    public String getSortedCellNamesFromVarInfo(String separator) {
+        throw new IllegalArgumentException("Unsupported function.");
+    } // getSortedCellNamesFromVarInfo
+
+    /**
+     * initialize header of logger
+     *
+     * @param start the start number of site code
+     * @param out   apparently
+     */
+    @Override
+    public void initSiteHeader(int start, PrintStream out) {
+        throw new IllegalArgumentException("Unsupported function.");
+    } // initSiteHeader
+
+
+    //******************************************
+    //*           Logger methods for           *
+    //*        genotypes and ADO states        *
+    //******************************************
+
+    /**
+     * close
+     *
+     * @param start the start number of site code
+     * @param out   apparently
+     */
+    @Override
+    public void closeGenotypeAndAdo(int start, PrintStream out) {
+        throw new IllegalArgumentException("Unsupported function.");
+    } // closeGenotypeAndAdo
+
+
+    //*******************************************
+    //*           Logger methods for            *
+    //*    allelic coverage and raw variance    *
+    //*******************************************
+
+    /**
+     * log sampled allelic sequencing coverage and raw variance for each site
+     *
+     * @param out apparently
+     */
+    @Override
+    public void logCovar(PrintStream out) {
+        throw new IllegalArgumentException("Unsupported function.");
+    } // logCovar
+
+    /**
+     * close
+     *
+     * @param start the start number of site code
+     * @param out   apparently
+     */
+    @Override
+    public void closeCovar(int start, PrintStream out) {
+        throw new IllegalArgumentException("Unsupported function.");
+    } // closeCovar
+
+
+    //***********************************************
+    //*           CalculationNode methods           *
+    //***********************************************
+
+    @Override
+    public void store() {
+        if (workers != null) {
+            sendToWorkers(STORE);
+            evaluated = false;
+        }
+
+        super.store();
+    } // store
+
+    @Override
+    public void restore() {
+        // workers restore the values they had at STORE, which are the values restored here
+        if (workers != null)
+            sendToWorkers(RESTORE);
+
+        super.restore();
+    } // restore
+
+    @Override
+    public void accept() {
+        if (workers != null) {
+            sendToWorkers(ACCEPT);
+
+            // accepted values which have not been evaluated are unknown to workers
+            if (!evaluated)
+                synced = false;
+        }
+
+        super.accept();
+    } // accept
+
+
+    //***********************************************
+    //*               Static methods                *
+    //***********************************************
+
+    /**
+     * Write values of a state node in binary form, to be read by {@link #readStateNode(DataInputStream, StateNode)}
+     * in a worker process, where the state node of the same index is of the same type.
+     *
+     * @param out       apparently
+     * @param stateNode apparently
+     * @throws IOException if the stream cannot be written
+     */
+    static void writeStateNode(DataOutputStream out, final StateNode stateNode) throws IOException {
+        if (stateNode instanceof Tree) {
+            // the height and children of each node in the order of node numbers
+            final Node[] nodes = ((Tree) stateNode).getNodesAsArray();
+
+            out.writeInt(nodes.length);
+            for (Node node : nodes) {
+                out.writeDouble(node.getHeight());
+                out.writeInt(node.getChildCount());
+                for (Node child : node.getChildren())
+                    out.writeInt(child.getNr());
+            }
+        } else if (stateNode instanceof RealParameter) {
+            final RealParameter parameter = (RealParameter) stateNode;
+
+            out.writeInt(parameter.getDimension());
+            for (int i = 0; i < parameter.getDimension(); i++)
+                out.writeDouble(parameter.getArrayValue(i));
+        } else if (stateNode instanceof IntegerParameter) {
+            final IntegerParameter parameter = (IntegerParameter) stateNode;
+
+            out.writeInt(parameter.getDimension());
+            for (int i = 0; i < parameter.getDimension(); i++)
+                out.writeInt(parameter.getValue(i));
+        } else if (stateNode instanceof BooleanParameter) {
+            final BooleanParameter parameter = (BooleanParameter) stateNode;
+
+            out.writeInt(parameter.getDimension());
+            for (int i = 0; i < parameter.getDimension(); i++)
+                out.writeBoolean(parameter.getValue(i));
+        } else {
+            // other types of state nodes fall back to XML
+            final byte[] bytes = stateNode.toXML().getBytes(StandardCharsets.UTF_8);
+
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+    } // writeStateNode
+
+    /**
+     * Read values of a state node written by {@link #writeStateNode(DataOutputStream, StateNode)}, and apply them
+     * in the same way as operators do, so that only values which differ are changed and marked dirty.
+     *
+     * @param in        apparently
+     * @param stateNode apparently
+     * @throws IOException if the stream cannot be read
+     */
+    static void readStateNode(DataInputStream in, StateNode stateNode) throws IOException {
+        if (stateNode instanceof Tree) {
+            readTree(in, (Tree) stateNode);
+        } else if (stateNode instanceof RealParameter) {
+            RealParameter parameter = (RealParameter) stateNode;
+
+            final int dimension = in.readInt();
+            if (parameter.getDimension() != dimension)
+                parameter.setDimension(dimension);
+
+            for (int i = 0; i < dimension; i++) {
+                final double value = in.readDouble();
+                if (Double.compare(parameter.getArrayValue(i), value) != 0)
+                    parameter.setValue(i, value);
+            }
+        } else if (stateNode instanceof IntegerParameter) {
+            IntegerParameter parameter = (IntegerParameter) stateNode;
+
+            final int dimension = in.readInt();
+            if (parameter.getDimension() != dimension)
+                parameter.setDimension(dimension);
+
+            for (int i = 0; i < dimension; i++) {
+                final int value = in.readInt();
+                if (parameter.getValue(i) != value)
+                    parameter.setValue(i, value);
+            }
+        } else if (stateNode instanceof BooleanParameter) {
+            BooleanParameter parameter = (BooleanParameter) stateNode;
+
+            final int dimension = in.readInt();
+            if (parameter.getDimension() != dimension)
+                parameter.setDimension(dimension);
+
+            for (int i = 0; i < dimension; i++) {
+                final boolean value = in.readBoolean();
+                if (parameter.getValue(i) != value)
+                    parameter.setValue(i, value);
+            }
+        } else {
+            byte[] bytes = new byte[in.readInt()];
+            in.readFully(bytes);
+
+            final Element element;
+            try {
+                element = DocumentBuilderFactory.newInstance().newDocumentBuilder()
+                        .parse(new InputSource(new StringReader(new String(bytes, StandardCharsets.UTF_8))))
+                        .getDocumentElement();
+            } catch (ParserConfigurationException | SAXException e) {
+                throw new IOException(e);
+            }
+
+            stateNode.startEditing(null);
+            stateNode.fromXML(element);
+            stateNode.setEverythingDirty(true);
+        }
+    } // readStateNode
+
+    /**
+     * Read a tree written by {@link #writeStateNode(DataOutputStream, StateNode)}. Only nodes whose children have
+     * changed are relinked, and only nodes whose heights have changed are moved.
+     *
+     * @param in   apparently
+     * @param tree apparently
+     * @throws IOException if the stream cannot be read
+     */
+    private static void readTree(DataInputStream in, Tree tree) throws IOException {
+        final int nodeCount = in.readInt();
+        if (nodeCount != tree.getNodeCount())
+            throw new IllegalArgumentException("Error! Tree '" + tree.getID() + "' has " + tree.getNodeCount() +
+                    " nodes, but " + nodeCount + " are received.");
+
+        final double[] heights = new double[nodeCount];
+        final int[][] children = new int[nodeCount][];
+        for (int i = 0; i < nodeCount; i++) {
+            heights[i] = in.readDouble();
+            children[i] = new int[in.readInt()];
+            for (int j = 0; j < children[i].length; j++)
+                children[i][j] = in.readInt();
+        }
+
+        // detach all moved children first, so that a node is never attached to two parents
+        boolean[] relinked = new boolean[nodeCount];
+        for (int i = 0; i < nodeCount; i++) {
+            final Node node = tree.getNode(i);
+
+            relinked[i] = node.getChildCount() != children[i].length;
+            for (int j = 0; !relinked[i] && j < children[i].length; j++)
+                relinked[i] = node.getChildren().get(j).getNr() != children[i][j];
+
+            if (relinked[i])
+                node.removeAllChildren(true);
+        }
+
+        for (int i = 0; i < nodeCount; i++) {
+            if (!relinked[i]) continue;
+
+            final Node node = tree.getNode(i);
+            for (int j : children[i]) {
+                node.addChild(tree.getNode(j));
+                tree.getNode(j).makeDirty(Tree.IS_FILTHY);
+            }
+            node.makeDirty(Tree.IS_FILTHY);
+        }
+
+        for (int i = 0; i < nodeCount; i++) {
+            final Node node = tree.getNode(i);
+            if (Double.compare(node.getHeight(), heights[i]) != 0)
+                node.setHeight(heights[i]);
+        }
+
+        if (tree instanceof ScsTree)
+            ((ScsTree) tree).updateRootTMRCA();
+    } // readTree
+
+}
@@ -5,6 +5,7 @@ import beast.app.beauti.Beauti;
 import beast.core.BEASTInterface;
 import beast.core.Description;
 import beast.core.Input;
+import beast.core.util.Log;
 import beast.evolution.alignment.FilteredScsAlignment;
 import beast.evolution.alignment.ScsAlignment;
 import beast.evolution.rawreadcountsmodel.RawReadCountsModelInterface;
@@ -12,13 +13,15 @@ import beast.evolution.rawreadcountsmodel.nucreadcountsmodel.NucReadCountsModelI
 import beast.evolution.rawreadcountsmodel.seqcovmodel.SeqCovModelInterface;
 import beast.evolution.substitutionmodel.ScsSubstitutionModelBase;
 import beast.evolution.substitutionmodel.SubstitutionModel;
+import beast.evolution.tree.Node;
+import beast.evolution.tree.Tree;
 import beast.evolution.tree.TreeInterface;
 import beast.evolution.variantsinfo.GenericVariantsInfoVCF;
 import beast.evolution.variantsinfo.ThreadedVariantsInfoLog;
 import beast.evolution.variantsinfo.ThreadedVariantsInfoVCF;
 import beast.evolution.variantsinfo.VariantsInfoVCF;
 
-import java.io.PrintStream;
+import java.io.*;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
@@ -45,6 +48,23 @@ public class ThreadedScsTreeLikelihood extends ScsGenericTreeLikelihood {
             + "two thirds. With 3 threads, it is interpreted as '1 2 1' = 25%, 50%, 25% and with 7 threads it is "
             + "'1 2 1 2 1 2 1' = 10% 20% 10% 20% 10% 20% 10%. If not specified, all threads get the same proportion of patterns.");
 
+    final public Input<Boolean> autotuneInput = new Input<>("autotune", "calibrate the number of threads and the "
+            + "proportions of patterns per thread on the data before MCMC starts, and use the configuration with the "
+            + "shortest time per likelihood evaluation. 'threads' is then the largest number of threads tried, and "
+            + "'proportions', if specified, is one of the candidate proportions (default false)", false);
+
+    final public Input<String> autotuneProportionsInput = new Input<>("autotuneProportions", "candidate proportions "
+            + "tried by autotune in addition to equal proportions, separated by ';', each in the same format as "
+            + "'proportions', e.g. '1 2;2 1'");
+
+    final public Input<Integer> autotuneEvaluationsInput = new Input<>("autotuneEvaluations", "number of timed "
+            + "likelihood evaluations for each candidate configuration in each round of autotune, each of which follows "
+            + "a proposal changing a single node of the tree, as most proposals during MCMC do (default 20)", 20);
+
+    final public Input<String> autotuneFileInput = new Input<>("autotuneFile", "file to write the measurements of "
+            + "autotune to; if the file exists and was written for data of the same size, the best configuration in "
+            + "it is reused and no calibration is performed");
+
     enum Scaling {none, always, _default}
 
     final public Input<Scaling> scalingInput = new Input<>("scaling", "type of scaling to use, one of " + Arrays.toString(ThreadedScsTreeLikelihood.Scaling.values()) + ". If not specified, the -beagle_scaling flag is used.", ThreadedScsTreeLikelihood.Scaling._default, ThreadedScsTreeLikelihood.Scaling.values());
@@ -70,6 +90,13 @@ public class ThreadedScsTreeLikelihood extends ScsGenericTreeLikelihood {
     private ScsTreeLikelihood[] treeLikelihood;
 
     private ExecutorService pool = null;
+
+    /**
+     * a single pool computing leaves for all tree likelihoods, so that the number of leaf threads does not grow with
+     * the number of threads; null if leaves are processed sequentially
+     */
+    private ExecutorService leafPool = null;
+
     private final List<Callable<Double>> likelihoodCallers = new ArrayList<>();
     private List<Callable<Double>> MLGenotypesCallers = null;
 
@@ -84,6 +111,22 @@ public class ThreadedScsTreeLikelihood extends ScsGenericTreeLikelihood {
     // first patternPoints contains 0, then one point for each thread
     private int[] patternPoints;
 
+    /**
+     * proportions of patterns per thread in use; either specified by 'proportions' or chosen by autotune
+     */
+    private String proportions;
+
+    /**
+     * objects created during autotune calibration, which are detached from the model once calibrated
+     */
+    private List<BEASTInterface> calibrationObjects = null;
+
+    private static final String AUTOTUNE_HEADER = "# ThreadedScsTreeLikelihood autotune: ";
+    private static final String AUTOTUNE_BEST = "# best\t";
+
+    // number of timed rounds over all candidate configurations during autotune
+    private static final int AUTOTUNE_ROUNDS = 3;
+
 
     //***********************************************
     //*                   Methods                   *
@@ -102,6 +145,8 @@ public class ThreadedScsTreeLikelihood extends ScsGenericTreeLikelihood {
 
         useAscBiasCorrection = scsDataInput.get().isAscBiasCorrection();
 
+        proportions = proportionsInput.get();
+
         logPByThread = new double[threadCount];
         constSumByThread = new double[threadCount];
 
@@ -128,6 +173,22 @@ public class ThreadedScsTreeLikelihood extends ScsGenericTreeLikelihood {
             System.exit(1);
         }
 
+        final int leafThreadCount = Math.min(leafThreadsInput.get() == null ? 1 : leafThreadsInput.get(),
+                treeInput.get().getLeafNodeCount());
+        if (leafThreadCount > 1)
+            leafPool = ScsTreeLikelihood.newLeafPool(leafThreadCount);
+
+        if (autotuneInput.get()) {
+            if (this.rawReadCountsModelInput.get().isInVariantCallingMode())
+                Log.warning.println("Warning: 'autotune' is ignored in variant calling mode (" + this.getClass().getName() + ")");
+            else {
+                autotune();
+
+                logPByThread = new double[threadCount];
+                constSumByThread = new double[threadCount];
+            }
+        }
+
         if (this.rawReadCountsModelInput.get().isInVariantCallingMode()) {
             this.inVariantCallingMode = true;
             MLGenotypesCallers = new ArrayList<>();
@@ -149,22 +210,7 @@ public class ThreadedScsTreeLikelihood extends ScsGenericTreeLikelihood {
         treeLikelihood = new ScsTreeLikelihood[threadCount];
 
         if (threadCount <= 1) {
-            treeLikelihood[0] = new ScsTreeLikelihood();
-            treeLikelihood[0].setID(getID() + "0");
-            treeLikelihood[0].initByName(
-                    "scsData", scsDataInput.get(),
-                    "tree", treeInput.get(),
-                    "siteModel", siteModelInput.get(),
-                    "branchRateModel", branchRateModelInput.get(),
-                    "rawReadCountsModel", rawReadCountsModelInput.get(),
-                    "runTimeAnalysis", runTimeAnalysisInput.get(),
-                    "useLogPartials", useLogPartials,
-                    "variantsInfo", this.inVariantCallingMode ? createVariantsInfo(0, scsDataInput.get(), treeInput.get()) : null,
-                    "useOnlyBranchLength", this.inVariantCallingMode ? useOnlyBranchLengthInput.get() : null,
-                    "meanRate", this.inVariantCallingMode ? meanRateInput.get() : null,
-                    "traceMLGenotypes", traceMLGenotypesInput.get(),
-                    "scaling", scalingInput.get() + ""
-            );
+            treeLikelihood[0] = createLikelihood(0, null, false);
             treeLikelihood[0].getOutputs().add(this);
             likelihoodsInput.get().add(treeLikelihood[0]);
 
@@ -173,41 +219,12 @@ public class ThreadedScsTreeLikelihood extends ScsGenericTreeLikelihood {
         } else {
             pool = Executors.newFixedThreadPool(threadCount);
 
-            calcPatternPoints(scsDataInput.get().getSiteCount());
+            patternPoints = calcPatternPoints(scsDataInput.get().getSiteCount(), threadCount, proportions);
             for (int i = 0; i < threadCount; i++) {
-                String filterSpec = (patternPoints[i] + 1) + "-" + (patternPoints[i + 1]);
-
-                treeLikelihood[i] = new ScsTreeLikelihood();
-                treeLikelihood[i].setID(getID() + i);
+                treeLikelihood[i] = createLikelihood(i, patternPoints, false);
                 treeLikelihood[i].getOutputs().add(this);
                 likelihoodsInput.get().add(treeLikelihood[i]);
 
-                FilteredScsAlignment filter = new FilteredScsAlignment();
-                filter.initByName(
-                        "scsData", scsDataInput.get(),
-                        "filter", filterSpec,
-                        "dataType", scsDataInput.get().dataTypeInput.get(),
-                        "ascertained", scsDataInput.get().ascBiasCorrectionInput.get(),
-                        "meanAscBiasCorrection", scsDataInput.get().meanAscBiasCorrectionInput.get(),
-                        "nrOfBackgroundSites", scsDataInput.get().getNrOfBackgroundSites(),
-                        "manipulatedNrOfBackgroundSites", scsDataInput.get().getManipulatedNrOfBackgroundSites()
-                );
-
-                treeLikelihood[i].initByName(
-                        "scsData", filter,
-                        "tree", treeInput.get(),
-                        "siteModel", duplicate(siteModelInput.get(), filter, i),
-                        "branchRateModel", duplicate(branchRateModelInput.get(), filter, i),
-                        "rawReadCountsModel", duplicate(rawReadCountsModelInput.get(), filter, i),
-                        "runTimeAnalysis", runTimeAnalysisInput.get(),
-                        "useLogPartials", useLogPartials,
-                        "variantsInfo", this.inVariantCallingMode ? createVariantsInfo(i, filter, treeInput.get()) : null,
-                        "useOnlyBranchLength", this.inVariantCallingMode ? useOnlyBranchLengthInput.get() : null,
-                        "meanRate", this.inVariantCallingMode ? meanRateInput.get() : null,
-                        "traceMLGenotypes", traceMLGenotypesInput.get(),
-                        "scaling", scalingInput.get() + ""
-                );
-
                 if (traceMLGenotypesInput.get())
                     variantsInfo.addVariantsInfo(i, treeLikelihood[i].getVariantsInfo());
 
@@ -222,48 +239,338 @@ public class ThreadedScsTreeLikelihood extends ScsGenericTreeLikelihood {
 
     } // initAndValidate
 
-    private void calcPatternPoints(int nSites) {
-        patternPoints = new int[threadCount + 1];
-        if (proportionsInput.get() == null) {
-            int[] counts = new int[threadCount];
-            Arrays.fill(counts, nSites / threadCount);
+    /**
+     * Choose the number of threads and the proportions of patterns per thread by timing likelihood evaluations of
+     * candidate configurations on the data. Candidates are powers of two up to the maximum number of threads (and the
+     * maximum itself), combined with equal proportions, 'proportions' and 'autotuneProportions'. Evaluations follow
+     * proposals changing a single node of the tree, so that they recompute as much as evaluations during MCMC do.
+     */
+    private void autotune() {
+        final ScsAlignment data = scsDataInput.get();
+        final String signature = "taxa=" + data.getTaxonCount() + " sites=" + data.getSiteCount() +
+                " patterns=" + data.getPatternCount();
+        final File file = autotuneFileInput.get() == null ? null : new File(autotuneFileInput.get());
+
+        if (file != null && file.isFile() && loadAutotuneResults(file, signature)) {
+            Log.info.println("Autotune: reusing " + threadCount + " thread(s) with " +
+                    (proportions == null ? "equal proportions" : "proportions '" + proportions + "'") + " from " + file.getPath());
+            return;
+        }
+
+        List<Integer> threadCandidates = new ArrayList<>();
+        for (int n = 1; n < threadCount; n *= 2)
+            threadCandidates.add(n);
+        threadCandidates.add(threadCount);
+
+        List<String> proportionCandidates = new ArrayList<>();
+        proportionCandidates.add(null);
+        if (proportions != null)
+            proportionCandidates.add(proportions.trim());
+        if (autotuneProportionsInput.get() != null) {
+            for (String candidate : autotuneProportionsInput.get().split(";")) {
+                if (!candidate.trim().isEmpty() && !proportionCandidates.contains(candidate.trim()))
+                    proportionCandidates.add(candidate.trim());
+            }
+        }
+
+        // candidate configurations; proportions make no difference to a single thread
+        List<Integer> candidateThreads = new ArrayList<>();
+        List<String> candidateProportions = new ArrayList<>();
+        for (int nrOfThreads : threadCandidates) {
+            for (String candidate : proportionCandidates) {
+                if (nrOfThreads == 1 && candidate != null) continue;
+
+                candidateThreads.add(nrOfThreads);
+                candidateProportions.add(candidate);
+            }
+        }
+
+        final int nrOfEvaluations = Math.max(1, autotuneEvaluationsInput.get());
+
+        Log.info.println("Autotune: timing " + AUTOTUNE_ROUNDS + " round(s) of " + nrOfEvaluations +
+                " likelihood evaluation(s) per configuration on " + signature);
+
+        // every configuration is built once, and kept until all rounds are timed; configurations which cannot be used
+        // are dropped
+        List<Calibration> calibrations = new ArrayList<>();
+        final int nrOfCandidates;
+        final double[] times;
+        try {
+            for (int i = 0; i < candidateThreads.size(); i++) {
+                try {
+                    calibrations.add(new Calibration(candidateThreads.get(i), candidateProportions.get(i)));
+                } catch (IllegalArgumentException e) {
+                    Log.warning.println("Autotune: skipping " + candidateThreads.get(i) + " thread(s) with proportions '" +
+                            (candidateProportions.get(i) == null ? "equal" : candidateProportions.get(i)) + "': " + e.getMessage());
+                }
+            }
+
+            // warm up once before timing, so that no configuration is timed while the JIT compiler is still at work
+            for (Calibration calibration : calibrations)
+                calibration.time(nrOfEvaluations);
+
+            // timed rounds visit configurations in alternating orders, so that changes in the load of the machine
+            // affect all of them alike; the fastest round of each configuration counts
+            nrOfCandidates = calibrations.size();
+            times = new double[nrOfCandidates];
+            Arrays.fill(times, Double.POSITIVE_INFINITY);
+            for (int round = 0; round < AUTOTUNE_ROUNDS; round++) {
+                for (int k = 0; k < nrOfCandidates; k++) {
+                    final int i = round % 2 == 0 ? k : nrOfCandidates - 1 - k;
+                    times[i] = Math.min(times[i], calibrations.get(i).time(nrOfEvaluations));
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted during autotune (" + this.getClass().getName() + ")", e);
+        } finally {
+            for (Calibration calibration : calibrations)
+                calibration.release();
+        }
+
+        candidateThreads.clear();
+        candidateProportions.clear();
+        for (Calibration calibration : calibrations) {
+            candidateThreads.add(calibration.nrOfThreads);
+            candidateProportions.add(calibration.proportions);
+        }
+
+        List<String> measurements = new ArrayList<>();
+        double bestTime = Double.POSITIVE_INFINITY;
+        int bestThreadCount = threadCount;
+        String bestProportions = proportions;
+        for (int i = 0; i < nrOfCandidates; i++) {
+            final String label = candidateProportions.get(i) == null ? "equal" : candidateProportions.get(i);
+
+            Log.info.println("Autotune: " + candidateThreads.get(i) + " thread(s), proportions '" + label + "': " +
+                    String.format("%.3f", times[i]) + " milliseconds per evaluation");
+            measurements.add(candidateThreads.get(i) + "\t" + label + "\t" + String.format("%.3f", times[i]));
+
+            if (times[i] < bestTime) {
+                bestTime = times[i];
+                bestThreadCount = candidateThreads.get(i);
+                bestProportions = candidateProportions.get(i);
+            }
+        }
+
+        threadCount = bestThreadCount;
+        proportions = bestProportions;
+        Log.info.println("Autotune: using " + threadCount + " thread(s) with " +
+                (proportions == null ? "equal proportions" : "proportions '" + proportions + "'"));
+
+        if (file != null)
+            writeAutotuneResults(file, signature, measurements);
+    } // autotune
+
+    /**
+     * Release the threads computing leaves of all tree likelihoods; leaves are computed sequentially afterwards.
+     */
+    public void shutdownLeafThreads() {
+        if (treeLikelihood != null) {
+            for (ScsTreeLikelihood likelihood : treeLikelihood)
+                likelihood.shutdownLeafThreads();
+        }
+
+        if (leafPool != null) {
+            leafPool.shutdownNow();
+            leafPool = null;
+        }
+    } // shutdownLeafThreads
+
+    /**
+     * Remove a BEAST object from the outputs of all its inputs, so that it is no longer part of the model graph.
+     *
+     * @param beastObject apparently
+     */
+    private static void detach(BEASTInterface beastObject) {
+        for (Input<?> input : beastObject.listInputs()) {
+            final Object value = input.get();
+
+            if (value instanceof BEASTInterface)
+                ((BEASTInterface) value).getOutputs().remove(beastObject);
+            else if (value instanceof List) {
+                for (Object o : (List<?>) value) {
+                    if (o instanceof BEASTInterface)
+                        ((BEASTInterface) o).getOutputs().remove(beastObject);
+                }
+            }
+        }
+    } // detach
+
+    /**
+     * Load the best configuration from a file written by autotune.
+     *
+     * @param file      apparently
+     * @param signature description of the data the file should be written for
+     * @return true if the file was written for data of the same size and contains a best configuration
+     */
+    private boolean loadAutotuneResults(final File file, final String signature) {
+        try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
+            String line = reader.readLine();
+            if (line == null || !line.equals(AUTOTUNE_HEADER + signature))
+                return false;
+
+            while ((line = reader.readLine()) != null) {
+                if (!line.startsWith(AUTOTUNE_BEST)) continue;
+
+                final String[] fields = line.substring(AUTOTUNE_BEST.length()).split("\t");
+                if (fields.length != 2) return false;
+
+                final int nrOfThreads = Integer.parseInt(fields[0].trim());
+                if (nrOfThreads < 1) return false;
+
+                threadCount = nrOfThreads;
+                proportions = fields[1].trim().equals("equal") ? null : fields[1].trim();
+                return true;
+            }
+        } catch (IOException | NumberFormatException e) {
+            Log.warning.println("Autotune: unable to reuse " + file.getPath() + ": " + e.getMessage());
+        }
+
+        return false;
+    } // loadAutotuneResults
+
+    /**
+     * Write autotune measurements and the chosen configuration to a file.
+     *
+     * @param file         apparently
+     * @param signature    description of the data the measurements were taken on
+     * @param measurements tab separated lines of threads, proportions and milliseconds per evaluation
+     */
+    private void writeAutotuneResults(final File file, final String signature, final List<String> measurements) {
+        try (PrintStream out = new PrintStream(file)) {
+            out.println(AUTOTUNE_HEADER + signature);
+            out.println("threads\tproportions\tmillisecondsPerEvaluation");
+            for (String measurement : measurements)
+                out.println(measurement);
+            out.println(AUTOTUNE_BEST + threadCount + "\t" + (proportions == null ? "equal" : proportions));
+        } catch (IOException e) {
+            Log.warning.println("Autotune: unable to write " + file.getPath() + ": " + e.getMessage());
+        }
+    } // writeAutotuneResults
+
+    /**
+     * Create a tree likelihood computing either all patterns or a range of them.
+     *
+     * @param index       index of the thread
+     * @param points      ranges of sites assigned to each thread; null if all sites are computed by a single thread
+     * @param calibrating whether the tree likelihood is only used by autotune calibration
+     * @return the initialized tree likelihood
+     */
+    private ScsTreeLikelihood createLikelihood(final int index, final int[] points, final boolean calibrating) {
+        final boolean traceMLGenotypes = !calibrating && traceMLGenotypesInput.get();
+        final boolean inVariantCallingMode = !calibrating && this.inVariantCallingMode;
+
+        ScsTreeLikelihood likelihood = new ScsTreeLikelihood();
+        likelihood.setID(getID() + (calibrating ? "_autotune" : "") + index);
+        likelihood.setSharedLeafPool(leafPool);
+        if (calibrating)
+            calibrationObjects.add(likelihood);
+
+        if (points == null) {
+            likelihood.initByName(
+                    "scsData", scsDataInput.get(),
+                    "tree", treeInput.get(),
+                    "siteModel", siteModelInput.get(),
+                    "branchRateModel", branchRateModelInput.get(),
+                    "rawReadCountsModel", rawReadCountsModelInput.get(),
+                    "runTimeAnalysis", runTimeAnalysisInput.get(),
+                    "useLogPartials", useLogPartials,
+                    "variantsInfo", inVariantCallingMode ? createVariantsInfo(index, scsDataInput.get(), treeInput.get()) : null,
+                    "useOnlyBranchLength", inVariantCallingMode ? useOnlyBranchLengthInput.get() : null,
+                    "meanRate", inVariantCallingMode ? meanRateInput.get() : null,
+                    "traceMLGenotypes", traceMLGenotypes,
+                    "leafThreads", leafThreadsInput.get(),
+                    "scaling", scalingInput.get() + ""
+            );
+        } else {
+            String filterSpec = (points[index] + 1) + "-" + (points[index + 1]);
+
+            FilteredScsAlignment filter = new FilteredScsAlignment();
+            if (calibrating)
+                calibrationObjects.add(filter);
+            filter.initByName(
+                    "scsData", scsDataInput.get(),
+                    "filter", filterSpec,
+                    "dataType", scsDataInput.get().dataTypeInput.get(),
+                    "ascertained", scsDataInput.get().ascBiasCorrectionInput.get(),
+                    "meanAscBiasCorrection", scsDataInput.get().meanAscBiasCorrectionInput.get(),
+                    "nrOfBackgroundSites", scsDataInput.get().getNrOfBackgroundSites(),
+                    "manipulatedNrOfBackgroundSites", scsDataInput.get().getManipulatedNrOfBackgroundSites()
+            );
+
+            likelihood.initByName(
+                    "scsData", filter,
+                    "tree", treeInput.get(),
+                    "siteModel", duplicate(siteModelInput.get(), filter, index),
+                    "branchRateModel", duplicate(branchRateModelInput.get(), filter, index),
+                    "rawReadCountsModel", duplicate(rawReadCountsModelInput.get(), filter, index),
+                    "runTimeAnalysis", runTimeAnalysisInput.get(),
+                    "useLogPartials", useLogPartials,
+                    "variantsInfo", inVariantCallingMode ? createVariantsInfo(index, filter, treeInput.get()) : null,
+                    "useOnlyBranchLength", inVariantCallingMode ? useOnlyBranchLengthInput.get() : null,
+                    "meanRate", inVariantCallingMode ? meanRateInput.get() : null,
+                    "traceMLGenotypes", traceMLGenotypes,
+                    "leafThreads", leafThreadsInput.get(),
+                    "scaling", scalingInput.get() + ""
+            );
+        }
+
+        return likelihood;
+    } // createLikelihood
+
+    /**
+     * Split sites into ranges, one for each thread.
+     *
+     * @param nSites      number of sites
+     * @param nThreads    number of threads
+     * @param proportions proportions of sites per thread in the format of 'proportions'; null for equal proportions
+     * @return first element is 0, then one point for each thread
+     */
+    static int[] calcPatternPoints(int nSites, int nThreads, String proportions) {
+        int[] points = new int[nThreads + 1];
+        if (proportions == null) {
+            int[] counts = new int[nThreads];
+            Arrays.fill(counts, nSites / nThreads);
 
             // make sure the sites are splitting as evenly as possible
-            for (int i = 0; i < nSites % threadCount; i++)
+            for (int i = 0; i < nSites % nThreads; i++)
                 counts[i]++;
 
-            for (int i = 0; i < threadCount; i++)
-                patternPoints[i + 1] = patternPoints[i] + counts[i];
+            for (int i = 0; i < nThreads; i++)
+                points[i + 1] = points[i] + counts[i];
         } else {
-            String[] strs = proportionsInput.get().split("\\s+");
-            double[] proportions = new double[threadCount];
-            for (int i = 0; i < threadCount; i++)
-                proportions[i] = Double.parseDouble(strs[i % strs.length]);
+            String[] strs = proportions.trim().split("\\s+");
+            double[] props = new double[nThreads];
+            for (int i = 0; i < nThreads; i++)
+                props[i] = Double.parseDouble(strs[i % strs.length]);
 
             // normalise
             double sum = 0;
-            for (double d : proportions)
+            for (double d : props)
                 sum += d;
 
-            for (int i = 0; i < threadCount; i++)
-                proportions[i] /= sum;
+            for (int i = 0; i < nThreads; i++)
+                props[i] /= sum;
 
             // cumulative
-            for (int i = 1; i < threadCount; i++)
-                proportions[i] += proportions[i - 1];
+            for (int i = 1; i < nThreads; i++)
+                props[i] += props[i - 1];
 
             // calc ranges
-            for (int i = 0; i < threadCount; i++)
-                patternPoints[i + 1] = (int) (proportions[i] * nSites + 0.5);
+            for (int i = 0; i < nThreads; i++)
+                points[i + 1] = (int) (props[i] * nSites + 0.5);
         }
 
         // sanity check: there is no overlaps for any ranges
-        for (int i = 0; i < patternPoints.length - 1; i++) {
-            if (patternPoints[i] >= patternPoints[i + 1]) {
+        for (int i = 0; i < points.length - 1; i++) {
+            if (points[i] >= points[i + 1]) {
                 throw new IllegalArgumentException("Error: overlaps found when partitioning sites. Redefine the " +
                         "'proportions' or just leave it blank.");
             }
         }
+
+        return points;
     } // calcPatternPoints
 
     private VariantsInfoVCF createVariantsInfo(
@@ -309,6 +616,9 @@ public class ThreadedScsTreeLikelihood extends ScsGenericTreeLikelihood {
         try {
             copy = src.getClass().newInstance();
             copy.setID(src.getID() + "_" + i);
+
+            if (calibrationObjects != null)
+                calibrationObjects.add(copy);
         } catch (InstantiationException | IllegalAccessException e) {
             e.printStackTrace();
             throw new RuntimeException("Programmer error: every object in the model should have a default constructor that is publicly accessible: " + src.getClass().getName());
@@ -500,6 +810,142 @@ public class ThreadedScsTreeLikelihood extends ScsGenericTreeLikelihood {
         }
     } // class MLGenotypeCaller
 
+    /**
+     * A configuration timed by autotune, with temporary tree likelihoods which are detached from the model once
+     * released. Even with a single thread, the tree likelihood has its own copies of the site model, the branch rate
+     * model and the raw read counts model, so that calibration leaves those of the model untouched.
+     */
+    class Calibration {
+        private final int nrOfThreads;
+        private final String proportions;
+
+        private final ScsTreeLikelihood[] likelihoods;
+        private final List<Callable<Double>> callers = new ArrayList<>();
+        private final List<BEASTInterface> objects;
+        private ExecutorService pool = null;
+
+        // number of proposals evaluated so far, which decides the node made dirty and whether to accept
+        private int nrOfProposals = 0;
+
+        /**
+         * Build the tree likelihoods of a configuration and evaluate them once, which allocates and fills their
+         * buffers.
+         *
+         * @param nrOfThreads number of threads
+         * @param proportions proportions of patterns per thread; null for equal proportions
+         * @throws InterruptedException if interrupted during the first evaluation
+         */
+        Calibration(final int nrOfThreads, final String proportions) throws InterruptedException {
+            this.nrOfThreads = nrOfThreads;
+            this.proportions = proportions;
+            this.likelihoods = new ScsTreeLikelihood[nrOfThreads];
+
+            calibrationObjects = new ArrayList<>();
+            this.objects = calibrationObjects;
+
+            try {
+                final int[] points = calcPatternPoints(scsDataInput.get().getSiteCount(), nrOfThreads, proportions);
+                for (int i = 0; i < nrOfThreads; i++) {
+                    likelihoods[i] = createLikelihood(i, points, true);
+                    callers.add(new ScsTreeLikelihoodCaller(likelihoods[i], i));
+                }
+
+                if (nrOfThreads > 1)
+                    pool = Executors.newFixedThreadPool(nrOfThreads);
+
+                evaluate();
+            } catch (RuntimeException | InterruptedException e) {
+                release();
+                throw e;
+            } finally {
+                calibrationObjects = null;
+            }
+        }
+
+        /**
+         * Time likelihood evaluations of proposals as MCMC makes them: the tree likelihoods are stored, a single node
+         * of the tree is made dirty, the tree likelihoods check what requires recalculation, so that only the path from
+         * that node to the root is recomputed, and the proposal is alternately accepted and rejected.
+         *
+         * @param nrOfEvaluations number of timed evaluations
+         * @return milliseconds per likelihood evaluation
+         * @throws InterruptedException if interrupted
+         */
+        double time(final int nrOfEvaluations) throws InterruptedException {
+            final Tree tree = (Tree) treeInput.get();
+
+            final long startTime = System.nanoTime();
+            for (int k = 0; k < nrOfEvaluations; k++) {
+                for (ScsTreeLikelihood likelihood : likelihoods)
+                    likelihood.store();
+
+                Node node = tree.getNode(nrOfProposals % tree.getNodeCount());
+                if (node.isRoot())
+                    node = tree.getNode(0);
+                node.makeDirty(Tree.IS_DIRTY);
+                tree.setSomethingIsDirty(true);
+
+                for (ScsTreeLikelihood likelihood : likelihoods)
+                    likelihood.requiresRecalculation();
+
+                evaluate();
+
+                for (ScsTreeLikelihood likelihood : likelihoods) {
+                    if (nrOfProposals % 2 == 0)
+                        likelihood.accept();
+                    else
+                        likelihood.restore();
+                }
+
+                tree.setEverythingDirty(false);
+                nrOfProposals++;
+            }
+            final long endTime = System.nanoTime();
+
+            return (endTime - startTime) / 1e6 / nrOfEvaluations;
+        } // time
+
+        /**
+         * A likelihood evaluation with the tree likelihoods of this configuration, aggregated in the same way as
+         * {@link #calculateLogP()}.
+         */
+        private double evaluate() throws InterruptedException {
+            if (pool == null)
+                return likelihoods[0].calculateLogP();
+
+            pool.invokeAll(callers);
+
+            double logP = 0;
+            for (int i = 0; i < nrOfThreads; i++)
+                logP += logPByThread[i];
+
+            if (useAscBiasCorrection)
+                logP += scsDataInput.get().getAscBiasCorrection(Arrays.copyOf(constSumByThread, nrOfThreads));
+
+            return logP;
+        } // evaluate
+
+        /**
+         * Release threads and detach the tree likelihoods of this configuration from the model.
+         */
+        void release() {
+            if (pool != null) {
+                pool.shutdownNow();
+                pool = null;
+            }
+
+            for (ScsTreeLikelihood likelihood : likelihoods) {
+                if (likelihood != null)
+                    likelihood.shutdownLeafThreads();
+            }
+
+            for (BEASTInterface beastObject : objects)
+                detach(beastObject);
+            objects.clear();
+        } // release
+
+    } // class Calibration
+
 
     //***********************************************
     //*              Getter and Setter              *
@@ -13,6 +13,29 @@ import static beast.math.util.MathFunctions.maxIndices;
 public class RawReadCountsModelFiniteMu extends RawReadCountsModelInterface.Base {
 
 
+    //***********************************************
+    //*                  Variables                  *
+    //***********************************************
+
+    /**
+     * indices to ADO coefficients
+     */
+    protected final static int ONE_MINUS_ADO = 0;
+    protected final static int ADO = 1;
+    protected final static int HALF_ADO = 2;
+    protected final static int ONE_MINUS_HALF_ADO = 3;
+    protected final static int ONE_MINUS_ADO_SQUARED = 4;
+    protected final static int TWICE_ADO_TIMES_ONE_MINUS_ADO = 5;
+    protected final static int ADO_TIMES_ONE_MINUS_ADO = 6;
+    protected final static int ADO_SQUARED = 7;
+    protected final static int ADO_RATE = 8;
+
+    /**
+     * ADO coefficients for the ADO rate stored at ADO_RATE
+     */
+    private volatile double[] adoCoefficients = null;
+
+
     //**********************************************
     //*             Overridden methods             *
     //**********************************************
@@ -115,7 +138,7 @@ public class RawReadCountsModelFiniteMu extends RawReadCountsModelInterface.Base
      * @param taxonIndex                     apparently
      * @param indexToSeqCovLikelihood        apparently
      * @param indexToNucReadCountsLikelihood apparently
-     * @param comp                           a double array to store component likelihoods
+     * @param comp                           a double array to store component likelihoods; null if not needed
      * @return the mixed likelihood
      */
     protected double computeMixedLikelihoodCore(
@@ -125,138 +148,180 @@ public class RawReadCountsModelFiniteMu extends RawReadCountsModelInterface.Base
             final int indexToNucReadCountsLikelihood,
             double[] comp
     ) {
-        final double theta = adoRate.getValue();
-
-        double[] tmp = comp == null ? this.getAllocatedArr() : comp;
+        final double[] coef = getAdoCoefficients();
 
         switch (genotypeIndex) {
             case 0:
                 // 0/0
-                if (singleADO) {
-                    // single ado
-                    if (useLogPartials) {
-                        tmp[0] = Math.log(1 - theta) + nucReadCountsModel.getNucReadCountsLikelihood(taxonIndex, indexToNucReadCountsLikelihood) + seqCovModel.getSeqCovLikelihood(taxonIndex, indexToSeqCovLikelihood + 1);
-                        tmp[1] = Math.log(theta) + nucReadCountsModel.getNucReadCountsLikelihood(taxonIndex, indexToNucReadCountsLikelihood) + seqCovModel.getSeqCovLikelihood(taxonIndex, indexToSeqCovLikelihood);
-
-                        return logSumExp(new double[]{tmp[0], tmp[1]});
-                    } else {
-                        tmp[0] = (1 - theta) * nucReadCountsModel.getNucReadCountsLikelihood(taxonIndex, indexToNucReadCountsLikelihood) * seqCovModel.getSeqCovLikelihood(taxonIndex, indexToSeqCovLikelihood + 1);
-                        tmp[1] = theta * nucReadCountsModel.getNucReadCountsLikelihood(taxonIndex, indexToNucReadCountsLikelihood) * seqCovModel.getSeqCovLikelihood(taxonIndex, indexToSeqCovLikelihood);
-
-                        return tmp[0] + tmp[1];
-                    }
-                } else {
-                    // locus ado
-                    if (useLogPartials) {
-                        tmp[0] = 2 * Math.log(1 - theta) + nucReadCountsModel.getNucReadCountsLikelihood(taxonIndex, indexToNucReadCountsLikelihood) + seqCovModel.getSeqCovLikelihood(taxonIndex, indexToSeqCovLikelihood + 2);
-                        tmp[1] = Math.log(2) + Math.log(theta) + Math.log(1 - theta) + nucReadCountsModel.getNucReadCountsLikelihood(taxonIndex, indexToNucReadCountsLikelihood) + seqCovModel.getSeqCovLikelihood(taxonIndex, indexToSeqCovLikelihood + 1);
-                        tmp[2] = 2 * Math.log(theta) + seqCovModel.getSeqCovLikelihood(taxonIndex, indexToSeqCovLikelihood);
-
-                        return logSumExp(new double[]{tmp[0], tmp[1], tmp[2]});
-                    } else {
-                        tmp[0] = Math.pow(1 - theta, 2) * nucReadCountsModel.getNucReadCountsLikelihood(taxonIndex, indexToNucReadCountsLikelihood) * seqCovModel.getSeqCovLikelihood(taxonIndex, indexToSeqCovLikelihood + 2);
-                        tmp[1] = 2 * theta * (1 - theta) * nucReadCountsModel.getNucReadCountsLikelihood(taxonIndex, indexToNucReadCountsLikelihood) * seqCovModel.getSeqCovLikelihood(taxonIndex, indexToSeqCovLikelihood + 1);
-                        tmp[2] = Math.pow(theta, 2) * seqCovModel.getSeqCovLikelihood(taxonIndex, indexToSeqCovLikelihood);
-
-                        return tmp[0] + tmp[1] + tmp[2];
-                    }
-                }
+                return computeHomozygousMixture(coef, comp, taxonIndex, indexToSeqCovLikelihood, getNucReadCountsLikelihood(taxonIndex, indexToNucReadCountsLikelihood), getNucReadCountsLikelihood(taxonIndex, indexToNucReadCountsLikelihood));
             case 1:
                 // 0/1
                 if (singleADO) {
                     // single ado
-                    if (useLogPartials) {
-                        tmp[0] = Math.log(1 - theta) + nucReadCountsModel.getNucReadCountsLikelihood(taxonIndex, indexToNucReadCountsLikelihood + 3) + seqCovModel.getSeqCovLikelihood(taxonIndex, indexToSeqCovLikelihood + 1);
-                        tmp[1] = Math.log(theta) - Math.log(2) + logSumExp(new double[]{nucReadCountsModel.getNucReadCountsLikelihood(taxonIndex, indexToNucReadCountsLikelihood), nucReadCountsModel.getNucReadCountsLikelihood(taxonIndex, indexToNucReadCountsLikelihood + 1)}) + seqCovModel.getSeqCovLikelihood(taxonIndex, indexToSeqCovLikelihood);
-
-                        return logSumExp(new double[]{tmp[0], tmp[1]});
-                    } else {
-                        tmp[0] = (1 - theta) * nucReadCountsModel.getNucReadCountsLikelihood(taxonIndex, indexToNucReadCountsLikelihood + 3) * seqCovModel.getSeqCovLikelihood(taxonIndex, indexToSeqCovLikelihood + 1);
-                        tmp[1] = (theta / 2) * (nucReadCountsModel.getNucReadCountsLikelihood(taxonIndex, indexToNucReadCountsLikelihood) + nucReadCountsModel.getNucReadCountsLikelihood(taxonIndex, indexToNucReadCountsLikelihood + 1)) * seqCovModel.getSeqCovLikelihood(taxonIndex, indexToSeqCovLikelihood);
-
-                        return tmp[0] + tmp[1];
-                    }
+                    final int offset = getSingleADOSeqCovOffset();
+                    return computeMixture(
+                            comp,
+                            computeComponent(coef[ONE_MINUS_ADO], getNucReadCountsLikelihood(taxonIndex, indexToNucReadCountsLikelihood + 3), getSeqCovLikelihood(taxonIndex, indexToSeqCovLikelihood + offset + 1)),
+                            computeComponent(coef[HALF_ADO], sumNucReadCountsLikelihoods(taxonIndex, indexToNucReadCountsLikelihood), getSeqCovLikelihood(taxonIndex, indexToSeqCovLikelihood + offset))
+                    );
                 } else {
                     // locus ado
-                    if (useLogPartials) {
-                        tmp[0] = 2 * Math.log(1 - theta) + nucReadCountsModel.getNucReadCountsLikelihood(taxonIndex, indexToNucReadCountsLikelihood + 3) + seqCovModel.getSeqCovLikelihood(taxonIndex, indexToSeqCovLikelihood + 2);
-                        tmp[1] = Math.log(theta) + Math.log(1 - theta) + logSumExp(new double[]{nucReadCountsModel.getNucReadCountsLikelihood(taxonIndex, indexToNucReadCountsLikelihood), nucReadCountsModel.getNucReadCountsLikelihood(taxonIndex, indexToNucReadCountsLikelihood + 1)}) + seqCovModel.getSeqCovLikelihood(taxonIndex, indexToSeqCovLikelihood + 1);
-                        tmp[2] = 2 * Math.log(theta) + seqCovModel.getSeqCovLikelihood(taxonIndex, indexToSeqCovLikelihood);
-
-                        return logSumExp(new double[]{tmp[0], tmp[1], tmp[2]});
-                    } else {
-                        tmp[0] = Math.pow(1 - theta, 2) * nucReadCountsModel.getNucReadCountsLikelihood(taxonIndex, indexToNucReadCountsLikelihood + 3) * seqCovModel.getSeqCovLikelihood(taxonIndex, indexToSeqCovLikelihood + 2);
-                        tmp[1] = theta * (1 - theta) * (nucReadCountsModel.getNucReadCountsLikelihood(taxonIndex, indexToNucReadCountsLikelihood) + nucReadCountsModel.getNucReadCountsLikelihood(taxonIndex, indexToNucReadCountsLikelihood + 1)) * seqCovModel.getSeqCovLikelihood(taxonIndex, indexToSeqCovLikelihood + 1);
-                        tmp[2] = Math.pow(theta, 2) * seqCovModel.getSeqCovLikelihood(taxonIndex, indexToSeqCovLikelihood);
-
-                        return tmp[0] + tmp[1] + tmp[2];
-                    }
+                    return computeMixture(
+                            comp,
+                            computeComponent(coef[ONE_MINUS_ADO_SQUARED], getNucReadCountsLikelihood(taxonIndex, indexToNucReadCountsLikelihood + 3), getSeqCovLikelihood(taxonIndex, indexToSeqCovLikelihood + 2)),
+                            computeComponent(coef[ADO_TIMES_ONE_MINUS_ADO], sumNucReadCountsLikelihoods(taxonIndex, indexToNucReadCountsLikelihood), getSeqCovLikelihood(taxonIndex, indexToSeqCovLikelihood + 1)),
+                            computeComponent(coef[ADO_SQUARED], getNoNucReadCountsLikelihood(), getSeqCovLikelihood(taxonIndex, indexToSeqCovLikelihood))
+                    );
                 }
             case 2:
                 // 1/1
-                if (singleADO) {
-                    // single ado
-                    if (useLogPartials) {
-                        tmp[0] = Math.log(1 - theta) + nucReadCountsModel.getNucReadCountsLikelihood(taxonIndex, indexToNucReadCountsLikelihood + 1) + seqCovModel.getSeqCovLikelihood(taxonIndex, indexToSeqCovLikelihood + 1);
-                        tmp[1] = Math.log(theta) + nucReadCountsModel.getNucReadCountsLikelihood(taxonIndex, indexToNucReadCountsLikelihood + 1) + seqCovModel.getSeqCovLikelihood(taxonIndex, indexToSeqCovLikelihood);
-
-                        return logSumExp(new double[]{tmp[0], tmp[1]});
-                    } else {
-                        tmp[0] = (1 - theta) * nucReadCountsModel.getNucReadCountsLikelihood(taxonIndex, indexToNucReadCountsLikelihood + 1) * seqCovModel.getSeqCovLikelihood(taxonIndex, indexToSeqCovLikelihood + 1);
-                        tmp[1] = theta * nucReadCountsModel.getNucReadCountsLikelihood(taxonIndex, indexToNucReadCountsLikelihood + 1) * seqCovModel.getSeqCovLikelihood(taxonIndex, indexToSeqCovLikelihood);
-
-                        return tmp[0] + tmp[1];
-                    }
-                } else {
-                    // locus ado
-                    if (useLogPartials) {
-                        tmp[0] = 2 * Math.log(1 - theta) + nucReadCountsModel.getNucReadCountsLikelihood(taxonIndex, indexToNucReadCountsLikelihood + 1) + seqCovModel.getSeqCovLikelihood(taxonIndex, indexToSeqCovLikelihood + 2);
-                        tmp[1] = Math.log(2) + Math.log(theta) + Math.log(1 - theta) + nucReadCountsModel.getNucReadCountsLikelihood(taxonIndex, indexToNucReadCountsLikelihood + 1) + seqCovModel.getSeqCovLikelihood(taxonIndex, indexToSeqCovLikelihood + 1);
-                        tmp[2] = 2 * Math.log(theta) + seqCovModel.getSeqCovLikelihood(taxonIndex, indexToSeqCovLikelihood);
-
-                        return logSumExp(new double[]{tmp[0], tmp[1], tmp[2]});
-                    } else {
-                        tmp[0] = Math.pow(1 - theta, 2) * nucReadCountsModel.getNucReadCountsLikelihood(taxonIndex, indexToNucReadCountsLikelihood + 1) * seqCovModel.getSeqCovLikelihood(taxonIndex, indexToSeqCovLikelihood + 2);
-                        tmp[1] = 2 * theta * (1 - theta) * nucReadCountsModel.getNucReadCountsLikelihood(taxonIndex, indexToNucReadCountsLikelihood + 1) * seqCovModel.getSeqCovLikelihood(taxonIndex, indexToSeqCovLikelihood + 1);
-                        tmp[2] = Math.pow(theta, 2) * seqCovModel.getSeqCovLikelihood(taxonIndex, indexToSeqCovLikelihood);
-
-                        return tmp[0] + tmp[1] + tmp[2];
-                    }
-                }
+                return computeHomozygousMixture(coef, comp, taxonIndex, indexToSeqCovLikelihood, getNucReadCountsLikelihood(taxonIndex, indexToNucReadCountsLikelihood + 1), getNucReadCountsLikelihood(taxonIndex, indexToNucReadCountsLikelihood + 1));
             case 3:
                 // 1/1'
-                if (singleADO) {
-                    // single ado
-                    if (useLogPartials) {
-                        tmp[0] = Math.log(1 - theta) + nucReadCountsModel.getNucReadCountsLikelihood(taxonIndex, indexToNucReadCountsLikelihood + 2) + seqCovModel.getSeqCovLikelihood(taxonIndex, indexToSeqCovLikelihood + 1);
-                        tmp[1] = Math.log(theta) + nucReadCountsModel.getNucReadCountsLikelihood(taxonIndex, indexToNucReadCountsLikelihood + 1) + seqCovModel.getSeqCovLikelihood(taxonIndex, indexToSeqCovLikelihood);
-
-                        return logSumExp(new double[]{tmp[0], tmp[1]});
-                    } else {
-                        tmp[0] = (1 - theta) * nucReadCountsModel.getNucReadCountsLikelihood(taxonIndex, indexToNucReadCountsLikelihood + 2) * seqCovModel.getSeqCovLikelihood(taxonIndex, indexToSeqCovLikelihood + 1);
-                        tmp[1] = theta * nucReadCountsModel.getNucReadCountsLikelihood(taxonIndex, indexToNucReadCountsLikelihood + 1) * seqCovModel.getSeqCovLikelihood(taxonIndex, indexToSeqCovLikelihood);
-
-                        return tmp[0] + tmp[1];
-                    }
-                } else {
-                    // locus ado
-                    if (useLogPartials) {
-                        tmp[0] = 2 * Math.log(1 - theta) + nucReadCountsModel.getNucReadCountsLikelihood(taxonIndex, indexToNucReadCountsLikelihood + 2) + seqCovModel.getSeqCovLikelihood(taxonIndex, indexToSeqCovLikelihood + 2);
-                        tmp[1] = Math.log(2) + Math.log(theta) + Math.log(1 - theta) + nucReadCountsModel.getNucReadCountsLikelihood(taxonIndex, indexToNucReadCountsLikelihood + 1) + seqCovModel.getSeqCovLikelihood(taxonIndex, indexToSeqCovLikelihood + 1);
-                        tmp[2] = 2 * Math.log(theta) + seqCovModel.getSeqCovLikelihood(taxonIndex, indexToSeqCovLikelihood);
-
-                        return logSumExp(new double[]{tmp[0], tmp[1], tmp[2]});
-                    } else {
-                        tmp[0] = Math.pow(1 - theta, 2) * nucReadCountsModel.getNucReadCountsLikelihood(taxonIndex, indexToNucReadCountsLikelihood + 2) * seqCovModel.getSeqCovLikelihood(taxonIndex, indexToSeqCovLikelihood + 2);
-                        tmp[1] = 2 * theta * (1 - theta) * nucReadCountsModel.getNucReadCountsLikelihood(taxonIndex, indexToNucReadCountsLikelihood + 1) * seqCovModel.getSeqCovLikelihood(taxonIndex, indexToSeqCovLikelihood + 1);
-                        tmp[2] = Math.pow(theta, 2) * seqCovModel.getSeqCovLikelihood(taxonIndex, indexToSeqCovLikelihood);
-
-                        return tmp[0] + tmp[1] + tmp[2];
-                    }
-                }
+                return computeHomozygousMixture(coef, comp, taxonIndex, indexToSeqCovLikelihood, getNucReadCountsLikelihood(taxonIndex, indexToNucReadCountsLikelihood + 2), getNucReadCountsLikelihood(taxonIndex, indexToNucReadCountsLikelihood + 1));
             default:
                 throw new IllegalStateException("Unexpected genotype index: " + genotypeIndex + " (" + this.getClass().getName() + ")");
         }
-    } // computeMixedLikelihood
+    } // computeMixedLikelihoodCore
+
+    /**
+     * Mixed likelihood of a genotype with two alleles of the same kind (0/0, 1/1 and 1/1').
+     *
+     * @param coef                      ADO coefficients, see {@link #getAdoCoefficients()}
+     * @param comp                      a double array to store component likelihoods; null if not needed
+     * @param taxonIndex                apparently
+     * @param indexToSeqCovLikelihood   apparently
+     * @param nucLikelihoodNoADO        nucleotide read counts likelihood if no allele is dropped out
+     * @param nucLikelihoodSingleAllele nucleotide read counts likelihood if one allele is dropped out
+     * @return the mixed likelihood
+     */
+    protected double computeHomozygousMixture(
+            final double[] coef,
+            double[] comp,
+            final int taxonIndex,
+            final int indexToSeqCovLikelihood,
+            final double nucLikelihoodNoADO,
+            final double nucLikelihoodSingleAllele
+    ) {
+        if (singleADO) {
+            // single ado
+            final int offset = getSingleADOSeqCovOffset();
+            return computeMixture(
+                    comp,
+                    computeComponent(coef[ONE_MINUS_ADO], nucLikelihoodNoADO, getSeqCovLikelihood(taxonIndex, indexToSeqCovLikelihood + offset + 1)),
+                    computeComponent(coef[ADO], nucLikelihoodSingleAllele, getSeqCovLikelihood(taxonIndex, indexToSeqCovLikelihood + offset))
+            );
+        } else {
+            // locus ado
+            return computeMixture(
+                    comp,
+                    computeComponent(coef[ONE_MINUS_ADO_SQUARED], nucLikelihoodNoADO, getSeqCovLikelihood(taxonIndex, indexToSeqCovLikelihood + 2)),
+                    computeComponent(coef[TWICE_ADO_TIMES_ONE_MINUS_ADO], nucLikelihoodSingleAllele, getSeqCovLikelihood(taxonIndex, indexToSeqCovLikelihood + 1)),
+                    computeComponent(coef[ADO_SQUARED], getNoNucReadCountsLikelihood(), getSeqCovLikelihood(taxonIndex, indexToSeqCovLikelihood))
+            );
+        }
+    } // computeHomozygousMixture
+
+    /**
+     * In single ADO mode, offset to the sequencing coverage likelihood of one sequenced allele.
+     *
+     * @return 0, as zero sequenced alleles are not modelled in single ADO mode
+     */
+    protected int getSingleADOSeqCovOffset() {
+        return 0;
+    } // getSingleADOSeqCovOffset
+
+    /**
+     * Coefficients of mixture components depending only on the ADO rate, in log space if log-partials are used.
+     * They are computed once for each value of the ADO rate. The array is never modified after being published, so
+     * that it can be shared by threads computing leaves in parallel.
+     *
+     * @return coefficients indexed by ONE_MINUS_ADO, ADO, ..., ADO_SQUARED
+     */
+    protected double[] getAdoCoefficients() {
+        final double theta = adoRate.getValue();
+
+        double[] coef = adoCoefficients;
+        if (coef == null || coef[ADO_RATE] != theta) {
+            coef = new double[ADO_RATE + 1];
+
+            if (useLogPartials) {
+                coef[ONE_MINUS_ADO] = Math.log(1 - theta);
+                coef[ADO] = Math.log(theta);
+                coef[HALF_ADO] = Math.log(theta) - Math.log(2);
+                coef[ONE_MINUS_HALF_ADO] = Math.log(1 - theta / 2);
+                coef[ONE_MINUS_ADO_SQUARED] = 2 * Math.log(1 - theta);
+                coef[TWICE_ADO_TIMES_ONE_MINUS_ADO] = Math.log(2) + Math.log(theta) + Math.log(1 - theta);
+                coef[ADO_TIMES_ONE_MINUS_ADO] = Math.log(theta) + Math.log(1 - theta);
+                coef[ADO_SQUARED] = 2 * Math.log(theta);
+            } else {
+                coef[ONE_MINUS_ADO] = 1 - theta;
+                coef[ADO] = theta;
+                coef[HALF_ADO] = theta / 2;
+                coef[ONE_MINUS_HALF_ADO] = 1 - theta / 2;
+                coef[ONE_MINUS_ADO_SQUARED] = Math.pow(1 - theta, 2);
+                coef[TWICE_ADO_TIMES_ONE_MINUS_ADO] = 2 * theta * (1 - theta);
+                coef[ADO_TIMES_ONE_MINUS_ADO] = theta * (1 - theta);
+                coef[ADO_SQUARED] = Math.pow(theta, 2);
+            }
+
+            coef[ADO_RATE] = theta;
+            adoCoefficients = coef;
+        }
+
+        return coef;
+    } // getAdoCoefficients
+
+    protected double getNucReadCountsLikelihood(final int taxonIndex, final int index) {
+        return nucReadCountsModel.getNucReadCountsLikelihood(taxonIndex, index);
+    } // getNucReadCountsLikelihood
+
+    protected double getSeqCovLikelihood(final int taxonIndex, final int index) {
+        return seqCovModel.getSeqCovLikelihood(taxonIndex, index);
+    } // getSeqCovLikelihood
+
+    /**
+     * @return the neutral nucleotide read counts likelihood for components where no allele is sequenced
+     */
+    protected double getNoNucReadCountsLikelihood() {
+        return useLogPartials ? 0.0 : 1.0;
+    } // getNoNucReadCountsLikelihood
+
+    /**
+     * Sum of nucleotide read counts likelihoods of 0/0 and 1/1, i.e., either allele of 0/1 is dropped out.
+     *
+     * @param taxonIndex                     apparently
+     * @param indexToNucReadCountsLikelihood apparently
+     * @return the sum, in log space if log-partials are used
+     */
+    protected double sumNucReadCountsLikelihoods(final int taxonIndex, final int indexToNucReadCountsLikelihood) {
+        final double nuc0 = getNucReadCountsLikelihood(taxonIndex, indexToNucReadCountsLikelihood);
+        final double nuc1 = getNucReadCountsLikelihood(taxonIndex, indexToNucReadCountsLikelihood + 1);
+
+        return useLogPartials ? logSumExp(nuc0, nuc1) : nuc0 + nuc1;
+    } // sumNucReadCountsLikelihoods
+
+    protected double computeComponent(final double coef, final double nucLikelihood, final double seqCovLikelihood) {
+        return useLogPartials ? coef + nucLikelihood + seqCovLikelihood : coef * nucLikelihood * seqCovLikelihood;
+    } // computeComponent
+
+    protected double computeMixture(double[] comp, final double comp0, final double comp1) {
+        if (comp != null) {
+            comp[0] = comp0;
+            comp[1] = comp1;
+        }
+
+        return useLogPartials ? logSumExp(comp0, comp1) : comp0 + comp1;
+    } // computeMixture
+
+    protected double computeMixture(double[] comp, final double comp0, final double comp1, final double comp2) {
+        if (comp != null) {
+            comp[0] = comp0;
+            comp[1] = comp1;
+            comp[2] = comp2;
+        }
+
+        return useLogPartials ? logSumExp(comp0, comp1, comp2) : comp0 + comp1 + comp2;
+    } // computeMixture
 
 }
@@ -325,14 +325,15 @@ public interface RawReadCountsModelInterface {
 
             // For only one matrix because the likelihoods for other matrices are the same during initialization.
             double[] partials = new double[nrOfPatterns * nrOfStates];
+            final int[] reads = new int[alignment.getNrOfPatternValues()];
 
             int index = 0;
             for (int patternIndex = 0; patternIndex < nrOfPatterns; patternIndex++) {
-                final int[] reads = alignment.getPattern(taxonIndex, patternIndex);
+                alignment.getPattern(taxonIndex, patternIndex, reads);
 
                 // Compute likelihoods of sequencing coverage.
                 seqCovModel.computeSeqCovLikelihood(
-                        alignment.getSequencingCoverage(reads),
+                        alignment.getSequencingCoverageOfPattern(taxonIndex, patternIndex),
                         0,
                         patternIndex,
                         taxonIndex
@@ -385,14 +386,15 @@ public interface RawReadCountsModelInterface {
 
             // For only one matrix because the likelihoods for other matrices are the same during initialization.
             double[] partials = new double[nrOfPatterns * nrOfStates];
+            final int[] reads = new int[alignment.getNrOfPatternValues()];
 
             int index = 0;
             for (int patternIndex = 0; patternIndex < nrOfPatterns; patternIndex++) {
-                final int[] reads = alignment.getPattern(taxonIndex, patternIndex);
+                alignment.getPattern(taxonIndex, patternIndex, reads);
 
                 // Compute likelihoods of sequencing coverage.
                 seqCovModel.computeSeqCovLikelihood(
-                        alignment.getSequencingCoverage(reads),
+                        alignment.getSequencingCoverageOfPattern(taxonIndex, patternIndex),
                         0,
                         patternIndex,
                         taxonIndex
@@ -472,29 +474,32 @@ public interface RawReadCountsModelInterface {
                 nucReadCountsModel.setNucReadCountsLikelihoodsNodeForUpdate(taxonIndex);
 
             double[] partials = new double[nrOfMatrices * nrOfPatterns * nrOfStates];
+            final int[] reads = new int[alignment.getNrOfPatternValues()];
 
             int index = 0;
             for (int matrixIndex = 0; matrixIndex < nrOfMatrices; matrixIndex++) {
                 for (int patternIndex = 0; patternIndex < nrOfPatterns; patternIndex++) {
-                    final int[] reads = alignment.getPattern(taxonIndex, patternIndex);
+                    alignment.getPattern(taxonIndex, patternIndex, reads);
 
                     // Compute likelihoods of sequencing coverage if necessary.
                     if (seqCovModel.isDirtyCalculation() || (inDebugMode && seqCovModel.updateSeqCovModel()))
                         seqCovModel.computeSeqCovLikelihood(
-                                alignment.getSequencingCoverage(reads),
+                                alignment.getSequencingCoverageOfPattern(taxonIndex, patternIndex),
                                 matrixIndex,
                                 patternIndex,
                                 taxonIndex
                         );
 
-                    // Compute likelihoods of nucleotide read counts if necessary.
+                    // Compute likelihoods of nucleotide read counts if necessary, only for categories depending on
+                    // changed parameters.
                     if (matrixIndex == 0 && nucReadCountsModel.isDirtyCalculation())
-                        nucReadCountsModel.computeNucReadCountsLikelihoods(
+                        nucReadCountsModel.updateNucReadCountsLikelihoods(
                                 reads,
                                 patternIndex,
                                 taxonIndex
                         );
 
+                    // Mix cached likelihoods; if only the ADO rate has changed, this is the only step.
                     for (int genotypeIndex = 0; genotypeIndex < nrOfStates; genotypeIndex++) {
                         partials[index] = computeMixedLikelihood(
                                 matrixIndex,
@@ -532,29 +537,32 @@ public interface RawReadCountsModelInterface {
                 nucReadCountsModel.setNucReadCountsLikelihoodsNodeForUpdate(taxonIndex);
 
             double[] partials = new double[nrOfMatrices * nrOfPatterns * nrOfStates];
+            final int[] reads = new int[alignment.getNrOfPatternValues()];
 
             int index = 0;
             for (int matrixIndex = 0; matrixIndex < nrOfMatrices; matrixIndex++) {
                 for (int patternIndex = 0; patternIndex < nrOfPatterns; patternIndex++) {
-                    final int[] reads = alignment.getPattern(taxonIndex, patternIndex);
+                    alignment.getPattern(taxonIndex, patternIndex, reads);
 
                     // Compute likelihoods of sequencing coverage if necessary.
                     if (seqCovModel.isDirtyCalculation() || (inDebugMode && seqCovModel.updateSeqCovModel()))
                         seqCovModel.computeSeqCovLikelihood(
-                                alignment.getSequencingCoverage(reads),
+                                alignment.getSequencingCoverageOfPattern(taxonIndex, patternIndex),
                                 matrixIndex,
                                 patternIndex,
                                 taxonIndex
                         );
 
-                    // Compute likelihoods of nucleotide read counts if necessary.
+                    // Compute likelihoods of nucleotide read counts if necessary, only for categories depending on
+                    // changed parameters.
                     if (matrixIndex == 0 && nucReadCountsModel.isDirtyCalculation())
-                        nucReadCountsModel.computeNucReadCountsLikelihoods(
+                        nucReadCountsModel.updateNucReadCountsLikelihoods(
                                 reads,
                                 patternIndex,
                                 taxonIndex
                         );
 
+                    // Mix cached likelihoods; if only the ADO rate has changed, this is the only step.
                     for (int genotypeIndex = 0; genotypeIndex < nrOfStates; genotypeIndex++) {
                         partials[index] = computeMixedLikelihood(
                                 matrixIndex,
@@ -590,14 +598,16 @@ public interface RawReadCountsModelInterface {
             assert node.isLeaf();
             final int taxonIndex = getTaxonIndex(node.getID(), alignment);
 
+            final int[] reads = new int[alignment.getNrOfPatternValues()];
+
             for (int[] pair : changedPatterns) {
                 // (matrixIndex, patternIndex)
                 final int index = pair[0] * nrOfPatterns * nrOfStates + pair[1] * nrOfStates;
 
-                final int[] reads = alignment.getPattern(taxonIndex, pair[1]);
+                alignment.getPattern(taxonIndex, pair[1], reads);
 
                 seqCovModel.computeSeqCovLikelihood(
-                        alignment.getSequencingCoverage(reads),
+                        alignment.getSequencingCoverageOfPattern(taxonIndex, pair[1]),
                         pair[0],
                         pair[1],
                         taxonIndex
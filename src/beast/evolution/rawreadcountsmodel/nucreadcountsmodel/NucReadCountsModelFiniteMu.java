@@ -1,12 +1,34 @@
 package beast.evolution.rawreadcountsmodel.nucreadcountsmodel;
 
 import beast.core.Description;
+import beast.evolution.alignment.ScsAlignment;
 import beast.math.distributions.DirichletMultinomial;
 
 @Description("Compatible with substitution models for mutations as well as mutations and deletions.")
 public class NucReadCountsModelFiniteMu extends NucReadCountsModelInterface.Base {
 
 
+    //***********************************************
+    //*                  Variables                  *
+    //***********************************************
+
+    /**
+     * the largest read count in the data, up to which log-gamma ladders are built
+     */
+    private int maxCount;
+
+    /**
+     * log(n!) for n = 0, ..., maxCount
+     */
+    private double[] logFactorials;
+
+    /**
+     * densities of unique read counts tuples under current parameter values
+     */
+    private volatile Densities homozygousDensities = null;
+    private volatile Densities heterozygousDensities = null;
+
+
     //**********************************************
     //*             Overridden methods             *
     //**********************************************
@@ -24,6 +46,37 @@ public class NucReadCountsModelFiniteMu extends NucReadCountsModelInterface.Base
         this.nrOfCategories = 4;
     }
 
+    @Override
+    public void deeplyInitialize(
+            final ScsAlignment alignment,
+            final int stateNum,
+            final boolean useLogPartials
+    ) {
+        super.deeplyInitialize(alignment, stateNum, useLogPartials);
+
+        maxCount = 0;
+        for (int[] reads : uniqueReadCounts) {
+            for (int count : reads)
+                maxCount = Math.max(maxCount, count);
+        }
+
+        logFactorials = DirichletMultinomial.getLogFactorials(maxCount);
+        homozygousDensities = null;
+        heterozygousDensities = null;
+    } // deeplyInitialize
+
+    @Override
+    public void duplicate(
+            NucReadCountsModelInterface.Base target,
+            final ScsAlignment targetData
+    ) {
+        super.duplicate(target, targetData);
+
+        // the patterns of the target are a subset of those of this instance
+        ((NucReadCountsModelFiniteMu) target).maxCount = this.maxCount;
+        ((NucReadCountsModelFiniteMu) target).logFactorials = this.logFactorials;
+    } // duplicate
+
     /**
      * Compute nucleotide read counts likelihoods.
      * @param reads        reads for current taxa under current pattern
@@ -37,66 +90,33 @@ public class NucReadCountsModelFiniteMu extends NucReadCountsModelInterface.Base
             int patternIndex,
             int taxonIndex
     ) {
-        final int index = patternIndex * nrOfCategories;
-
-        final double w1 = shapeCtrl1.getValue();
-        final double w2 = shapeCtrl2.getValue();
-
-        final double oneThirdSeqErr = effSeqErrRate.getValue() / 3;
-        final double oneMinusSeqErr = 1 - effSeqErrRate.getValue();
-        final double halfMinusOneThirdSeqErr = 0.5 - effSeqErrRate.getValue() / 3;
-
-        final double oneThirdSeqErrW1 = oneThirdSeqErr * w1;
-        final double oneMinusSeqErrW1 = oneMinusSeqErr * w1;
-
-        final double oneThirdSeqErrW2 = oneThirdSeqErr * w2;
-        final double halfMinusOneThirdSeqErrW2 = halfMinusOneThirdSeqErr * w2;
-
-        // 0/0
-        this.nucReadCountsLikelihoods[currentNucReadCountsLikelihoodsNodeIndex[taxonIndex]][taxonIndex][index] = useLogPartials ?
-                ((DirichletMultinomial) variantDensity).logDensity(
-                        reads,
-                        new double[]{oneThirdSeqErrW1, oneThirdSeqErrW1, oneThirdSeqErrW1, oneMinusSeqErrW1, w1}
-                ) :
-                ((DirichletMultinomial) variantDensity).density(
-                        reads,
-                        new double[]{oneThirdSeqErrW1, oneThirdSeqErrW1, oneThirdSeqErrW1, oneMinusSeqErrW1, w1}
-                );
-
-        // 1/1
-        this.nucReadCountsLikelihoods[currentNucReadCountsLikelihoodsNodeIndex[taxonIndex]][taxonIndex][index + 1] = useLogPartials ?
-                ((DirichletMultinomial) variantDensity).logDensity(
-                        reads,
-                        new double[]{oneMinusSeqErrW1, oneThirdSeqErrW1, oneThirdSeqErrW1, oneThirdSeqErrW1, w1}
-                ) :
-                ((DirichletMultinomial) variantDensity).density(
-                        reads,
-                        new double[]{oneMinusSeqErrW1, oneThirdSeqErrW1, oneThirdSeqErrW1, oneThirdSeqErrW1, w1}
-                );
-
-        // 1/1'
-        this.nucReadCountsLikelihoods[currentNucReadCountsLikelihoodsNodeIndex[taxonIndex]][taxonIndex][index + 2] = useLogPartials ?
-                ((DirichletMultinomial) variantDensity).logDensity(
-                        reads,
-                        new double[]{halfMinusOneThirdSeqErrW2, halfMinusOneThirdSeqErrW2, oneThirdSeqErrW2, oneThirdSeqErrW2, w2}
-                ) :
-                ((DirichletMultinomial) variantDensity).density(
-                        reads,
-                        new double[]{halfMinusOneThirdSeqErrW2, halfMinusOneThirdSeqErrW2, oneThirdSeqErrW2, oneThirdSeqErrW2, w2}
-                );
-
-        // 0/1
-        this.nucReadCountsLikelihoods[currentNucReadCountsLikelihoodsNodeIndex[taxonIndex]][taxonIndex][index + 3] = useLogPartials ?
-                ((DirichletMultinomial) variantDensity).logDensity(
-                        reads,
-                        new double[]{halfMinusOneThirdSeqErrW2, oneThirdSeqErrW2, oneThirdSeqErrW2, halfMinusOneThirdSeqErrW2, w2}
-                ) :
-                ((DirichletMultinomial) variantDensity).density(
-                        reads,
-                        new double[]{halfMinusOneThirdSeqErrW2, oneThirdSeqErrW2, oneThirdSeqErrW2, halfMinusOneThirdSeqErrW2, w2}
-                );
+        computeNucReadCountsLikelihoods(patternIndex, taxonIndex, true, true);
     } // computeNucReadCountsLikelihoods
 
+    /**
+     * Update nucleotide read counts likelihoods during MCMC.
+     * Homozygous categories (0/0 and 1/1) depend on effSeqErrRate and shapeCtrl1, and heterozygous categories
+     * (1/1' and 0/1) depend on effSeqErrRate and shapeCtrl2. Categories whose parameters are unchanged are copied
+     * from the stored likelihoods.
+     *
+     * @param reads        reads for current taxa under current pattern
+     * @param patternIndex index to pattern
+     * @param taxonIndex   index to taxon
+     */
+    @Override
+    public void updateNucReadCountsLikelihoods(
+            final int[] reads,
+            final int patternIndex,
+            final int taxonIndex
+    ) {
+        computeNucReadCountsLikelihoods(
+                patternIndex,
+                taxonIndex,
+                effSeqErrRateIsDirty || shapeCtrl1IsDirty,
+                effSeqErrRateIsDirty || shapeCtrl2IsDirty
+        );
+    } // updateNucReadCountsLikelihoods
+
     @Override
     public void getWildTypeNucReadCountModelParams(double[] out) {
         if (!sanityCheckLengthWildTypeSituationParams(out))
@@ -113,4 +133,166 @@ public class NucReadCountsModelFiniteMu extends NucReadCountsModelInterface.Base
         out[4] = w1;
     } // getWildTypeNucReadCountModelParams
 
+
+    //***********************************************
+    //*                   Methods                   *
+    //***********************************************
+
+    /**
+     * Compute nucleotide read counts likelihoods of selected categories; the others are copied from the stored
+     * likelihoods. Densities are looked up by the unique read counts tuple of the cell.
+     *
+     * @param patternIndex index to pattern
+     * @param taxonIndex   index to taxon
+     * @param homozygous   whether to compute 0/0 and 1/1
+     * @param heterozygous whether to compute 1/1' and 0/1
+     */
+    private void computeNucReadCountsLikelihoods(
+            final int patternIndex,
+            final int taxonIndex,
+            final boolean homozygous,
+            final boolean heterozygous
+    ) {
+        final int index = patternIndex * nrOfCategories;
+        final int uniqueIndex = uniqueReadCountsIndices[taxonIndex][patternIndex];
+        final double[] current = this.nucReadCountsLikelihoods[currentNucReadCountsLikelihoodsNodeIndex[taxonIndex]][taxonIndex];
+
+        if (!homozygous || !heterozygous) {
+            final double[] stored = this.nucReadCountsLikelihoods[1 - currentNucReadCountsLikelihoodsNodeIndex[taxonIndex]][taxonIndex];
+
+            if (!homozygous)
+                System.arraycopy(stored, index, current, index, 2);
+
+            if (!heterozygous)
+                System.arraycopy(stored, index + 2, current, index + 2, 2);
+
+            if (!homozygous && !heterozygous) return;
+        }
+
+        if (homozygous) {
+            final Densities densities = getHomozygousDensities();
+
+            // 0/0
+            current[index] = densities.first[uniqueIndex];
+
+            // 1/1
+            current[index + 1] = densities.second[uniqueIndex];
+        }
+
+        if (heterozygous) {
+            final Densities densities = getHeterozygousDensities();
+
+            // 1/1'
+            current[index + 2] = densities.first[uniqueIndex];
+
+            // 0/1
+            current[index + 3] = densities.second[uniqueIndex];
+        }
+    } // computeNucReadCountsLikelihoods
+
+    /**
+     * Dirichlet-multinomial densities of all unique read counts tuples by looking up log-gamma ladders.
+     *
+     * @param ladders ladders matching each element of a read counts tuple
+     * @return log densities if log-partials are used, densities otherwise
+     */
+    private double[] computeDensities(final double[][] ladders) {
+        double[] densities = new double[uniqueReadCounts.length];
+
+        for (int i = 0; i < uniqueReadCounts.length; i++) {
+            final double logDensity = DirichletMultinomial.logDensity(uniqueReadCounts[i], ladders, logFactorials);
+            densities[i] = useLogPartials ? logDensity : Math.exp(logDensity);
+        }
+
+        return densities;
+    } // computeDensities
+
+    /**
+     * Densities of 0/0 (first) and 1/1 (second) of all unique read counts tuples, recomputed only if effSeqErrRate or
+     * shapeCtrl1 has changed.
+     *
+     * @return apparently
+     */
+    private Densities getHomozygousDensities() {
+        final double seqErr = effSeqErrRate.getValue();
+        final double w1 = shapeCtrl1.getValue();
+
+        Densities densities = homozygousDensities;
+        if (densities == null || densities.effSeqErrRate != seqErr || densities.shapeCtrl != w1) {
+            synchronized (this) {
+                densities = homozygousDensities;
+                if (densities == null || densities.effSeqErrRate != seqErr || densities.shapeCtrl != w1) {
+                    final double[] oneThirdSeqErrW1 = DirichletMultinomial.getLogGammaLadder(seqErr / 3 * w1, maxCount);
+                    final double[] oneMinusSeqErrW1 = DirichletMultinomial.getLogGammaLadder((1 - seqErr) * w1, maxCount);
+                    final double[] ladderW1 = DirichletMultinomial.getLogGammaLadder(w1, maxCount);
+
+                    densities = new Densities(
+                            seqErr,
+                            w1,
+                            computeDensities(new double[][]{oneThirdSeqErrW1, oneThirdSeqErrW1, oneThirdSeqErrW1, oneMinusSeqErrW1, ladderW1}),
+                            computeDensities(new double[][]{oneMinusSeqErrW1, oneThirdSeqErrW1, oneThirdSeqErrW1, oneThirdSeqErrW1, ladderW1})
+                    );
+                    homozygousDensities = densities;
+                }
+            }
+        }
+
+        return densities;
+    } // getHomozygousDensities
+
+    /**
+     * Densities of 1/1' (first) and 0/1 (second) of all unique read counts tuples, recomputed only if effSeqErrRate
+     * or shapeCtrl2 has changed.
+     *
+     * @return apparently
+     */
+    private Densities getHeterozygousDensities() {
+        final double seqErr = effSeqErrRate.getValue();
+        final double w2 = shapeCtrl2.getValue();
+
+        Densities densities = heterozygousDensities;
+        if (densities == null || densities.effSeqErrRate != seqErr || densities.shapeCtrl != w2) {
+            synchronized (this) {
+                densities = heterozygousDensities;
+                if (densities == null || densities.effSeqErrRate != seqErr || densities.shapeCtrl != w2) {
+                    final double[] oneThirdSeqErrW2 = DirichletMultinomial.getLogGammaLadder(seqErr / 3 * w2, maxCount);
+                    final double[] halfMinusOneThirdSeqErrW2 = DirichletMultinomial.getLogGammaLadder((0.5 - seqErr / 3) * w2, maxCount);
+                    final double[] ladderW2 = DirichletMultinomial.getLogGammaLadder(w2, maxCount);
+
+                    densities = new Densities(
+                            seqErr,
+                            w2,
+                            computeDensities(new double[][]{halfMinusOneThirdSeqErrW2, halfMinusOneThirdSeqErrW2, oneThirdSeqErrW2, oneThirdSeqErrW2, ladderW2}),
+                            computeDensities(new double[][]{halfMinusOneThirdSeqErrW2, oneThirdSeqErrW2, oneThirdSeqErrW2, halfMinusOneThirdSeqErrW2, ladderW2})
+                    );
+                    heterozygousDensities = densities;
+                }
+            }
+        }
+
+        return densities;
+    } // getHeterozygousDensities
+
+    //**********************************************
+    //*               Nested classes               *
+    //**********************************************
+
+    /**
+     * Densities of two categories of all unique read counts tuples for given parameter values.
+     * Never modified once built, so that it can be shared by threads computing leaves in parallel.
+     */
+    private static final class Densities {
+        final double effSeqErrRate;
+        final double shapeCtrl;
+        final double[] first;
+        final double[] second;
+
+        Densities(double effSeqErrRate, double shapeCtrl, double[] first, double[] second) {
+            this.effSeqErrRate = effSeqErrRate;
+            this.shapeCtrl = shapeCtrl;
+            this.first = first;
+            this.second = second;
+        }
+    } // class Densities
+
 }
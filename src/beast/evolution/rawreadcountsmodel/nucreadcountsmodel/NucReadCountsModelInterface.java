@@ -3,8 +3,15 @@ package beast.evolution.rawreadcountsmodel.nucreadcountsmodel;
 import beast.core.CalculationNode;
 import beast.core.Input;
 import beast.core.parameter.RealParameter;
+import beast.core.util.Log;
 import beast.evolution.alignment.ScsAlignment;
 import beast.math.distributions.ScsParametricDistribution;
+import com.google.common.primitives.Ints;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 public interface NucReadCountsModelInterface {
 
@@ -68,6 +75,22 @@ public interface NucReadCountsModelInterface {
 
         protected ScsParametricDistribution variantDensity;
 
+        /**
+         * Unique read counts tuples in the data, and the index to them of each cell.
+         * Densities only need to be evaluated once for each unique tuple.
+         * [#unique tuples][] and [#taxa][#patterns]
+         */
+        protected int[][] uniqueReadCounts;
+        protected int[][] uniqueReadCountsIndices;
+
+        /**
+         * Which parameters have changed since the last accepted state, set in {@link #requiresRecalculation()}.
+         * Used to recompute only the categories depending on them.
+         */
+        protected boolean effSeqErrRateIsDirty = true;
+        protected boolean shapeCtrl1IsDirty = true;
+        protected boolean shapeCtrl2IsDirty = true;
+
 
         //**********************************************
         //*              Abstract methods              *
@@ -86,6 +109,23 @@ public interface NucReadCountsModelInterface {
                 final int taxonIndex
         );
 
+        /**
+         * Update nucleotide read counts likelihoods during MCMC after {@link #setNucReadCountsLikelihoodsNodeForUpdate(int)}.
+         * Categories not depending on any changed parameter may be copied from the stored likelihoods instead of being
+         * recomputed. By default, all categories are recomputed.
+         *
+         * @param reads        reads for current taxa under current pattern
+         * @param patternIndex index to pattern
+         * @param taxonIndex   index to taxon
+         */
+        public void updateNucReadCountsLikelihoods(
+                final int[] reads,
+                final int patternIndex,
+                final int taxonIndex
+        ) {
+            computeNucReadCountsLikelihoods(reads, patternIndex, taxonIndex);
+        } // updateNucReadCountsLikelihoods
+
         /**
          * Get the parameters situation 1 where the wild type (0/0) applies.
          *
@@ -128,6 +168,15 @@ public interface NucReadCountsModelInterface {
                 shapeCtrl2 = shapeCtrl2Input.get();
         } // initAndValidate
 
+        @Override
+        protected boolean requiresRecalculation() {
+            effSeqErrRateIsDirty = effSeqErrRate.somethingIsDirty();
+            shapeCtrl1IsDirty = shapeCtrl1.somethingIsDirty();
+            shapeCtrl2IsDirty = shapeCtrl2.somethingIsDirty();
+
+            return effSeqErrRateIsDirty || shapeCtrl1IsDirty || shapeCtrl2IsDirty;
+        } // requiresRecalculation
+
         @Override
         protected void store() {
             super.store();
@@ -175,6 +224,12 @@ public interface NucReadCountsModelInterface {
 
             currentNucReadCountsLikelihoodsNodeIndex = new int[nrOfTaxa];
             storedNucReadCountsLikelihoodsNodeIndex = new int[nrOfTaxa];
+
+            indexUniqueReadCounts(alignment);
+
+            final long nrOfCells = (long) nrOfTaxa * nrOfPatterns;
+            Log.info.println("Unique read counts: " + uniqueReadCounts.length + " out of " + nrOfCells +
+                    " cells (dedup ratio: " + String.format("%.1f", nrOfCells / (double) Math.max(1, uniqueReadCounts.length)) + ")");
         } // deeplyInitialize
 
         /**
@@ -197,8 +252,43 @@ public interface NucReadCountsModelInterface {
 
             target.currentNucReadCountsLikelihoodsNodeIndex = new int[nrOfTaxa];
             target.storedNucReadCountsLikelihoodsNodeIndex = new int[nrOfTaxa];
+
+            target.indexUniqueReadCounts(targetData);
         } // duplicate
 
+        /**
+         * Collect unique read counts tuples across taxa and patterns.
+         *
+         * @param alignment apparently
+         */
+        protected void indexUniqueReadCounts(final ScsAlignment alignment) {
+            Map<List<Integer>, Integer> indices = new HashMap<>();
+            List<int[]> unique = new ArrayList<>();
+
+            // read counts are copied into a single buffer, and only unique ones are kept
+            final int[] reads = new int[alignment.getNrOfPatternValues()];
+
+            uniqueReadCountsIndices = new int[alignment.getTaxonCount()][alignment.getPatternCount()];
+            for (int taxonIndex = 0; taxonIndex < alignment.getTaxonCount(); taxonIndex++) {
+                for (int patternIndex = 0; patternIndex < alignment.getPatternCount(); patternIndex++) {
+                    alignment.getPattern(taxonIndex, patternIndex, reads);
+
+                    Integer index = indices.get(Ints.asList(reads));
+                    if (index == null) {
+                        final int[] copy = reads.clone();
+
+                        index = unique.size();
+                        indices.put(Ints.asList(copy), index);
+                        unique.add(copy);
+                    }
+
+                    uniqueReadCountsIndices[taxonIndex][patternIndex] = index;
+                }
+            }
+
+            uniqueReadCounts = unique.toArray(new int[0][]);
+        } // indexUniqueReadCounts
+
         /**
          * During likelihood initialization, likelihoods should be copied for the sake of accurate tree likelihood computation.
          *
@@ -1,10 +1,17 @@
 package beast.evolution.rawreadcountsmodel.seqcovmodel;
 
 import beast.core.parameter.RealParameter;
+import beast.core.util.Log;
 import beast.evolution.alignment.ScsAlignment;
+import beast.math.distributions.NegativeBinomial;
+import com.google.common.primitives.Doubles;
+import com.google.common.primitives.Ints;
 
 import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 public class ExploredSharedAllelicSeqCovModel extends SeqCovModelInterface.Base {
 
@@ -13,6 +20,27 @@ public class ExploredSharedAllelicSeqCovModel extends SeqCovModelInterface.Base
     //*                  Variables                  *
     //***********************************************
 
+    /**
+     * Unique pairs of (sequencing coverage, size factor) in the data, and the index to them of each cell.
+     * Sequencing coverage likelihoods only depend on these pairs given the shared parameters.
+     * Size factors are stored as indices to {@link #sizeFactorLevels}.
+     * [#unique pairs], [#unique pairs] and [#taxa][#patterns]
+     */
+    private int[] uniqueSeqCov;
+    private int[] uniqueSizeFactorIndices;
+    private int[][] uniqueSeqCovIndices;
+
+    /**
+     * Distinct size factors and the largest sequencing coverage observed with each of them, up to which
+     * negative-binomial tables are built.
+     */
+    private double[] sizeFactorLevels;
+    private int[] maxSeqCovPerLevel;
+
+    /**
+     * sequencing coverage likelihoods of unique pairs under current parameter values
+     */
+    private volatile Densities densities = null;
 
     //**********************************************
     //*             Overridden methods             *
@@ -97,6 +125,13 @@ public class ExploredSharedAllelicSeqCovModel extends SeqCovModelInterface.Base
         storedSeqCovLikelihoodsNodeIndex = new int[nrOfTaxa];
 
         seqCovLikelihoods = new double[2][nrOfTaxa][nrOfPatterns * modeledAllelesSize];
+
+        indexUniqueSeqCov(alignment);
+        densities = null;
+
+        final long nrOfCells = (long) nrOfTaxa * nrOfPatterns;
+        Log.info.println("Unique pairs of sequencing coverage and size factor: " + uniqueSeqCov.length + " out of " +
+                nrOfCells + " cells (dedup ratio: " + String.format("%.1f", nrOfCells / (double) Math.max(1, uniqueSeqCov.length)) + ")");
     } // deeplyInitialize
 
     @Override
@@ -111,6 +146,8 @@ public class ExploredSharedAllelicSeqCovModel extends SeqCovModelInterface.Base
 
         target.currentSeqCovLikelihoodsNodeIndex = new int[nrOfTaxa];
         target.storedSeqCovLikelihoodsNodeIndex = new int[nrOfTaxa];
+
+        ((ExploredSharedAllelicSeqCovModel) target).indexUniqueSeqCov(targetData);
     } // duplicate
 
     /**
@@ -187,14 +224,14 @@ public class ExploredSharedAllelicSeqCovModel extends SeqCovModelInterface.Base
             final int patternIndex,
             final int taxonIndex
     ) {
-        final int index = patternIndex * modeledAllelesSize;
-
-        for (int i = 0; i < modeledAllelesSize; i++)
-            seqCovLikelihoods[currentSeqCovLikelihoodsNodeIndex[taxonIndex]][taxonIndex][index + i] = computeSeqCovLikelihoodPerAllele(
-                    seqCov,
-                    modeledAlleles[i],
-                    taxonIndex
-            );
+        // seqCov is the coverage of the cell, which is already part of the unique pair
+        System.arraycopy(
+                getDensities().values,
+                uniqueSeqCovIndices[taxonIndex][patternIndex] * modeledAllelesSize,
+                seqCovLikelihoods[currentSeqCovLikelihoodsNodeIndex[taxonIndex]][taxonIndex],
+                patternIndex * modeledAllelesSize,
+                modeledAllelesSize
+        );
     } // computeSeqCovLikelihood
 
     @Override
@@ -257,23 +294,144 @@ public class ExploredSharedAllelicSeqCovModel extends SeqCovModelInterface.Base
     //*********************************************
 
     /**
-     * Compute sequencing coverage likelihood per allele under negative-binomial distribution.
+     * Collect unique pairs of (sequencing coverage, size factor) across taxa and patterns.
+     *
+     * @param alignment apparently
+     */
+    private void indexUniqueSeqCov(final ScsAlignment alignment) {
+        Map<List<Double>, Integer> indices = new HashMap<>();
+        List<Integer> seqCov = new ArrayList<>();
+        List<Integer> factors = new ArrayList<>();
+
+        Map<Double, Integer> levelIndices = new HashMap<>();
+        List<Double> levels = new ArrayList<>();
+        List<Integer> maxSeqCov = new ArrayList<>();
+
+        uniqueSeqCovIndices = new int[alignment.getTaxonCount()][alignment.getPatternCount()];
+        for (int taxonIndex = 0; taxonIndex < alignment.getTaxonCount(); taxonIndex++) {
+            for (int patternIndex = 0; patternIndex < alignment.getPatternCount(); patternIndex++) {
+                final int cov = alignment.getSequencingCoverageOfPattern(taxonIndex, patternIndex);
+                final List<Double> key = Doubles.asList(cov, sizeFactors[taxonIndex]);
+
+                Integer index = indices.get(key);
+                if (index == null) {
+                    Integer level = levelIndices.get(sizeFactors[taxonIndex]);
+                    if (level == null) {
+                        level = levels.size();
+                        levelIndices.put(sizeFactors[taxonIndex], level);
+                        levels.add(sizeFactors[taxonIndex]);
+                        maxSeqCov.add(0);
+                    }
+
+                    index = seqCov.size();
+                    indices.put(key, index);
+                    seqCov.add(cov);
+                    factors.add(level);
+                    maxSeqCov.set(level, Math.max(maxSeqCov.get(level), cov));
+                }
+
+                uniqueSeqCovIndices[taxonIndex][patternIndex] = index;
+            }
+        }
+
+        uniqueSeqCov = Ints.toArray(seqCov);
+        uniqueSizeFactorIndices = Ints.toArray(factors);
+        sizeFactorLevels = Doubles.toArray(levels);
+        maxSeqCovPerLevel = Ints.toArray(maxSeqCov);
+    } // indexUniqueSeqCov
+
+    /**
+     * Sequencing coverage likelihoods of all unique pairs, recomputed only if allelicSeqCov or allelicSeqCovRawVar
+     * has changed. For each size factor and number of sequenced alleles, the negative-binomial densities are
+     * tabulated up to the largest coverage with that size factor, and then looked up by coverage.
      *
-     * @param seqCov       sequencing coverage for current taxa under current pattern
+     * @return apparently
+     */
+    private Densities getDensities() {
+        final double cov = allelicSeqCov.getValue();
+        final double rawVar = allelicSeqCovRawVar.getValue();
+
+        Densities densities = this.densities;
+        if (densities == null || densities.allelicSeqCov != cov || densities.allelicSeqCovRawVar != rawVar) {
+            synchronized (this) {
+                densities = this.densities;
+                if (densities == null || densities.allelicSeqCov != cov || densities.allelicSeqCovRawVar != rawVar) {
+                    // [#size factors][#modeled alleles][max coverage + 1]
+                    double[][][] tables = new double[sizeFactorLevels.length][modeledAllelesSize][];
+                    for (int i = 0; i < sizeFactorLevels.length; i++) {
+                        for (int j = 0; j < modeledAllelesSize; j++)
+                            tables[i][j] = computeSeqCovLikelihoodsPerAllele(
+                                    maxSeqCovPerLevel[i],
+                                    modeledAlleles[j],
+                                    sizeFactorLevels[i]
+                            );
+                    }
+
+                    double[] values = new double[uniqueSeqCov.length * modeledAllelesSize];
+
+                    int index = 0;
+                    for (int i = 0; i < uniqueSeqCov.length; i++) {
+                        for (int j = 0; j < modeledAllelesSize; j++)
+                            values[index++] = tables[uniqueSizeFactorIndices[i]][j][uniqueSeqCov[i]];
+                    }
+
+                    densities = new Densities(cov, rawVar, values);
+                    this.densities = densities;
+                }
+            }
+        }
+
+        return densities;
+    } // getDensities
+
+    /**
+     * Compute sequencing coverage likelihoods per allele under negative-binomial distribution for all coverage up to
+     * {@param maxSeqCov}.
+     *
+     * @param maxSeqCov    the largest sequencing coverage to look up
      * @param seqAlleleNum number of sequenced alleles
-     * @param taxonIndex   index of taxa
+     * @param sizeFactor   size factor of current taxa
+     * @return likelihoods indexed by sequencing coverage
      */
-    private double computeSeqCovLikelihoodPerAllele(
-            final int seqCov,
+    private double[] computeSeqCovLikelihoodsPerAllele(
+            final int maxSeqCov,
             final int seqAlleleNum,
-            final int taxonIndex
+            final double sizeFactor
     ) {
-        final double mean = (seqAlleleNum + numericalStabilizer) * allelicSeqCov.getValue() * sizeFactors[taxonIndex];
-        final double var = mean + Math.pow(sizeFactors[taxonIndex], 2) * Math.pow(seqAlleleNum + numericalStabilizer, 2) * allelicSeqCovRawVar.getValue();
+        final double mean = (seqAlleleNum + numericalStabilizer) * allelicSeqCov.getValue() * sizeFactor;
+        final double var = mean + Math.pow(sizeFactor, 2) * Math.pow(seqAlleleNum + numericalStabilizer, 2) * allelicSeqCovRawVar.getValue();
         final double p = mean / var;
         final double r = Math.pow(mean, 2) / (var - mean);
 
-        return useLogPartials ? seqCovDensity.logDensity(seqCov, r, p) : seqCovDensity.density(seqCov, r, p);
-    } // computeSeqCovLikelihoodPerAllele
+        final double[] table = NegativeBinomial.getLogDensities(r, p, maxSeqCov);
+
+        if (!useLogPartials) {
+            for (int i = 0; i < table.length; i++)
+                table[i] = Math.exp(table[i]);
+        }
+
+        return table;
+    } // computeSeqCovLikelihoodsPerAllele
+
+
+    //**********************************************
+    //*               Nested classes               *
+    //**********************************************
+
+    /**
+     * Sequencing coverage likelihoods of all unique pairs, [#unique pairs * #modeled alleles], for given parameter
+     * values. Never modified once built, so that it can be shared by threads computing leaves in parallel.
+     */
+    private static final class Densities {
+        final double allelicSeqCov;
+        final double allelicSeqCovRawVar;
+        final double[] values;
+
+        Densities(double allelicSeqCov, double allelicSeqCovRawVar, double[] values) {
+            this.allelicSeqCov = allelicSeqCov;
+            this.allelicSeqCovRawVar = allelicSeqCovRawVar;
+            this.values = values;
+        }
+    } // class Densities
 
 }
@@ -4,6 +4,7 @@ import beast.core.Input;
 import beast.core.variantslogger.VariantsLoggable;
 import beast.evolution.alignment.ScsAlignment;
 import beast.evolution.rawreadcountsmodel.seqcovmodel.SeqCovModelInterface;
+import beast.evolution.tree.Node;
 import beast.evolution.tree.Tree;
 import beast.evolution.tree.TreeInterface;
 import beast.evolution.variantsinfo.vcfentry.VCFEntry;
@@ -13,7 +14,6 @@ import java.io.PrintStream;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
 import java.util.Arrays;
-import java.util.List;
 
 import static beast.util.TreeUtils.processMetaData;
 
@@ -67,9 +67,10 @@ public abstract class GenericVariantsInfoVCF extends GenericVariantsInfo.Base im
 
     /**
      * genotypes of all nodes of the tree for each SNV after variant calling
-     * [*nodes]
+     * [*nodes] * [capacity], of which the first numOfGenotypes are in use
      */
-    protected List<Integer>[] genotypes;
+    protected int[][] genotypes;
+    protected int numOfGenotypes;
 
     protected double[] sizeFactors;
 
@@ -177,6 +178,66 @@ public abstract class GenericVariantsInfoVCF extends GenericVariantsInfo.Base im
         out.println();
     }
 
+    protected void initGenotypes() {
+        this.genotypes = new int[this.tree.getNodeCount()][16];
+        this.numOfGenotypes = 0;
+    } // initGenotypes
+
+    /**
+     * Make sure that at least {@param size} genotypes can be stored for each node.
+     *
+     * @param size apparently
+     */
+    protected void ensureGenotypesCapacity(final int size) {
+        for (int i = 0; i < this.genotypes.length; i++) {
+            if (this.genotypes[i].length < size)
+                this.genotypes[i] = Arrays.copyOf(this.genotypes[i], Math.max(size, 2 * this.genotypes[i].length));
+        }
+    } // ensureGenotypesCapacity
+
+    /**
+     * Append the genotypes of all nodes at a single SNV.
+     *
+     * @param values genotypes indexed by node number
+     */
+    protected void addGenotypes(final int[] values) {
+        ensureGenotypesCapacity(this.numOfGenotypes + 1);
+
+        for (int i = 0; i < this.genotypes.length; i++)
+            this.genotypes[i][this.numOfGenotypes] = values[i];
+
+        this.numOfGenotypes++;
+    } // addGenotypes
+
+    /**
+     * Append all genotypes collected by {@param other}.
+     *
+     * @param other apparently
+     */
+    protected void addGenotypes(@NotNull GenericVariantsInfoVCF other) {
+        ensureGenotypesCapacity(this.numOfGenotypes + other.numOfGenotypes);
+
+        for (int i = 0; i < this.genotypes.length; i++)
+            System.arraycopy(other.genotypes[i], 0, this.genotypes[i], this.numOfGenotypes, other.numOfGenotypes);
+
+        this.numOfGenotypes += other.numOfGenotypes;
+    } // addGenotypes
+
+    /**
+     * Add genotypes of each node as meta data to the tree.
+     */
+    protected void setGenotypesMetaData() {
+        for (Node node : this.tree.getNodesAsArray()) {
+            final int[] values = this.genotypes[node.getNr()];
+
+            final Integer[] metaData = new Integer[this.numOfGenotypes];
+            for (int i = 0; i < this.numOfGenotypes; i++)
+                metaData[i] = values[i];
+
+            node.setMetaData(META_DATA_GENOTYPES, metaData);
+        }
+    } // setGenotypesMetaData
+
     /**
      * Not `Loggable`.
      *
@@ -1,12 +1,10 @@
 package beast.evolution.variantsinfo;
 
 import beast.evolution.substitutionmodel.ScsSubstitutionModelBase;
-import beast.evolution.tree.Node;
 import beast.evolution.tree.ScsTree;
 import org.jetbrains.annotations.NotNull;
 
 import java.io.PrintStream;
-import java.util.ArrayList;
 import java.util.List;
 
 public class ThreadedVariantsInfoVCF extends GenericVariantsInfoVCF {
@@ -38,7 +36,7 @@ public class ThreadedVariantsInfoVCF extends GenericVariantsInfoVCF {
         this.tree = ((ScsTree) treeInput.get()).copy();
         ((ScsTree) this.tree).initAndValidate();
 
-        this.genotypes = new ArrayList[this.tree.getNodeCount()];
+        initGenotypes();
     } // initialise
 
     @Override
@@ -285,13 +283,7 @@ public class ThreadedVariantsInfoVCF extends GenericVariantsInfoVCF {
             this.variantsInfoVCFs[i].log(vcfOut, adoOut, genotypesOut, ternaryOut, lociInfoOut, probsOut);
 
             // copy tree meta data
-            for (Node node : this.tree.getNodesAsArray()) {
-                final int nodeNr = node.getNr();
-                if (this.genotypes[nodeNr] == null)
-                    this.genotypes[nodeNr] = new ArrayList<>();
-
-                this.genotypes[nodeNr].addAll(this.variantsInfoVCFs[i].genotypes[nodeNr]);
-            }
+            addGenotypes(this.variantsInfoVCFs[i]);
 
             if (i < this.variantsInfoVCFs.length - 1) {
                 vcfOut.println();
@@ -311,8 +303,7 @@ public class ThreadedVariantsInfoVCF extends GenericVariantsInfoVCF {
         }
 
         // add meta data to the tree
-        for (Node node : this.tree.getNodesAsArray())
-            node.setMetaData(META_DATA_GENOTYPES, this.genotypes[node.getNr()].toArray(new Integer[0]));
+        setGenotypesMetaData();
     } // log
 
     /**
@@ -1,5 +1,6 @@
 package beast.evolution.variantsinfo;
 
+import beast.app.BeastMCMC;
 import beast.evolution.alignment.VariantSiteInfo;
 import beast.evolution.substitutionmodel.ScsSubstitutionModelBase;
 import beast.evolution.tree.Node;
@@ -13,6 +14,11 @@ import org.jetbrains.annotations.NotNull;
 
 import java.io.PrintStream;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import static beast.math.util.MathFunctions.convertLogE2RoundedPhredScaled;
 
@@ -23,6 +29,9 @@ public class VariantsInfoVCF extends GenericVariantsInfoVCF {
     //*                  Variables                  *
     //***********************************************
 
+    // number of loci whose VCF entries are built and written together
+    private final static int BLOCK_SIZE = 256;
+
     /**
      * for variant calling
      * which category each pattern belongs to?
@@ -94,11 +103,6 @@ public class VariantsInfoVCF extends GenericVariantsInfoVCF {
      */
     protected List<double[]>[][] adoLogLikelihoods;
 
-    /**
-     * a list of variant sites
-     */
-    protected List<VCFEntry> vcfEntries;
-
 
     //**********************************************
     //*                Constructors                *
@@ -124,14 +128,12 @@ public class VariantsInfoVCF extends GenericVariantsInfoVCF {
         this.genotypeLogLikelihoodsTips = new ArrayList[numOfPatterns];
         this.genotypeLogLikelihoodsNodes = new ArrayList[numOfPatterns];
 
-        this.vcfEntries = new ArrayList<>();
-
         this.tree = ((ScsTree) treeInput.get()).copy();
         ((ScsTree) this.tree).initAndValidate();
         this.numOfTips = this.tree.getLeafNodeCount();
         this.numOfNodes = this.tree.getNodeCount();
 
-        this.genotypes = new ArrayList[this.numOfNodes];
+        initGenotypes();
 
         this.genotypeLogLikelihoodsAll = new ArrayList[numOfPatterns][this.numOfTips];
         this.genotypeLogTransferProbabilityAll = new ArrayList[this.numOfTips][];
@@ -598,6 +600,10 @@ public class VariantsInfoVCF extends GenericVariantsInfoVCF {
 
     /**
      * log each entry to PrintStream
+     * <p>
+     * Loci are processed in blocks of {@link #BLOCK_SIZE}. With more than one thread, VCF entries of a few blocks are
+     * built and formatted concurrently, while finished blocks are written in order, so that only the blocks in flight
+     * are held in memory.
      *
      * @param vcfOut       vcf log stream
      * @param adoOut       ado state log stream
@@ -615,71 +621,110 @@ public class VariantsInfoVCF extends GenericVariantsInfoVCF {
             PrintStream lociInfoOut,
             PrintStream probsOut
     ) {
-        // gather VCF entries
-        for (int locusIndex = 0; locusIndex < scsData.getLociNr(); locusIndex++) {
-            final VariantSiteInfo locusInfo = scsData.getLociInfo(locusIndex);
-            final int patternIndex = scsData.getPatternIndex(locusIndex);
-
-            final int loopSize = adjustAmbiguousGenotypes(this.MLGenotypesTips[patternIndex].size());
-
-            for (int itemIndex = 0; itemIndex < loopSize; itemIndex++) {
-
-                int variantTips = 0;
+        final int numOfLoci = scsData.getLociNr();
+        final int numOfBlocks = (numOfLoci + BLOCK_SIZE - 1) / BLOCK_SIZE;
+        final int numOfThreads = Math.max(1, Math.min(BeastMCMC.m_nThreads, numOfBlocks));
+
+        // taxon index of each cell in scsData
+        final int[] taxonIndices = new int[this.numOfTips];
+        for (int i = 0; i < this.numOfTips; i++)
+            taxonIndices[i] = getTaxonIndex(this.sortedTipNames[i], this.scsData);
+
+        // two blocks per thread, each of which is reused once written
+        final VCFBlock[] blocks = new VCFBlock[numOfThreads == 1 ? 1 : 2 * numOfThreads];
+        for (int i = 0; i < blocks.length; i++)
+            blocks[i] = new VCFBlock(
+                    taxonIndices,
+                    adoOut != null,
+                    genotypesOut != null,
+                    ternaryOut != null,
+                    lociInfoOut != null,
+                    probsOut != null
+            );
 
-                for (int i : this.MLGenotypesTips[patternIndex].get(itemIndex)) {
-                    if (this.substModel.isVariant(i))
-                        variantTips++;
+        if (numOfThreads == 1) {
+            for (int blockIndex = 0; blockIndex < numOfBlocks; blockIndex++) {
+                blocks[0].setLoci(blockIndex * BLOCK_SIZE, Math.min(numOfLoci, (blockIndex + 1) * BLOCK_SIZE));
+                writeBlock(blocks[0].call(), vcfOut, adoOut, genotypesOut, ternaryOut, lociInfoOut, probsOut);
+            }
+        } else {
+            final ExecutorService pool = Executors.newFixedThreadPool(numOfThreads);
+            final Deque<Future<VCFBlock>> futures = new ArrayDeque<>(blocks.length);
+
+            try {
+                int nextBlockIndex = 0;
+                for (; nextBlockIndex < Math.min(blocks.length, numOfBlocks); nextBlockIndex++) {
+                    blocks[nextBlockIndex].setLoci(nextBlockIndex * BLOCK_SIZE, Math.min(numOfLoci, (nextBlockIndex + 1) * BLOCK_SIZE));
+                    futures.add(pool.submit(blocks[nextBlockIndex]));
                 }
 
-                // fail to pass the consensus filter
-                if (variantTips < this.cellThreshold) continue;
-
-                this.vcfEntries.add(
-                        getVCFInfoAcrossCells(
-                                locusInfo,
-                                locusIndex,
-                                patternIndex,
-                                itemIndex
-                        )
-                );
-
-                // Save genotypes of all nodes as metadata
-                for (Node node : this.tree.getNodesAsArray()) {
-                    final int nodeNr = node.getNr();
-                    if (this.genotypes[nodeNr] == null)
-                        this.genotypes[nodeNr] = new ArrayList<>();
+                while (!futures.isEmpty()) {
+                    final VCFBlock block = futures.poll().get();
+                    writeBlock(block, vcfOut, adoOut, genotypesOut, ternaryOut, lociInfoOut, probsOut);
 
-                    this.genotypes[nodeNr].add(this.MLGenotypesNodes[patternIndex].get(itemIndex)[nodeNr]);
+                    if (nextBlockIndex < numOfBlocks) {
+                        block.setLoci(nextBlockIndex * BLOCK_SIZE, Math.min(numOfLoci, (nextBlockIndex + 1) * BLOCK_SIZE));
+                        futures.add(pool.submit(block));
+                        nextBlockIndex++;
+                    }
                 }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException("Interrupted while building VCF entries (" + this.getClass().getName() + ")", e);
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof RuntimeException)
+                    throw (RuntimeException) e.getCause();
+
+                throw new RuntimeException(e.getCause());
+            } finally {
+                pool.shutdownNow();
             }
-
         }
 
-        // log VCF entries to VCF file and other specified files
-        for (VCFEntry i : this.vcfEntries) {
-            vcfOut.println(i.toString());
+        // add meta data to the tree
+        setGenotypesMetaData();
+    } // log
 
-            if (adoOut != null)
-                adoOut.println(i.getAdoStateAsString("\t"));
+    /**
+     * Write a block of formatted VCF entries to PrintStream, and save genotypes of all nodes as metadata.
+     *
+     * @param block        apparently
+     * @param vcfOut       vcf log stream
+     * @param adoOut       ado state log stream
+     * @param genotypesOut inferred genotypes at tips log stream
+     * @param ternaryOut   ternary log stream
+     * @param lociInfoOut  loci information log stream
+     * @param probsOut     posterior probability log stream
+     */
+    private void writeBlock(
+            @NotNull VCFBlock block,
+            @NotNull PrintStream vcfOut,
+            PrintStream adoOut,
+            PrintStream genotypesOut,
+            PrintStream ternaryOut,
+            PrintStream lociInfoOut,
+            PrintStream probsOut
+    ) {
+        vcfOut.print(block.vcf);
 
-            if (genotypesOut != null)
-                genotypesOut.println(i.getCellLocusOriGenotypeAsString("\t"));
+        if (adoOut != null)
+            adoOut.print(block.ado);
 
-            if (ternaryOut != null)
-                ternaryOut.println(i.getCellLocusTernaryGenotypeAsString("\t"));
+        if (genotypesOut != null)
+            genotypesOut.print(block.oriGenotypes);
 
-            if (lociInfoOut != null)
-                lociInfoOut.println(i.getLociInfoAsString("\t", ","));
+        if (ternaryOut != null)
+            ternaryOut.print(block.ternary);
 
-            if (probsOut != null)
-                probsOut.println(i.getCellLocusGenotypeLikelihoodAsString("\t", ","));
-        }
+        if (lociInfoOut != null)
+            lociInfoOut.print(block.lociInfo);
 
-        // add meta data to the tree
-        for (Node node : this.tree.getNodesAsArray())
-            node.setMetaData(META_DATA_GENOTYPES, this.genotypes[node.getNr()].toArray(new Integer[0]));
+        if (probsOut != null)
+            probsOut.print(block.probs);
 
-    } // log
+        for (int[] i : block.nodeGenotypes)
+            addGenotypes(i);
+    } // writeBlock
 
     /**
      * Gather VCF information for a locus across all cells.
@@ -688,13 +733,15 @@ public class VariantsInfoVCF extends GenericVariantsInfoVCF {
      * @param locusIndex       which locus?
      * @param patternIndex     which pattern?
      * @param combIndex        which combination of variant calling results?
+     * @param taxonIndices     taxon index of each cell in scsData
      * @return an VCFEntry instance
      */
-    private VCFEntry getVCFInfoAcrossCells(
+    VCFEntry getVCFInfoAcrossCells(
             VariantSiteInfo locusInfo,
             int locusIndex,
             int patternIndex,
-            int combIndex
+            int combIndex,
+            final int[] taxonIndices
     ) {
         final int[] MLGenotypesTips = this.MLGenotypesTips[patternIndex].get(combIndex);
         final int[] MLGenotypesNodes = this.MLGenotypesNodes[patternIndex].get(combIndex);
@@ -720,7 +767,7 @@ public class VariantsInfoVCF extends GenericVariantsInfoVCF {
             final int tipIndex = this.originalTipNamesIndices[i];
 
             // taxon index of this cell in scsData
-            final int taxonIndex = getTaxonIndex(this.sortedTipNames[i], this.scsData);
+            final int taxonIndex = taxonIndices[i];
 
             // get genotype of the parent node
             final int parentGenotype = MLGenotypesNodes[this.tree.getNode(tipIndex).getParent().getNr()];
@@ -797,7 +844,7 @@ public class VariantsInfoVCF extends GenericVariantsInfoVCF {
                 if (cellLocusGenotypes[i].getAlleleDepthLength() - 1 < locusInfo.getAltNucsLength())
                     cellLocusGenotypes[i].setAlleleDepth(
                             this.scsData.getAlleleDepth(
-                                    getTaxonIndex(this.sortedTipNames[i], this.scsData),
+                                    taxonIndices[i],
                                     locusIndex,
                                     locusInfo.getAltNucs()
                             )
@@ -838,4 +885,115 @@ public class VariantsInfoVCF extends GenericVariantsInfoVCF {
         // nothing needs to be closed
     } // close
 
+
+    //**********************************************
+    //*               Nested classes               *
+    //**********************************************
+
+    /**
+     * VCF entries of a contiguous range of loci, formatted for each output.
+     * <p>
+     * Builders are cleared rather than reallocated when the block is reused for another range of loci.
+     */
+    class VCFBlock implements Callable<VCFBlock> {
+        private final int[] taxonIndices;
+
+        private final StringBuilder vcf = new StringBuilder();
+        private final StringBuilder ado;
+        private final StringBuilder oriGenotypes;
+        private final StringBuilder ternary;
+        private final StringBuilder lociInfo;
+        private final StringBuilder probs;
+
+        // genotypes of all nodes for each entry in the block
+        private final List<int[]> nodeGenotypes = new ArrayList<>();
+
+        private int from;
+        private int to;
+
+        public VCFBlock(
+                final int[] taxonIndices,
+                boolean logAdo,
+                boolean logGenotypes,
+                boolean logTernary,
+                boolean logLociInfo,
+                boolean logProbs
+        ) {
+            this.taxonIndices = taxonIndices;
+            this.ado = logAdo ? new StringBuilder() : null;
+            this.oriGenotypes = logGenotypes ? new StringBuilder() : null;
+            this.ternary = logTernary ? new StringBuilder() : null;
+            this.lociInfo = logLociInfo ? new StringBuilder() : null;
+            this.probs = logProbs ? new StringBuilder() : null;
+        }
+
+        public void setLoci(int from, int to) {
+            this.from = from;
+            this.to = to;
+        } // setLoci
+
+        @Override
+        public VCFBlock call() {
+            final String lineSeparator = System.lineSeparator();
+
+            vcf.setLength(0);
+            if (ado != null) ado.setLength(0);
+            if (oriGenotypes != null) oriGenotypes.setLength(0);
+            if (ternary != null) ternary.setLength(0);
+            if (lociInfo != null) lociInfo.setLength(0);
+            if (probs != null) probs.setLength(0);
+            nodeGenotypes.clear();
+
+            for (int locusIndex = from; locusIndex < to; locusIndex++) {
+                final VariantSiteInfo locusInfo = scsData.getLociInfo(locusIndex);
+                final int patternIndex = scsData.getPatternIndex(locusIndex);
+
+                final int loopSize = adjustAmbiguousGenotypes(MLGenotypesTips[patternIndex].size());
+
+                for (int itemIndex = 0; itemIndex < loopSize; itemIndex++) {
+
+                    int variantTips = 0;
+
+                    for (int i : MLGenotypesTips[patternIndex].get(itemIndex)) {
+                        if (substModel.isVariant(i))
+                            variantTips++;
+                    }
+
+                    // fail to pass the consensus filter
+                    if (variantTips < cellThreshold) continue;
+
+                    final VCFEntry entry = getVCFInfoAcrossCells(
+                            locusInfo,
+                            locusIndex,
+                            patternIndex,
+                            itemIndex,
+                            taxonIndices
+                    );
+
+                    entry.appendTo(vcf).append(lineSeparator);
+
+                    if (ado != null)
+                        entry.appendAdoStates(ado, "\t").append(lineSeparator);
+
+                    if (oriGenotypes != null)
+                        entry.appendCellLocusOriGenotypes(oriGenotypes, "\t").append(lineSeparator);
+
+                    if (ternary != null)
+                        entry.appendCellLocusTernaryGenotypes(ternary, "\t").append(lineSeparator);
+
+                    if (lociInfo != null)
+                        entry.appendLociInfo(lociInfo, "\t", ",").append(lineSeparator);
+
+                    if (probs != null)
+                        entry.appendCellLocusGenotypeLikelihoods(probs, "\t", ",").append(lineSeparator);
+
+                    nodeGenotypes.add(MLGenotypesNodes[patternIndex].get(itemIndex));
+                }
+            }
+
+            return this;
+        } // call
+
+    } // class VCFBlock
+
 }
@@ -156,15 +156,25 @@ public class CellLocusGenotype {
     } // getTernary
 
     public String getGenotypeLikelihoodsAsString(String separator, String floatFormat, boolean normalize) {
-        double[] ret = Arrays.stream(this.genotypeLogLikelihoods).map(Math::exp).toArray();
+        return appendGenotypeLikelihoods(new StringBuilder(), separator, floatFormat, normalize).toString();
+    } // getGenotypeLikelihoodsAsString
+
+    public StringBuilder appendGenotypeLikelihoods(
+            @NotNull StringBuilder sb,
+            String separator,
+            String floatFormat,
+            boolean normalize
+    ) {
+        final double[] ret = new double[this.genotypeLogLikelihoods.length];
+        for (int i = 0; i < ret.length; i++)
+            ret[i] = Math.exp(this.genotypeLogLikelihoods[i]);
 
         if (normalize) {
             final double tmp = Arrays.stream(ret).sum();
-            ret = Arrays.stream(ret).map(x -> x/tmp).toArray();
+            for (int i = 0; i < ret.length; i++)
+                ret[i] /= tmp;
         }
 
-        StringBuilder sb = new StringBuilder();
-
         for (int i = 0; i < ret.length; i++) {
             sb.append(String.format(floatFormat, ret[i]));
 
@@ -172,38 +182,43 @@ public class CellLocusGenotype {
                 sb.append(separator);
         }
 
-        return sb.toString();
-    } // getGenotypeLikelihoodsAsString
+        return sb;
+    } // appendGenotypeLikelihoods
 
     @Override
     public String toString() {
-        StringBuilder str = new StringBuilder();
+        return appendTo(new StringBuilder()).toString();
+    } // toString
 
-        str.append(this.genotypeAdapted).append(CLASS_SEPARATOR);
-        str.append(
-                String.join(
-                        ITEM_SEPARATOR,
-                        Arrays.stream(this.alleleDepth).mapToObj(String::valueOf).toArray(String[]::new)
-                )
-        ).append(CLASS_SEPARATOR);
-        str.append(this.readDepth).append(CLASS_SEPARATOR);
-        str.append(this.genotypeQual).append(CLASS_SEPARATOR);
-        str.append(
-                String.join(
-                        ITEM_SEPARATOR,
-                        Arrays.stream(this.genotypePhredScaledLikelihoods).mapToObj(String::valueOf).toArray(String[]::new)
-                )
-        ).append(CLASS_SEPARATOR);
-        str.append(this.adoState).append(CLASS_SEPARATOR);
-        str.append(this.adoQual).append(CLASS_SEPARATOR);
-        str.append(
-                String.join(
-                        ITEM_SEPARATOR,
-                        Arrays.stream(this.adoPhredScaledLikelihoods).mapToObj(String::valueOf).toArray(String[]::new)
-                )
-        );
+    public StringBuilder appendTo(@NotNull StringBuilder sb) {
+        sb.append(this.genotypeAdapted).append(CLASS_SEPARATOR);
+        appendJoined(sb, this.alleleDepth).append(CLASS_SEPARATOR);
+        sb.append(this.readDepth).append(CLASS_SEPARATOR);
+        sb.append(this.genotypeQual).append(CLASS_SEPARATOR);
+        appendJoined(sb, this.genotypePhredScaledLikelihoods).append(CLASS_SEPARATOR);
+        sb.append(this.adoState).append(CLASS_SEPARATOR);
+        sb.append(this.adoQual).append(CLASS_SEPARATOR);
+        appendJoined(sb, this.adoPhredScaledLikelihoods);
+
+        return sb;
+    } // appendTo
+
+    private static StringBuilder appendJoined(@NotNull StringBuilder sb, final int[] values) {
+        for (int i = 0; i < values.length; i++) {
+            if (i > 0) sb.append(ITEM_SEPARATOR);
+            sb.append(values[i]);
+        }
 
-        return str.toString();
-    } // toString
+        return sb;
+    } // appendJoined
+
+    private static StringBuilder appendJoined(@NotNull StringBuilder sb, final long[] values) {
+        for (int i = 0; i < values.length; i++) {
+            if (i > 0) sb.append(ITEM_SEPARATOR);
+            sb.append(values[i]);
+        }
+
+        return sb;
+    } // appendJoined
 
 }
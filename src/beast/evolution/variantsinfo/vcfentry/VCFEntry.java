@@ -84,8 +84,10 @@ public class VCFEntry {
     } // getCellNames
 
     public String getAdoStateAsString(String separator) {
-        StringBuilder sb = new StringBuilder();
+        return appendAdoStates(new StringBuilder(), separator).toString();
+    } // getAdoStateAsString
 
+    public StringBuilder appendAdoStates(@NotNull StringBuilder sb, String separator) {
         for (int i = 0; i < this.cellLocusGenotype.length; i++) {
             sb.append(this.cellLocusGenotype[i].getAdoState());
 
@@ -93,12 +95,14 @@ public class VCFEntry {
                 sb.append(separator);
         }
 
-        return sb.toString();
-    } // getAdoStateAsString
+        return sb;
+    } // appendAdoStates
 
     public String getCellLocusOriGenotypeAsString(String separator) {
-        StringBuilder sb = new StringBuilder();
+        return appendCellLocusOriGenotypes(new StringBuilder(), separator).toString();
+    } // getCellLocusOriGenotypeAsString
 
+    public StringBuilder appendCellLocusOriGenotypes(@NotNull StringBuilder sb, String separator) {
         for (int i = 0; i < this.cellLocusGenotype.length; i++) {
             sb.append(this.cellLocusGenotype[i].getGenotypeOri());
 
@@ -106,12 +110,14 @@ public class VCFEntry {
                 sb.append(separator);
         }
 
-        return sb.toString();
-    } // getCellLocusOriGenotypeAsString
+        return sb;
+    } // appendCellLocusOriGenotypes
 
     public String getCellLocusTernaryGenotypeAsString(String separator) {
-        StringBuilder sb = new StringBuilder();
+        return appendCellLocusTernaryGenotypes(new StringBuilder(), separator).toString();
+    } // getCellLocusTernaryGenotypeAsString
 
+    public StringBuilder appendCellLocusTernaryGenotypes(@NotNull StringBuilder sb, String separator) {
         for (int i = 0; i < this.cellLocusGenotype.length; i++) {
             sb.append(this.cellLocusGenotype[i].getTernary());
 
@@ -119,32 +125,55 @@ public class VCFEntry {
                 sb.append(separator);
         }
 
-        return sb.toString();
-    } // getCellLocusTernaryGenotypeAsString
+        return sb;
+    } // appendCellLocusTernaryGenotypes
 
     public String getCellLocusGenotypeLikelihoodAsString(String classSeparator, String itemSeparator) {
-        StringBuilder sb = new StringBuilder();
+        return appendCellLocusGenotypeLikelihoods(new StringBuilder(), classSeparator, itemSeparator).toString();
+    } // getCellLocusGenotypeLikelihoodAsString
 
+    public StringBuilder appendCellLocusGenotypeLikelihoods(
+            @NotNull StringBuilder sb,
+            String classSeparator,
+            String itemSeparator
+    ) {
         for (int i = 0; i < this.cellLocusGenotype.length; i++) {
-            sb.append(this.cellLocusGenotype[i].getGenotypeLikelihoodsAsString(itemSeparator, FLOAT_FORMAT, true));
+            this.cellLocusGenotype[i].appendGenotypeLikelihoods(sb, itemSeparator, FLOAT_FORMAT, true);
 
             if (i < this.cellLocusGenotype.length - 1)
                 sb.append(classSeparator);
         }
 
-        return sb.toString();
-    } // getCellLocusGenotypeLikelihoodAsString
+        return sb;
+    } // appendCellLocusGenotypeLikelihoods
 
     public String getLociInfoAsString(String classSeparator, String itemSeparator) {
-        StringBuilder sb = new StringBuilder();
+        return appendLociInfo(new StringBuilder(), classSeparator, itemSeparator).toString();
+    } // getLociInfoAsString
 
+    public StringBuilder appendLociInfo(
+            @NotNull StringBuilder sb,
+            String classSeparator,
+            String itemSeparator
+    ) {
         sb.append(this.varInfo.getChromosome()).append(classSeparator);
         sb.append(this.varInfo.getPosition()).append(classSeparator);
         sb.append(this.varInfo.getRefNuc()).append(classSeparator);
-        sb.append(this.varInfo.getAltNucsAsString(itemSeparator));
+        appendAltNucs(sb, itemSeparator);
 
-        return sb.toString();
-    } // getLociInfoAsString
+        return sb;
+    } // appendLociInfo
+
+    private void appendAltNucs(@NotNull StringBuilder sb, String separator) {
+        final char[] altNucs = this.varInfo.getAltNucs();
+
+        for (int i = 0; i < altNucs.length; i++) {
+            sb.append(altNucs[i]);
+
+            if (i < altNucs.length - 1)
+                sb.append(separator);
+        }
+    } // appendAltNucs
 
     public static String getCombinedHeader() {
         if (cellNames.size() == 0)
@@ -172,8 +201,16 @@ public class VCFEntry {
 
     @Override
     public String toString() {
-        StringBuilder sb = new StringBuilder();
+        return appendTo(new StringBuilder()).toString();
+    } // toString
 
+    /**
+     * Append the VCF line of this entry to {@param sb}, so that a builder can be reused across entries.
+     *
+     * @param sb apparently
+     * @return {@param sb}
+     */
+    public StringBuilder appendTo(@NotNull StringBuilder sb) {
         // chrom
         sb.append(this.varInfo.getChromosome()).append(CLASS_SEPARATOR);
 
@@ -187,7 +224,8 @@ public class VCFEntry {
         sb.append(this.varInfo.getRefNuc()).append(CLASS_SEPARATOR);
 
         // alt nucs
-        sb.append(this.varInfo.getAltNucsAsString(",")).append(CLASS_SEPARATOR);
+        appendAltNucs(sb, ",");
+        sb.append(CLASS_SEPARATOR);
 
         // qual
         sb.append(this.qual).append(CLASS_SEPARATOR);
@@ -196,16 +234,16 @@ public class VCFEntry {
         sb.append(this.filter).append(CLASS_SEPARATOR);
 
         // info
-        sb.append(this.info.toString()).append(CLASS_SEPARATOR);
+        this.info.appendTo(sb).append(CLASS_SEPARATOR);
 
         // format
         sb.append(CellLocusGenotype.getHeader());
 
         // cell locus genotype
         for (CellLocusGenotype i : this.cellLocusGenotype)
-            sb.append(CLASS_SEPARATOR).append(i.toString());
+            i.appendTo(sb.append(CLASS_SEPARATOR));
 
-        return sb.toString();
-    } // toString
+        return sb;
+    } // appendTo
 
 }
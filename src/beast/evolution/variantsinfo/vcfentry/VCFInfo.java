@@ -1,8 +1,5 @@
 package beast.evolution.variantsinfo.vcfentry;
 
-import java.util.ArrayList;
-import java.util.List;
-
 import static beast.evolution.variantsinfo.vcfentry.VCFEntry.FLOAT_FORMAT;
 
 public class VCFInfo {
@@ -60,24 +57,25 @@ public class VCFInfo {
 
     @Override
     public String toString() {
-        StringBuilder str = new StringBuilder();
-        List<String> tmp = new ArrayList<>();
+        return appendTo(new StringBuilder()).toString();
+    } // toString
 
+    public StringBuilder appendTo(StringBuilder str) {
         // AC
         str.append(ALLELE_COUNT_HEADER).append("=");
-        for (int ac : this.alleleCount) {
-            tmp.add(String.valueOf(ac));
+        for (int i = 0; i < this.alleleCount.length; i++) {
+            if (i > 0) str.append(ITEM_SEPARATOR);
+            str.append(this.alleleCount[i]);
         }
-        str.append(String.join(ITEM_SEPARATOR, tmp.toArray(new String[0]))).append(CLASS_SEPARATOR);
-
-        tmp.clear();
+        str.append(CLASS_SEPARATOR);
 
         // AF
         str.append(ALLELE_FREQUENCY_HEADER).append("=");
-        for (double af : this.alleleFrequency) {
-            tmp.add(String.format(FLOAT_FORMAT, af));
+        for (int i = 0; i < this.alleleFrequency.length; i++) {
+            if (i > 0) str.append(ITEM_SEPARATOR);
+            str.append(String.format(FLOAT_FORMAT, this.alleleFrequency[i]));
         }
-        str.append(String.join(ITEM_SEPARATOR, tmp.toArray(new String[0]))).append(CLASS_SEPARATOR);
+        str.append(CLASS_SEPARATOR);
 
         // AN
         str.append(TOTAL_ALLELE_NUMS_HEADER).append("=").append(this.totalAlleleNums).append(CLASS_SEPARATOR);
@@ -85,7 +83,7 @@ public class VCFInfo {
         // DP
         str.append(TOTAL_READ_DEPTH_HEADER).append("=").append(this.totalReadDepth);
 
-        return str.toString();
-    } // toString
+        return str;
+    } // appendTo
 
 }
@@ -1,9 +1,16 @@
 package beast.math.distributions;
 
 import static org.apache.commons.math.special.Beta.logBeta;
+import static org.apache.commons.math.special.Gamma.logGamma;
 
 public class DirichletMultinomial extends ScsParametricDistribution {
 
+    /**
+     * Maximum number of steps of the recurrence log Gamma(a + n + 1) = log Gamma(a + n) + log(a + n) in a ladder from a
+     * value of log Gamma evaluated directly, so that rounding errors do not accumulate over large counts.
+     */
+    private final static int MAX_LADDER_STEPS = 32;
+
     /**
      * Compute probability density of Dirichlet-multinomial distribution.
      *
@@ -49,6 +56,66 @@ public class DirichletMultinomial extends ScsParametricDistribution {
         return count <= 0 ? 0 : Math.log(count) + logBeta(fraction, count);
     } // logPartial
 
+    /**
+     * Compute log probability density of Dirichlet-multinomial distribution by table lookup.
+     * Equivalent to {@link #logDensity(int[], double[])}, using
+     * log(n) + logBeta(a, n) = log(n!) - (log Gamma(a + n) - log Gamma(a)).
+     *
+     * @param counts        An array of counts, where the last element is the total count.
+     * @param ladders       An array of ladders matching each count in {@param counts}, respectively; see
+     *                      {@link #getLogGammaLadder(double, int)}.
+     * @param logFactorials log(n!) for n up to the maximum count; see {@link #getLogFactorials(int)}.
+     * @return log probability density
+     */
+    public static double logDensity(int[] counts, double[][] ladders, double[] logFactorials) {
+        final int total = counts[counts.length - 1];
+
+        if (total == 0)
+            return 1.0;
+
+        double logValue = 0;
+        for (int i = 0; i < counts.length - 1; i++)
+            logValue += logFactorials[counts[i]] - ladders[i][counts[i]];
+
+        return logFactorials[total] - ladders[counts.length - 1][total] - logValue;
+    } // logDensity
+
+    /**
+     * Build a ladder of log Gamma({@param fraction} + n) - log Gamma({@param fraction}) for n = 0, ..., {@param maxCount}
+     * with the recurrence log Gamma(a + n + 1) = log Gamma(a + n) + log(a + n), restarted from log Gamma evaluated
+     * directly every MAX_LADDER_STEPS counts.
+     *
+     * @param fraction apparently
+     * @param maxCount the largest count to look up
+     * @return the ladder
+     */
+    public static double[] getLogGammaLadder(double fraction, int maxCount) {
+        double[] ladder = new double[maxCount + 1];
+
+        // log Gamma is not finite at 0, where the ladder is -Infinity beyond n = 0
+        final boolean restart = fraction > 0;
+        final double logGammaFraction = restart ? logGamma(fraction) : 0;
+
+        for (int n = 0; n < maxCount; n++) {
+            if (restart && (n + 1) % MAX_LADDER_STEPS == 0)
+                ladder[n + 1] = logGamma(fraction + n + 1) - logGammaFraction;
+            else
+                ladder[n + 1] = ladder[n] + Math.log(fraction + n);
+        }
+
+        return ladder;
+    } // getLogGammaLadder
+
+    /**
+     * Build a table of log(n!) for n = 0, ..., {@param maxCount}.
+     *
+     * @param maxCount the largest count to look up
+     * @return the table
+     */
+    public static double[] getLogFactorials(int maxCount) {
+        return getLogGammaLadder(1.0, maxCount);
+    } // getLogFactorials
+
     /**
      * Return the probability density for a particular point.
      *
@@ -8,8 +8,13 @@ import static org.apache.commons.math.special.Gamma.logGamma;
         "a given successful probability")
 public class NegativeBinomial extends ScsParametricDistribution {
 
-    private double nrOfSuccess;
-    private double propOfSuccess;
+    // Holds no parameters, so that a single instance can be shared by threads.
+
+    /**
+     * Maximum number of steps of the recurrence in {@link #getLogDensities(double, double, int)} from a log density
+     * evaluated directly, so that rounding errors do not accumulate over large counts.
+     */
+    private final static int MAX_RECURRENCE_STEPS = 32;
 
     /**
      * Return the probability density for a particular point.
@@ -25,9 +30,7 @@ public class NegativeBinomial extends ScsParametricDistribution {
                     this.getClass().getName() + ")");
         }
 
-        setNrOfSuccess(nrOfSuccess);
-        setPropOfSuccess(propOfSuccess);
-        return density(x);
+        return Math.exp(computeLogDensity(x, nrOfSuccess, propOfSuccess));
     } // density
 
     /**
@@ -44,59 +47,74 @@ public class NegativeBinomial extends ScsParametricDistribution {
                     this.getClass().getName() + ")");
         }
 
-        setNrOfSuccess(nrOfSuccess);
-        setPropOfSuccess(propOfSuccess);
-        return logDensity(x);
+        return computeLogDensity(x, nrOfSuccess, propOfSuccess);
     } // logDensity
 
     /**
-     * Return the probability density for a particular point.
-     * refer to https://www.johndcook.com/negative_binomial.pdf for gamma parameterization
-     * gamma distribution is parameterized with shape parameter 'alpha' and scale parameter 'beta'
-     * alpha = nrOfSuccess
-     * beta = 1 / propOfSuccess - 1
+     * Build a table of log probability densities for x = 0, ..., {@param maxCount} with the recurrence
+     * f(x + 1) = f(x) * (nrOfSuccess + x) / (x + 1) * (1 - propOfSuccess), starting from
+     * f(0) = propOfSuccess ^ nrOfSuccess, so that logGamma is only evaluated every MAX_RECURRENCE_STEPS points, where
+     * the recurrence restarts from the log density evaluated directly.
      *
-     * @param x The point at which the density should be computed.
-     * @return The pdf at point x.
+     * @param nrOfSuccess   The number of successful events.
+     * @param propOfSuccess The probability of a successful event.
+     * @param maxCount      the largest point to look up
+     * @return the table
      */
-    public double density(double x) {
-        return Math.exp(logDensity(x));
-    } // density
+    public static double[] getLogDensities(double nrOfSuccess, double propOfSuccess, int maxCount) {
+        if (nrOfSuccess < 0 || propOfSuccess < 0) {
+            throw new IllegalArgumentException("Both nrOfSuccess and propOfSuccess should be positive (" +
+                    NegativeBinomial.class.getName() + ")");
+        }
+
+        double[] table = new double[maxCount + 1];
+        final double logFailure = Math.log(1.0 - propOfSuccess);
+
+        // at the boundaries, the closed form gives NaN where the recurrence gives -Infinity
+        final boolean restart = nrOfSuccess > 0 && propOfSuccess > 0 && propOfSuccess < 1;
+
+        table[0] = nrOfSuccess * Math.log(propOfSuccess);
+        for (int x = 0; x < maxCount; x++) {
+            if (restart && (x + 1) % MAX_RECURRENCE_STEPS == 0)
+                table[x + 1] = computeLogDensity(x + 1, nrOfSuccess, propOfSuccess);
+            else
+                table[x + 1] = table[x] + Math.log((nrOfSuccess + x) / (x + 1.0)) + logFailure;
+        }
+
+        return table;
+    } // getLogDensities
 
     /**
-     * Return the probability density for a particular point.
+     * Compute the log probability density.
      * refer to https://www.johndcook.com/negative_binomial.pdf for gamma parameterization
      * gamma distribution is parameterized with shape parameter 'alpha' and scale parameter 'beta'
      * alpha = nrOfSuccess
      * beta = 1.0 / propOfSuccess - 1.0
      *
-     * @param x The point at which the density should be computed.
-     * @return The pdf at point x.
+     * @param x             The point at which the density should be computed.
+     * @param nrOfSuccess   The number of successful events.
+     * @param propOfSuccess The probability of a successful event.
+     * @return The log pdf at point x.
      */
-    public double logDensity(double x) {
+    private static double computeLogDensity(double x, double nrOfSuccess, double propOfSuccess) {
         double beta = 1.0 / propOfSuccess - 1.0;
         return logGamma(nrOfSuccess + x) + (nrOfSuccess + x) * Math.log(1.0 - propOfSuccess) - logGamma(x + 1.0) - logGamma(nrOfSuccess) - nrOfSuccess * Math.log(beta);
-    } // logDensity
-
+    } // computeLogDensity
 
-    //***********************************************
-    //*              Getter and Setter              *
-    //***********************************************
-
-    public double getNrOfSuccess() {
-        return nrOfSuccess;
-    }
-
-    public void setNrOfSuccess(double nrOfSuccess) {
-        this.nrOfSuccess = nrOfSuccess;
-    }
-
-    public double getPropOfSuccess() {
-        return propOfSuccess;
+    /**
+     * Not available, since the distribution holds no parameters; use {@link #density(double, double, double)}.
+     *
+     * @param x The point at which the density should be computed.
+     * @return The pdf at point x.
+     */
+    @Override
+    public double density(double x) {
+        throw new IllegalArgumentException("Error! This method is not implemented.");
     }
 
-    public void setPropOfSuccess(double propOfSuccess) {
-        this.propOfSuccess = propOfSuccess;
+    @Override
+    public double logDensity(double x) {
+        throw new IllegalArgumentException("Error! This method is not implemented.");
     }
 
 }
@@ -1,8 +1,8 @@
 package beast.math.util;
 
 import beast.app.variantcaller.EstimatesTypeCollection;
+import beast.app.variantcaller.TraceLog;
 import beast.math.statistic.DiscreteStatistics;
-import org.apache.commons.lang3.ArrayUtils;
 import org.jetbrains.annotations.NotNull;
 import smile.stat.distribution.KernelDensity;
 
@@ -29,6 +29,15 @@ public class MathFunctions {
      */
     public static final double PHRED_SCORE_COEFFICIENT = -10 * Math.log10(Math.E);
 
+    // number of grid points of the binned KDE
+    private static final int KDE_GRID_SIZE = 2048;
+
+    // maximum number of samples near the binned peak whose exact densities are evaluated
+    private static final int KDE_REFINEMENT_SIZE = 64;
+
+    // the Gaussian kernel is truncated at this many bandwidths, as in smile
+    private static final double KDE_KERNEL_RANGE = 5.0;
+
 
     //**********************************************
     //*               Static methods               *
@@ -44,6 +53,27 @@ public class MathFunctions {
         return y;
     } // expArr
 
+    /**
+     * compute mean of elements between {@param from} (inclusive) and {@param to} (exclusive), ruling out NaN as
+     * {@link DiscreteStatistics#mean(double[])} does
+     *
+     * @param x    list of numbers
+     * @param from apparently
+     * @param to   apparently
+     * @return mean
+     */
+    public static double mean(final double[] x, final int from, final int to) {
+        double m = 0;
+        int count = to - from;
+        for (int i = from; i < to; i++) {
+            if (Double.isNaN(x[i]))
+                count--;
+            else
+                m += x[i];
+        }
+        return m / count;
+    } // mean
+
     /**
      * compute mean (ruling out NaN, positive infinity and negative infinity)
      *
@@ -114,6 +144,59 @@ public class MathFunctions {
         return Math.log(result) + max;
     } // logSumExp
 
+    /**
+     * compute the logarithm of sum of two elements without allocating an array
+     *
+     * @param a logarithm element
+     * @param b logarithm element
+     * @return obviously
+     */
+    public static double logSumExp(final double a, final double b) {
+        final double max = Math.max(a, b);
+
+        return Math.log(Math.exp(a - max) + Math.exp(b - max)) + max;
+    } // logSumExp
+
+    /**
+     * compute the logarithm of sum of three elements without allocating an array
+     *
+     * @param a logarithm element
+     * @param b logarithm element
+     * @param c logarithm element
+     * @return obviously
+     */
+    public static double logSumExp(final double a, final double b, final double c) {
+        final double max = Math.max(Math.max(a, b), c);
+
+        return Math.log(Math.exp(a - max) + Math.exp(b - max) + Math.exp(c - max)) + max;
+    } // logSumExp
+
+    /**
+     * compute the logarithm of sum of elements, each repeated a number of times, without expanding them
+     *
+     * @param logElements logarithm elements
+     * @param weights     number of repetitions of each element
+     * @return log(sum_i weights[i] * exp(logElements[i]))
+     */
+    public static double logSumExp(final double[] logElements, final int[] weights) {
+        double result = 0.0;
+
+        // find the maximum element
+        double max = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < logElements.length; i++) {
+            if (weights[i] > 0 && logElements[i] > max)
+                max = logElements[i];
+        }
+
+        // elements with no repetitions are skipped, since they may be infinite
+        for (int i = 0; i < logElements.length; i++) {
+            if (weights[i] > 0)
+                result += weights[i] * Math.exp(logElements[i] - max);
+        }
+
+        return Math.log(result) + max;
+    } // logSumExp
+
     public static int sum(final int[] values) {
         return Arrays.stream(values).reduce(0, Integer::sum);
     } // sum
@@ -122,6 +205,24 @@ public class MathFunctions {
         return Arrays.stream(values).reduce(0, Double::sum);
     } // sum
 
+    /**
+     * compute the sum of elements, each repeated a number of times, without expanding them
+     *
+     * @param values  elements
+     * @param weights number of repetitions of each element
+     * @return sum_i weights[i] * values[i]
+     */
+    public static double sum(final double[] values, final int[] weights) {
+        double result = 0.0;
+
+        for (int i = 0; i < values.length; i++) {
+            if (weights[i] > 0)
+                result += weights[i] * values[i];
+        }
+
+        return result;
+    } // sum
+
     public static <T extends Comparable<T>> T min(final T[] values) {
         T min = values[0];
         for (int i = 1; i < values.length; i++) {
@@ -194,73 +295,45 @@ public class MathFunctions {
      * @param estimatesType    which kind of estimates to get?
      * @param modeKDEType      which kind of KDE distribution is used for mode estimates?
      * @param burninPercentage apparently
-     * @param samples          input
+     * @param samples          input, with burn-in applied as an offset to its columns
      * @param samplesEstimates output
      */
     public static void getEstimates(EstimatesTypeCollection.EstimatesType estimatesType,
                                     EstimatesTypeCollection.ModeKDEType modeKDEType,
                                     int burninPercentage,
-                                    Map<String, List<Double>> samples,
+                                    @NotNull TraceLog samples,
                                     Map<String, Map<String, Double>> samplesEstimates) throws NullPointerException {
-        for (String key : samples.keySet()) {
-            List<Double> origin = samples.get(key);
-            Map<String, Double> estimates = new HashMap<>();
-
-            int burninCount = Math.max(0, (burninPercentage * origin.size()) / 100);
-
-            double[] filtered = ArrayUtils.toPrimitive(origin.subList(burninCount, origin.size()).toArray(new Double[0]));
-
-            getEstimates(estimatesType, modeKDEType, filtered, estimates);
-
-            samplesEstimates.put(key, estimates);
-        }
+        getEstimates(estimatesType, modeKDEType, EstimatesTypeCollection.ModeKDEMethod.EXACT, burninPercentage, samples,
+                samplesEstimates);
     } // getEstimates
 
     /**
-     * get estimates
-     * <p>
-     * output added in the following order:
-     * 0 - mean
-     * 1 - median
-     * 2 - mode (MAP), using "gaussian" kernel density estimate function
+     * Same as above, with the KDE for mode estimates evaluated by {@param modeKDEMethod}.
      *
      * @param estimatesType    which kind of estimates to get?
+     * @param modeKDEType      which kind of KDE distribution is used for mode estimates?
+     * @param modeKDEMethod    how the KDE is evaluated for mode estimates
      * @param burninPercentage apparently
-     * @param samples          input
+     * @param samples          input, with burn-in applied as an offset to its columns
      * @param samplesEstimates output
      */
-    public static void getArrEstimates(
-            EstimatesTypeCollection.EstimatesType estimatesType,
-            int burninPercentage,
-            Map<String, List<Double>[][]> samples,
-            Map<String, Map<String, double[][]>> samplesEstimates
-    ) throws NullPointerException {
-        int i, j;
-        for (String key : samples.keySet()) {
-            i = 0;
-
-            Map<String, double[][]> estimates = new HashMap<>();
-
-            for (List<Double>[] matrix : samples.get(key)) {
-                j = 0;
-
-                for (List<Double> origin : matrix) {
-                    int burninCount = Math.max(0, (burninPercentage * origin.size()) / 100);
-
-                    double[] filtered = ArrayUtils.toPrimitive(origin.subList(burninCount, origin.size()).toArray(new Double[0]));
-
-                    getArrEstimates(estimatesType, filtered, estimates,
-                            samples.get(key).length, i, matrix.length, j);
+    public static void getEstimates(EstimatesTypeCollection.EstimatesType estimatesType,
+                                    EstimatesTypeCollection.ModeKDEType modeKDEType,
+                                    EstimatesTypeCollection.ModeKDEMethod modeKDEMethod,
+                                    int burninPercentage,
+                                    @NotNull TraceLog samples,
+                                    Map<String, Map<String, Double>> samplesEstimates) throws NullPointerException {
+        final int from = samples.getBurninOffset(burninPercentage);
+        final int to = samples.getNrOfSamples();
 
-                    j++;
-                }
+        for (String key : samples.getVariables()) {
+            Map<String, Double> estimates = new HashMap<>();
 
-                i++;
-            }
+            getEstimates(estimatesType, modeKDEType, modeKDEMethod, samples.getColumn(key), from, to, estimates);
 
             samplesEstimates.put(key, estimates);
         }
-    } // getArrEstimates
+    } // getEstimates
 
     /**
      * output added in the following order:
@@ -278,6 +351,29 @@ public class MathFunctions {
                                     EstimatesTypeCollection.ModeKDEType modeKDEType,
                                     final double[] data,
                                     Map<String, Double> estimates) throws NullPointerException {
+        getEstimates(estimatesType, modeKDEType, EstimatesTypeCollection.ModeKDEMethod.EXACT, data, 0, data.length,
+                estimates);
+    } // getEstimates
+
+    /**
+     * Same as above, but only elements of {@param data} between {@param from} (inclusive) and {@param to} (exclusive)
+     * are used.
+     *
+     * @param estimatesType which kind of estimates to get?
+     * @param modeKDEType   which kind of KDE distribution is used for mode estimates?
+     * @param modeKDEMethod how the KDE is evaluated for mode estimates
+     * @param data          input
+     * @param from          apparently
+     * @param to            apparently
+     * @param estimates     output
+     */
+    public static void getEstimates(EstimatesTypeCollection.EstimatesType estimatesType,
+                                    EstimatesTypeCollection.ModeKDEType modeKDEType,
+                                    EstimatesTypeCollection.ModeKDEMethod modeKDEMethod,
+                                    final double[] data,
+                                    final int from,
+                                    final int to,
+                                    Map<String, Double> estimates) throws NullPointerException {
         if (estimatesType == EstimatesTypeCollection.EstimatesType.MODE && modeKDEType == null) {
             throw new NullPointerException("Unspecified KDE distribution for mode estimates.");
         }
@@ -289,23 +385,29 @@ public class MathFunctions {
         // mean
         if (estimatesType == EstimatesTypeCollection.EstimatesType.MEAN ||
                 estimatesType == EstimatesTypeCollection.EstimatesType.ALL) {
-            estimates.put(EstimatesTypeCollection.EstimatesType.MEAN.toString().toLowerCase(), DiscreteStatistics.mean(data));
+            estimates.put(EstimatesTypeCollection.EstimatesType.MEAN.toString().toLowerCase(), mean(data, from, to));
         }
 
+        if (estimatesType == EstimatesTypeCollection.EstimatesType.MEAN)
+            return;
+
+        // median and mode need a copy of the samples to sort anyway
+        final double[] window = from == 0 && to == data.length ? data : Arrays.copyOfRange(data, from, to);
+
         // median
         if (estimatesType == EstimatesTypeCollection.EstimatesType.MEDIAN ||
                 estimatesType == EstimatesTypeCollection.EstimatesType.ALL) {
-            estimates.put(EstimatesTypeCollection.EstimatesType.MEDIAN.toString().toLowerCase(), DiscreteStatistics.median(data));
+            estimates.put(EstimatesTypeCollection.EstimatesType.MEDIAN.toString().toLowerCase(), DiscreteStatistics.median(window));
         }
 
         // mode with different KDE distributions
         if (estimatesType == EstimatesTypeCollection.EstimatesType.MODE) {
-            estimates.put(modeKDEType.toString().toLowerCase(), getModeEstimates(data));
+            estimates.put(modeKDEType.toString().toLowerCase(), getModeEstimates(window, modeKDEMethod));
         }
 
         if (estimatesType == EstimatesTypeCollection.EstimatesType.ALL) {
             for (EstimatesTypeCollection.ModeKDEType type : EstimatesTypeCollection.ModeKDEType.values()) {
-                estimates.put(type.toString().toLowerCase(), getModeEstimates(data));
+                estimates.put(type.toString().toLowerCase(), getModeEstimates(window, modeKDEMethod));
             }
         }
     } // getEstimates
@@ -332,6 +434,32 @@ public class MathFunctions {
             int index1,
             int len,
             int index2
+    ) {
+        getArrEstimates(estimatesType, EstimatesTypeCollection.ModeKDEMethod.EXACT, data, estimates, numOfMatrix, index1,
+                len, index2);
+    } // getArrEstimates
+
+    /**
+     * Same as above, with the KDE for mode estimates evaluated by {@param modeKDEMethod}.
+     *
+     * @param estimatesType which kind of estimates to get?
+     * @param modeKDEMethod how the KDE is evaluated for mode estimates
+     * @param data          input
+     * @param estimates     output
+     * @param numOfMatrix   the number of matrices
+     * @param index1        which matrix it is?
+     * @param len           number of estimates for a key
+     * @param index2        allelic sequencing coverage or raw variance?
+     */
+    public static void getArrEstimates(
+            EstimatesTypeCollection.EstimatesType estimatesType,
+            EstimatesTypeCollection.ModeKDEMethod modeKDEMethod,
+            final double[] data,
+            Map<String, double[][]> estimates,
+            int numOfMatrix,
+            int index1,
+            int len,
+            int index2
     ) {
         if (estimates == null) {
             estimates = new HashMap<>();
@@ -354,17 +482,42 @@ public class MathFunctions {
         // mode
         if (estimatesType == EstimatesTypeCollection.EstimatesType.MODE ||
                 estimatesType == EstimatesTypeCollection.EstimatesType.ALL) {
-            getModeArrEstimates(data, estimates, numOfMatrix, index1, len, index2);
+            getModeArrEstimates(data, modeKDEMethod, estimates, numOfMatrix, index1, len, index2);
         }
     } // getArrEstimates
 
     /**
-     * get estimates for mode
+     * get estimates for mode with the exact KDE
      *
      * @param data input
      * @return mode value
      */
     public static double getModeEstimates(final double[] data) {
+        return getModeEstimates(data, EstimatesTypeCollection.ModeKDEMethod.EXACT);
+    } // getModeEstimates
+
+    /**
+     * get estimates for mode, using the given method
+     *
+     * @param data          input
+     * @param modeKDEMethod how the KDE is evaluated; the exact one unless the binned one is explicitly selected
+     * @return mode value
+     */
+    public static double getModeEstimates(final double[] data, EstimatesTypeCollection.ModeKDEMethod modeKDEMethod) {
+        if (modeKDEMethod == EstimatesTypeCollection.ModeKDEMethod.BINNED)
+            return getBinnedModeEstimates(data);
+
+        return getExactModeEstimates(data);
+    } // getModeEstimates
+
+    /**
+     * get estimates for mode by evaluating the Gaussian KDE at every sample; O(n^2) in the worst case
+     * note that {@param data} will be sorted
+     *
+     * @param data input
+     * @return mode value
+     */
+    public static double getExactModeEstimates(final double[] data) {
         KernelDensity kde = new KernelDensity(data);
 
         double[] probabilities = new double[data.length];
@@ -380,7 +533,158 @@ public class MathFunctions {
         }
 
         return data[maxIndex];
-    } // getModeEstimates
+    } // getExactModeEstimates
+
+    /**
+     * get estimates for mode with a binned Gaussian KDE
+     * <p>
+     * Samples are linearly binned onto a grid of {@link #KDE_GRID_SIZE} points and convolved with the truncated
+     * Gaussian kernel, using the same bandwidth as {@link KernelDensity}. The exact density is then evaluated at the
+     * samples closest to the peak of the grid, and the one with the highest density is returned. Small inputs and
+     * degenerate bandwidths are handled by {@link #getExactModeEstimates(double[])}.
+     *
+     * @param data input (not modified)
+     * @return mode value
+     */
+    public static double getBinnedModeEstimates(final double[] data) {
+        final int n = data.length;
+
+        if (n <= KDE_GRID_SIZE)
+            return getExactModeEstimates(data.clone());
+
+        final double[] x = data.clone();
+        Arrays.sort(x);
+
+        final double h = getKDEBandwidth(x);
+        final double range = x[n - 1] - x[0];
+        if (!(h > 0) || Double.isInfinite(h) || !(range > 0) || Double.isInfinite(range))
+            return getExactModeEstimates(x);
+
+        // linear binning
+        final double delta = range / (KDE_GRID_SIZE - 1);
+        final double[] counts = new double[KDE_GRID_SIZE];
+        for (double v : x) {
+            final double position = (v - x[0]) / delta;
+            final int k = Math.min((int) position, KDE_GRID_SIZE - 1);
+
+            if (k == KDE_GRID_SIZE - 1) {
+                counts[k] += 1;
+            } else {
+                final double weight = position - k;
+                counts[k] += 1 - weight;
+                counts[k + 1] += weight;
+            }
+        }
+
+        // convolution with the truncated kernel; direct summation is cheap at this grid size
+        final int kernelSize = (int) Math.min(KDE_GRID_SIZE - 1, Math.ceil(KDE_KERNEL_RANGE * h / delta));
+        final double[] kernel = new double[kernelSize + 1];
+        for (int l = 0; l <= kernelSize; l++) {
+            final double z = l * delta / h;
+            kernel[l] = Math.exp(-0.5 * z * z);
+        }
+
+        int peak = 0;
+        double max = Double.NEGATIVE_INFINITY;
+        for (int k = 0; k < KDE_GRID_SIZE; k++) {
+            double density = 0;
+            for (int j = Math.max(0, k - kernelSize); j <= Math.min(KDE_GRID_SIZE - 1, k + kernelSize); j++)
+                density += counts[j] * kernel[Math.abs(j - k)];
+
+            if (density > max) {
+                max = density;
+                peak = k;
+            }
+        }
+
+        // refinement: exact densities of the samples around the peak
+        final double peakValue = x[0] + peak * delta;
+        int from = lowerBound(x, peakValue - 2 * delta);
+        int to = lowerBound(x, Math.nextUp(peakValue + 2 * delta));
+
+        if (to - from > KDE_REFINEMENT_SIZE) {
+            final int center = Math.min(Math.max(lowerBound(x, peakValue), from + KDE_REFINEMENT_SIZE / 2), to - KDE_REFINEMENT_SIZE / 2);
+            from = center - KDE_REFINEMENT_SIZE / 2;
+            to = center + KDE_REFINEMENT_SIZE / 2;
+        } else if (from == to) {
+            // no sample close to the peak; take its neighbours
+            from = Math.max(0, from - 1);
+            to = Math.min(n, to + 1);
+        }
+
+        int maxIndex = from;
+        max = Double.NEGATIVE_INFINITY;
+        for (int i = from; i < to; i++) {
+            final double density = getKDEDensity(x, x[i], h);
+            if (density > max) {
+                max = density;
+                maxIndex = i;
+            }
+        }
+
+        return x[maxIndex];
+    } // getBinnedModeEstimates
+
+    /**
+     * Silverman's rule of thumb, as in {@link KernelDensity}
+     *
+     * @param x sorted samples
+     * @return bandwidth
+     */
+    private static double getKDEBandwidth(final double @NotNull [] x) {
+        final int n = x.length;
+
+        double mean = 0;
+        for (double v : x) mean += v;
+        mean /= n;
+
+        double variance = 0;
+        for (double v : x) variance += (v - mean) * (v - mean);
+        variance /= n - 1;
+
+        final double iqr = x[n * 3 / 4] - x[n / 4];
+        return 1.06 * Math.min(Math.sqrt(variance), iqr / 1.34) / Math.pow(n, 0.2);
+    } // getKDEBandwidth
+
+    /**
+     * unnormalized Gaussian KDE at {@param value}, summing samples within the truncation range
+     *
+     * @param x     sorted samples
+     * @param value apparently
+     * @param h     bandwidth
+     * @return density up to a constant factor
+     */
+    private static double getKDEDensity(final double @NotNull [] x, final double value, final double h) {
+        final int from = lowerBound(x, value - KDE_KERNEL_RANGE * h);
+
+        double density = 0;
+        for (int i = from; i < x.length && x[i] <= value + KDE_KERNEL_RANGE * h; i++) {
+            final double z = (x[i] - value) / h;
+            density += Math.exp(-0.5 * z * z);
+        }
+
+        return density;
+    } // getKDEDensity
+
+    /**
+     * @param x     sorted array
+     * @param value apparently
+     * @return index of the first element not less than {@param value}
+     */
+    private static int lowerBound(final double @NotNull [] x, final double value) {
+        int low = 0;
+        int high = x.length;
+
+        while (low < high) {
+            final int mid = (low + high) >>> 1;
+            if (x[mid] < value)
+                low = mid + 1;
+            else
+                high = mid;
+        }
+
+        return low;
+    } // lowerBound
 
     /**
      * get estimates for mode
@@ -400,8 +704,30 @@ public class MathFunctions {
             int index1,
             int len,
             int index2) {
+        getModeArrEstimates(data, EstimatesTypeCollection.ModeKDEMethod.EXACT, estimates, numOfMatrix, index1, len, index2);
+    } // getModeArrEstimates
+
+    /**
+     * get estimates for mode, using the given method
+     *
+     * @param data          input
+     * @param modeKDEMethod how the KDE is evaluated
+     * @param estimates     output
+     * @param numOfMatrix   the number of matrices
+     * @param index1        which matrix it is?
+     * @param len           number of estimates for a key
+     * @param index2        allelic sequencing coverage or raw variance?
+     */
+    public static void getModeArrEstimates(
+            final double[] data,
+            EstimatesTypeCollection.ModeKDEMethod modeKDEMethod,
+            Map<String, double[][]> estimates,
+            int numOfMatrix,
+            int index1,
+            int len,
+            int index2) {
         estimates.computeIfAbsent(EstimatesTypeCollection.ModeKDEType.GAUSSIAN.toString().toLowerCase(), k -> new double[numOfMatrix][len]);
-        estimates.get(EstimatesTypeCollection.ModeKDEType.GAUSSIAN.toString().toLowerCase())[index1][index2] = getModeEstimates(data);
+        estimates.get(EstimatesTypeCollection.ModeKDEType.GAUSSIAN.toString().toLowerCase())[index1][index2] = getModeEstimates(data, modeKDEMethod);
     } // getModeArrEstimates
 
     /**
@@ -0,0 +1,133 @@
+package beast.math.util;
+
+import java.util.Arrays;
+
+/**
+ * Streaming estimate of a quantile with the P-square algorithm (Jain and Chlamtac, 1985).
+ * <p>
+ * Only five markers are kept regardless of the number of observations. The quantile is exact for up to five
+ * observations (interpolated between order statistics, which gives the usual median) and approximated afterwards.
+ */
+public class StreamingQuantile {
+
+
+    //***********************************************
+    //*                  Variables                  *
+    //***********************************************
+
+    private final double p;
+
+    // marker heights
+    private final double[] q = new double[5];
+
+    // actual and desired marker positions
+    private final int[] n = {0, 1, 2, 3, 4};
+    private final double[] np;
+    private final double[] dn;
+
+    private int count = 0;
+
+
+    //**********************************************
+    //*                Constructors                *
+    //**********************************************
+
+    /**
+     * @param p quantile to estimate, in (0, 1)
+     */
+    public StreamingQuantile(final double p) {
+        if (!(p > 0 && p < 1))
+            throw new IllegalArgumentException("Error! Quantile should be in (0, 1), but " + p + " is given. (" +
+                    this.getClass().getName() + ")");
+
+        this.p = p;
+        this.np = new double[]{0, 2 * p, 4 * p, 2 + 2 * p, 4};
+        this.dn = new double[]{0, p / 2, p, (1 + p) / 2, 1};
+    }
+
+
+    //***********************************************
+    //*                   Methods                   *
+    //***********************************************
+
+    public void add(final double x) {
+        if (count < 5) {
+            q[count++] = x;
+
+            if (count == 5)
+                Arrays.sort(q);
+
+            return;
+        }
+
+        count++;
+
+        // find the cell containing x and adjust the extreme markers
+        int k;
+        if (x < q[0]) {
+            q[0] = x;
+            k = 0;
+        } else if (x >= q[4]) {
+            q[4] = x;
+            k = 3;
+        } else {
+            k = 0;
+            while (x >= q[k + 1]) k++;
+        }
+
+        for (int i = k + 1; i < 5; i++)
+            n[i]++;
+
+        for (int i = 0; i < 5; i++)
+            np[i] += dn[i];
+
+        // adjust the middle markers
+        for (int i = 1; i < 4; i++) {
+            final double d = np[i] - n[i];
+
+            if ((d >= 1 && n[i + 1] - n[i] > 1) || (d <= -1 && n[i - 1] - n[i] < -1)) {
+                final int ds = d > 0 ? 1 : -1;
+
+                final double parabolic = q[i] + (double) ds / (n[i + 1] - n[i - 1]) *
+                        ((n[i] - n[i - 1] + ds) * (q[i + 1] - q[i]) / (n[i + 1] - n[i]) +
+                                (n[i + 1] - n[i] - ds) * (q[i] - q[i - 1]) / (n[i] - n[i - 1]));
+
+                if (q[i - 1] < parabolic && parabolic < q[i + 1])
+                    q[i] = parabolic;
+                else
+                    q[i] += ds * (q[i + ds] - q[i]) / (n[i + ds] - n[i]);
+
+                n[i] += ds;
+            }
+        }
+    } // add
+
+    /**
+     * @return estimated quantile, or NaN if nothing has been added
+     */
+    public double getQuantile() {
+        if (count == 0) return Double.NaN;
+
+        if (count <= 5) {
+            final double[] sorted = Arrays.copyOf(q, count);
+            Arrays.sort(sorted);
+
+            final double position = p * (count - 1);
+            final int lower = (int) Math.floor(position);
+            final int upper = Math.min(lower + 1, count - 1);
+            return sorted[lower] + (position - lower) * (sorted[upper] - sorted[lower]);
+        }
+
+        return q[2];
+    } // getQuantile
+
+
+    //***********************************************
+    //*              Getter and Setter              *
+    //***********************************************
+
+    public int getCount() {
+        return count;
+    } // getCount
+
+}
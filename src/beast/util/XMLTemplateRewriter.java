@@ -0,0 +1,539 @@
+package beast.util;
+
+import org.jetbrains.annotations.NotNull;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+import javax.xml.namespace.QName;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.stream.*;
+import javax.xml.stream.events.*;
+import javax.xml.stream.events.Comment;
+import javax.xml.stream.events.EntityReference;
+import javax.xml.stream.events.ProcessingInstruction;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Rewrite an xml document in a streaming fashion.
+ * <p>
+ * The input document is read with StAX and copied event by event to the output, except for elements matched by one of
+ * the registered rules:
+ * 1. replace: the element and its subtree are skipped, and the content writer is called instead;
+ * 2. edit: the element and its subtree are loaded as a (small) DOM element, modified, and written back;
+ * 3. appendTo: the element is copied, and the content writer is called right before its end tag.
+ * <p>
+ * Rules are checked in the order of registration. Only the elements handled by 'edit' rules are held in memory, so that
+ * large data blocks pass through or are written directly to the output.
+ */
+public class XMLTemplateRewriter {
+
+
+    //***********************************************
+    //*                  Variables                  *
+    //***********************************************
+
+    private final static int BUFFER_SIZE = 1 << 16;
+
+    private final List<Rule> rules = new ArrayList<>();
+
+
+    //***********************************************
+    //*                   Methods                   *
+    //***********************************************
+
+    /**
+     * Replace matched elements with the content written by {@param contentWriter}.
+     *
+     * @param matcher       apparently
+     * @param contentWriter called with the start tag of the replaced element
+     * @return this rewriter
+     */
+    public XMLTemplateRewriter replace(
+            @NotNull ElementMatcher matcher,
+            @NotNull ContentWriter contentWriter
+    ) {
+        rules.add(new Rule(matcher, RuleType.REPLACE, contentWriter, null));
+        return this;
+    } // replace
+
+    /**
+     * Modify matched elements as DOM elements.
+     *
+     * @param matcher apparently
+     * @param editor  called with the DOM element loaded from the input
+     * @return this rewriter
+     */
+    public XMLTemplateRewriter edit(
+            @NotNull ElementMatcher matcher,
+            @NotNull ElementEditor editor
+    ) {
+        rules.add(new Rule(matcher, RuleType.EDIT, null, editor));
+        return this;
+    } // edit
+
+    /**
+     * Append the content written by {@param contentWriter} to matched elements as their last children.
+     *
+     * @param matcher       apparently
+     * @param contentWriter called with the start tag of the matched element
+     * @return this rewriter
+     */
+    public XMLTemplateRewriter appendTo(
+            @NotNull ElementMatcher matcher,
+            @NotNull ContentWriter contentWriter
+    ) {
+        rules.add(new Rule(matcher, RuleType.APPEND_TO, contentWriter, null));
+        return this;
+    } // appendTo
+
+    /**
+     * Rewrite {@param input} to {@param output}.
+     *
+     * @param input  input xml document
+     * @param output output xml document, whose parent directories are created if necessary
+     * @throws IOException                  if failed to read or write
+     * @throws XMLStreamException           if the input is malformed
+     * @throws ParserConfigurationException if failed to create a DOM document for 'edit' rules
+     */
+    public void rewrite(
+            @NotNull File input,
+            @NotNull File output
+    ) throws IOException, XMLStreamException, ParserConfigurationException {
+        if (output.getParentFile() != null)
+            output.getParentFile().mkdirs();
+
+        Document doc = null;
+
+        try (InputStream in = new BufferedInputStream(new FileInputStream(input), BUFFER_SIZE);
+             OutputStream out = new BufferedOutputStream(new FileOutputStream(output), BUFFER_SIZE)) {
+            final XMLEventReader reader = XMLInputFactory.newInstance().createXMLEventReader(in);
+            final XMLStreamWriter writer = XMLOutputFactory.newInstance().createXMLStreamWriter(out, StandardCharsets.UTF_8.name());
+
+            try {
+                // names of open elements, outermost first
+                final List<String> parents = new ArrayList<>();
+                // rules appending to open elements
+                final List<Rule> appending = new ArrayList<>();
+
+                while (reader.hasNext()) {
+                    final XMLEvent event = reader.nextEvent();
+
+                    if (event.isStartElement()) {
+                        final StartElement start = event.asStartElement();
+                        final Rule rule = getRule(Collections.unmodifiableList(parents), start);
+
+                        if (rule != null && rule.type == RuleType.REPLACE) {
+                            skipElement(reader);
+                            rule.contentWriter.write(writer, start);
+                            continue;
+                        }
+
+                        if (rule != null && rule.type == RuleType.EDIT) {
+                            if (doc == null)
+                                doc = DocumentBuilderFactory.newInstance().newDocumentBuilder().newDocument();
+
+                            final Element element = readElement(doc, start, reader);
+                            rule.editor.edit(element);
+                            writeNode(writer, element);
+                            continue;
+                        }
+
+                        parents.add(start.getName().getLocalPart());
+                        appending.add(rule);
+                        writeEvent(writer, start);
+                    } else if (event.isEndElement()) {
+                        final Rule rule = appending.remove(appending.size() - 1);
+                        if (rule != null)
+                            rule.contentWriter.write(writer, null);
+
+                        parents.remove(parents.size() - 1);
+                        writeEvent(writer, event);
+                    } else
+                        writeEvent(writer, event);
+                }
+
+                writer.flush();
+            } finally {
+                writer.close();
+                reader.close();
+            }
+        }
+    } // rewrite
+
+    private Rule getRule(
+            @NotNull List<String> parents,
+            @NotNull StartElement element
+    ) {
+        for (Rule rule : rules) {
+            if (rule.matcher.matches(parents, element))
+                return rule;
+        }
+
+        return null;
+    } // getRule
+
+
+    //**********************************************
+    //*               Static methods               *
+    //**********************************************
+
+    /**
+     * Load elements matched by {@param matcher} from {@param input} without building the rest of the document.
+     * <p>
+     * The returned document has a copy of the root element of the input (with attributes only), whose children are the
+     * matched elements in document order. Elements nested in a matched element are not matched separately.
+     *
+     * @param input   input xml document
+     * @param matcher apparently
+     * @return a DOM document
+     * @throws IOException                  if failed to read
+     * @throws XMLStreamException           if the input is malformed
+     * @throws ParserConfigurationException if failed to create a DOM document
+     */
+    public static Document readElements(
+            @NotNull File input,
+            @NotNull ElementMatcher matcher
+    ) throws IOException, XMLStreamException, ParserConfigurationException {
+        final Document doc = DocumentBuilderFactory.newInstance().newDocumentBuilder().newDocument();
+
+        try (InputStream in = new BufferedInputStream(new FileInputStream(input), BUFFER_SIZE)) {
+            final XMLEventReader reader = XMLInputFactory.newInstance().createXMLEventReader(in);
+
+            try {
+                final List<String> parents = new ArrayList<>();
+
+                while (reader.hasNext()) {
+                    final XMLEvent event = reader.nextEvent();
+
+                    if (event.isStartElement()) {
+                        final StartElement start = event.asStartElement();
+
+                        if (parents.isEmpty()) {
+                            doc.appendChild(createElement(doc, start));
+                        } else if (matcher.matches(Collections.unmodifiableList(parents), start)) {
+                            doc.getDocumentElement().appendChild(readElement(doc, start, reader));
+                            continue;
+                        }
+
+                        parents.add(start.getName().getLocalPart());
+                    } else if (event.isEndElement())
+                        parents.remove(parents.size() - 1);
+                }
+            } finally {
+                reader.close();
+            }
+        }
+
+        return doc;
+    } // readElements
+
+    /**
+     * Write a DOM node and its subtree.
+     *
+     * @param writer apparently
+     * @param node   apparently
+     * @throws XMLStreamException if failed to write
+     */
+    public static void writeNode(
+            @NotNull XMLStreamWriter writer,
+            @NotNull Node node
+    ) throws XMLStreamException {
+        switch (node.getNodeType()) {
+            case Node.ELEMENT_NODE:
+                final NodeList children = node.getChildNodes();
+
+                if (children.getLength() == 0)
+                    writer.writeEmptyElement(node.getNodeName());
+                else
+                    writer.writeStartElement(node.getNodeName());
+
+                final NamedNodeMap attributes = node.getAttributes();
+                for (int i = 0; i < attributes.getLength(); i++)
+                    writer.writeAttribute(attributes.item(i).getNodeName(), attributes.item(i).getNodeValue());
+
+                if (children.getLength() > 0) {
+                    for (int i = 0; i < children.getLength(); i++)
+                        writeNode(writer, children.item(i));
+
+                    writer.writeEndElement();
+                }
+                break;
+            case Node.TEXT_NODE:
+                writer.writeCharacters(node.getNodeValue());
+                break;
+            case Node.CDATA_SECTION_NODE:
+                writer.writeCData(node.getNodeValue());
+                break;
+            case Node.COMMENT_NODE:
+                writer.writeComment(node.getNodeValue());
+                break;
+            case Node.PROCESSING_INSTRUCTION_NODE:
+                writer.writeProcessingInstruction(((org.w3c.dom.ProcessingInstruction) node).getTarget(), node.getNodeValue());
+                break;
+            default:
+                break;
+        }
+    } // writeNode
+
+    /**
+     * Write the content of a text file as character data in chunks.
+     *
+     * @param writer apparently
+     * @param file   a text file
+     * @throws IOException        if failed to read
+     * @throws XMLStreamException if failed to write
+     */
+    public static void writeCharacters(
+            @NotNull XMLStreamWriter writer,
+            @NotNull File file
+    ) throws IOException, XMLStreamException {
+        final char[] buffer = new char[BUFFER_SIZE];
+
+        try (Reader in = new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8)) {
+            int len;
+            while ((len = in.read(buffer)) != -1)
+                writer.writeCharacters(buffer, 0, len);
+        }
+    } // writeCharacters
+
+    /**
+     * Write an attribute with a plain or prefixed name.
+     */
+    private static void writeAttribute(
+            @NotNull XMLStreamWriter writer,
+            @NotNull Attribute attribute
+    ) throws XMLStreamException {
+        final QName name = attribute.getName();
+
+        if (name.getPrefix().isEmpty())
+            writer.writeAttribute(name.getLocalPart(), attribute.getValue());
+        else
+            writer.writeAttribute(name.getPrefix(), name.getNamespaceURI(), name.getLocalPart(), attribute.getValue());
+    } // writeAttribute
+
+    /**
+     * Copy an event other than those of elements handled by rules.
+     */
+    private static void writeEvent(
+            @NotNull XMLStreamWriter writer,
+            @NotNull XMLEvent event
+    ) throws XMLStreamException {
+        switch (event.getEventType()) {
+            case XMLStreamConstants.START_DOCUMENT:
+                final StartDocument startDocument = (StartDocument) event;
+                writer.writeStartDocument(StandardCharsets.UTF_8.name(), startDocument.getVersion());
+                writer.writeCharacters("\n");
+                break;
+            case XMLStreamConstants.END_DOCUMENT:
+                writer.writeEndDocument();
+                break;
+            case XMLStreamConstants.START_ELEMENT:
+                final StartElement start = event.asStartElement();
+                final QName name = start.getName();
+
+                if (name.getPrefix().isEmpty() && name.getNamespaceURI().isEmpty())
+                    writer.writeStartElement(name.getLocalPart());
+                else
+                    writer.writeStartElement(name.getPrefix(), name.getLocalPart(), name.getNamespaceURI());
+
+                for (Iterator<?> it = start.getNamespaces(); it.hasNext(); ) {
+                    final Namespace namespace = (Namespace) it.next();
+                    if (namespace.isDefaultNamespaceDeclaration())
+                        writer.writeDefaultNamespace(namespace.getNamespaceURI());
+                    else
+                        writer.writeNamespace(namespace.getPrefix(), namespace.getNamespaceURI());
+                }
+
+                for (Iterator<?> it = start.getAttributes(); it.hasNext(); )
+                    writeAttribute(writer, (Attribute) it.next());
+                break;
+            case XMLStreamConstants.END_ELEMENT:
+                writer.writeEndElement();
+                break;
+            case XMLStreamConstants.CHARACTERS:
+            case XMLStreamConstants.SPACE:
+                if (event.asCharacters().isCData())
+                    writer.writeCData(event.asCharacters().getData());
+                else
+                    writer.writeCharacters(event.asCharacters().getData());
+                break;
+            case XMLStreamConstants.CDATA:
+                writer.writeCData(event.asCharacters().getData());
+                break;
+            case XMLStreamConstants.COMMENT:
+                writer.writeComment(((Comment) event).getText());
+                break;
+            case XMLStreamConstants.PROCESSING_INSTRUCTION:
+                final ProcessingInstruction pi = (ProcessingInstruction) event;
+                writer.writeProcessingInstruction(pi.getTarget(), pi.getData());
+                break;
+            case XMLStreamConstants.DTD:
+                writer.writeDTD(((DTD) event).getDocumentTypeDeclaration());
+                break;
+            case XMLStreamConstants.ENTITY_REFERENCE:
+                writer.writeEntityRef(((EntityReference) event).getName());
+                break;
+            default:
+                break;
+        }
+    } // writeEvent
+
+    /**
+     * Skip the subtree of an element whose start tag has just been read.
+     */
+    private static void skipElement(@NotNull XMLEventReader reader) throws XMLStreamException {
+        int depth = 1;
+
+        while (depth > 0) {
+            final XMLEvent event = reader.nextEvent();
+
+            if (event.isStartElement())
+                depth++;
+            else if (event.isEndElement())
+                depth--;
+        }
+    } // skipElement
+
+    private static Element createElement(
+            @NotNull Document doc,
+            @NotNull StartElement start
+    ) {
+        final QName name = start.getName();
+        final Element element = doc.createElement(name.getPrefix().isEmpty() ? name.getLocalPart() : name.getPrefix() + ":" + name.getLocalPart());
+
+        for (Iterator<?> it = start.getNamespaces(); it.hasNext(); ) {
+            final Namespace namespace = (Namespace) it.next();
+            element.setAttribute(
+                    namespace.isDefaultNamespaceDeclaration() ? "xmlns" : "xmlns:" + namespace.getPrefix(),
+                    namespace.getNamespaceURI()
+            );
+        }
+
+        for (Iterator<?> it = start.getAttributes(); it.hasNext(); ) {
+            final Attribute attribute = (Attribute) it.next();
+            final QName attrName = attribute.getName();
+            element.setAttribute(
+                    attrName.getPrefix().isEmpty() ? attrName.getLocalPart() : attrName.getPrefix() + ":" + attrName.getLocalPart(),
+                    attribute.getValue()
+            );
+        }
+
+        return element;
+    } // createElement
+
+    /**
+     * Load an element whose start tag has just been read, along with its subtree, as a DOM element.
+     * Adjacent text nodes are merged.
+     */
+    private static Element readElement(
+            @NotNull Document doc,
+            @NotNull StartElement start,
+            @NotNull XMLEventReader reader
+    ) throws XMLStreamException {
+        final Element root = createElement(doc, start);
+
+        final List<Node> stack = new ArrayList<>();
+        stack.add(root);
+
+        while (!stack.isEmpty()) {
+            final XMLEvent event = reader.nextEvent();
+            final Node parent = stack.get(stack.size() - 1);
+
+            switch (event.getEventType()) {
+                case XMLStreamConstants.START_ELEMENT:
+                    final Element child = createElement(doc, event.asStartElement());
+                    parent.appendChild(child);
+                    stack.add(child);
+                    break;
+                case XMLStreamConstants.END_ELEMENT:
+                    stack.remove(stack.size() - 1);
+                    break;
+                case XMLStreamConstants.CHARACTERS:
+                case XMLStreamConstants.SPACE:
+                case XMLStreamConstants.CDATA:
+                    if (event.asCharacters().isCData())
+                        parent.appendChild(doc.createCDATASection(event.asCharacters().getData()));
+                    else
+                        parent.appendChild(doc.createTextNode(event.asCharacters().getData()));
+                    break;
+                case XMLStreamConstants.COMMENT:
+                    parent.appendChild(doc.createComment(((Comment) event).getText()));
+                    break;
+                case XMLStreamConstants.PROCESSING_INSTRUCTION:
+                    final ProcessingInstruction pi = (ProcessingInstruction) event;
+                    parent.appendChild(doc.createProcessingInstruction(pi.getTarget(), pi.getData()));
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        root.normalize();
+        return root;
+    } // readElement
+
+
+    //************************************************
+    //*                Nested classes                *
+    //************************************************
+
+    @FunctionalInterface
+    public interface ElementMatcher {
+
+        /**
+         * @param parents local names of the enclosing elements, outermost first
+         * @param element start tag of the element
+         * @return whether the element is matched
+         */
+        boolean matches(List<String> parents, StartElement element);
+
+    } // interface ElementMatcher
+
+    @FunctionalInterface
+    public interface ContentWriter {
+
+        /**
+         * @param writer  output
+         * @param element start tag of the replaced element; null when appending
+         */
+        void write(XMLStreamWriter writer, StartElement element) throws IOException, XMLStreamException;
+
+    } // interface ContentWriter
+
+    @FunctionalInterface
+    public interface ElementEditor {
+
+        void edit(Element element) throws IOException, XMLStreamException;
+
+    } // interface ElementEditor
+
+    private enum RuleType {
+        REPLACE, EDIT, APPEND_TO
+    }
+
+    private static class Rule {
+
+        private final ElementMatcher matcher;
+        private final RuleType type;
+        private final ContentWriter contentWriter;
+        private final ElementEditor editor;
+
+        Rule(ElementMatcher matcher, RuleType type, ContentWriter contentWriter, ElementEditor editor) {
+            this.matcher = matcher;
+            this.type = type;
+            this.contentWriter = contentWriter;
+            this.editor = editor;
+        }
+
+    } // class Rule
+
+}
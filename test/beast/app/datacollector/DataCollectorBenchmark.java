@@ -0,0 +1,108 @@
+package beast.app.datacollector;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.*;
+
+/**
+ * Times the missing data filter and the sorting of candidate mutated sites of DataCollector.
+ * <p>
+ * Usage: java -Xmx4g beast.app.datacollector.DataCollectorBenchmark [nrOfSites] [nrOfCells] [nrOfComparedSites]
+ * <p>
+ * The defaults are 100,000 sites and 500 cells. Counting missing entries is compared with sorting the lines with the
+ * comparator DataCollector used to, which is quadratic in the number of sites, so that the latter is only run on the
+ * first nrOfComparedSites sites (10,000 by default), where both should remove the same sites.
+ */
+public class DataCollectorBenchmark {
+
+    private final static double MISSING_DATA_THRESHOLD = 0.2;
+
+    public static void main(String[] args) throws IOException {
+        final int nrOfSites = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+        final int nrOfCells = args.length > 1 ? Integer.parseInt(args[1]) : 500;
+        final int nrOfComparedSites = args.length > 2 ? Integer.parseInt(args[2]) : 10000;
+
+        final DataCollectorDialog.DataType datatype = DataCollectorDialog.DataType.CovSup;
+        final Random random = new Random(42);
+        final PrintStream log = new PrintStream(new ByteArrayOutputStream());
+
+        final int[] indicesToKeptCells = new int[nrOfCells];
+        for (int i = 0; i < nrOfCells; i++)
+            indicesToKeptCells[i] = i;
+
+        // lines are kept joined to save memory
+        final List<String> lines = new ArrayList<>(nrOfSites);
+        for (int i = 0; i < nrOfSites; i += 1000) {
+            for (String[] line : MissingDataFilterTest.generateLines(random, datatype, i, Math.min(1000, nrOfSites - i), nrOfCells))
+                lines.add(String.join("\t", line));
+        }
+        System.out.println("Candidate mutated sites: " + nrOfSites + " sites x " + nrOfCells + " cells");
+
+        // parse lines as DataCollector does, counting missing entries
+        long start = System.nanoTime();
+        final MutationSite[] sites = new MutationSite[nrOfSites];
+        for (int i = 0; i < nrOfSites; i++)
+            sites[i] = MutationSite.parse(lines.get(i), datatype, true, -1, indicesToKeptCells, i);
+        report("parsing", start);
+
+        final int[] ordinals = new int[nrOfSites];
+        final int[] entryNums = new int[nrOfSites];
+        final int[] missingEntryNums = new int[nrOfSites];
+        for (int i = 0; i < nrOfSites; i++) {
+            ordinals[i] = sites[i].getOrdinal();
+            entryNums[i] = sites[i].getEntryNum();
+            missingEntryNums[i] = sites[i].getMissingEntryNum();
+        }
+
+        // missing data filter, warmed up once
+        BitSet removed = MissingDataFilter.removeMutationLines(ordinals, entryNums, missingEntryNums, MISSING_DATA_THRESHOLD, log);
+        start = System.nanoTime();
+        removed = MissingDataFilter.removeMutationLines(ordinals, entryNums, missingEntryNums, MISSING_DATA_THRESHOLD, log);
+        report("filtering by counting (" + removed.cardinality() + " sites removed)", start);
+
+        // the former comparator on a prefix of the sites
+        final int nrOfCompared = Math.min(nrOfComparedSites, nrOfSites);
+        if (nrOfCompared > 1) {
+            final List<String[]> compared = new ArrayList<>(nrOfCompared);
+            for (String line : lines.subList(0, nrOfCompared))
+                compared.add(line.split("\t"));
+
+            start = System.nanoTime();
+            final BitSet expected = MissingDataFilterTest.removeBySorting(compared, indicesToKeptCells, MISSING_DATA_THRESHOLD);
+            report("filtering by sorting lines, first " + nrOfCompared + " sites", start);
+
+            start = System.nanoTime();
+            final BitSet actual = MissingDataFilter.removeMutationLines(
+                    Arrays.copyOf(ordinals, nrOfCompared),
+                    Arrays.copyOf(entryNums, nrOfCompared),
+                    Arrays.copyOf(missingEntryNums, nrOfCompared),
+                    MISSING_DATA_THRESHOLD,
+                    log
+            );
+            report("filtering by counting, first " + nrOfCompared + " sites", start);
+
+            if (!expected.equals(actual))
+                throw new IllegalStateException("Different sites are removed.");
+        }
+
+        // sorting in memory and on disk
+        for (long memoryBudget : new long[]{Long.MAX_VALUE, Runtime.getRuntime().maxMemory() / 64}) {
+            start = System.nanoTime();
+            try (MutationSiteSorter sorter = new MutationSiteSorter(memoryBudget)) {
+                for (MutationSite site : sites)
+                    sorter.add(site);
+
+                final int[] counter = {0};
+                sorter.forEach(site -> counter[0]++);
+
+                report("sorting and iterating (" + sorter.getNrOfRuns() + " runs)", start);
+            }
+        }
+    } // main
+
+    private static void report(final String name, final long start) {
+        System.out.printf("  %-60s %10.1f ms%n", name, (System.nanoTime() - start) / 1e6);
+    } // report
+
+}
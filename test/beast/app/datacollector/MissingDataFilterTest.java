@@ -0,0 +1,253 @@
+package beast.app.datacollector;
+
+import beast.evolution.alignment.VariantSiteInfo;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.util.*;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks that the sites removed due to missing data are the same as those removed by sorting the lines with a
+ * comparator on their numbers of missing entries, as DataCollector used to.
+ */
+public class MissingDataFilterTest {
+
+    private final PrintStream log = new PrintStream(new ByteArrayOutputStream());
+
+    @Test
+    public void testSameAsSortingLines() {
+        final Random random = new Random(42);
+
+        for (int k = 0; k < 100; k++) {
+            final DataCollectorDialog.DataType datatype = DataCollectorDialog.DataType.values()[k % 2];
+            final int nrOfCells = 1 + random.nextInt(12);
+            final int nrOfSites = 2 + random.nextInt(200);
+
+            // keep a random subset of cells
+            final int[] indicesToKeptCells = getIndicesToKeptCells(random, nrOfCells);
+
+            final List<String[]> lines = generateLines(random, datatype, nrOfSites, nrOfCells);
+
+            for (double missingDataThreshold : new double[]{0.05, 0.2, 0.3, 0.35, 0.5, 0.9}) {
+                assertEquals(
+                        "cells " + nrOfCells + ", sites " + nrOfSites + ", threshold " + missingDataThreshold,
+                        removeBySorting(lines, indicesToKeptCells, missingDataThreshold),
+                        removeByCounting(lines, datatype, indicesToKeptCells, missingDataThreshold)
+                );
+            }
+        }
+    } // testSameAsSortingLines
+
+    /**
+     * Many sites share the same numbers of missing entries, so that ties decide which sites are removed.
+     */
+    @Test
+    public void testTies() {
+        final Random random = new Random(7);
+
+        for (int k = 0; k < 20; k++) {
+            final int nrOfCells = 2 + random.nextInt(3);
+            final List<String[]> lines = generateLines(random, DataCollectorDialog.DataType.CovSup, 300, nrOfCells);
+            final int[] indicesToKeptCells = getIndicesToKeptCells(random, nrOfCells);
+
+            for (double missingDataThreshold = 0.01; missingDataThreshold < 1; missingDataThreshold += 0.07) {
+                assertEquals(
+                        removeBySorting(lines, indicesToKeptCells, missingDataThreshold),
+                        removeByCounting(lines, DataCollectorDialog.DataType.CovSup, indicesToKeptCells, missingDataThreshold)
+                );
+            }
+        }
+    } // testTies
+
+    private BitSet removeByCounting(
+            final List<String[]> lines,
+            final DataCollectorDialog.DataType datatype,
+            final int[] indicesToKeptCells,
+            final double missingDataThreshold
+    ) {
+        final int[] ordinals = new int[lines.size()];
+        final int[] entryNums = new int[lines.size()];
+        final int[] missingEntryNums = new int[lines.size()];
+
+        for (int i = 0; i < lines.size(); i++) {
+            final MutationSite site = MutationSite.parse(String.join("\t", lines.get(i)), datatype, true, -1, indicesToKeptCells, i);
+            ordinals[i] = site.getOrdinal();
+            entryNums[i] = site.getEntryNum();
+            missingEntryNums[i] = site.getMissingEntryNum();
+        }
+
+        return MissingDataFilter.removeMutationLines(ordinals, entryNums, missingEntryNums, missingDataThreshold, log);
+    } // removeByCounting
+
+    /**
+     * Remove lines as DataCollector used to, where the position of a line identifies its ordinal.
+     */
+    static BitSet removeBySorting(
+            final List<String[]> lines,
+            final int[] indicesToKeptCells,
+            final double missingDataThreshold
+    ) {
+        List<String[]> mutationLines = new ArrayList<>(lines);
+        BitSet removed = new BitSet();
+
+        MissingDataComparator comp = new MissingDataComparator(indicesToKeptCells);
+
+        mutationLines.sort(comp);
+
+        int entryNum = comp.getEntryNum();
+        int missingEntryNum = comp.getMissingEntryNum();
+
+        double percentage = ((double) missingEntryNum) / entryNum;
+        if (percentage <= missingDataThreshold)
+            return removed;
+
+        Iterator<String[]> iter = mutationLines.iterator();
+        while (iter.hasNext()) {
+            final String[] line = iter.next();
+            iter.remove();
+            removed.set(Integer.parseInt(line[1]) - 1);
+
+            final int[] tmp = comp.getEntryNum(line);
+
+            missingEntryNum -= tmp[0];
+            entryNum -= tmp[1];
+
+            percentage = ((double) missingEntryNum) / entryNum;
+            if (percentage <= missingDataThreshold)
+                break;
+        }
+
+        return removed;
+    } // removeBySorting
+
+    /**
+     * Generate tab separated lines; the position of each site is its index plus one.
+     */
+    static List<String[]> generateLines(
+            final Random random,
+            final DataCollectorDialog.DataType datatype,
+            final int nrOfSites,
+            final int nrOfCells
+    ) {
+        return generateLines(random, datatype, 0, nrOfSites, nrOfCells);
+    } // generateLines
+
+    static List<String[]> generateLines(
+            final Random random,
+            final DataCollectorDialog.DataType datatype,
+            final int firstSite,
+            final int nrOfSites,
+            final int nrOfCells
+    ) {
+        List<String[]> lines = new ArrayList<>(nrOfSites);
+
+        for (int i = firstSite; i < firstSite + nrOfSites; i++) {
+            // sites differ in how much data is missing
+            final double missing = random.nextDouble() * 0.8;
+
+            List<String> line = new ArrayList<>(Arrays.asList("1", String.valueOf(i + 1), "A", "C"));
+            for (int j = 0; j < nrOfCells; j++) {
+                final int coverage = random.nextDouble() < missing ? 0 : 1 + random.nextInt(30);
+
+                if (datatype == DataCollectorDialog.DataType.CovSup) {
+                    line.add(String.valueOf(coverage));
+                    line.add(String.valueOf(coverage == 0 ? 0 : random.nextInt(coverage + 1)));
+                } else {
+                    line.add("T,C,G;" + random.nextInt(coverage + 1) + ",0,0," + coverage);
+                }
+            }
+
+            lines.add(line.toArray(new String[0]));
+        }
+
+        return lines;
+    } // generateLines
+
+    static int[] getIndicesToKeptCells(final Random random, final int nrOfCells) {
+        List<Integer> kept = new ArrayList<>();
+        for (int i = 0; i < nrOfCells; i++) {
+            if (kept.isEmpty() && i == nrOfCells - 1 || random.nextInt(4) != 0)
+                kept.add(i);
+        }
+
+        return kept.stream().mapToInt(Integer::intValue).toArray();
+    } // getIndicesToKeptCells
+
+    /**
+     * The comparator DataCollector used to sort lines with, where the numbers of entries are counted as a side effect.
+     */
+    static class MissingDataComparator implements Comparator<String[]> {
+
+        private final int[] indicesToKeptCells;
+        private final List<VariantSiteInfo> varInfo;
+
+        // The number of total entries of cells to be kept across all sites.
+        private int entryNum;
+
+        // The number of entries of missing data of cells to be kept across all sites.
+        private int missingEntryNum;
+
+        MissingDataComparator(final int[] indicesToKeptCells) {
+            this.indicesToKeptCells = indicesToKeptCells;
+            this.varInfo = new ArrayList<>();
+        } // MissingDataComparator
+
+        public int[] getEntryNum(final String[] o) {
+            int[] ret = {0, o.length - 4};
+
+            for (int i : this.indicesToKeptCells) {
+                final String[] comp = o[i + 4].split(",");
+                if (Integer.parseInt(comp[comp.length - 1]) == 0) ret[0]++;
+            }
+
+            return ret;
+        } // getEntryNum
+
+        @Override
+        public int compare(final String[] o1, final String[] o2) {
+            final VariantSiteInfo var1 = new VariantSiteInfo(
+                    o1[0],
+                    Long.parseLong(o1[1]),
+                    o1[2],
+                    o1[3].split(",")
+            );
+
+            final VariantSiteInfo var2 = new VariantSiteInfo(
+                    o2[0],
+                    Long.parseLong(o2[1]),
+                    o2[2],
+                    o2[3].split(",")
+            );
+
+            final int[] entryNum1 = getEntryNum(o1);
+            final int[] entryNum2 = getEntryNum(o2);
+
+            if (!this.varInfo.contains(var1)) {
+                this.varInfo.add(var1);
+                this.missingEntryNum += entryNum1[0];
+                this.entryNum += entryNum1[1];
+            }
+
+            if (!this.varInfo.contains(var2)) {
+                this.varInfo.add(var2);
+                this.missingEntryNum += entryNum2[0];
+                this.entryNum += entryNum2[1];
+            }
+
+            return Integer.compare(entryNum2[0], entryNum1[0]);
+        } // compare
+
+        public int getEntryNum() {
+            return entryNum;
+        } // getEntryNum
+
+        public int getMissingEntryNum() {
+            return missingEntryNum;
+        } // getMissingEntryNum
+
+    } // class MissingDataComparator
+
+}
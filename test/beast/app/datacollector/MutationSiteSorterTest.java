@@ -0,0 +1,270 @@
+package beast.app.datacollector;
+
+import org.junit.Test;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class MutationSiteSorterTest {
+
+    private final static String[] CHROMOSOMES = {"1", "2", "10", "X", "chr3", "Y"};
+    private final static String[] ALTS = {"A", "C", "G", "T", "C,G"};
+
+    /**
+     * Sites merged from run files should come in the same order as sorting them in memory, whatever the budget.
+     */
+    @Test
+    public void testExternalSortMatchesInMemorySort() throws IOException {
+        final Random random = new Random(42);
+
+        for (DataCollectorDialog.DataType datatype : DataCollectorDialog.DataType.values()) {
+            final List<MutationSite> sites = generateSites(random, datatype, 2000, 7);
+
+            final List<MutationSite> expected = new ArrayList<>(sites);
+            expected.sort(MutationSite::compareTo);
+
+            for (long memoryBudget : new long[]{0, 1000, 20000, 200000, Long.MAX_VALUE}) {
+                try (MutationSiteSorter sorter = new MutationSiteSorter(memoryBudget)) {
+                    for (MutationSite site : sites)
+                        sorter.add(site);
+
+                    sorter.sort();
+                    if (memoryBudget == Long.MAX_VALUE)
+                        assertEquals(0, sorter.getNrOfRuns());
+                    else
+                        assertTrue("budget " + memoryBudget, sorter.getNrOfRuns() > 1);
+
+                    assertEquals(sites.size(), sorter.size());
+
+                    // iterating twice gives the same sites
+                    for (int k = 0; k < 2; k++)
+                        assertSameSites("budget " + memoryBudget, expected, collect(sorter));
+                }
+            }
+        }
+    } // testExternalSortMatchesInMemorySort
+
+    /**
+     * With one site per run, runs should be merged in passes down to the maximum fan-in, keeping the order.
+     */
+    @Test
+    public void testManyRuns() throws IOException {
+        final Random random = new Random(11);
+
+        for (DataCollectorDialog.DataType datatype : DataCollectorDialog.DataType.values()) {
+            final List<MutationSite> sites = generateSites(random, datatype, 1000, 5);
+
+            final List<MutationSite> expected = new ArrayList<>(sites);
+            expected.sort(MutationSite::compareTo);
+
+            for (int maxFanIn : new int[]{2, 3, 7, MutationSiteSorter.DEFAULT_MAX_FAN_IN}) {
+                try (MutationSiteSorter sorter = new MutationSiteSorter(0, maxFanIn)) {
+                    for (MutationSite site : sites)
+                        sorter.add(site);
+                    assertEquals(sites.size(), sorter.getNrOfRuns());
+
+                    sorter.sort();
+                    assertTrue("fan-in " + maxFanIn, sorter.getNrOfRuns() <= maxFanIn);
+                    assertTrue("fan-in " + maxFanIn, sorter.getNrOfRuns() > 1);
+
+                    for (int k = 0; k < 2; k++)
+                        assertSameSites("fan-in " + maxFanIn, expected, collect(sorter));
+                }
+            }
+        }
+    } // testManyRuns
+
+    @Test
+    public void testDuplicateSitesAcrossRuns() throws IOException {
+        final Random random = new Random(7);
+        final List<MutationSite> sites = generateSites(random, DataCollectorDialog.DataType.CovSup, 100, 3);
+
+        try (MutationSiteSorter sorter = new MutationSiteSorter(2000)) {
+            for (MutationSite site : sites)
+                sorter.add(site);
+
+            // the same locus again, after the first one has been spilled
+            sorter.add(MutationSite.parse(getLine(sites.get(0), 3), DataCollectorDialog.DataType.CovSup, true, -1, null, sites.size()));
+            assertTrue(sorter.getNrOfRuns() > 0);
+
+            try {
+                sorter.forEach(site -> {
+                });
+                fail("Duplicate sites should be rejected.");
+            } catch (RuntimeException e) {
+                assertTrue(e.getMessage(), e.getMessage().startsWith("Duplicate sites information detected"));
+            }
+        }
+    } // testDuplicateSitesAcrossRuns
+
+    @Test
+    public void testNoAddAfterSort() throws IOException {
+        final List<MutationSite> sites = generateSites(new Random(3), DataCollectorDialog.DataType.CovSup, 2, 3);
+
+        try (MutationSiteSorter sorter = new MutationSiteSorter(Long.MAX_VALUE)) {
+            sorter.add(sites.get(0));
+            sorter.sort();
+
+            try {
+                sorter.add(sites.get(1));
+                fail("Sites should not be added after sorting.");
+            } catch (IllegalStateException e) {
+                // expected
+            }
+        }
+    } // testNoAddAfterSort
+
+    @Test
+    public void testClose() throws IOException {
+        final List<MutationSite> sites = generateSites(new Random(5), DataCollectorDialog.DataType.FullSupsCov, 200, 3);
+
+        MutationSiteSorter sorter = new MutationSiteSorter(1000);
+        for (MutationSite site : sites)
+            sorter.add(site);
+        sorter.sort();
+        assertTrue(sorter.getNrOfRuns() > 0);
+
+        sorter.close();
+        assertEquals(0, sorter.getNrOfRuns());
+    } // testClose
+
+    /**
+     * Sites written to and read from run files should keep their read counts.
+     */
+    @Test
+    public void testWriteAndRead() throws IOException {
+        final Random random = new Random(9);
+
+        for (DataCollectorDialog.DataType datatype : DataCollectorDialog.DataType.values()) {
+            final String line = generateLine(random, datatype, "10", 123, "C,G", 4);
+            final MutationSite site = MutationSite.parse(line, datatype, true, -1, null, 0);
+            assertEquals(line, getLine(site, 4));
+
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            try (DataOutputStream out = new DataOutputStream(bytes)) {
+                site.write(out);
+            }
+
+            try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+                assertEquals(line, getLine(MutationSite.read(in), 4));
+            }
+        }
+    } // testWriteAndRead
+
+    private static List<MutationSite> collect(MutationSiteSorter sorter) throws IOException {
+        List<MutationSite> sites = new ArrayList<>();
+        sorter.forEach(sites::add);
+
+        return sites;
+    } // collect
+
+    private static void assertSameSites(String message, List<MutationSite> expected, List<MutationSite> actual) {
+        assertEquals(message, expected.size(), actual.size());
+
+        for (int i = 0; i < expected.size(); i++) {
+            final MutationSite e = expected.get(i);
+            final MutationSite a = actual.get(i);
+
+            assertEquals(message, e.getLocusInfo(), a.getLocusInfo());
+            assertEquals(message, e.getOrdinal(), a.getOrdinal());
+            assertEquals(message, e.getEntryNum(), a.getEntryNum());
+            assertEquals(message, e.getMissingEntryNum(), a.getMissingEntryNum());
+            assertEquals(message, getLine(e, e.getNrOfCellsInLine()), getLine(a, a.getNrOfCellsInLine()));
+        }
+    } // assertSameSites
+
+    /**
+     * Generate sites with unique loci, in a random order.
+     */
+    static List<MutationSite> generateSites(
+            final Random random,
+            final DataCollectorDialog.DataType datatype,
+            final int nrOfSites,
+            final int nrOfCells
+    ) {
+        final int[] keptCells = {0, nrOfCells - 1};
+
+        List<MutationSite> sites = new ArrayList<>(nrOfSites);
+        for (int i = 0; i < nrOfSites; i++) {
+            // positions are unique within each chromosome, so that no loci are duplicated
+            final String chromosome = CHROMOSOMES[i % CHROMOSOMES.length];
+            final long position = 1 + (long) (i / CHROMOSOMES.length) * 10 + random.nextInt(10);
+            final String alts = ALTS[random.nextInt(ALTS.length)];
+
+            sites.add(MutationSite.parse(
+                    generateLine(random, datatype, chromosome, position, alts, nrOfCells),
+                    datatype,
+                    true,
+                    -1,
+                    keptCells,
+                    i
+            ));
+        }
+
+        // shuffle with the same random generator for reproducibility
+        for (int i = sites.size() - 1; i > 0; i--) {
+            final int j = random.nextInt(i + 1);
+            final MutationSite tmp = sites.get(i);
+            sites.set(i, sites.get(j));
+            sites.set(j, tmp);
+        }
+
+        return sites;
+    } // generateSites
+
+    static String generateLine(
+            final Random random,
+            final DataCollectorDialog.DataType datatype,
+            final String chromosome,
+            final long position,
+            final String alts,
+            final int nrOfCells
+    ) {
+        StringBuilder sb = new StringBuilder();
+        sb.append(chromosome).append('\t').append(position).append("\tA\t").append(alts);
+
+        for (int i = 0; i < nrOfCells; i++) {
+            // about a third of the entries are missing
+            final int coverage = random.nextInt(3) == 0 ? 0 : 1 + random.nextInt(40);
+
+            if (datatype == DataCollectorDialog.DataType.CovSup)
+                sb.append('\t').append(coverage).append('\t').append(coverage == 0 ? 0 : random.nextInt(coverage + 1));
+            else
+                sb.append("\tT,C,G;").append(random.nextInt(coverage + 1)).append(',').append(random.nextInt(3))
+                        .append(',').append(random.nextInt(3)).append(',').append(coverage);
+        }
+
+        return sb.toString();
+    } // generateLine
+
+    /**
+     * @return the line of the '=mutations=' section which the site was parsed from, up to white spaces
+     */
+    private static String getLine(MutationSite site, int nrOfCells) {
+        StringBuilder sb = new StringBuilder();
+        sb.append(site.getChromosome()).append('\t').append(site.getPosition()).append('\t').append(site.getRef())
+                .append('\t').append(site.getAlts());
+
+        for (int i = 0; i < nrOfCells; i++) {
+            sb.append('\t');
+
+            if (site.getNrOfNucs() == 0) {
+                sb.append(site.getCount(i, 0)).append('\t').append(site.getCount(i, 1));
+            } else {
+                StringBuilder cell = new StringBuilder();
+                site.appendCell(cell, i);
+
+                // "T,C,G,r1,r2,r3,cov" -> "T,C,G;r1,r2,r3,cov"
+                final int sep = 2 * site.getNrOfNucs() - 1;
+                sb.append(cell, 0, sep).append(';').append(cell, sep + 1, cell.length());
+            }
+        }
+
+        return sb.toString();
+    } // getLine
+
+}
@@ -0,0 +1,76 @@
+package beast.app.datacollector;
+
+import org.junit.Test;
+
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TextSpoolTest {
+
+    /**
+     * More sections than files a process may usually open at a time, appended to in turns as by DataCollector.
+     */
+    @Test
+    public void testManySections() throws IOException, XMLStreamException {
+        final Random random = new Random(41);
+        final int nrOfSections = 5000;
+
+        final StringBuilder[] expected = new StringBuilder[nrOfSections];
+        for (int i = 0; i < nrOfSections; i++)
+            expected[i] = new StringBuilder();
+
+        try (TextSpool spool = new TextSpool(nrOfSections, 0)) {
+            for (int k = 0; k < 300; k++) {
+                for (int i = 0; i < nrOfSections; i++) {
+                    final String text = (k == 0 ? "" : ";") + random.nextInt(100) + "," + random.nextInt(1000);
+                    expected[i].append(text);
+
+                    spool.getBuffer(i).append(text);
+                    spool.flush(i);
+                }
+            }
+
+            spool.finish();
+
+            // sections are read in an order different from that of writing
+            for (int i = nrOfSections - 1; i >= 0; i -= 7) {
+                assertTrue(spool.getNrOfChunks(i) > 1);
+                assertEquals("section " + i, expected[i].toString(), getCharacters(spool, i));
+            }
+        }
+    } // testManySections
+
+    @Test
+    public void testEmptyAndNonAsciiSections() throws IOException, XMLStreamException {
+        try (TextSpool spool = new TextSpool(3, 1 << 20)) {
+            spool.getBuffer(2).append("A,C;é,G");
+            spool.flush(2);
+            spool.finish();
+
+            assertEquals("", getCharacters(spool, 0));
+            assertEquals("", getCharacters(spool, 1));
+            assertEquals("A,C;é,G", getCharacters(spool, 2));
+
+            // reading a section twice gives the same text
+            assertEquals("A,C;é,G", getCharacters(spool, 2));
+        }
+    } // testEmptyAndNonAsciiSections
+
+    private static String getCharacters(TextSpool spool, int section) throws IOException, XMLStreamException {
+        StringWriter out = new StringWriter();
+
+        XMLStreamWriter writer = XMLOutputFactory.newInstance().createXMLStreamWriter(out);
+        spool.writeCharacters(writer, section);
+        writer.flush();
+
+        return out.toString();
+    } // getCharacters
+
+}
@@ -0,0 +1,150 @@
+package beast.app.variantcaller;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class AllelicSeqLogProcessorTest {
+
+    private final static int SITE_NUM = 7;
+    private final static int MATRIX_NUM = 3;
+    private final static int SAMPLE_NUM = 4001;
+    private final static int BURNIN_PERCENTAGE = 10;
+
+    // bound on the rank error of the streaming median
+    private final static double RANK_TOLERANCE = 0.02;
+
+    private final PrintStream log = new PrintStream(new ByteArrayOutputStream());
+
+    private File dir;
+    private File input;
+
+    // samples after burn-in; 1st dimension: sites; 2nd dimension: matrices; 3rd dimension: 0: cov; 1: var
+    private double[][][][] samples;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("allelic").toFile();
+        input = new File(dir, "allelic.log");
+
+        final Random random = new Random(7);
+        final int burnin = BURNIN_PERCENTAGE * SAMPLE_NUM / 100;
+        samples = new double[SITE_NUM][MATRIX_NUM][2][SAMPLE_NUM - burnin];
+
+        try (PrintStream out = new PrintStream(input)) {
+            for (int i = 0; i < SITE_NUM; i++)
+                out.println("#site" + (i + 1) + "->1," + (100 + i));
+
+            out.print("Sample");
+            for (int i = 0; i < SITE_NUM; i++)
+                out.print("\tsite" + (i + 1));
+            out.println();
+
+            for (int k = 0; k < SAMPLE_NUM; k++) {
+                out.print(k * 100);
+
+                for (int i = 0; i < SITE_NUM; i++) {
+                    out.print("\t");
+
+                    for (int j = 0; j < MATRIX_NUM; j++) {
+                        final double cov = 10 + i + 3 * random.nextGaussian();
+                        final double var = Math.exp(random.nextGaussian());
+
+                        if (k >= burnin) {
+                            samples[i][j][0][k - burnin] = cov;
+                            samples[i][j][1][k - burnin] = var;
+                        }
+
+                        out.print((j > 0 ? ";" : "") + cov + "," + var);
+                    }
+                }
+                out.println();
+            }
+        }
+    } // setUp
+
+    @After
+    public void tearDown() {
+        input.delete();
+        dir.delete();
+    } // tearDown
+
+    /**
+     * By default, medians are computed from all samples.
+     */
+    @Test
+    public void testExactMedianByDefault() throws Exception {
+        for (int threads : new int[]{1, 3}) {
+            final Map<String, Map<String, double[][]>> estimates = process(
+                    new AllelicSeqLogProcessor(threads, input.getPath(), log,
+                            EstimatesTypeCollection.EstimatesType.MEDIAN, null, BURNIN_PERCENTAGE)
+            );
+
+            for (int i = 0; i < SITE_NUM; i++) {
+                final double[][] median = getMedian(estimates, i);
+
+                for (int j = 0; j < MATRIX_NUM; j++) {
+                    for (int k = 0; k < 2; k++)
+                        assertEquals(exactMedian(samples[i][j][k]), median[j][k], 0);
+                }
+            }
+        }
+    } // testExactMedianByDefault
+
+    /**
+     * The streaming median is only used if requested, and its rank error is bounded.
+     */
+    @Test
+    public void testSketchMedian() throws Exception {
+        final Map<String, Map<String, double[][]>> estimates = process(
+                new AllelicSeqLogProcessor(2, input.getPath(), log,
+                        EstimatesTypeCollection.EstimatesType.MEDIAN, null, BURNIN_PERCENTAGE, true)
+        );
+
+        for (int i = 0; i < SITE_NUM; i++) {
+            final double[][] median = getMedian(estimates, i);
+
+            for (int j = 0; j < MATRIX_NUM; j++) {
+                for (int k = 0; k < 2; k++) {
+                    final double[] sorted = samples[i][j][k].clone();
+                    Arrays.sort(sorted);
+
+                    int below = 0;
+                    while (below < sorted.length && sorted[below] < median[j][k]) below++;
+
+                    final double rank = (double) below / sorted.length;
+                    assertTrue("site " + (i + 1) + ", matrix " + (j + 1) + ": rank " + rank,
+                            Math.abs(rank - 0.5) <= RANK_TOLERANCE);
+                }
+            }
+        }
+    } // testSketchMedian
+
+    private static Map<String, Map<String, double[][]>> process(AllelicSeqLogProcessor processor) throws Exception {
+        processor.getAllelicSeqInfo();
+        processor.collectAllelicSeqEstimates();
+        return processor.getAllelicSeqEstimates();
+    } // process
+
+    private static double[][] getMedian(Map<String, Map<String, double[][]>> estimates, int site) {
+        return estimates.get("site" + (site + 1)).get(EstimatesTypeCollection.EstimatesType.MEDIAN.toString().toLowerCase());
+    } // getMedian
+
+    private static double exactMedian(final double[] values) {
+        final double[] sorted = values.clone();
+        Arrays.sort(sorted);
+
+        final int n = sorted.length;
+        return n % 2 == 1 ? sorted[n / 2] : (sorted[n / 2 - 1] + sorted[n / 2]) / 2;
+    } // exactMedian
+
+}
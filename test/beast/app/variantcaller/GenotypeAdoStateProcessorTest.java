@@ -0,0 +1,142 @@
+package beast.app.variantcaller;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+public class GenotypeAdoStateProcessorTest {
+
+    private final static String[] GENOTYPES = {"0/0", "0/1", "1/1", "0/2", "1/2"};
+
+    private final PrintStream log = new PrintStream(new ByteArrayOutputStream());
+
+    private File dir;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("gtado").toFile();
+    } // setUp
+
+    @After
+    public void tearDown() {
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files)
+                file.delete();
+        }
+        dir.delete();
+    } // tearDown
+
+    /**
+     * With few samples per site, most modes are ties; the output should not depend on the number of threads.
+     */
+    @Test
+    public void testSameOutputAcrossThreads() throws Exception {
+        final File input = new File(dir, "samples.log");
+        writeSamples(input, 53, 7, 4, new Random(11));
+
+        final String[] expected = process(input, 1);
+        for (int threads : new int[]{2, 3, 8}) {
+            final String[] actual = process(input, threads);
+
+            assertEquals("genotypes with " + threads + " threads", expected[0], actual[0]);
+            assertEquals("ADO states with " + threads + " threads", expected[1], actual[1]);
+        }
+    } // testSameOutputAcrossThreads
+
+    /**
+     * Genotypes are seen in opposite orders at the two sites; ties go to the lexicographically smallest genotype.
+     */
+    @Test
+    public void testTieBreak() throws Exception {
+        final File input = new File(dir, "ties.log");
+        try (PrintStream out = new PrintStream(input)) {
+            out.println("Sample\ts1\ts2");
+            out.println("0\t0/1,1\t1/1,2");
+            out.println("1\t0/0,0\t0/1,1");
+        }
+
+        for (int threads : new int[]{1, 2}) {
+            GenotypeAdoStateProcessor processor = new GenotypeAdoStateProcessor(threads, input.getPath(), null,
+                    null, 0, log);
+            processor.processGenotypeAdoStateSamples();
+
+            assertEquals("0/0", processor.getModeGenotype(0, 0));
+            assertEquals("0/1", processor.getModeGenotype(1, 0));
+            assertEquals(0, processor.getModeAdoState(0, 0));
+            assertEquals(1, processor.getModeAdoState(1, 0));
+        }
+    } // testTieBreak
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testIllegalAdoState() throws Exception {
+        final File input = new File(dir, "illegal.log");
+        try (PrintStream out = new PrintStream(input)) {
+            out.println("Sample\ts1");
+            out.println("0\t0/1,123456789");
+        }
+
+        new GenotypeAdoStateProcessor(1, input.getPath(), null, null, 0, log).processGenotypeAdoStateSamples();
+    } // testIllegalAdoState
+
+    /**
+     * @return the genotype file and the ADO state file
+     */
+    private String[] process(final File input, final int threads) throws Exception {
+        final File genotypes = new File(dir, "genotypes_" + threads + ".tsv");
+        final File adoStates = new File(dir, "ado_" + threads + ".tsv");
+
+        new GenotypeAdoStateProcessor(threads, input.getPath(), genotypes.getPath(), adoStates.getPath(), 25, log)
+                .processGenotypeAdoStateSamples();
+
+        return new String[]{
+                new String(Files.readAllBytes(genotypes.toPath()), "UTF-8"),
+                new String(Files.readAllBytes(adoStates.toPath()), "UTF-8")
+        };
+    } // process
+
+    private static void writeSamples(
+            final File file,
+            final int siteNum,
+            final int cellNum,
+            final int sampleNum,
+            final Random random
+    ) throws IOException {
+        try (PrintStream out = new PrintStream(file)) {
+            out.print("Sample");
+            for (int i = 0; i < siteNum; i++)
+                out.print("\ts" + (i + 1));
+            out.println();
+
+            for (int k = 0; k < sampleNum; k++) {
+                out.print(k * 1000);
+
+                for (int i = 0; i < siteNum; i++) {
+                    out.print("\t");
+
+                    for (int j = 0; j < cellNum; j++) {
+                        if (j > 0) out.print(";");
+                        out.print(GENOTYPES[random.nextInt(GENOTYPES.length)] + "," + random.nextInt(3));
+                    }
+                }
+                out.println();
+            }
+
+            out.print("#Cells: ");
+            for (int j = 0; j < cellNum; j++)
+                out.print((j > 0 ? "," : "") + "cell" + (j + 1));
+            out.println();
+
+            out.println("#Sites map (chromosome number,locus number,reference nucleotide,alternative nucleotides)");
+            for (int i = 0; i < siteNum; i++)
+                out.println("#s" + (i + 1) + "->1," + (100 + i) + ",A,CGT");
+        }
+    } // writeSamples
+
+}
@@ -0,0 +1,180 @@
+package beast.app.variantcaller;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * Checks that values parsed in place from a trace log are identical to those of {@link Double#parseDouble(String)}.
+ */
+public class TraceLogTest {
+
+    private final static String[] EDGE_CASES = {
+            "0", "-0", "+0", "0.0", "-0.0", "0e5", "-0e-400", "000123", "1.", ".5", "-.5", "1e0", "1E+3", "1e-3",
+            "123456789012345", "1234567890123456", "12345678901234567890", "0.1234567890123456789",
+            "9007199254740991", "9007199254740992", "9007199254740993", "1e22", "1e23", "1e-22", "1e-23",
+            "1.7976931348623157e308", "1.8e308", "4.9e-324", "2e-324", "1e-400", "1e400", "1e99999999999",
+            "NaN", "-NaN", "+NaN", "Infinity", "-Infinity", "+Infinity", " 1.5 ", "\t-2.25\t",
+            "0x1p3", "1d", "2.5f", "1e", "1e+", "-", ".", "", "1.2.3", "e5", "--1", "1e5e5", "Inf"
+    };
+
+    @Test
+    public void testEdgeCases() {
+        for (String value : EDGE_CASES)
+            assertSameValue(value);
+    } // testEdgeCases
+
+    /**
+     * Random signs, digits (up to more than 15 of them), decimal points and exponents.
+     */
+    @Test
+    public void testRandomValues() {
+        final Random random = new Random(46);
+
+        for (int k = 0; k < 200000; k++) {
+            StringBuilder sb = new StringBuilder();
+
+            switch (random.nextInt(3)) {
+                case 0:
+                    sb.append('-');
+                    break;
+                case 1:
+                    if (random.nextInt(4) == 0)
+                        sb.append('+');
+                    break;
+            }
+
+            final int nrOfDigits = 1 + random.nextInt(25);
+            final int point = random.nextInt(nrOfDigits + 2) - 1;
+            for (int i = 0; i < nrOfDigits; i++) {
+                if (i == point)
+                    sb.append('.');
+
+                // some leading zeros
+                sb.append(i == 0 && random.nextInt(5) == 0 ? 0 : random.nextInt(10));
+            }
+
+            if (random.nextBoolean()) {
+                sb.append(random.nextBoolean() ? 'e' : 'E');
+                if (random.nextBoolean())
+                    sb.append(random.nextBoolean() ? '-' : '+');
+                sb.append(random.nextInt(random.nextBoolean() ? 30 : 400));
+            }
+
+            assertSameValue(sb.toString());
+        }
+    } // testRandomValues
+
+    /**
+     * Values as they are written to trace logs.
+     */
+    @Test
+    public void testRandomDoubles() {
+        final Random random = new Random(64);
+
+        for (int k = 0; k < 200000; k++) {
+            final double value;
+            switch (k % 3) {
+                case 0:
+                    value = random.nextGaussian() * Math.pow(10, random.nextInt(40) - 20);
+                    break;
+                case 1:
+                    value = Double.longBitsToDouble(random.nextLong());
+                    break;
+                default:
+                    value = random.nextInt(1000000) / 1000.0;
+            }
+
+            assertSameValue(Double.toString(value));
+            assertSameValue(String.valueOf((float) value));
+        }
+    } // testRandomDoubles
+
+    /**
+     * A log mapped in windows much shorter than itself, so that lines cross the ends of windows.
+     */
+    @Test
+    public void testMultipleWindows() throws Exception {
+        final Random random = new Random(13);
+        final String[] variables = {"posterior", "likelihood", "treeHeight", "rate"};
+        final int nrOfSamples = 3000;
+
+        List<double[]> expected = new ArrayList<>();
+        File file = File.createTempFile("trace", ".log");
+
+        try {
+            try (PrintStream out = new PrintStream(file, "UTF-8")) {
+                out.println("# comment");
+                out.println("Sample\t" + String.join("\t", variables));
+
+                for (int k = 0; k < nrOfSamples; k++) {
+                    double[] values = new double[variables.length];
+                    StringBuilder sb = new StringBuilder().append(k * 1000);
+
+                    for (int i = 0; i < values.length; i++) {
+                        final String value = i == 3 && k % 500 == 0 ? "NaN" :
+                                Double.toString(random.nextGaussian() * Math.pow(10, random.nextInt(10) - 5));
+                        values[i] = Double.parseDouble(value);
+                        sb.append('\t').append(value);
+                    }
+
+                    expected.add(values);
+                    out.println(sb);
+                }
+            }
+
+            for (long windowSize : new long[]{128, 1000, 4093, file.length()}) {
+                final TraceLog traceLog = new TraceLog(file.getPath(), windowSize);
+                assertEquals(nrOfSamples, traceLog.getNrOfSamples());
+
+                for (int i = 0; i < variables.length; i++) {
+                    final double[] column = traceLog.getColumn(variables[i]);
+                    for (int k = 0; k < nrOfSamples; k++)
+                        assertEquals("window " + windowSize + ", sample " + k, expected.get(k)[i], column[k], 0);
+                }
+            }
+
+            try {
+                new TraceLog(file.getPath(), 16);
+                fail("Lines longer than a window should be rejected.");
+            } catch (IOException e) {
+                // expected
+            }
+        } finally {
+            file.delete();
+        }
+    } // testMultipleWindows
+
+    private static void assertSameValue(final String value) {
+        // surround the value with other bytes, which should not be read
+        final byte[] bytes = ("9\t" + value + "\t9").getBytes(StandardCharsets.UTF_8);
+        final ByteBuffer buffer = ByteBuffer.wrap(bytes);
+
+        double expected;
+        try {
+            expected = Double.parseDouble(value);
+        } catch (NumberFormatException e) {
+            try {
+                TraceLog.parseDouble(buffer, 2, bytes.length - 2);
+                fail("'" + value + "' should be rejected.");
+            } catch (NumberFormatException e1) {
+                // expected
+            }
+            return;
+        }
+
+        assertEquals("'" + value + "'", Double.doubleToLongBits(expected),
+                Double.doubleToLongBits(TraceLog.parseDouble(buffer, 2, bytes.length - 2)));
+    } // assertSameValue
+
+}
@@ -0,0 +1,197 @@
+package beast.evolution.alignment;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks that a filtered alignment, a view over the pattern storage of the input alignment, matches an alignment
+ * loaded from a copy of the filtered loci, also when filters are nested.
+ */
+public class FilteredScsAlignmentTest {
+
+    private final static int NR_OF_CELLS = 5;
+
+    private final static int NR_OF_LOCI = 300;
+
+    private final static int NR_OF_TEMPLATES = 10;
+
+    private final static char[] ALT_NUCS = {'G', 'C'};
+
+    private final static String[] FILTERS = {"1-100", "5:300:3", "2,7,7,40-60,299", "1::2", "300"};
+
+    private List<String> cellNames;
+
+    private List<String> loci;
+
+    private List<List<String>> readCounts;
+
+    private ScsAlignment alignment;
+
+    private final List<File> files = new ArrayList<>();
+
+    @Before
+    public void setUp() throws IOException {
+        generateData();
+        alignment = getAlignment(null);
+    } // setUp
+
+    @After
+    public void tearDown() {
+        for (File file : files)
+            file.delete();
+    } // tearDown
+
+    @Test
+    public void testFilters() throws IOException {
+        for (String filter : FILTERS) {
+            final FilteredScsAlignment filtered = getFilteredAlignment(alignment, filter);
+            assertSameAlignment(filter, getAlignment(filtered.indices()), filtered);
+        }
+    } // testFilters
+
+    @Test
+    public void testNestedFilters() throws IOException {
+        final FilteredScsAlignment outer = getFilteredAlignment(alignment, "1::2");
+
+        for (String filter : new String[]{"10-80", "2:150:4", "1,150"}) {
+            final FilteredScsAlignment inner = getFilteredAlignment(outer, filter);
+
+            final int[] indices = inner.indices();
+            for (int i = 0; i < indices.length; i++)
+                indices[i] = outer.indices()[indices[i]];
+
+            assertSameAlignment("1::2, " + filter, getAlignment(indices), inner);
+        }
+    } // testNestedFilters
+
+    private static void assertSameAlignment(final String message, final ScsAlignment expected, final ScsAlignment observed) {
+        assertEquals(message, expected.getTaxaNames(), observed.getTaxaNames());
+        assertEquals(message, expected.getLociNr(), observed.getLociNr());
+        assertEquals(message, expected.getSiteCount(), observed.getSiteCount());
+        assertEquals(message, expected.getPatternCount(), observed.getPatternCount());
+        assertEquals(message, expected.getNrOfPatternValues(), observed.getNrOfPatternValues());
+        assertArrayEquals(message, expected.getWeights(), observed.getWeights());
+        assertArrayEquals(message, expected.getPatternIndexArray(), observed.getPatternIndexArray());
+
+        final int[] buffer = new int[observed.getNrOfPatternValues()];
+        for (int i = 0; i < expected.getPatternCount(); i++) {
+            for (int j = 0; j < expected.getTaxonCount(); j++) {
+                final String cell = message + ", pattern " + i + ", taxon " + j;
+                final int[] counts = expected.getPattern(j, i);
+
+                assertArrayEquals(cell, counts, observed.getPattern(j, i));
+
+                observed.getPattern(j, i, buffer);
+                assertArrayEquals(cell, counts, buffer);
+
+                final int offset = observed.getPatternOffset(j, i);
+                for (int k = 0; k < counts.length; k++)
+                    assertEquals(cell + ", value " + k, counts[k], observed.getPatternValue(offset + k));
+
+                assertEquals(cell, expected.getSequencingCoverageOfPattern(j, i), observed.getSequencingCoverageOfPattern(j, i));
+            }
+        }
+
+        for (int i = 0; i < expected.getLociNr(); i++) {
+            for (int j = 0; j < expected.getTaxonCount(); j++) {
+                final String cell = message + ", locus " + i + ", taxon " + j;
+
+                assertEquals(cell, expected.getSequencingCoverageOfLocus(j, i), observed.getSequencingCoverageOfLocus(j, i));
+                assertArrayEquals(cell, expected.getAltNucs(j, i), observed.getAltNucs(j, i));
+                assertArrayEquals(cell, expected.getAlleleDepth(j, i, ALT_NUCS), observed.getAlleleDepth(j, i, ALT_NUCS));
+            }
+        }
+    } // assertSameAlignment
+
+    private static FilteredScsAlignment getFilteredAlignment(final ScsAlignment data, final String filter) {
+        FilteredScsAlignment filtered = new FilteredScsAlignment();
+        filtered.initByName(
+                "scsData", data,
+                "filter", filter,
+                "nrOfBackgroundSites", data.getNrOfBackgroundSites(),
+                "manipulatedNrOfBackgroundSites", data.getManipulatedNrOfBackgroundSites()
+        );
+
+        return filtered;
+    } // getFilteredAlignment
+
+    /**
+     * @param indices indices of loci to copy; all loci if null
+     * @return an alignment loaded from a copy of the loci
+     */
+    private ScsAlignment getAlignment(final int[] indices) throws IOException {
+        List<String> copiedLoci = new ArrayList<>();
+        List<List<String>> copiedReadCounts = new ArrayList<>();
+        for (int i = 0; i < NR_OF_CELLS; i++)
+            copiedReadCounts.add(new ArrayList<>());
+
+        for (int i = 0; i < (indices == null ? NR_OF_LOCI : indices.length); i++) {
+            final int locus = indices == null ? i : indices[i];
+
+            copiedLoci.add(loci.get(locus));
+            for (int j = 0; j < NR_OF_CELLS; j++)
+                copiedReadCounts.get(j).add(readCounts.get(j).get(locus));
+        }
+
+        final File file = File.createTempFile("filtered", ".bin");
+        files.add(file);
+        ScsBinaryReadCounts.write(file.getPath(), "full supports-coverage", cellNames, copiedLoci, copiedReadCounts);
+
+        ScsAlignment alignment = new ScsAlignment();
+        alignment.initByName("binaryData", file.getPath());
+
+        return alignment;
+    } // getAlignment
+
+    /**
+     * Sites mostly drawn from a few templates, so that many loci share a pattern.
+     */
+    private void generateData() {
+        final Random random = new Random(39);
+
+        cellNames = new ArrayList<>();
+        for (int i = 0; i < NR_OF_CELLS; i++)
+            cellNames.add("cell" + i);
+
+        loci = new ArrayList<>();
+        for (int i = 0; i < NR_OF_LOCI; i++)
+            loci.add("chr1," + (1000 + i * 10) + ",A,C,G,T");
+
+        String[][] templates = new String[NR_OF_TEMPLATES][];
+        for (int i = 0; i < NR_OF_TEMPLATES; i++)
+            templates[i] = getSite(random);
+
+        readCounts = new ArrayList<>();
+        for (int i = 0; i < NR_OF_CELLS; i++)
+            readCounts.add(new ArrayList<>());
+
+        for (int j = 0; j < NR_OF_LOCI; j++) {
+            final String[] site = random.nextInt(4) == 0 ? getSite(random) : templates[random.nextInt(NR_OF_TEMPLATES)];
+
+            for (int i = 0; i < NR_OF_CELLS; i++)
+                readCounts.get(i).add(site[i]);
+        }
+    } // generateData
+
+    private static String[] getSite(final Random random) {
+        String[] site = new String[NR_OF_CELLS];
+        for (int i = 0; i < NR_OF_CELLS; i++) {
+            final int a1 = random.nextInt(4);
+            final int a2 = random.nextInt(2);
+            site[i] = "C,G,T," + a1 + "," + a2 + ",0," + (a1 + a2 + random.nextInt(10));
+        }
+
+        return site;
+    } // getSite
+
+}
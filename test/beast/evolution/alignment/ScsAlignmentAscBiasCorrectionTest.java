@@ -0,0 +1,141 @@
+package beast.evolution.alignment;
+
+import beast.math.util.MathFunctions;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks ascertainment bias corrections computed from per-pattern log-likelihoods of constant sites against values
+ * computed by hand, and against the corrections over the log-likelihoods expanded to each site as calcLogP used to
+ * pass them.
+ */
+public class ScsAlignmentAscBiasCorrectionTest {
+
+    private final static int NR_OF_CELLS = 3;
+
+    // loci 0-2 and 3-4 have the same read counts, giving three patterns of weights 3, 2 and 1
+    private final static String[] READ_COUNTS = {
+            "C,G,T,3,0,0,20", "C,G,T,3,0,0,20", "C,G,T,3,0,0,20",
+            "C,G,T,0,1,0,15", "C,G,T,0,1,0,15",
+            "C,G,T,7,0,1,31"
+    };
+
+    private final static long NR_OF_BACKGROUND_SITES = 1000;
+
+    private File data;
+
+    @Before
+    public void setUp() throws IOException {
+        data = File.createTempFile("asc_bias_correction", ".bin");
+        writeData(data);
+    } // setUp
+
+    @After
+    public void tearDown() {
+        data.delete();
+    } // tearDown
+
+    /**
+     * With constant-site likelihoods of 1/2, 3/4 and 9/10 for the patterns of weights 3, 2 and 1, the correction is
+     * -(3 * log(1/2) + 2 * log(1/4) + log(1/10)) = 7 * log(2) + log(10).
+     */
+    @Test
+    public void testLewis() {
+        final ScsAlignment alignment = getAlignment("lewis", null);
+        final double[] logConstRoot = getLogConstRoot(alignment, new double[]{0.5, 0.75, 0.9});
+
+        assertEquals(7 * Math.log(2) + Math.log(10), alignment.getAscBiasCorrection(logConstRoot, false), 1e-12);
+        assertEquals(7 * Math.log(2) + Math.log(10), alignment.getAscBiasCorrection(logConstRoot, true), 1e-12);
+    } // testLewis
+
+    @Test
+    public void testFelsensteinMean() {
+        final ScsAlignment alignment = getAlignment("felsenstein", "mean");
+        final double[] logConstRoot = getLogConstRoot(alignment, new double[]{0.5, 0.75, 0.9});
+        final double[] expanded = expand(alignment, logConstRoot);
+
+        final double constSum = MathFunctions.logSumExp(expanded);
+        assertEquals(constSum, alignment.getAscBiasCorrection(logConstRoot, true), 1e-12);
+        assertEquals((constSum - Math.log(expanded.length)) * NR_OF_BACKGROUND_SITES,
+                alignment.getAscBiasCorrection(logConstRoot, false), 1e-9);
+    } // testFelsensteinMean
+
+    @Test
+    public void testFelsensteinGeometric() {
+        final ScsAlignment alignment = getAlignment("felsenstein", "geometric");
+        final double[] logConstRoot = getLogConstRoot(alignment, new double[]{0.5, 0.75, 0.9});
+        final double[] expanded = expand(alignment, logConstRoot);
+
+        final double constSum = MathFunctions.sum(expanded);
+        assertEquals(constSum, alignment.getAscBiasCorrection(logConstRoot, true), 1e-12);
+        assertEquals(constSum * NR_OF_BACKGROUND_SITES / expanded.length,
+                alignment.getAscBiasCorrection(logConstRoot, false), 1e-9);
+    } // testFelsensteinGeometric
+
+    private ScsAlignment getAlignment(final String ascertained, final String meanAscBiasCorrection) {
+        ScsAlignment alignment = new ScsAlignment();
+
+        if (meanAscBiasCorrection == null)
+            alignment.initByName("binaryData", data.getPath(), "ascertained", ascertained);
+        else
+            alignment.initByName("binaryData", data.getPath(), "ascertained", ascertained,
+                    "meanAscBiasCorrection", meanAscBiasCorrection, "bgSitesNum", NR_OF_BACKGROUND_SITES);
+
+        assertEquals(READ_COUNTS.length, alignment.getSiteCount());
+        assertEquals(3, alignment.getPatternCount());
+
+        return alignment;
+    } // getAlignment
+
+    /**
+     * @param constLikelihoods likelihoods of constant sites for patterns of weights 3, 2 and 1
+     * @return log-likelihoods of constant sites of each pattern, whatever the order of patterns
+     */
+    private static double[] getLogConstRoot(final ScsAlignment alignment, final double[] constLikelihoods) {
+        double[] logConstRoot = new double[alignment.getPatternCount()];
+        for (int i = 0; i < logConstRoot.length; i++)
+            logConstRoot[i] = Math.log(constLikelihoods[3 - alignment.getPatternWeight(i)]);
+
+        return logConstRoot;
+    } // getLogConstRoot
+
+    /**
+     * @return log-likelihoods of constant sites of each pattern repeated as many times as the pattern weight
+     */
+    private static double[] expand(final ScsAlignment alignment, final double[] logConstRoot) {
+        List<Double> expanded = new ArrayList<>();
+        for (int i = 0; i < alignment.getPatternCount(); i++)
+            expanded.addAll(Collections.nCopies(alignment.getPatternWeight(i), logConstRoot[i]));
+
+        return expanded.stream().mapToDouble(Double::doubleValue).toArray();
+    } // expand
+
+    private static void writeData(final File file) throws IOException {
+        List<String> cellNames = new ArrayList<>();
+        for (int i = 0; i < NR_OF_CELLS; i++)
+            cellNames.add("cell" + i);
+
+        List<String> loci = new ArrayList<>();
+        for (int i = 0; i < READ_COUNTS.length; i++)
+            loci.add("chr1," + (1000 + i * 10) + ",A,C,G,T");
+
+        List<List<String>> readCounts = new ArrayList<>();
+        for (int i = 0; i < NR_OF_CELLS; i++) {
+            List<String> cell = new ArrayList<>();
+            Collections.addAll(cell, READ_COUNTS);
+            readCounts.add(cell);
+        }
+
+        ScsBinaryReadCounts.write(file.getPath(), "full supports-coverage", cellNames, loci, readCounts);
+    } // writeData
+
+}
@@ -0,0 +1,128 @@
+package beast.evolution.alignment;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that an alignment loading only the header of binary data, as the coordinator of ShardedScsTreeLikelihood
+ * does, agrees with the fully loaded one on everything the coordinator uses, and that a worker process loads its
+ * shard in full regardless.
+ */
+public class ScsAlignmentHeaderOnlyTest {
+
+    private final static int NR_OF_CELLS = 5;
+
+    private final static int NR_OF_LOCI = 40;
+
+    private File data;
+
+    @Before
+    public void setUp() throws IOException {
+        data = File.createTempFile("header_only", ".bin");
+        writeData(data);
+    } // setUp
+
+    @After
+    public void tearDown() {
+        System.clearProperty(ScsAlignment.SHARD_DATA_PROPERTY);
+        System.clearProperty(ScsAlignment.SHARD_LOCI_PROPERTY);
+        data.delete();
+    } // tearDown
+
+    @Test
+    public void testBinaryHeader() throws IOException {
+        final ScsBinaryReadCounts full = ScsBinaryReadCounts.load(data.getPath());
+        final ScsBinaryReadCounts header = ScsBinaryReadCounts.loadHeader(data.getPath());
+
+        assertFalse(full.isHeaderOnly());
+        assertTrue(header.isHeaderOnly());
+        assertEquals(full.getDataTypeDescription(), header.getDataTypeDescription());
+        assertEquals(full.getCellNames(), header.getCellNames());
+        assertEquals(full.getNrOfCells(), header.getNrOfCells());
+        assertEquals(full.getNrOfLoci(), header.getNrOfLoci());
+        assertNull(header.getLoci());
+    } // testBinaryHeader
+
+    @Test
+    public void testHeaderOnly() {
+        final ScsAlignment full = getAlignment("data", false);
+        final ScsAlignment header = getAlignment("data", true);
+
+        assertFalse(full.isHeaderOnly());
+        assertTrue(header.isHeaderOnly());
+        assertEquals(full.getTaxaNames(), header.getTaxaNames());
+        assertEquals(full.getTaxonCount(), header.getTaxonCount());
+        assertEquals(full.getLociNr(), header.getLociNr());
+        assertEquals(full.getSiteCount(), header.getSiteCount());
+        assertEquals(full.getManipulatedNrOfBackgroundSites(), header.getManipulatedNrOfBackgroundSites());
+
+        // the correction over the sums of constant sites of workers
+        final double[] constSumByWorker = {-1.5, -2.25, -0.75};
+        assertEquals(full.getAscBiasCorrection(constSumByWorker), header.getAscBiasCorrection(constSumByWorker), 0);
+
+        try {
+            header.getPatternCount();
+            fail("Patterns should not be available from the header only.");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+    } // testHeaderOnly
+
+    @Test
+    public void testShardIgnoresHeaderOnly() {
+        System.setProperty(ScsAlignment.SHARD_DATA_PROPERTY, "data");
+        System.setProperty(ScsAlignment.SHARD_LOCI_PROPERTY, "11-30");
+
+        final ScsAlignment shard = getAlignment("data", true);
+        assertFalse(shard.isHeaderOnly());
+        assertEquals(20, shard.getSiteCount());
+        assertTrue(shard.getPatternCount() > 0);
+
+        // another alignment is not a shard
+        assertTrue(getAlignment("other", true).isHeaderOnly());
+    } // testShardIgnoresHeaderOnly
+
+    private ScsAlignment getAlignment(final String id, final boolean headerOnly) {
+        ScsAlignment alignment = new ScsAlignment();
+        alignment.setID(id);
+        alignment.initByName("binaryData", data.getPath(), "ascertained", "felsenstein", "bgSitesNum", 1000L,
+                "headerOnly", headerOnly);
+
+        return alignment;
+    } // getAlignment
+
+    private static void writeData(final File file) throws IOException {
+        final Random random = new Random(28);
+
+        List<String> cellNames = new ArrayList<>();
+        for (int i = 0; i < NR_OF_CELLS; i++)
+            cellNames.add("cell" + i);
+
+        List<String> loci = new ArrayList<>();
+        for (int i = 0; i < NR_OF_LOCI; i++)
+            loci.add("chr1," + (1000 + i * 10) + ",A,C,G,T");
+
+        List<List<String>> readCounts = new ArrayList<>();
+        for (int i = 0; i < NR_OF_CELLS; i++) {
+            List<String> cell = new ArrayList<>();
+            for (int j = 0; j < NR_OF_LOCI; j++) {
+                final int a1 = random.nextInt(4);
+                final int a2 = random.nextInt(2);
+                cell.add("C,G,T," + a1 + "," + a2 + ",0," + (a1 + a2 + random.nextInt(20)));
+            }
+            readCounts.add(cell);
+        }
+
+        ScsBinaryReadCounts.write(file.getPath(), "full supports-coverage", cellNames, loci, readCounts);
+    } // writeData
+
+}
@@ -0,0 +1,208 @@
+package beast.evolution.alignment;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Checks patterns compressed by fingerprinting sites against those compressed by sorting all sites, as calcPatterns
+ * used to: the order of patterns, their weights and the pattern of each locus should be the same. Also checks that
+ * all accessors of the flat pattern storage agree with the read counts of the data.
+ */
+public class ScsAlignmentPatternsTest {
+
+    private final static int NR_OF_CELLS = 6;
+
+    private final static int NR_OF_LOCI = 300;
+
+    private final static int NR_OF_TEMPLATES = 12;
+
+    private File data;
+
+    @Before
+    public void setUp() throws IOException {
+        data = File.createTempFile("patterns", ".bin");
+    } // setUp
+
+    @After
+    public void tearDown() {
+        data.delete();
+    } // tearDown
+
+    @Test
+    public void testSortedPatterns() throws IOException {
+        // values fitting in shorts, and those which do not
+        for (int scale : new int[]{1, 20000}) {
+            writeData(data, scale, 37 + scale);
+
+            final ScsAlignment alignment = getAlignment(data);
+            assertSortedPatterns("scale " + scale, alignment, ScsBinaryReadCounts.load(data.getPath()));
+        }
+    } // testSortedPatterns
+
+    @Test
+    public void testFlatStorage() throws IOException {
+        for (int scale : new int[]{1, 20000}) {
+            writeData(data, scale, 38 + scale);
+
+            final ScsAlignment alignment = getAlignment(data);
+            final ScsBinaryReadCounts readCounts = ScsBinaryReadCounts.load(data.getPath());
+            final String message = "scale " + scale;
+
+            if (scale == 1) {
+                assertNotNull(message, alignment.shortSitePatterns);
+                assertNull(message, alignment.intSitePatterns);
+            } else {
+                assertNull(message, alignment.shortSitePatterns);
+                assertNotNull(message, alignment.intSitePatterns);
+            }
+
+            final int nrOfValues = readCounts.getNrOfReadCounts(alignment.getDataType());
+            assertEquals(message, nrOfValues, alignment.getNrOfPatternValues());
+
+            final int[][][] patterns = alignment.getPattern();
+            final int[] buffer = new int[nrOfValues];
+
+            for (int j = 0; j < alignment.getLociNr(); j++) {
+                final int i = alignment.getPatternIndex(j);
+                final int[][] pattern = alignment.getPattern(i);
+
+                for (int k = 0; k < alignment.getTaxonCount(); k++) {
+                    final String cell = message + ", locus " + j + ", taxon " + k;
+                    final int[] expected = readCounts.getReadCounts(alignment.getDataType(), k, j);
+
+                    assertArrayEquals(cell, expected, patterns[i][k]);
+                    assertArrayEquals(cell, expected, pattern[k]);
+                    assertArrayEquals(cell, expected, alignment.getPattern(k, i));
+
+                    alignment.getPattern(k, i, buffer);
+                    assertArrayEquals(cell, expected, buffer);
+
+                    final int offset = alignment.getPatternOffset(k, i);
+                    for (int l = 0; l < nrOfValues; l++)
+                        assertEquals(cell + ", value " + l, expected[l], alignment.getPatternValue(offset + l));
+
+                    assertEquals(cell, readCounts.getCoverage(k, j), alignment.getSequencingCoverageOfPattern(k, i));
+                    assertEquals(cell, alignment.getSequencingCoverage(expected), alignment.getSequencingCoverageOfPattern(k, i));
+                    assertEquals(cell, readCounts.getCoverage(k, j), alignment.getSequencingCoverageOfLocus(k, j));
+                }
+            }
+        }
+    } // testFlatStorage
+
+    /**
+     * Compress patterns by sorting all sites and compare with those of {@param alignment}.
+     */
+    static void assertSortedPatterns(
+            final String message,
+            final ScsAlignment alignment,
+            final ScsBinaryReadCounts readCounts
+    ) {
+        final int taxonNr = alignment.getTaxonCount();
+        final int lociNr = alignment.getLociNr();
+
+        // transposed data
+        int[][][] data = new int[lociNr][taxonNr][];
+        for (int i = 0; i < taxonNr; i++) {
+            for (int j = 0; j < lociNr; j++)
+                data[j][i] = readCounts.getReadCounts(alignment.getDataType(), i, j);
+        }
+        int[][][] sites = data.clone();
+
+        // sort data
+        ScsAlignment.SiteComparator comparator = new ScsAlignment.SiteComparator();
+        Arrays.sort(data, comparator);
+
+        // count patterns in sorted data
+        int patterns = 1;
+        int[] weights = new int[lociNr];
+        weights[0] = 1;
+        for (int i = 1; i < lociNr; i++) {
+            if (comparator.compare(data[i - 1], data[i]) != 0) {
+                patterns++;
+                data[patterns - 1] = data[i];
+            }
+            weights[patterns - 1]++;
+        }
+
+        assertEquals(message, patterns, alignment.getPatternCount());
+        assertArrayEquals(message, Arrays.copyOf(weights, patterns), alignment.getWeights());
+
+        for (int i = 0; i < patterns; i++) {
+            for (int j = 0; j < taxonNr; j++)
+                assertArrayEquals(message + ", pattern " + i + ", taxon " + j, data[i][j], alignment.getPattern(j, i));
+        }
+
+        // find patterns for the loci
+        final int[][][] sortedPatterns = Arrays.copyOf(data, patterns);
+        for (int i = 0; i < lociNr; i++)
+            assertEquals(message + ", locus " + i, Arrays.binarySearch(sortedPatterns, sites[i], comparator),
+                    alignment.getPatternIndex(i));
+    } // assertSortedPatterns
+
+    static ScsAlignment getAlignment(final File file) {
+        ScsAlignment alignment = new ScsAlignment();
+        alignment.initByName("binaryData", file.getPath());
+
+        return alignment;
+    } // getAlignment
+
+    /**
+     * Sites mostly drawn from a few templates, so that many loci share a pattern.
+     *
+     * @param scale multiplied to all read counts
+     */
+    static void writeData(final File file, final int scale, final long seed) throws IOException {
+        final Random random = new Random(seed);
+
+        List<String> cellNames = new ArrayList<>();
+        for (int i = 0; i < NR_OF_CELLS; i++)
+            cellNames.add("cell" + i);
+
+        List<String> loci = new ArrayList<>();
+        for (int i = 0; i < NR_OF_LOCI; i++)
+            loci.add("chr1," + (1000 + i * 10) + ",A,C,G,T");
+
+        String[][] templates = new String[NR_OF_TEMPLATES][];
+        for (int i = 0; i < NR_OF_TEMPLATES; i++)
+            templates[i] = getSite(random, scale);
+
+        List<List<String>> readCounts = new ArrayList<>();
+        for (int i = 0; i < NR_OF_CELLS; i++)
+            readCounts.add(new ArrayList<>());
+
+        for (int j = 0; j < NR_OF_LOCI; j++) {
+            final String[] site = random.nextInt(5) == 0 ? getSite(random, scale) :
+                    templates[random.nextInt(NR_OF_TEMPLATES)];
+
+            for (int i = 0; i < NR_OF_CELLS; i++)
+                readCounts.get(i).add(site[i]);
+        }
+
+        ScsBinaryReadCounts.write(file.getPath(), "full supports-coverage", cellNames, loci, readCounts);
+    } // writeData
+
+    private static String[] getSite(final Random random, final int scale) {
+        String[] site = new String[NR_OF_CELLS];
+        for (int i = 0; i < NR_OF_CELLS; i++) {
+            final int a1 = random.nextInt(4) * scale;
+            final int a2 = random.nextInt(2) * scale;
+            site[i] = "C,G,T," + a1 + "," + a2 + ",0," + (a1 + a2 + random.nextInt(3) * scale);
+        }
+
+        return site;
+    } // getSite
+
+}
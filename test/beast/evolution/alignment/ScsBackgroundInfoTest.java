@@ -0,0 +1,151 @@
+package beast.evolution.alignment;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * Checks that the single pass parser of background information gives the same results and errors as splitting the
+ * value by semicolons and commas.
+ */
+public class ScsBackgroundInfoTest {
+
+    private final static String[] EDGE_CASES = {
+            "1,2", "1,2;", "1,2;;", "1,2;3,4", " 1 , 2 ;\t3,4\n;", "0,0;10,20;5,7;",
+            "", "   ", ";", ";;", " ; ; ",
+            ";1,2", "1,2;;3,4", "1,2; ;3,4", "1,2;;,5", "1,2;;,", ";,;1,2", "1,2;;x",
+            "1", "1,2,3", "1,2,", "1,2,,", ",1,2", "1,,2", ",", ",,", "1,2;,;3,4",
+            "-1,2", "-0,2", "+1,2", "+,2", "1-,2", "--1,2", "- 1,2", "1 2,3", "1.5,2", "a,b", "1,2;x",
+            "9223372036854775807,1", "9223372036854775808,1", "-9223372036854775808,1",
+            "1,2;1,2", "3,4;1,2;3,4"
+    };
+
+    @Test
+    public void testEdgeCases() {
+        for (String data : EDGE_CASES)
+            assertEquals("'" + data + "'", parseBySplitting(data), parse(data));
+    } // testEdgeCases
+
+    @Test
+    public void testRandomValues() {
+        final Random random = new Random(35);
+        final char[] noise = {';', ',', ' ', '\t', '-', '+', 'x', '0', '7'};
+
+        for (int k = 0; k < 20000; k++) {
+            StringBuilder sb = new StringBuilder();
+            final int nrOfEntries = random.nextInt(5);
+            for (int i = 0; i < nrOfEntries; i++)
+                sb.append(i * 3 + random.nextInt(3)).append(',').append(random.nextInt(100)).append(';');
+
+            // perturb some of the values
+            final int nrOfNoises = random.nextInt(3);
+            for (int i = 0; i < nrOfNoises; i++)
+                sb.insert(random.nextInt(sb.length() + 1), noise[random.nextInt(noise.length)]);
+
+            final String data = sb.toString();
+            assertEquals("'" + data + "'", parseBySplitting(data), parse(data));
+        }
+    } // testRandomValues
+
+    @Test
+    public void testInteriorEmptyEntry() {
+        try {
+            new ScsBackgroundInfo("coverage", "1,2;;3,4");
+            fail("An empty entry between others should be rejected.");
+        } catch (IllegalArgumentException e) {
+            assertEquals("Read counts and corresponding occurrences should both be non-negative integers. Negative " +
+                    "integer or non-integer data type found in . (" + ScsBackgroundInfo.class.getName() + ")", e.getMessage());
+        }
+    } // testInteriorEmptyEntry
+
+    @Test
+    public void testValues() {
+        ScsBackgroundInfo info = new ScsBackgroundInfo("coverage", " 10,3;\n2, 5;\n7 ,1;\n");
+
+        assertEquals(9, info.getBackgroundInfoPoints());
+        assertEquals(3, info.getBackgroundList().size());
+        assertEquals("[2, 5]", Arrays.toString(info.getBackgroundList().get(0)));
+        assertEquals("[7, 1]", Arrays.toString(info.getBackgroundList().get(1)));
+        assertEquals("[10, 3]", Arrays.toString(info.getBackgroundList().get(2)));
+    } // testValues
+
+    private static String parse(final String data) {
+        try {
+            ScsBackgroundInfo info = new ScsBackgroundInfo("coverage", data);
+            return toString(info.getBackgroundList(), info.getBackgroundInfoPoints());
+        } catch (Exception e) {
+            return e.getClass().getName() + ": " + e.getMessage();
+        }
+    } // parse
+
+    private static String parseBySplitting(final String data) {
+        try {
+            final long[] backgroundInfoPoints = new long[1];
+            return toString(splitBackgroundInfo(data, backgroundInfoPoints), backgroundInfoPoints[0]);
+        } catch (Exception e) {
+            return e.getClass().getName() + ": " + e.getMessage();
+        }
+    } // parseBySplitting
+
+    /**
+     * Parse background information by splitting, as ScsBackgroundInfo used to.
+     *
+     * @param value                apparently
+     * @param backgroundInfoPoints output of the number of background information points
+     * @return sorted pairs of (reads, occurrences)
+     */
+    static List<long[]> splitBackgroundInfo(final String value, final long[] backgroundInfoPoints) {
+        final String name = ScsBackgroundInfo.class.getName();
+
+        String data = value.trim().replaceAll("\\s+", "");
+
+        List<long[]> backgroundList = new ArrayList<>();
+
+        for (String str : data.split(";")) {
+            List<Long> readCountsOccurrences = new ArrayList<>();
+
+            for (String str_2 : str.split(",")) {
+                long integer;
+                try {
+                    integer = Long.parseLong(str_2.trim());
+                } catch (NumberFormatException e) {
+                    integer = -1;
+                }
+
+                if (integer < 0)
+                    throw new IllegalArgumentException("Read counts and corresponding occurrences should both be " +
+                            "non-negative integers. Negative integer or non-integer data type found in " + str_2 +
+                            ". (" + name + ")");
+                else
+                    readCountsOccurrences.add(integer);
+            }
+
+            if (readCountsOccurrences.size() != 2)
+                throw new IllegalArgumentException("Background information should be in a form of " +
+                        "'the number of read count + the corresponding unique occurrences', nothing more or less. " +
+                        readCountsOccurrences.toString() + "found. (" + name + ")");
+
+            backgroundInfoPoints[0] += readCountsOccurrences.get(1);
+            backgroundList.add(new long[]{readCountsOccurrences.get(0), readCountsOccurrences.get(1)});
+        }
+
+        backgroundList.sort(new ScsBackgroundInfo.CombiComparator());
+
+        return backgroundList;
+    } // splitBackgroundInfo
+
+    private static String toString(final List<long[]> backgroundList, final long backgroundInfoPoints) {
+        StringBuilder sb = new StringBuilder("points=" + backgroundInfoPoints);
+        for (long[] i : backgroundList)
+            sb.append(" ").append(Arrays.toString(i));
+
+        return sb.toString();
+    } // toString
+
+}
@@ -0,0 +1,96 @@
+package beast.evolution.alignment;
+
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Compares the single pass parsers of background and loci information with splitting the value by semicolons and
+ * commas.
+ * <p>
+ * Usage: java -Xmx8g beast.evolution.alignment.ScsInfoParsingBenchmark [nrOfBackgroundEntries] [nrOfLoci] [rounds]
+ * <p>
+ * The defaults are 10,000,000 background entries, 1,000,000 loci and 3 rounds; each value is parsed once untimed
+ * before the timed rounds.
+ */
+public class ScsInfoParsingBenchmark {
+
+    public static void main(String[] args) {
+        final int nrOfEntries = args.length > 0 ? Integer.parseInt(args[0]) : 10000000;
+        final int nrOfLoci = args.length > 1 ? Integer.parseInt(args[1]) : 1000000;
+        final int rounds = args.length > 2 ? Integer.parseInt(args[2]) : 3;
+
+        final Random random = new Random(35);
+
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < nrOfEntries; i++)
+            sb.append(i).append(',').append(1 + random.nextInt(1000)).append(";\n");
+        final String background = sb.toString();
+
+        sb = new StringBuilder();
+        for (int i = 0; i < nrOfLoci; i++)
+            sb.append("chr").append(1 + random.nextInt(22)).append(',').append(random.nextInt(250000000))
+                    .append(",A,C,G;\n");
+        final String loci = sb.toString();
+        sb = null;
+
+        System.out.println("Background information: " + nrOfEntries + " entries, " + background.length() + " chars");
+        System.out.println("Loci information: " + nrOfLoci + " loci, " + loci.length() + " chars");
+
+        // warm up and check that both ways agree
+        final long[] backgroundInfoPoints = new long[1];
+        final List<long[]> expectedBackground = ScsBackgroundInfoTest.splitBackgroundInfo(background, backgroundInfoPoints);
+        final ScsBackgroundInfo backgroundInfo = new ScsBackgroundInfo("coverage", background);
+        if (backgroundInfo.getBackgroundInfoPoints() != backgroundInfoPoints[0] ||
+                backgroundInfo.getBackgroundList().size() != expectedBackground.size())
+            throw new IllegalStateException("Background information parsed differently.");
+
+        if (ScsLociInfoTest.splitLociInfo(loci).size() != new ScsLociInfo(true, loci).getLociList().size())
+            throw new IllegalStateException("Loci information parsed differently.");
+
+        for (int r = 0; r < rounds; r++) {
+            System.out.println("Round " + (r + 1) + ":");
+
+            // alternate the order to spread out the effects of garbage collection
+            if (r % 2 == 0) {
+                timeSplitBackground(background);
+                timeScanBackground(background);
+                timeSplitLoci(loci);
+                timeScanLoci(loci);
+            } else {
+                timeScanBackground(background);
+                timeSplitBackground(background);
+                timeScanLoci(loci);
+                timeSplitLoci(loci);
+            }
+        }
+    } // main
+
+    private static void timeSplitBackground(final String background) {
+        final long start = System.nanoTime();
+        final int size = ScsBackgroundInfoTest.splitBackgroundInfo(background, new long[1]).size();
+        report("background, splitting", size, start);
+    } // timeSplitBackground
+
+    private static void timeScanBackground(final String background) {
+        final long start = System.nanoTime();
+        final int size = new ScsBackgroundInfo("coverage", background).getBackgroundList().size();
+        report("background, single pass", size, start);
+    } // timeScanBackground
+
+    private static void timeSplitLoci(final String loci) {
+        final long start = System.nanoTime();
+        final int size = ScsLociInfoTest.splitLociInfo(loci).size();
+        report("loci, splitting", size, start);
+    } // timeSplitLoci
+
+    private static void timeScanLoci(final String loci) {
+        final long start = System.nanoTime();
+        final int size = new ScsLociInfo(true, loci).getLociList().size();
+        report("loci, single pass", size, start);
+    } // timeScanLoci
+
+    private static void report(final String name, final int size, final long start) {
+        System.out.printf("  %-25s %10d items in %8.1f ms%n", name, size, (System.nanoTime() - start) / 1e6);
+    } // report
+
+}
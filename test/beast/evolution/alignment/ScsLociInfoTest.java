@@ -0,0 +1,118 @@
+package beast.evolution.alignment;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * Checks that the single pass parser of loci information gives the same results and errors as splitting the value
+ * by semicolons and commas.
+ */
+public class ScsLociInfoTest {
+
+    private final static String[] EDGE_CASES = {
+            "1,100,A,C", "1,100,A,C;", "1,100,A,C;;", "1,100,A,C,G,T;X,2000,G,A",
+            " 1 , 100 ,A, C ;\n2,200,T,G\n;", "1,100,A,C,;", "1,100,A,C,,;",
+            "", "  ", ";", ";;", " ; ; ",
+            ";1,100,A,C", "1,100,A,C;;2,200,T,G", "1,100,A,C; ;2,200,T,G", "1,100,A,C;;,", "1,100,A,C;,;2,200,T,G",
+            "1,100,A", "1,100,A,", "1,100,A,,", ",,,", ",,,,;", "1,,A,C", ",100,A,C", "1,100,,C", "1,100,A,C,,G",
+            "1,x,A,C", "1,-5,A,C", "1,+5,A,C", "1,1 0 0,A,C", "1,99999999999999999999,A,C", "1,100,AC,G", "1,100,A,1"
+    };
+
+    @Test
+    public void testEdgeCases() {
+        for (String data : EDGE_CASES)
+            assertEquals("'" + data + "'", parseBySplitting(data), parse(data));
+    } // testEdgeCases
+
+    @Test
+    public void testRandomValues() {
+        final Random random = new Random(35);
+        final char[] noise = {';', ',', ' ', '\n', 'x', '5', 'A'};
+
+        for (int k = 0; k < 20000; k++) {
+            StringBuilder sb = new StringBuilder();
+            final int nrOfLoci = random.nextInt(4);
+            for (int i = 0; i < nrOfLoci; i++)
+                sb.append("chr").append(random.nextInt(3)).append(',').append(random.nextInt(100000)).append(",A,C,G;");
+
+            // perturb some of the loci
+            final int nrOfNoises = random.nextInt(3);
+            for (int i = 0; i < nrOfNoises; i++)
+                sb.insert(random.nextInt(sb.length() + 1), noise[random.nextInt(noise.length)]);
+
+            final String data = sb.toString();
+            assertEquals("'" + data + "'", parseBySplitting(data), parse(data));
+        }
+    } // testRandomValues
+
+    @Test
+    public void testInteriorEmptyLocus() {
+        try {
+            new ScsLociInfo(true, "1,100,A,C;;2,200,T,G");
+            fail("An empty locus between others should be rejected.");
+        } catch (IllegalArgumentException e) {
+            assertEquals("Error! Insufficient amount of locus information or wrong format to properly define a " +
+                    "variant site: ", e.getMessage());
+        }
+    } // testInteriorEmptyLocus
+
+    private static String parse(final String data) {
+        try {
+            return toString(new ScsLociInfo(true, data).getLociList());
+        } catch (Exception e) {
+            return e.getClass().getName() + ": " + e.getMessage();
+        }
+    } // parse
+
+    private static String parseBySplitting(final String data) {
+        try {
+            return toString(splitLociInfo(data));
+        } catch (Exception e) {
+            return e.getClass().getName() + ": " + e.getMessage();
+        }
+    } // parseBySplitting
+
+    /**
+     * Parse loci information by splitting, as ScsLociInfo used to.
+     */
+    static List<VariantSiteInfo> splitLociInfo(final String value) {
+        String data = value.trim().replaceAll("\\s+", "");
+
+        List<VariantSiteInfo> lociList = new ArrayList<>();
+        for (String str : data.split(";")) {
+            String[] lsInfo = str.split(",");
+
+            if (lsInfo.length < 4)
+                throw new IllegalArgumentException("Error! Insufficient amount of locus information or wrong format " +
+                        "to properly define a variant site: " + str);
+
+            lociList.add(
+                    new VariantSiteInfo(
+                            lsInfo[0],
+                            Long.parseLong(lsInfo[1]),
+                            lsInfo[2],
+                            Arrays.copyOfRange(lsInfo, 3, lsInfo.length)
+                    )
+            );
+        }
+
+        return lociList;
+    } // splitLociInfo
+
+    private static String toString(final List<VariantSiteInfo> lociList) {
+        StringBuilder sb = new StringBuilder("loci=" + lociList.size());
+        for (VariantSiteInfo i : lociList)
+            sb.append(" ").append(i.getChromosome()).append(":").append(i.getPosition()).append(":")
+                    .append(i.getRefNuc()).append(":").append(i.getAltNucsAsString(","));
+
+        return sb.toString();
+    } // toString
+
+}
@@ -0,0 +1,111 @@
+package beast.evolution.likelihood;
+
+import org.apache.commons.math.special.Gamma;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks sums of log Gamma stepped along ladders of read counts against log Gamma evaluated directly at each read
+ * count, over runs long enough for rounding errors of the recurrence to accumulate.
+ */
+public class ScsBackgroundLikelihoodTest {
+
+    private final static double[] ALPHAS = {1e-3, 0.37, 1, 2.5, 41.2, 1e4};
+
+    // tolerance on each log Gamma, in units in the last place; without restarting the ladder, errors over two million
+    // consecutive read counts reach hundreds of units
+    private final static int TOLERANCE_ULPS = 32;
+
+    // relative tolerance on sums of log Gamma weighted by occurrences
+    private final static double SUM_TOLERANCE = 1e-12;
+
+    /**
+     * Consecutive read counts form one long run, where the ladder must be restarted regularly.
+     */
+    @Test
+    public void testConsecutiveReadCounts() {
+        final int n = 2000000;
+
+        final long[] counts = new long[n];
+        for (int i = 0; i < n; i++)
+            counts[i] = i;
+
+        for (double alpha : ALPHAS)
+            assertProbes(counts, alpha, 0, n, 199999);
+    } // testConsecutiveReadCounts
+
+    /**
+     * Read counts with small and large gaps, summed over the whole range and over chunks as by threads.
+     */
+    @Test
+    public void testGaps() {
+        final Random random = new Random(34);
+        final int n = 200000;
+
+        final long[] counts = new long[n];
+        for (int i = 1; i < n; i++)
+            counts[i] = counts[i - 1] + (random.nextInt(10) == 0 ? 1 + random.nextInt(200) : 1 + random.nextInt(5));
+
+        for (double alpha : ALPHAS) {
+            assertProbes(counts, alpha, 0, n, 19997);
+            assertProbes(counts, alpha, 12345, n - 6789, 19997);
+        }
+    } // testGaps
+
+    /**
+     * Every read count with one occurrence, over a shorter range.
+     */
+    @Test
+    public void testAllReadCounts() {
+        final Random random = new Random(35);
+        final int n = 20000;
+
+        final long[] counts = new long[n];
+        final long[] occurrences = new long[n];
+        counts[0] = random.nextInt(3);
+        occurrences[0] = 1 + random.nextInt(1000);
+        for (int i = 1; i < n; i++) {
+            counts[i] = counts[i - 1] + 1 + random.nextInt(40);
+            occurrences[i] = 1 + random.nextInt(1000);
+        }
+
+        for (double alpha : ALPHAS) {
+            double expected = 0;
+            for (int i = 0; i < n; i++)
+                expected += occurrences[i] * Gamma.logGamma(alpha + counts[i]);
+
+            assertEquals("alpha " + alpha, expected,
+                    ScsBackgroundLikelihood.sumLogGamma(counts, occurrences, alpha, 0, n),
+                    SUM_TOLERANCE * Math.abs(expected));
+        }
+    } // testAllReadCounts
+
+    /**
+     * Only every step-th read count occurs, so that the sum is that of log Gamma at those read counts, while the
+     * ladder still steps over all read counts in between.
+     */
+    private static void assertProbes(
+            final long[] counts,
+            final double alpha,
+            final int from,
+            final int to,
+            final int step
+    ) {
+        final long[] occurrences = new long[counts.length];
+
+        for (int i = from; i < to; i += step) {
+            occurrences[i] = 1;
+
+            final double expected = Gamma.logGamma(alpha + counts[i]);
+            final double actual = ScsBackgroundLikelihood.sumLogGamma(counts, occurrences, alpha, from, to);
+            assertEquals("alpha " + alpha + ", read count " + counts[i], expected, actual,
+                    TOLERANCE_ULPS * Math.ulp(Math.max(1, Math.abs(expected))));
+
+            occurrences[i] = 0;
+        }
+    } // assertProbes
+
+}
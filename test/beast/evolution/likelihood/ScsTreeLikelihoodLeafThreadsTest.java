@@ -0,0 +1,298 @@
+package beast.evolution.likelihood;
+
+import beast.app.BeastMCMC;
+import beast.core.BEASTInterface;
+import beast.core.Distribution;
+import beast.core.MCMC;
+import beast.core.State;
+import beast.core.StateNode;
+import beast.core.parameter.RealParameter;
+import beast.core.util.CompoundDistribution;
+import beast.evolution.alignment.ScsBinaryReadCounts;
+import beast.util.XMLParser;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that partial likelihoods of leaves computed by leaf threads are identical to those computed sequentially,
+ * and that a ThreadedScsTreeLikelihood shares a single pool of daemon leaf threads among its tree likelihoods.
+ */
+public class ScsTreeLikelihoodLeafThreadsTest {
+
+    private final static int NR_OF_CELLS = 7;
+    private final static int NR_OF_LOCI = 50;
+    private final static int NR_OF_THREADS = 3;
+    private final static int NR_OF_LEAF_THREADS = 4;
+    private final static double TOLERANCE = 1e-10;
+
+    private File dir;
+    private State state;
+    private ScsTreeLikelihood serial;
+    private ScsTreeLikelihood parallel;
+    private ThreadedScsTreeLikelihood threaded;
+    private long sample = 0;
+
+    private int nrOfThreads;
+
+    @Before
+    public void setUp() throws Exception {
+        dir = Files.createTempDirectory("leaf_threads").toFile();
+
+        final File data = new File(dir, "read_counts.bin");
+        final File xml = new File(dir, "leaf_threads.xml");
+        writeData(data);
+        writeXML(xml, data);
+
+        nrOfThreads = BeastMCMC.m_nThreads;
+        BeastMCMC.m_nThreads = NR_OF_THREADS;
+
+        MCMC mcmc = (MCMC) new XMLParser().parseFile(xml);
+        CompoundDistribution posterior = (CompoundDistribution) mcmc.posteriorInput.get();
+        for (Distribution distribution : posterior.pDistributions.get()) {
+            if ("serialLikelihood".equals(distribution.getID()))
+                serial = (ScsTreeLikelihood) distribution;
+            else if ("parallelLikelihood".equals(distribution.getID()))
+                parallel = (ScsTreeLikelihood) distribution;
+            else if ("threadedLikelihood".equals(distribution.getID()))
+                threaded = (ThreadedScsTreeLikelihood) distribution;
+        }
+        assertNotNull(serial);
+        assertNotNull(parallel);
+        assertNotNull(threaded);
+
+        state = mcmc.startStateInput.get();
+        state.initialise();
+        state.setPosterior(posterior);
+
+        state.robustlyCalcPosterior(posterior);
+        assertLeafPartials();
+        assertLikelihoods(serial.getCurrentLogP(), parallel.getCurrentLogP(), threaded.getCurrentLogP());
+    } // setUp
+
+    @After
+    public void tearDown() {
+        BeastMCMC.m_nThreads = nrOfThreads;
+
+        if (parallel != null)
+            parallel.shutdownLeafThreads();
+        if (threaded != null)
+            threaded.shutdownLeafThreads();
+
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files)
+                file.delete();
+        }
+        dir.delete();
+    } // tearDown
+
+    /**
+     * Leaves are recomputed whenever a parameter of the raw read counts model changes.
+     */
+    @Test
+    public void testParameterProposals() {
+        final RealParameter allelicSeqCov = (RealParameter) getStateNode("allelicSeqCov");
+        final RealParameter effSeqErrRate = (RealParameter) getStateNode("effSeqErrRate");
+        final RealParameter adoRate = (RealParameter) getStateNode("adoRate");
+
+        step(() -> allelicSeqCov.setValue(0, 35.0), true);
+        step(() -> effSeqErrRate.setValue(0, 2.0E-2), false);
+        step(() -> adoRate.setValue(0, 0.2), true);
+        step(() -> effSeqErrRate.setValue(0, 5.0E-3), true);
+        step(() -> allelicSeqCov.setValue(0, 60.0), false);
+    } // testParameterProposals
+
+    @Test
+    public void testSharedLeafPool() throws Exception {
+        assertEquals(NR_OF_LEAF_THREADS, parallel.leafThreadCount);
+        assertNotNull(parallel.leafPool);
+        assertTrue(parallel.leafPool.submit(() -> Thread.currentThread().isDaemon()).get());
+
+        List<ScsTreeLikelihood> likelihoods = new ArrayList<>();
+        for (BEASTInterface beastObject : threaded.listActiveBEASTObjects()) {
+            if (beastObject instanceof ScsTreeLikelihood)
+                likelihoods.add((ScsTreeLikelihood) beastObject);
+        }
+        assertEquals(NR_OF_THREADS, likelihoods.size());
+
+        final ExecutorService pool = likelihoods.get(0).leafPool;
+        assertNotNull(pool);
+        assertTrue(pool != parallel.leafPool);
+        assertTrue(pool.submit(() -> Thread.currentThread().isDaemon()).get());
+        for (ScsTreeLikelihood likelihood : likelihoods) {
+            assertEquals(NR_OF_LEAF_THREADS, likelihood.leafThreadCount);
+            assertSame(pool, likelihood.leafPool);
+        }
+
+        // a tree likelihood does not shut the shared pool down
+        likelihoods.get(0).shutdownLeafThreads();
+        assertNull(likelihoods.get(0).leafPool);
+        assertTrue(!pool.isShutdown());
+
+        // the owner does, and leaves are computed sequentially afterwards
+        threaded.shutdownLeafThreads();
+        assertTrue(pool.isShutdown());
+        for (ScsTreeLikelihood likelihood : likelihoods)
+            assertNull(likelihood.leafPool);
+
+        final RealParameter allelicSeqCov = (RealParameter) getStateNode("allelicSeqCov");
+        step(() -> allelicSeqCov.setValue(0, 42.0), true);
+    } // testSharedLeafPool
+
+    /**
+     * One MCMC step as in MCMC.doLoop(), checking the leaf partials and likelihoods of the proposal.
+     *
+     * @param proposal changes the state
+     * @param accept   whether to accept the proposal
+     */
+    private void step(final Runnable proposal, final boolean accept) {
+        state.store(sample++);
+        proposal.run();
+        state.storeCalculationNodes();
+        state.checkCalculationNodesDirtiness();
+
+        assertLikelihoods(serial.calculateLogP(), parallel.calculateLogP(), threaded.calculateLogP());
+        assertLeafPartials();
+
+        if (accept) {
+            state.acceptCalculationNodes();
+        } else {
+            state.restore();
+            state.restoreCalculationNodes();
+        }
+        state.setEverythingDirty(false);
+
+        assertLeafPartials();
+    } // step
+
+    private void assertLeafPartials() {
+        final int length = serial.nrOfMatrices * serial.nrOfPatterns * serial.nrOfStates;
+        final double[] expected = new double[length];
+        final double[] actual = new double[length];
+
+        for (int i = 0; i < serial.nrOfExternalNodes; i++) {
+            serial.likelihoodCore.getNodePartials(i, expected);
+            parallel.likelihoodCore.getNodePartials(i, actual);
+            assertArrayEquals("leaf " + i, expected, actual, 0);
+        }
+    } // assertLeafPartials
+
+    private static void assertLikelihoods(final double expected, final double parallel, final double threaded) {
+        assertEquals("parallel leaves", expected, parallel, 0);
+        assertEquals("threaded", expected, threaded, TOLERANCE * Math.abs(expected));
+    } // assertLikelihoods
+
+    private StateNode getStateNode(final String id) {
+        for (StateNode stateNode : state.stateNodeInput.get()) {
+            if (id.equals(stateNode.getID()))
+                return stateNode;
+        }
+
+        throw new IllegalArgumentException("No state node " + id);
+    } // getStateNode
+
+    private static void writeData(final File file) throws IOException {
+        final Random random = new Random(26);
+
+        List<String> cellNames = new ArrayList<>();
+        for (int i = 0; i < NR_OF_CELLS; i++)
+            cellNames.add("cell" + i);
+
+        List<String> loci = new ArrayList<>();
+        for (int i = 0; i < NR_OF_LOCI; i++)
+            loci.add("chr1," + (1000 + i * 10) + ",A,C,G,T");
+
+        List<List<String>> readCounts = new ArrayList<>();
+        for (int i = 0; i < NR_OF_CELLS; i++) {
+            List<String> cell = new ArrayList<>();
+            for (int j = 0; j < NR_OF_LOCI; j++) {
+                final int coverage = 5 + random.nextInt(36);
+                final int alt1 = random.nextBoolean() ? random.nextInt(coverage / 2 + 1) : random.nextInt(2);
+                final int alt2 = random.nextInt(2);
+                final int alt3 = random.nextInt(2);
+                cell.add("C,G,T," + alt1 + "," + alt2 + "," + alt3 + "," + (coverage + alt2 + alt3));
+            }
+            readCounts.add(cell);
+        }
+
+        ScsBinaryReadCounts.write(file.getPath(), "full supports-coverage", cellNames, loci, readCounts);
+    } // writeData
+
+    private static void writeXML(final File file, final File data) throws IOException {
+        try (PrintStream out = new PrintStream(file, "UTF-8")) {
+            out.println("<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"no\"?>");
+            out.println("<beast namespace=\"beast.core:beast.evolution.alignment:beast.evolution.tree.coalescent:beast.core.util:beast.evolution.operators:beast.evolution.sitemodel:beast.evolution.substitutionmodel:beast.evolution.rawreadcountsmodel:beast.evolution.rawreadcountsmodel.seqcovmodel:beast.evolution.rawreadcountsmodel.nucreadcountsmodel:beast.evolution.likelihood\" required=\"2.6\" version=\"2.6\">");
+            out.println("    <data ascertained=\"none\" dataType=\"full supports-coverage\" id=\"alignment\" spec=\"beast.evolution.alignment.ScsAlignment\" binaryData=\"" + data.getPath() + "\"/>");
+            out.println("    <run chainLength=\"1\" id=\"mcmc\" spec=\"MCMC\">");
+            out.println("        <state id=\"state\" spec=\"ScsState\">");
+            out.println("            <tree id=\"tree\" name=\"stateNode\" nodetype=\"beast.evolution.tree.ScsNode\" spec=\"beast.evolution.tree.ScsTree\">");
+            out.println("                <taxonset id=\"taxonSet\" scsAlignment=\"@alignment\" spec=\"ScsTaxonSet\"/>");
+            out.println("            </tree>");
+            out.println("            <parameter id=\"allelicSeqCov\" lower=\"0.0\" name=\"stateNode\" spec=\"parameter.RealParameter\" upper=\"1000.0\">50.0</parameter>");
+            out.println("            <parameter id=\"allelicSeqCovRawVar\" lower=\"0.0\" name=\"stateNode\" spec=\"parameter.RealParameter\" upper=\"1000.0\">50.0</parameter>");
+            out.println("            <parameter id=\"effSeqErrRate\" lower=\"0.0\" name=\"stateNode\" spec=\"parameter.RealParameter\" upper=\"1.0\">8.0E-3</parameter>");
+            out.println("            <parameter id=\"shapeCtrl1\" lower=\"0.0\" name=\"stateNode\" spec=\"parameter.RealParameter\" upper=\"1.0E4\">150.0</parameter>");
+            out.println("            <parameter id=\"shapeCtrl2\" lower=\"0.0\" name=\"stateNode\" spec=\"parameter.RealParameter\" upper=\"100\">2.0</parameter>");
+            out.println("            <parameter id=\"adoRate\" lower=\"0.0\" name=\"stateNode\" spec=\"parameter.RealParameter\" upper=\"1.0\">0.5</parameter>");
+            out.println("            <parameter id=\"gammaShape\" lower=\"0.0\" name=\"stateNode\" spec=\"parameter.RealParameter\">1.0</parameter>");
+            out.println("        </state>");
+            out.println("        <init estimate=\"false\" id=\"randomTree\" initial=\"@tree\" nodetype=\"beast.evolution.tree.ScsNode\" spec=\"beast.evolution.tree.ScsRandomTree\" taxa=\"@alignment\">");
+            out.println("            <populationModel id=\"constantPopulation\" spec=\"ConstantPopulation\">");
+            out.println("                <parameter id=\"randomPopSize\" name=\"popSize\" spec=\"parameter.RealParameter\">1.0</parameter>");
+            out.println("            </populationModel>");
+            out.println("        </init>");
+            out.println("        <distribution id=\"posterior\" spec=\"util.CompoundDistribution\">");
+            out.println("            <distribution id=\"serialLikelihood\" scsData=\"@alignment\" spec=\"ScsTreeLikelihood\" tree=\"@tree\">");
+            writeModel(out, "serial");
+            out.println("            </distribution>");
+            out.println("            <distribution id=\"parallelLikelihood\" leafThreads=\"" + NR_OF_LEAF_THREADS + "\" scsData=\"@alignment\" spec=\"ScsTreeLikelihood\" tree=\"@tree\">");
+            writeModel(out, "parallel");
+            out.println("            </distribution>");
+            out.println("            <distribution id=\"threadedLikelihood\" leafThreads=\"" + NR_OF_LEAF_THREADS + "\" scsData=\"@alignment\" spec=\"ThreadedScsTreeLikelihood\" threads=\"" + NR_OF_THREADS + "\" tree=\"@tree\">");
+            writeModel(out, "threaded");
+            out.println("            </distribution>");
+            out.println("        </distribution>");
+            out.println("        <operator id=\"allelicSeqCovScaler\" parameter=\"@allelicSeqCov\" scaleFactor=\"0.75\" spec=\"ScaleOperator\" weight=\"1.0\"/>");
+            out.println("        <logger id=\"screenLog\" logEvery=\"1000\" spec=\"Logger\">");
+            out.println("            <log idref=\"posterior\"/>");
+            out.println("        </logger>");
+            out.println("    </run>");
+            out.println("</beast>");
+        }
+    } // writeXML
+
+    /**
+     * Each likelihood has its own model, sharing parameters in the state.
+     */
+    private static void writeModel(final PrintStream out, final String prefix) {
+        out.println("                <siteModel gammaCategoryCount=\"4\" id=\"" + prefix + "SiteModel\" shape=\"@gammaShape\" spec=\"ScsSiteModel\">");
+        out.println("                    <parameter estimate=\"false\" id=\"" + prefix + "MutationRate\" name=\"mutationRate\" spec=\"parameter.RealParameter\">1.0</parameter>");
+        out.println("                    <substModel id=\"" + prefix + "ScsFM\" spec=\"ScsFiniteMuExtendedModel\"/>");
+        out.println("                </siteModel>");
+        out.println("                <branchRateModel id=\"" + prefix + "StrictClock\" spec=\"beast.evolution.branchratemodel.StrictClockModel\">");
+        out.println("                    <parameter estimate=\"false\" id=\"" + prefix + "ClockRate\" name=\"clock.rate\" spec=\"parameter.RealParameter\">1.0</parameter>");
+        out.println("                </branchRateModel>");
+        out.println("                <rawReadCountsModel adoRate=\"@adoRate\" id=\"" + prefix + "RawReadCountsModel\" singleADO=\"false\" spec=\"RawReadCountsModelFiniteMu\">");
+        out.println("                    <seqCovModel allelicSeqCov=\"@allelicSeqCov\" allelicSeqCovRawVar=\"@allelicSeqCovRawVar\" id=\"" + prefix + "SeqCovModel\" inVariantCallingMode=\"false\" spec=\"ExploredSharedAllelicSeqCovModel\" zeroCovMode=\"0\"/>");
+        out.println("                    <nucReadCountsModel effSeqErrRate=\"@effSeqErrRate\" id=\"" + prefix + "NucReadCountsModel\" shapeCtrl1=\"@shapeCtrl1\" shapeCtrl2=\"@shapeCtrl2\" spec=\"NucReadCountsModelFiniteMu\"/>");
+        out.println("                </rawReadCountsModel>");
+    } // writeModel
+
+}
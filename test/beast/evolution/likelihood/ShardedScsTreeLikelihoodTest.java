@@ -0,0 +1,265 @@
+package beast.evolution.likelihood;
+
+import beast.core.Distribution;
+import beast.core.MCMC;
+import beast.core.State;
+import beast.core.StateNode;
+import beast.core.parameter.RealParameter;
+import beast.core.util.CompoundDistribution;
+import beast.evolution.alignment.ScsBinaryReadCounts;
+import beast.evolution.tree.Node;
+import beast.evolution.tree.Tree;
+import beast.util.XMLParser;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+/**
+ * Launches two worker processes on localhost, and checks that the log-likelihood of ShardedScsTreeLikelihood is
+ * the same as that of ScsTreeLikelihood on the whole alignment, through accepted and rejected proposals of
+ * parameters and the tree.
+ */
+public class ShardedScsTreeLikelihoodTest {
+
+    private final static int NR_OF_CELLS = 6;
+    private final static int NR_OF_LOCI = 40;
+    private final static double TOLERANCE = 1e-10;
+
+    private File dir;
+    private State state;
+    private ShardedScsTreeLikelihood sharded;
+    private ScsTreeLikelihood unsharded;
+    private long sample = 0;
+
+    @Before
+    public void setUp() throws Exception {
+        dir = Files.createTempDirectory("sharded").toFile();
+
+        final File data = new File(dir, "read_counts.bin");
+        final File xml = new File(dir, "sharded.xml");
+        writeData(data);
+        writeXML(xml, data);
+
+        MCMC mcmc = (MCMC) new XMLParser().parseFile(xml);
+        CompoundDistribution posterior = (CompoundDistribution) mcmc.posteriorInput.get();
+        for (Distribution distribution : posterior.pDistributions.get()) {
+            if (distribution instanceof ShardedScsTreeLikelihood)
+                sharded = (ShardedScsTreeLikelihood) distribution;
+            else if (distribution instanceof ScsTreeLikelihood)
+                unsharded = (ScsTreeLikelihood) distribution;
+        }
+        assertNotNull(sharded);
+        assertNotNull(unsharded);
+
+        state = mcmc.startStateInput.get();
+        state.initialise();
+        state.setPosterior(posterior);
+
+        // the first evaluation sends all state nodes to workers
+        state.robustlyCalcPosterior(posterior);
+        assertEquals(unsharded.getCurrentLogP(), sharded.getCurrentLogP(), TOLERANCE * Math.abs(unsharded.getCurrentLogP()));
+    } // setUp
+
+    @After
+    public void tearDown() {
+        if (sharded != null)
+            sharded.stopWorkers();
+
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files)
+                file.delete();
+        }
+        dir.delete();
+    } // tearDown
+
+    @Test
+    public void testParameterProposals() {
+        final RealParameter allelicSeqCov = (RealParameter) getStateNode("allelicSeqCov");
+        final RealParameter effSeqErrRate = (RealParameter) getStateNode("effSeqErrRate");
+
+        step(() -> allelicSeqCov.setValue(0, 35.0), true);
+        step(() -> effSeqErrRate.setValue(0, 2.0E-2), false);
+        step(() -> effSeqErrRate.setValue(0, 5.0E-3), true);
+        step(() -> allelicSeqCov.setValue(0, 60.0), false);
+        step(() -> allelicSeqCov.setValue(0, 20.0), true);
+    } // testParameterProposals
+
+    @Test
+    public void testTreeProposals() {
+        final Tree tree = (Tree) getStateNode("tree");
+
+        step(() -> scaleInternalNode(tree), true);
+        step(() -> swapLeaves(tree), false);
+        step(() -> swapLeaves(tree), true);
+        step(() -> scaleInternalNode(tree), false);
+        step(() -> swapLeaves(tree), true);
+    } // testTreeProposals
+
+    /**
+     * One MCMC step as in MCMC.doLoop(), checking the likelihoods of the proposal.
+     *
+     * @param proposal changes the state
+     * @param accept   whether to accept the proposal
+     */
+    private void step(final Runnable proposal, final boolean accept) {
+        state.store(sample++);
+        proposal.run();
+        state.storeCalculationNodes();
+        state.checkCalculationNodesDirtiness();
+
+        final double expected = unsharded.calculateLogP();
+        assertEquals(expected, sharded.calculateLogP(), TOLERANCE * Math.abs(expected));
+
+        if (accept) {
+            state.acceptCalculationNodes();
+        } else {
+            state.restore();
+            state.restoreCalculationNodes();
+        }
+        state.setEverythingDirty(false);
+    } // step
+
+    private StateNode getStateNode(final String id) {
+        for (StateNode stateNode : state.stateNodeInput.get()) {
+            if (id.equals(stateNode.getID()))
+                return stateNode;
+        }
+
+        throw new IllegalArgumentException("No state node " + id);
+    } // getStateNode
+
+    /**
+     * Move the first internal node to the middle of its feasible range.
+     */
+    private static void scaleInternalNode(final Tree tree) {
+        final Node node = tree.getNode(tree.getLeafNodeCount());
+
+        double lower = 0.0;
+        for (Node child : node.getChildren())
+            lower = Math.max(lower, child.getHeight());
+
+        node.setHeight((lower + node.getParent().getHeight()) / 2);
+    } // scaleInternalNode
+
+    /**
+     * Swap the first leaf with the first leaf under another parent.
+     */
+    private static void swapLeaves(final Tree tree) {
+        final Node a = tree.getNode(0);
+        Node b = null;
+        for (int i = 1; i < tree.getLeafNodeCount() && b == null; i++) {
+            if (tree.getNode(i).getParent() != a.getParent())
+                b = tree.getNode(i);
+        }
+        assertNotNull(b);
+
+        final Node parentA = a.getParent();
+        final Node parentB = b.getParent();
+        parentA.removeChild(a);
+        parentB.removeChild(b);
+        parentA.addChild(b);
+        parentB.addChild(a);
+
+        parentA.makeDirty(Tree.IS_FILTHY);
+        parentB.makeDirty(Tree.IS_FILTHY);
+        a.makeDirty(Tree.IS_FILTHY);
+        b.makeDirty(Tree.IS_FILTHY);
+    } // swapLeaves
+
+    private static void writeData(final File file) throws IOException {
+        final Random random = new Random(7);
+
+        List<String> cellNames = new ArrayList<>();
+        for (int i = 0; i < NR_OF_CELLS; i++)
+            cellNames.add("cell" + i);
+
+        List<String> loci = new ArrayList<>();
+        for (int i = 0; i < NR_OF_LOCI; i++)
+            loci.add("chr1," + (1000 + i * 10) + ",A,C,G,T");
+
+        List<List<String>> readCounts = new ArrayList<>();
+        for (int i = 0; i < NR_OF_CELLS; i++) {
+            List<String> cell = new ArrayList<>();
+            for (int j = 0; j < NR_OF_LOCI; j++) {
+                final int coverage = 5 + random.nextInt(36);
+                final int alt1 = random.nextBoolean() ? random.nextInt(coverage / 2 + 1) : random.nextInt(2);
+                final int alt2 = random.nextInt(2);
+                final int alt3 = random.nextInt(2);
+                cell.add("C,G,T," + alt1 + "," + alt2 + "," + alt3 + "," + (coverage + alt2 + alt3));
+            }
+            readCounts.add(cell);
+        }
+
+        ScsBinaryReadCounts.write(file.getPath(), "full supports-coverage", cellNames, loci, readCounts);
+    } // writeData
+
+    private static void writeXML(final File file, final File data) throws IOException {
+        try (PrintStream out = new PrintStream(file, "UTF-8")) {
+            out.println("<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"no\"?>");
+            out.println("<beast namespace=\"beast.core:beast.evolution.alignment:beast.evolution.tree.coalescent:beast.core.util:beast.evolution.operators:beast.evolution.sitemodel:beast.evolution.substitutionmodel:beast.evolution.rawreadcountsmodel:beast.evolution.rawreadcountsmodel.seqcovmodel:beast.evolution.rawreadcountsmodel.nucreadcountsmodel:beast.evolution.likelihood\" required=\"2.6\" version=\"2.6\">");
+            out.println("    <data ascertained=\"none\" dataType=\"full supports-coverage\" id=\"alignment\" spec=\"beast.evolution.alignment.ScsAlignment\" binaryData=\"" + data.getPath() + "\"/>");
+            out.println("    <run chainLength=\"1\" id=\"mcmc\" spec=\"MCMC\">");
+            out.println("        <state id=\"state\" spec=\"ScsState\">");
+            out.println("            <tree id=\"tree\" name=\"stateNode\" nodetype=\"beast.evolution.tree.ScsNode\" spec=\"beast.evolution.tree.ScsTree\">");
+            out.println("                <taxonset id=\"taxonSet\" scsAlignment=\"@alignment\" spec=\"ScsTaxonSet\"/>");
+            out.println("            </tree>");
+            out.println("            <parameter id=\"allelicSeqCov\" lower=\"0.0\" name=\"stateNode\" spec=\"parameter.RealParameter\" upper=\"1000.0\">50.0</parameter>");
+            out.println("            <parameter id=\"allelicSeqCovRawVar\" lower=\"0.0\" name=\"stateNode\" spec=\"parameter.RealParameter\" upper=\"1000.0\">50.0</parameter>");
+            out.println("            <parameter id=\"effSeqErrRate\" lower=\"0.0\" name=\"stateNode\" spec=\"parameter.RealParameter\" upper=\"1.0\">8.0E-3</parameter>");
+            out.println("            <parameter id=\"shapeCtrl1\" lower=\"0.0\" name=\"stateNode\" spec=\"parameter.RealParameter\" upper=\"1.0E4\">150.0</parameter>");
+            out.println("            <parameter id=\"shapeCtrl2\" lower=\"0.0\" name=\"stateNode\" spec=\"parameter.RealParameter\" upper=\"100\">2.0</parameter>");
+            out.println("            <parameter id=\"adoRate\" lower=\"0.0\" name=\"stateNode\" spec=\"parameter.RealParameter\" upper=\"1.0\">0.5</parameter>");
+            out.println("            <parameter id=\"gammaShape\" lower=\"0.0\" name=\"stateNode\" spec=\"parameter.RealParameter\">1.0</parameter>");
+            out.println("        </state>");
+            out.println("        <init estimate=\"false\" id=\"randomTree\" initial=\"@tree\" nodetype=\"beast.evolution.tree.ScsNode\" spec=\"beast.evolution.tree.ScsRandomTree\" taxa=\"@alignment\">");
+            out.println("            <populationModel id=\"constantPopulation\" spec=\"ConstantPopulation\">");
+            out.println("                <parameter id=\"randomPopSize\" name=\"popSize\" spec=\"parameter.RealParameter\">1.0</parameter>");
+            out.println("            </populationModel>");
+            out.println("        </init>");
+            out.println("        <distribution id=\"posterior\" spec=\"util.CompoundDistribution\">");
+            out.println("            <distribution id=\"shardedLikelihood\" scsData=\"@alignment\" spec=\"ShardedScsTreeLikelihood\" state=\"@state\" tree=\"@tree\" workers=\"2\" workerXML=\"" + file.getPath() + "\">");
+            writeModel(out, "sharded");
+            out.println("            </distribution>");
+            out.println("            <distribution id=\"unshardedLikelihood\" scsData=\"@alignment\" spec=\"ScsTreeLikelihood\" tree=\"@tree\">");
+            writeModel(out, "unsharded");
+            out.println("            </distribution>");
+            out.println("        </distribution>");
+            out.println("        <operator id=\"allelicSeqCovScaler\" parameter=\"@allelicSeqCov\" scaleFactor=\"0.75\" spec=\"ScaleOperator\" weight=\"1.0\"/>");
+            out.println("        <logger id=\"screenLog\" logEvery=\"1000\" spec=\"Logger\">");
+            out.println("            <log idref=\"posterior\"/>");
+            out.println("        </logger>");
+            out.println("    </run>");
+            out.println("</beast>");
+        }
+    } // writeXML
+
+    /**
+     * Each likelihood has its own model, sharing parameters in the state.
+     */
+    private static void writeModel(final PrintStream out, final String prefix) {
+        out.println("                <siteModel gammaCategoryCount=\"4\" id=\"" + prefix + "SiteModel\" shape=\"@gammaShape\" spec=\"ScsSiteModel\">");
+        out.println("                    <parameter estimate=\"false\" id=\"" + prefix + "MutationRate\" name=\"mutationRate\" spec=\"parameter.RealParameter\">1.0</parameter>");
+        out.println("                    <substModel id=\"" + prefix + "ScsFM\" spec=\"ScsFiniteMuExtendedModel\"/>");
+        out.println("                </siteModel>");
+        out.println("                <branchRateModel id=\"" + prefix + "StrictClock\" spec=\"beast.evolution.branchratemodel.StrictClockModel\">");
+        out.println("                    <parameter estimate=\"false\" id=\"" + prefix + "ClockRate\" name=\"clock.rate\" spec=\"parameter.RealParameter\">1.0</parameter>");
+        out.println("                </branchRateModel>");
+        out.println("                <rawReadCountsModel adoRate=\"@adoRate\" id=\"" + prefix + "RawReadCountsModel\" singleADO=\"false\" spec=\"RawReadCountsModelFiniteMu\">");
+        out.println("                    <seqCovModel allelicSeqCov=\"@allelicSeqCov\" allelicSeqCovRawVar=\"@allelicSeqCovRawVar\" id=\"" + prefix + "SeqCovModel\" inVariantCallingMode=\"false\" spec=\"ExploredSharedAllelicSeqCovModel\" zeroCovMode=\"0\"/>");
+        out.println("                    <nucReadCountsModel effSeqErrRate=\"@effSeqErrRate\" id=\"" + prefix + "NucReadCountsModel\" shapeCtrl1=\"@shapeCtrl1\" shapeCtrl2=\"@shapeCtrl2\" spec=\"NucReadCountsModelFiniteMu\"/>");
+        out.println("                </rawReadCountsModel>");
+    } // writeModel
+
+}
@@ -0,0 +1,246 @@
+package beast.evolution.rawreadcountsmodel;
+
+import beast.core.parameter.RealParameter;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static beast.math.util.MathFunctions.logSumExp;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks mixed likelihoods evaluated from cached ADO coefficients against the formulas recomputing every
+ * coefficient from the ADO rate, as computeMixedLikelihoodCore used to, for all genotypes, both ADO modes, log and
+ * linear partials, and ADO rates changing between calls.
+ */
+public class RawReadCountsModelMixtureTest {
+
+    private final static double[] ADO_RATES = {0.2, 0.05, 0.2, 0.5, 0.999, 1e-6, 0.05};
+
+    private final static int NR_OF_ROUNDS = 200;
+
+    @Test
+    public void testFiniteMu() {
+        for (boolean singleADO : new boolean[]{false, true}) {
+            for (boolean useLogPartials : new boolean[]{false, true})
+                assertMixtures(false, singleADO, useLogPartials);
+        }
+    } // testFiniteMu
+
+    @Test
+    public void testFiniteMuDel() {
+        for (boolean singleADO : new boolean[]{false, true}) {
+            for (boolean useLogPartials : new boolean[]{false, true})
+                assertMixtures(true, singleADO, useLogPartials);
+        }
+    } // testFiniteMuDel
+
+    private static void assertMixtures(
+            final boolean withDeletions,
+            final boolean singleADO,
+            final boolean useLogPartials
+    ) {
+        final Random random = new Random(29);
+
+        // likelihoods of a single cell: 0/0, 1/1, 1/1' and 0/1, and 0, 1 and 2 sequenced alleles
+        final double[] nuc = new double[4];
+        final double[] seqCov = new double[3];
+
+        final RawReadCountsModelFiniteMu model = withDeletions ? new FiniteMuDel(nuc, seqCov) : new FiniteMu(nuc, seqCov);
+
+        model.singleADO = singleADO;
+        model.useLogPartials = useLogPartials;
+
+        final double[] comp = new double[3];
+        final double[] expectedComp = new double[3];
+
+        for (int k = 0; k < NR_OF_ROUNDS; k++) {
+            final double theta = ADO_RATES[k % ADO_RATES.length];
+            model.adoRate = new RealParameter(new Double[]{theta});
+
+            for (int i = 0; i < nuc.length; i++)
+                nuc[i] = useLogPartials ? -30 * random.nextDouble() : Math.exp(-30 * random.nextDouble());
+            for (int i = 0; i < seqCov.length; i++)
+                seqCov[i] = useLogPartials ? -20 * random.nextDouble() : Math.exp(-20 * random.nextDouble());
+
+            for (int genotype = 0; genotype < (withDeletions ? 7 : 4); genotype++) {
+                final String message = (withDeletions ? "FiniteMuDel" : "FiniteMu") + ", single ADO " + singleADO +
+                        ", log " + useLogPartials + ", ADO rate " + theta + ", genotype " + genotype;
+
+                final double expected = computeMixedLikelihood(genotype, theta, withDeletions, singleADO,
+                        useLogPartials, nuc, seqCov, expectedComp);
+
+                assertEquals(message, expected, model.computeMixedLikelihoodCore(genotype, 0, 0, 0, null), 0);
+                assertEquals(message, expected, model.computeMixedLikelihoodCore(genotype, 0, 0, 0, comp), 0);
+
+                final int nrOfComps = genotype == 6 ? 1 : (singleADO || genotype > 3 ? 2 : 3);
+                for (int i = 0; i < nrOfComps; i++)
+                    assertEquals(message + ", component " + i, expectedComp[i], comp[i], 0);
+            }
+        }
+    } // assertMixtures
+
+    /**
+     * The mixed likelihood with every coefficient computed from the ADO rate.
+     *
+     * @param nuc    nucleotide read counts likelihoods of 0/0, 1/1, 1/1' and 0/1
+     * @param seqCov sequencing coverage likelihoods of 0, 1 and 2 sequenced alleles; without deletions, single ADO
+     *               mode does not model 0 sequenced alleles, and the first two are those of 1 and 2
+     * @param comp   component likelihoods
+     */
+    private static double computeMixedLikelihood(
+            final int genotype,
+            final double theta,
+            final boolean withDeletions,
+            final boolean singleADO,
+            final boolean useLogPartials,
+            final double[] nuc,
+            final double[] seqCov,
+            final double[] comp
+    ) {
+        // offset to the sequencing coverage likelihood of one sequenced allele in single ADO mode
+        final int o = withDeletions ? 1 : 0;
+
+        int nrOfComps;
+        switch (genotype) {
+            case 0:
+            case 2:
+            case 3:
+                // 0/0, 1/1 and 1/1'
+                final double noADO = nuc[genotype == 0 ? 0 : genotype == 2 ? 1 : 2];
+                final double oneAllele = nuc[genotype == 0 ? 0 : 1];
+
+                if (singleADO) {
+                    nrOfComps = 2;
+                    if (useLogPartials) {
+                        comp[0] = Math.log(1 - theta) + noADO + seqCov[o + 1];
+                        comp[1] = Math.log(theta) + oneAllele + seqCov[o];
+                    } else {
+                        comp[0] = (1 - theta) * noADO * seqCov[o + 1];
+                        comp[1] = theta * oneAllele * seqCov[o];
+                    }
+                } else {
+                    nrOfComps = 3;
+                    if (useLogPartials) {
+                        comp[0] = 2 * Math.log(1 - theta) + noADO + seqCov[2];
+                        comp[1] = Math.log(2) + Math.log(theta) + Math.log(1 - theta) + oneAllele + seqCov[1];
+                        comp[2] = 2 * Math.log(theta) + seqCov[0];
+                    } else {
+                        comp[0] = Math.pow(1 - theta, 2) * noADO * seqCov[2];
+                        comp[1] = 2 * theta * (1 - theta) * oneAllele * seqCov[1];
+                        comp[2] = Math.pow(theta, 2) * seqCov[0];
+                    }
+                }
+                break;
+            case 1:
+                // 0/1
+                if (singleADO) {
+                    nrOfComps = 2;
+                    if (useLogPartials) {
+                        comp[0] = Math.log(1 - theta) + nuc[3] + seqCov[o + 1];
+                        comp[1] = Math.log(theta) - Math.log(2) + logSumExp(new double[]{nuc[0], nuc[1]}) + seqCov[o];
+                    } else {
+                        comp[0] = (1 - theta) * nuc[3] * seqCov[o + 1];
+                        comp[1] = (theta / 2) * (nuc[0] + nuc[1]) * seqCov[o];
+                    }
+                } else {
+                    nrOfComps = 3;
+                    if (useLogPartials) {
+                        comp[0] = 2 * Math.log(1 - theta) + nuc[3] + seqCov[2];
+                        comp[1] = Math.log(theta) + Math.log(1 - theta) + logSumExp(new double[]{nuc[0], nuc[1]}) + seqCov[1];
+                        comp[2] = 2 * Math.log(theta) + seqCov[0];
+                    } else {
+                        comp[0] = Math.pow(1 - theta, 2) * nuc[3] * seqCov[2];
+                        comp[1] = theta * (1 - theta) * (nuc[0] + nuc[1]) * seqCov[1];
+                        comp[2] = Math.pow(theta, 2) * seqCov[0];
+                    }
+                }
+                break;
+            case 4:
+            case 5:
+                // 0/- and 1/-
+                final double remaining = nuc[genotype - 4];
+
+                nrOfComps = 2;
+                if (singleADO) {
+                    if (useLogPartials) {
+                        comp[0] = Math.log(1 - theta / 2) + remaining + seqCov[1];
+                        comp[1] = Math.log(theta) - Math.log(2) + seqCov[0];
+                    } else {
+                        comp[0] = (1 - theta / 2) * remaining * seqCov[1];
+                        comp[1] = (theta / 2) * seqCov[0];
+                    }
+                } else {
+                    if (useLogPartials) {
+                        comp[0] = Math.log(1 - theta) + remaining + seqCov[1];
+                        comp[1] = Math.log(theta) + seqCov[0];
+                    } else {
+                        comp[0] = (1 - theta) * remaining * seqCov[1];
+                        comp[1] = theta * seqCov[0];
+                    }
+                }
+                break;
+            case 6:
+                // -
+                comp[0] = seqCov[0];
+                return comp[0];
+            default:
+                throw new IllegalArgumentException("Unexpected genotype index: " + genotype);
+        }
+
+        if (nrOfComps == 2)
+            return useLogPartials ? logSumExp(new double[]{comp[0], comp[1]}) : comp[0] + comp[1];
+        else
+            return useLogPartials ? logSumExp(new double[]{comp[0], comp[1], comp[2]}) : comp[0] + comp[1] + comp[2];
+    } // computeMixedLikelihood
+
+
+    //************************************************
+    //*                Nested classes                *
+    //************************************************
+
+    /**
+     * Mixtures of the likelihoods of a single cell, looked up instead of those of the nucleotide read counts and
+     * sequencing coverage models.
+     */
+    private static class FiniteMu extends RawReadCountsModelFiniteMu {
+        private final double[] nuc;
+        private final double[] seqCov;
+
+        FiniteMu(double[] nuc, double[] seqCov) {
+            this.nuc = nuc;
+            this.seqCov = seqCov;
+        }
+
+        @Override
+        protected double getNucReadCountsLikelihood(final int taxonIndex, final int index) {
+            return nuc[index];
+        }
+
+        @Override
+        protected double getSeqCovLikelihood(final int taxonIndex, final int index) {
+            return seqCov[index];
+        }
+    } // class FiniteMu
+
+    private static class FiniteMuDel extends RawReadCountsModelFiniteMuDel {
+        private final double[] nuc;
+        private final double[] seqCov;
+
+        FiniteMuDel(double[] nuc, double[] seqCov) {
+            this.nuc = nuc;
+            this.seqCov = seqCov;
+        }
+
+        @Override
+        protected double getNucReadCountsLikelihood(final int taxonIndex, final int index) {
+            return nuc[index];
+        }
+
+        @Override
+        protected double getSeqCovLikelihood(final int taxonIndex, final int index) {
+            return seqCov[index];
+        }
+    } // class FiniteMuDel
+
+}
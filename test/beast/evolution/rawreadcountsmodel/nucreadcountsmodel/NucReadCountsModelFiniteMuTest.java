@@ -0,0 +1,251 @@
+package beast.evolution.rawreadcountsmodel.nucreadcountsmodel;
+
+import beast.core.parameter.RealParameter;
+import beast.evolution.alignment.ScsAlignment;
+import beast.evolution.alignment.ScsBinaryReadCounts;
+import beast.math.distributions.DirichletMultinomial;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks nucleotide read counts likelihoods looked up by unique read counts tuples against densities evaluated for
+ * each cell, and those updated during MCMC, where categories not depending on changed parameters are copied from the
+ * stored likelihoods, against those recomputed in full.
+ */
+public class NucReadCountsModelFiniteMuTest {
+
+    private final static int NR_OF_CELLS = 6;
+
+    private final static int NR_OF_LOCI = 80;
+
+    private final static int NR_OF_STEPS = 300;
+
+    private File data;
+
+    private ScsAlignment alignment;
+
+    @Before
+    public void setUp() throws IOException {
+        data = File.createTempFile("nuc_read_counts", ".bin");
+        writeData(data);
+
+        alignment = new ScsAlignment();
+        alignment.initByName("binaryData", data.getPath());
+    } // setUp
+
+    @After
+    public void tearDown() {
+        data.delete();
+    } // tearDown
+
+    @Test
+    public void testUniqueDensities() {
+        final DirichletMultinomial distribution = new DirichletMultinomial();
+        final int[] reads = new int[alignment.getNrOfPatternValues()];
+
+        for (boolean useLogPartials : new boolean[]{true, false}) {
+            for (double[] values : new double[][]{{0.01, 5.0, 2.0}, {0.08, 0.7, 35.0}, {1e-4, 120.0, 1.5}}) {
+                final NucReadCountsModelFiniteMu model = getModel(values, useLogPartials);
+                final double[][] likelihoods = getLikelihoods(model, true);
+
+                assertTrue(model.uniqueReadCounts.length < alignment.getTaxonCount() * alignment.getPatternCount());
+
+                final double e = values[0];
+                final double w1 = values[1];
+                final double w2 = values[2];
+
+                // fractions of 0/0, 1/1, 1/1' and 0/1
+                final double[][] fractions = {
+                        {e / 3 * w1, e / 3 * w1, e / 3 * w1, (1 - e) * w1, w1},
+                        {(1 - e) * w1, e / 3 * w1, e / 3 * w1, e / 3 * w1, w1},
+                        {(0.5 - e / 3) * w2, (0.5 - e / 3) * w2, e / 3 * w2, e / 3 * w2, w2},
+                        {(0.5 - e / 3) * w2, e / 3 * w2, e / 3 * w2, (0.5 - e / 3) * w2, w2}
+                };
+
+                for (int taxonIndex = 0; taxonIndex < alignment.getTaxonCount(); taxonIndex++) {
+                    for (int patternIndex = 0; patternIndex < alignment.getPatternCount(); patternIndex++) {
+                        alignment.getPattern(taxonIndex, patternIndex, reads);
+
+                        for (int category = 0; category < fractions.length; category++) {
+                            final double expected = useLogPartials ?
+                                    distribution.logDensity(reads, fractions[category]) :
+                                    distribution.density(reads, fractions[category]);
+
+                            assertEquals("log " + useLogPartials + ", taxon " + taxonIndex + ", pattern " +
+                                            patternIndex + ", category " + category, expected,
+                                    likelihoods[taxonIndex][patternIndex * model.getNrOfCategories() + category],
+                                    1e-10 * Math.max(1, Math.abs(expected)));
+                        }
+                    }
+                }
+            }
+        }
+    } // testUniqueDensities
+
+    @Test
+    public void testPartialUpdates() {
+        for (boolean useLogPartials : new boolean[]{true, false})
+            assertPartialUpdates(useLogPartials);
+    } // testPartialUpdates
+
+    /**
+     * Mirror MCMC steps moving one or more of effSeqErrRate, shapeCtrl1 and shapeCtrl2, each of which is accepted
+     * or rejected.
+     */
+    private void assertPartialUpdates(final boolean useLogPartials) {
+        final Random random = new Random(30);
+
+        double[] values = {0.01, 5.0, 2.0};
+
+        final NucReadCountsModelFiniteMu model = getModel(values, useLogPartials);
+        final int[] reads = new int[alignment.getNrOfPatternValues()];
+
+        for (int taxonIndex = 0; taxonIndex < alignment.getTaxonCount(); taxonIndex++) {
+            for (int patternIndex = 0; patternIndex < alignment.getPatternCount(); patternIndex++) {
+                alignment.getPattern(taxonIndex, patternIndex, reads);
+                model.computeNucReadCountsLikelihoods(reads, patternIndex, taxonIndex);
+            }
+
+            model.storeLikelihoods(taxonIndex);
+        }
+
+        double[][] expected = getLikelihoods(getModel(values, useLogPartials), true);
+        assertLikelihoods("initial", expected, model);
+
+        for (int k = 0; k < NR_OF_STEPS; k++) {
+            model.store();
+
+            // move a non-empty subset of parameters
+            final int moved = 1 + random.nextInt(7);
+            double[] proposed = values.clone();
+            if ((moved & 1) != 0) proposed[0] = 0.001 + 0.1 * random.nextDouble();
+            if ((moved & 2) != 0) proposed[1] = 0.5 + 20 * random.nextDouble();
+            if ((moved & 4) != 0) proposed[2] = 0.5 + 20 * random.nextDouble();
+
+            setParameters(model, proposed);
+            model.effSeqErrRateIsDirty = (moved & 1) != 0;
+            model.shapeCtrl1IsDirty = (moved & 2) != 0;
+            model.shapeCtrl2IsDirty = (moved & 4) != 0;
+
+            for (int taxonIndex = 0; taxonIndex < alignment.getTaxonCount(); taxonIndex++) {
+                model.setNucReadCountsLikelihoodsNodeForUpdate(taxonIndex);
+
+                for (int patternIndex = 0; patternIndex < alignment.getPatternCount(); patternIndex++) {
+                    alignment.getPattern(taxonIndex, patternIndex, reads);
+                    model.updateNucReadCountsLikelihoods(reads, patternIndex, taxonIndex);
+                }
+            }
+
+            final double[][] full = getLikelihoods(getModel(proposed, useLogPartials), true);
+            assertLikelihoods("step " + k + ", moved " + moved, full, model);
+
+            if (random.nextBoolean()) {
+                // accept
+                values = proposed;
+                expected = full;
+            } else {
+                // reject
+                model.restore();
+                setParameters(model, values);
+                assertLikelihoods("step " + k + ", restored", expected, model);
+            }
+        }
+    } // assertPartialUpdates
+
+    private NucReadCountsModelFiniteMu getModel(final double[] values, final boolean useLogPartials) {
+        NucReadCountsModelFiniteMu model = new NucReadCountsModelFiniteMu();
+        model.initByName(
+                "effSeqErrRate", new RealParameter(new Double[]{values[0]}),
+                "shapeCtrl1", new RealParameter(new Double[]{values[1]}),
+                "shapeCtrl2", new RealParameter(new Double[]{values[2]})
+        );
+        model.deeplyInitialize(alignment, 4, useLogPartials);
+
+        return model;
+    } // getModel
+
+    private static void setParameters(final NucReadCountsModelFiniteMu model, final double[] values) {
+        if (model.effSeqErrRate.getValue() != values[0])
+            model.effSeqErrRate = new RealParameter(new Double[]{values[0]});
+
+        if (model.shapeCtrl1.getValue() != values[1])
+            model.shapeCtrl1 = new RealParameter(new Double[]{values[1]});
+
+        if (model.shapeCtrl2.getValue() != values[2])
+            model.shapeCtrl2 = new RealParameter(new Double[]{values[2]});
+    } // setParameters
+
+    /**
+     * @param compute whether to compute all categories of all cells first
+     * @return likelihoods, [#taxa][#patterns * #categories]
+     */
+    private double[][] getLikelihoods(final NucReadCountsModelFiniteMu model, final boolean compute) {
+        final int size = alignment.getPatternCount() * model.getNrOfCategories();
+        final int[] reads = new int[alignment.getNrOfPatternValues()];
+
+        double[][] likelihoods = new double[alignment.getTaxonCount()][size];
+        for (int taxonIndex = 0; taxonIndex < alignment.getTaxonCount(); taxonIndex++) {
+            if (compute) {
+                for (int patternIndex = 0; patternIndex < alignment.getPatternCount(); patternIndex++) {
+                    alignment.getPattern(taxonIndex, patternIndex, reads);
+                    model.computeNucReadCountsLikelihoods(reads, patternIndex, taxonIndex);
+                }
+            }
+
+            for (int i = 0; i < size; i++)
+                likelihoods[taxonIndex][i] = model.getNucReadCountsLikelihood(taxonIndex, i);
+        }
+
+        return likelihoods;
+    } // getLikelihoods
+
+    private void assertLikelihoods(final String message, final double[][] expected, final NucReadCountsModelFiniteMu model) {
+        final double[][] observed = getLikelihoods(model, false);
+
+        for (int taxonIndex = 0; taxonIndex < expected.length; taxonIndex++) {
+            for (int i = 0; i < expected[taxonIndex].length; i++)
+                assertEquals(message + ", taxon " + taxonIndex + ", pattern " + i / model.getNrOfCategories() +
+                        ", category " + i % model.getNrOfCategories(), expected[taxonIndex][i], observed[taxonIndex][i], 0);
+        }
+    } // assertLikelihoods
+
+    /**
+     * Read counts with few distinct values, so that many cells share the same tuple.
+     */
+    private static void writeData(final File file) throws IOException {
+        final Random random = new Random(3);
+
+        List<String> cellNames = new ArrayList<>();
+        for (int i = 0; i < NR_OF_CELLS; i++)
+            cellNames.add("cell" + i);
+
+        List<String> loci = new ArrayList<>();
+        for (int i = 0; i < NR_OF_LOCI; i++)
+            loci.add("chr1," + (1000 + i * 10) + ",A,C,G,T");
+
+        List<List<String>> readCounts = new ArrayList<>();
+        for (int i = 0; i < NR_OF_CELLS; i++) {
+            List<String> cell = new ArrayList<>();
+            for (int j = 0; j < NR_OF_LOCI; j++) {
+                final int a1 = random.nextInt(3) * 4;
+                final int a2 = random.nextInt(4) == 0 ? random.nextInt(3) : 0;
+                final int a3 = random.nextInt(10) == 0 ? 1 : 0;
+                cell.add("C,G,T," + a1 + "," + a2 + "," + a3 + "," + (a1 + a2 + a3 + random.nextInt(3) * 5));
+            }
+            readCounts.add(cell);
+        }
+
+        ScsBinaryReadCounts.write(file.getPath(), "full supports-coverage", cellNames, loci, readCounts);
+    } // writeData
+
+}
@@ -0,0 +1,142 @@
+package beast.evolution.rawreadcountsmodel.seqcovmodel;
+
+import beast.core.parameter.RealParameter;
+import beast.evolution.alignment.ScsAlignment;
+import beast.evolution.alignment.ScsBinaryReadCounts;
+import beast.math.distributions.NegativeBinomial;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks sequencing coverage likelihoods looked up by unique pairs of (sequencing coverage, size factor) against
+ * negative-binomial densities evaluated for each cell, as computeSeqCovLikelihood used to, including after the
+ * shared parameters change.
+ */
+public class ExploredSharedAllelicSeqCovModelTest {
+
+    private final static int NR_OF_CELLS = 6;
+
+    private final static int NR_OF_LOCI = 60;
+
+    private final static int[] MODELED_ALLELES = {0, 1, 2};
+
+    // pairs of allelicSeqCov and allelicSeqCovRawVar
+    private final static double[][] VALUES = {{10.0, 5.0}, {10.0, 40.0}, {3.5, 40.0}, {25.0, 0.5}, {10.0, 5.0}};
+
+    private final static double TOLERANCE = 1e-9;
+
+    private File data;
+
+    private ScsAlignment alignment;
+
+    @Before
+    public void setUp() throws IOException {
+        data = File.createTempFile("seq_cov", ".bin");
+        writeData(data);
+
+        alignment = new ScsAlignment();
+        alignment.initByName("binaryData", data.getPath());
+    } // setUp
+
+    @After
+    public void tearDown() {
+        data.delete();
+    } // tearDown
+
+    @Test
+    public void testUniqueDensities() {
+        for (boolean useLogPartials : new boolean[]{true, false})
+            assertUniqueDensities(useLogPartials);
+    } // testUniqueDensities
+
+    private void assertUniqueDensities(final boolean useLogPartials) {
+        final NegativeBinomial distribution = new NegativeBinomial();
+
+        ExploredSharedAllelicSeqCovModel model = new ExploredSharedAllelicSeqCovModel();
+        model.initByName(
+                "allelicSeqCov", new RealParameter(new Double[]{VALUES[0][0]}),
+                "allelicSeqCovRawVar", new RealParameter(new Double[]{VALUES[0][1]}),
+                "inVariantCallingMode", false,
+                "initSharedAllelicSeqCovAndRawVar", false
+        );
+        model.deeplyInitialize(alignment, 1, MODELED_ALLELES, useLogPartials);
+
+        final double[] sizeFactors = model.getSizeFactors();
+
+        for (double[] values : VALUES) {
+            model.allelicSeqCov = new RealParameter(new Double[]{values[0]});
+            model.allelicSeqCovRawVar = new RealParameter(new Double[]{values[1]});
+
+            for (int taxonIndex = 0; taxonIndex < alignment.getTaxonCount(); taxonIndex++) {
+                for (int patternIndex = 0; patternIndex < alignment.getPatternCount(); patternIndex++) {
+                    final int seqCov = alignment.getSequencingCoverageOfPattern(taxonIndex, patternIndex);
+                    model.computeSeqCovLikelihood(seqCov, 0, patternIndex, taxonIndex);
+
+                    for (int i = 0; i < MODELED_ALLELES.length; i++) {
+                        final double a = MODELED_ALLELES[i] + 1e-6;
+                        final double mean = a * values[0] * sizeFactors[taxonIndex];
+                        final double var = mean + Math.pow(sizeFactors[taxonIndex], 2) * Math.pow(a, 2) * values[1];
+                        final double p = mean / var;
+                        final double r = Math.pow(mean, 2) / (var - mean);
+
+                        final double logDensity = distribution.logDensity(seqCov, r, p);
+                        final double observed = model.getSeqCovLikelihood(taxonIndex, patternIndex * MODELED_ALLELES.length + i);
+                        final String message = "log " + useLogPartials + ", allelicSeqCov " + values[0] +
+                                ", allelicSeqCovRawVar " + values[1] + ", taxon " + taxonIndex + ", pattern " +
+                                patternIndex + ", sequenced alleles " + MODELED_ALLELES[i];
+
+                        if (useLogPartials)
+                            assertEquals(message, logDensity, observed, TOLERANCE * Math.max(1, Math.abs(logDensity)));
+                        else {
+                            // the error of the log density relative to the density
+                            final double density = distribution.density(seqCov, r, p);
+                            assertEquals(message, density, observed,
+                                    TOLERANCE * Math.max(1, Math.abs(logDensity)) * density + Double.MIN_VALUE);
+                        }
+                    }
+                }
+            }
+        }
+    } // assertUniqueDensities
+
+    /**
+     * Sequencing coverage with few distinct values, so that many cells share the same one.
+     */
+    private static void writeData(final File file) throws IOException {
+        final Random random = new Random(32);
+
+        List<String> cellNames = new ArrayList<>();
+        for (int i = 0; i < NR_OF_CELLS; i++)
+            cellNames.add("cell" + i);
+
+        List<String> loci = new ArrayList<>();
+        for (int i = 0; i < NR_OF_LOCI; i++)
+            loci.add("chr1," + (1000 + i * 10) + ",A,C,G,T");
+
+        List<List<String>> readCounts = new ArrayList<>();
+        for (int i = 0; i < NR_OF_CELLS; i++) {
+            // cells sequenced at different depths
+            final int depth = 4 + 4 * i;
+
+            List<String> cell = new ArrayList<>();
+            for (int j = 0; j < NR_OF_LOCI; j++) {
+                final int a1 = random.nextInt(3);
+                final int cov = a1 + depth * random.nextInt(4) + random.nextInt(2);
+                cell.add("C,G,T," + a1 + ",0,0," + cov);
+            }
+            readCounts.add(cell);
+        }
+
+        ScsBinaryReadCounts.write(file.getPath(), "full supports-coverage", cellNames, loci, readCounts);
+    } // writeData
+
+}
@@ -0,0 +1,500 @@
+package beast.evolution.variantsinfo;
+
+import beast.app.BeastMCMC;
+import beast.evolution.alignment.ScsAlignment;
+import beast.evolution.alignment.ScsBinaryReadCounts;
+import beast.evolution.alignment.VariantSiteInfo;
+import beast.evolution.substitutionmodel.ScsFiniteMuExtendedModel;
+import beast.evolution.tree.Node;
+import beast.evolution.tree.ScsTree;
+import beast.evolution.variantsinfo.vcfentry.CellLocusGenotype;
+import beast.evolution.variantsinfo.vcfentry.VCFEntry;
+import beast.evolution.variantsinfo.vcfentry.VCFInfo;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static beast.math.util.MathFunctions.convertLogE2RoundedPhredScaled;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that VCF entries formatted into reused builders, block by block and with any number of threads, give the
+ * same six outputs as formatting each entry into its own strings, as VariantsInfoVCF.log used to do.
+ */
+public class VariantsInfoVCFTest {
+
+    private final static int NR_OF_CELLS = 5;
+
+    // more than two blocks of loci
+    private final static int NR_OF_LOCI = 700;
+
+    private final static int NR_OF_ADOS = 3;
+
+    private final static char[] NUCS = {'A', 'C', 'G', 'T'};
+
+    /**
+     * Formatting into a reused builder should give the same strings as the toString-based code it replaced, which is
+     * reproduced from the values each entry is built from.
+     */
+    @Test
+    public void testAppendMatchesOldFormatting() {
+        final Random random = new Random(50);
+        final int nrOfGenotypes = 4;
+
+        final StringBuilder[] builders = new StringBuilder[6];
+        for (int i = 0; i < builders.length; i++)
+            builders[i] = new StringBuilder();
+
+        for (int k = 0; k < 3000; k++) {
+            final int nrOfAlts = 1 + random.nextInt(3);
+            final char[] altNucs = new char[nrOfAlts];
+            for (int i = 0; i < nrOfAlts; i++)
+                altNucs[i] = NUCS[random.nextInt(NUCS.length)];
+            final VariantSiteInfo locusInfo = new VariantSiteInfo("chr" + (1 + random.nextInt(22)),
+                    1 + random.nextInt(1 << 30), NUCS[random.nextInt(NUCS.length)], altNucs);
+
+            final int[] alleleCount = new int[nrOfAlts];
+            for (int i = 0; i < nrOfAlts; i++)
+                alleleCount[i] = random.nextInt(20);
+            final int totalAlleleNums = 1 + random.nextInt(40);
+            final int totalReadDepth = random.nextInt(2000);
+            final long qual = random.nextInt(500);
+
+            final String[] genotypesOri = new String[NR_OF_CELLS];
+            final String[] genotypesAdapted = new String[NR_OF_CELLS];
+            final int[] ternary = new int[NR_OF_CELLS];
+            final int[][] alleleDepth = new int[NR_OF_CELLS][];
+            final int[] readDepth = new int[NR_OF_CELLS];
+            final double[][] genotypeLogLikelihoods = new double[NR_OF_CELLS][];
+            final int[] adoStates = new int[NR_OF_CELLS];
+            final double[][] adoLogLikelihoods = new double[NR_OF_CELLS][];
+
+            final CellLocusGenotype[] cellLocusGenotypes = new CellLocusGenotype[NR_OF_CELLS];
+            for (int i = 0; i < NR_OF_CELLS; i++) {
+                genotypesOri[i] = random.nextInt(2) + "/" + random.nextInt(3);
+                genotypesAdapted[i] = random.nextInt(4) + "/" + (random.nextBoolean() ? "." : random.nextInt(4));
+                ternary[i] = random.nextInt(3);
+                alleleDepth[i] = new int[nrOfAlts + 1];
+                for (int j = 0; j < alleleDepth[i].length; j++)
+                    alleleDepth[i][j] = random.nextInt(50);
+                readDepth[i] = random.nextInt(100);
+                genotypeLogLikelihoods[i] = randomLogLikelihoods(random, nrOfGenotypes);
+                adoStates[i] = random.nextInt(NR_OF_ADOS);
+                adoLogLikelihoods[i] = randomLogLikelihoods(random, NR_OF_ADOS);
+
+                cellLocusGenotypes[i] = new CellLocusGenotype(genotypesOri[i], genotypesAdapted[i], ternary[i],
+                        alleleDepth[i], readDepth[i], genotypeLogLikelihoods[i], adoStates[i], adoLogLikelihoods[i]);
+            }
+
+            final VCFEntry entry = new VCFEntry(locusInfo, ".", qual, "PASS",
+                    new VCFInfo(alleleCount, totalAlleleNums, totalReadDepth), cellLocusGenotypes);
+
+            // old formatting
+            List<String> cells = new ArrayList<>();
+            for (int i = 0; i < NR_OF_CELLS; i++)
+                cells.add(oldCellLocusGenotypeToString(genotypesAdapted[i], alleleDepth[i], readDepth[i],
+                        genotypeLogLikelihoods[i], adoStates[i], adoLogLikelihoods[i]));
+
+            final String[] expected = {
+                    locusInfo.getChromosome() + "\t" + locusInfo.getPosition() + "\t.\t" + locusInfo.getRefNuc() +
+                            "\t" + locusInfo.getAltNucsAsString(",") + "\t" + qual + "\tPASS\t" +
+                            oldVCFInfoToString(alleleCount, totalAlleleNums, totalReadDepth) + "\t" +
+                            CellLocusGenotype.getHeader() + "\t" + String.join("\t", cells),
+                    joinInts(adoStates),
+                    String.join("\t", genotypesOri),
+                    joinInts(ternary),
+                    locusInfo.getChromosome() + "\t" + locusInfo.getPosition() + "\t" + locusInfo.getRefNuc() + "\t" +
+                            locusInfo.getAltNucsAsString(","),
+                    oldGenotypeLikelihoodsToString(genotypeLogLikelihoods)
+            };
+
+            // new formatting, into builders reused across entries as in VCFBlock
+            for (StringBuilder sb : builders)
+                sb.setLength(0);
+            entry.appendTo(builders[0]);
+            entry.appendAdoStates(builders[1], "\t");
+            entry.appendCellLocusOriGenotypes(builders[2], "\t");
+            entry.appendCellLocusTernaryGenotypes(builders[3], "\t");
+            entry.appendLociInfo(builders[4], "\t", ",");
+            entry.appendCellLocusGenotypeLikelihoods(builders[5], "\t", ",");
+
+            for (int i = 0; i < expected.length; i++)
+                assertEquals("entry " + k + ", output " + i, expected[i], builders[i].toString());
+        }
+    } // testAppendMatchesOldFormatting
+
+    /**
+     * All six outputs and the genotypes of the tree should be the same as those of formatting each entry on its own,
+     * whatever the number of threads.
+     */
+    @Test
+    public void testLogMatchesEntriesAndThreads() throws IOException {
+        final int nrOfThreads = BeastMCMC.m_nThreads;
+
+        final File dir = java.nio.file.Files.createTempDirectory("variants_info").toFile();
+        final File data = new File(dir, "read_counts.bin");
+        final File tree = new File(dir, "tree.newick");
+
+        try {
+            writeData(data);
+            try (PrintStream out = new PrintStream(tree, "UTF-8")) {
+                out.println("(((cell0:1.0,cell3:1.0):0.5,cell1:1.5):0.5,(cell4:0.7,cell2:0.7):1.3);");
+            }
+
+            final VariantsInfoVCF variantsInfo = getVariantsInfo(data, tree);
+
+            final String[] expected = logEntries(variantsInfo);
+            final Integer[][] expectedGenotypes = getGenotypesMetaData(variantsInfo);
+            assertTrue(expected[0].length() > 0);
+
+            for (int threads : new int[]{1, 2, 4}) {
+                BeastMCMC.m_nThreads = threads;
+
+                variantsInfo.initGenotypes();
+                final String[] actual = log(variantsInfo);
+
+                for (int i = 0; i < expected.length; i++)
+                    assertEquals("threads " + threads + ", output " + i, expected[i], actual[i]);
+
+                final Integer[][] actualGenotypes = getGenotypesMetaData(variantsInfo);
+                for (int i = 0; i < expectedGenotypes.length; i++)
+                    assertArrayEquals("threads " + threads + ", node " + i, expectedGenotypes[i], actualGenotypes[i]);
+            }
+        } finally {
+            BeastMCMC.m_nThreads = nrOfThreads;
+
+            File[] files = dir.listFiles();
+            if (files != null) {
+                for (File file : files)
+                    file.delete();
+            }
+            dir.delete();
+        }
+    } // testLogMatchesEntriesAndThreads
+
+    /**
+     * Variant calling results drawn at random for each pattern.
+     */
+    private static VariantsInfoVCF getVariantsInfo(final File data, final File treeFile) {
+        final Random random = new Random(5);
+
+        ScsAlignment alignment = new ScsAlignment();
+        alignment.initByName("binaryData", data.getPath());
+
+        ScsTree tree = new ScsTree();
+        tree.initByName("treeFileName", treeFile.getPath());
+
+        ScsFiniteMuExtendedModel substModel = new ScsFiniteMuExtendedModel();
+        final int nrOfGenotypes = substModel.getStateCount();
+
+        // inputs are set directly, as no sequencing coverage model is needed to log VCF entries
+        VariantsInfoVCF variantsInfo = new VariantsInfoVCF();
+        variantsInfo.scsData = alignment;
+        variantsInfo.cellThreshold = 1;
+        variantsInfo.ambiguityGenotypesStrategy = GenericVariantsInfo.Base.AmbiguityGenotypesStrategy.Default;
+        variantsInfo.treeInput.setValue(tree, variantsInfo);
+        variantsInfo.initialise(alignment.getPatternCount(), substModel);
+
+        final int nrOfTips = tree.getLeafNodeCount();
+        final int nrOfNodes = tree.getNodeCount();
+
+        for (int tipIndex = 0; tipIndex < nrOfTips; tipIndex++) {
+            for (int parentGenotype = 0; parentGenotype < nrOfGenotypes; parentGenotype++)
+                variantsInfo.addGenotypeLogTransferProbabilitiesAll(tipIndex, parentGenotype, nrOfGenotypes,
+                        randomLogLikelihoods(random, nrOfGenotypes), false);
+        }
+
+        for (int patternIndex = 0; patternIndex < alignment.getPatternCount(); patternIndex++) {
+            variantsInfo.initialiseAPattern(patternIndex);
+
+            // about a quarter of the patterns fail to pass the consensus filter
+            final int[] tips = new int[nrOfTips];
+            if (random.nextInt(4) > 0) {
+                for (int i = 0; i < nrOfTips; i++)
+                    tips[i] = random.nextInt(nrOfGenotypes);
+            }
+
+            final int[] nodes = new int[nrOfNodes];
+            for (int i = 0; i < nrOfNodes; i++)
+                nodes[i] = i < nrOfTips ? tips[i] : random.nextInt(nrOfGenotypes);
+
+            final int[] ado = new int[nrOfTips];
+            for (int i = 0; i < nrOfTips; i++)
+                ado[i] = random.nextInt(NR_OF_ADOS);
+
+            variantsInfo.addMLGenotypesTips(patternIndex, tips, false);
+            variantsInfo.addMLGenotypesNodes(patternIndex, nodes, false);
+            variantsInfo.addMLAdo(patternIndex, ado, false);
+            variantsInfo.addGenotypeLogLikelihoodConstantPattern(patternIndex, -10 * random.nextDouble(), false);
+
+            for (int tipIndex = 0; tipIndex < nrOfTips; tipIndex++) {
+                variantsInfo.addGenotypeLogLikelihoodsAll(patternIndex, tipIndex,
+                        randomLogLikelihoods(random, nrOfGenotypes), false);
+                variantsInfo.addAdoLogLikelihoods(patternIndex, tipIndex, NR_OF_ADOS,
+                        randomLogLikelihoods(random, NR_OF_ADOS), false);
+            }
+        }
+
+        return variantsInfo;
+    } // getVariantsInfo
+
+    /**
+     * Gather all VCF entries first and print each of them with its String methods, as VariantsInfoVCF.log used to do.
+     *
+     * @return the six outputs
+     */
+    private static String[] logEntries(final VariantsInfoVCF variantsInfo) throws UnsupportedEncodingException {
+        final ScsAlignment scsData = variantsInfo.scsData;
+
+        final int[] taxonIndices = new int[variantsInfo.numOfTips];
+        for (int i = 0; i < variantsInfo.numOfTips; i++)
+            taxonIndices[i] = variantsInfo.getTaxonIndex(variantsInfo.sortedTipNames[i], scsData);
+
+        List<VCFEntry> entries = new ArrayList<>();
+        for (int locusIndex = 0; locusIndex < scsData.getLociNr(); locusIndex++) {
+            final int patternIndex = scsData.getPatternIndex(locusIndex);
+            final int loopSize = variantsInfo.adjustAmbiguousGenotypes(variantsInfo.MLGenotypesTips[patternIndex].size());
+
+            for (int itemIndex = 0; itemIndex < loopSize; itemIndex++) {
+                int variantTips = 0;
+                for (int i : variantsInfo.MLGenotypesTips[patternIndex].get(itemIndex)) {
+                    if (variantsInfo.substModel.isVariant(i))
+                        variantTips++;
+                }
+
+                if (variantTips < variantsInfo.cellThreshold) continue;
+
+                entries.add(variantsInfo.getVCFInfoAcrossCells(scsData.getLociInfo(locusIndex), locusIndex,
+                        patternIndex, itemIndex, taxonIndices));
+                variantsInfo.addGenotypes(variantsInfo.MLGenotypesNodes[patternIndex].get(itemIndex));
+            }
+        }
+        variantsInfo.setGenotypesMetaData();
+
+        final ByteArrayOutputStream[] bytes = new ByteArrayOutputStream[6];
+        final PrintStream[] outs = new PrintStream[6];
+        for (int i = 0; i < outs.length; i++) {
+            bytes[i] = new ByteArrayOutputStream();
+            outs[i] = new PrintStream(bytes[i], false, "UTF-8");
+        }
+
+        for (VCFEntry i : entries) {
+            outs[0].println(i.toString());
+            outs[1].println(i.getAdoStateAsString("\t"));
+            outs[2].println(i.getCellLocusOriGenotypeAsString("\t"));
+            outs[3].println(i.getCellLocusTernaryGenotypeAsString("\t"));
+            outs[4].println(i.getLociInfoAsString("\t", ","));
+            outs[5].println(i.getCellLocusGenotypeLikelihoodAsString("\t", ","));
+        }
+
+        return toStrings(bytes, outs);
+    } // logEntries
+
+    private static String[] log(final VariantsInfoVCF variantsInfo) throws UnsupportedEncodingException {
+        final ByteArrayOutputStream[] bytes = new ByteArrayOutputStream[6];
+        final PrintStream[] outs = new PrintStream[6];
+        for (int i = 0; i < outs.length; i++) {
+            bytes[i] = new ByteArrayOutputStream();
+            outs[i] = new PrintStream(bytes[i], false, "UTF-8");
+        }
+
+        variantsInfo.log(outs[0], outs[1], outs[2], outs[3], outs[4], outs[5]);
+
+        return toStrings(bytes, outs);
+    } // log
+
+    private static String[] toStrings(
+            final ByteArrayOutputStream[] bytes,
+            final PrintStream[] outs
+    ) throws UnsupportedEncodingException {
+        final String[] strings = new String[bytes.length];
+        for (int i = 0; i < bytes.length; i++) {
+            outs[i].flush();
+            strings[i] = bytes[i].toString("UTF-8");
+        }
+
+        return strings;
+    } // toStrings
+
+    private static Integer[][] getGenotypesMetaData(final VariantsInfoVCF variantsInfo) {
+        final Node[] nodes = variantsInfo.tree.getNodesAsArray();
+
+        final Integer[][] genotypes = new Integer[nodes.length][];
+        for (Node node : nodes)
+            genotypes[node.getNr()] = (Integer[]) node.getMetaData(GenericVariantsInfoVCF.META_DATA_GENOTYPES);
+
+        return genotypes;
+    } // getGenotypesMetaData
+
+    private static double[] randomLogLikelihoods(final Random random, final int length) {
+        final double[] values = new double[length];
+        for (int i = 0; i < length; i++)
+            values[i] = -30 * random.nextDouble();
+
+        return values;
+    } // randomLogLikelihoods
+
+    private static void writeData(final File file) throws IOException {
+        final Random random = new Random(17);
+
+        List<String> cellNames = new ArrayList<>();
+        for (int i = 0; i < NR_OF_CELLS; i++)
+            cellNames.add("cell" + i);
+
+        List<String> loci = new ArrayList<>();
+        for (int i = 0; i < NR_OF_LOCI; i++)
+            loci.add("chr" + (1 + i / 100) + "," + (1000 + i * 10) + ",A,C,G,T");
+
+        List<List<String>> readCounts = new ArrayList<>();
+        for (int i = 0; i < NR_OF_CELLS; i++) {
+            List<String> cell = new ArrayList<>();
+            for (int j = 0; j < NR_OF_LOCI; j++) {
+                final int coverage = 5 + random.nextInt(36);
+                final int alt1 = random.nextInt(coverage / 2 + 1);
+                final int alt2 = random.nextInt(3);
+                final int alt3 = random.nextInt(2);
+                cell.add("C,G,T," + alt1 + "," + alt2 + "," + alt3 + "," + (coverage + alt2 + alt3));
+            }
+            readCounts.add(cell);
+        }
+
+        ScsBinaryReadCounts.write(file.getPath(), "full supports-coverage", cellNames, loci, readCounts);
+    } // writeData
+
+
+    //**********************************************
+    //*    Formatting before append* methods       *
+    //**********************************************
+
+    private static String joinInts(final int[] values) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < values.length; i++) {
+            sb.append(values[i]);
+
+            if (i < values.length - 1)
+                sb.append("\t");
+        }
+
+        return sb.toString();
+    } // joinInts
+
+    private static String oldVCFInfoToString(final int[] alleleCount, final int totalAlleleNums, final int totalReadDepth) {
+        StringBuilder str = new StringBuilder();
+        List<String> tmp = new ArrayList<>();
+
+        str.append("AC").append("=");
+        for (int ac : alleleCount) {
+            tmp.add(String.valueOf(ac));
+        }
+        str.append(String.join(",", tmp.toArray(new String[0]))).append(";");
+
+        tmp.clear();
+
+        str.append("AF").append("=");
+        for (int ac : alleleCount) {
+            tmp.add(String.format("%.3f", ((double) ac) / totalAlleleNums));
+        }
+        str.append(String.join(",", tmp.toArray(new String[0]))).append(";");
+
+        str.append("AN").append("=").append(totalAlleleNums).append(";");
+        str.append("DP").append("=").append(totalReadDepth);
+
+        return str.toString();
+    } // oldVCFInfoToString
+
+    private static String oldCellLocusGenotypeToString(
+            final String genotypeAdapted,
+            final int[] alleleDepth,
+            final int readDepth,
+            final double[] genotypeLogLikelihoods,
+            final int adoState,
+            final double[] adoLogLikelihoods
+    ) {
+        final long[] genotypePL = getPhredScaledLikelihoods(genotypeLogLikelihoods);
+        final long[] adoPL = getPhredScaledLikelihoods(adoLogLikelihoods);
+
+        StringBuilder str = new StringBuilder();
+
+        str.append(genotypeAdapted).append(":");
+        str.append(
+                String.join(
+                        ",",
+                        Arrays.stream(alleleDepth).mapToObj(String::valueOf).toArray(String[]::new)
+                )
+        ).append(":");
+        str.append(readDepth).append(":");
+        str.append(getQual(genotypePL)).append(":");
+        str.append(
+                String.join(
+                        ",",
+                        Arrays.stream(genotypePL).mapToObj(String::valueOf).toArray(String[]::new)
+                )
+        ).append(":");
+        str.append(adoState).append(":");
+        str.append(getQual(adoPL)).append(":");
+        str.append(
+                String.join(
+                        ",",
+                        Arrays.stream(adoPL).mapToObj(String::valueOf).toArray(String[]::new)
+                )
+        );
+
+        return str.toString();
+    } // oldCellLocusGenotypeToString
+
+    private static String oldGenotypeLikelihoodsToString(final double[][] genotypeLogLikelihoods) {
+        StringBuilder sb = new StringBuilder();
+
+        for (int i = 0; i < genotypeLogLikelihoods.length; i++) {
+            double[] ret = Arrays.stream(genotypeLogLikelihoods[i]).map(Math::exp).toArray();
+
+            final double tmp = Arrays.stream(ret).sum();
+            ret = Arrays.stream(ret).map(x -> x / tmp).toArray();
+
+            StringBuilder cell = new StringBuilder();
+            for (int j = 0; j < ret.length; j++) {
+                cell.append(String.format("%.3f", ret[j]));
+
+                if (j < ret.length - 1)
+                    cell.append(",");
+            }
+
+            sb.append(cell.toString());
+
+            if (i < genotypeLogLikelihoods.length - 1)
+                sb.append("\t");
+        }
+
+        return sb.toString();
+    } // oldGenotypeLikelihoodsToString
+
+    private static long[] getPhredScaledLikelihoods(final double[] logLikelihoods) {
+        final long[] values = new long[logLikelihoods.length];
+        for (int i = 0; i < values.length; i++)
+            values[i] = convertLogE2RoundedPhredScaled(logLikelihoods[i]);
+
+        final long min = Arrays.stream(values).min().getAsLong();
+        for (int i = 0; i < values.length; i++)
+            values[i] -= min;
+
+        return values;
+    } // getPhredScaledLikelihoods
+
+    private static long getQual(final long[] phredScaledLikelihoods) {
+        final long[] sorted = phredScaledLikelihoods.clone();
+        Arrays.sort(sorted);
+
+        return sorted[1] > 99 ? 99 : sorted[1];
+    } // getQual
+
+}
@@ -0,0 +1,75 @@
+package beast.math.distributions;
+
+import org.apache.commons.math.special.Gamma;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks ladders of log Gamma against log Gamma evaluated directly at each count, up to counts large enough for
+ * rounding errors of the recurrence to accumulate.
+ */
+public class DirichletMultinomialTest {
+
+    private final static double[] FRACTIONS = {1e-3, 0.0123, 0.37, 1, 2.5, 41.2, 1e4};
+
+    private final static int MAX_COUNT = 500000;
+
+    // tolerance on each entry, in units in the last place of the larger log Gamma; without restarting the ladder,
+    // errors up to the maximum count reach hundreds of units
+    private final static int TOLERANCE_ULPS = 32;
+
+    @Test
+    public void testLogGammaLadder() {
+        for (double fraction : FRACTIONS) {
+            final double[] ladder = DirichletMultinomial.getLogGammaLadder(fraction, MAX_COUNT);
+            assertEquals(MAX_COUNT + 1, ladder.length);
+            assertEquals(0, ladder[0], 0);
+
+            final double logGammaFraction = Gamma.logGamma(fraction);
+            for (int n = 1; n <= MAX_COUNT; n++) {
+                final double logGamma = Gamma.logGamma(fraction + n);
+                assertEquals("fraction " + fraction + ", count " + n, logGamma - logGammaFraction, ladder[n],
+                        TOLERANCE_ULPS * Math.ulp(Math.max(1, Math.max(Math.abs(logGamma), Math.abs(logGammaFraction)))));
+            }
+        }
+    } // testLogGammaLadder
+
+    @Test
+    public void testLogFactorials() {
+        final double[] logFactorials = DirichletMultinomial.getLogFactorials(MAX_COUNT);
+
+        double logFactorial = 0;
+        for (int n = 1; n <= 20; n++) {
+            logFactorial += Math.log(n);
+            assertEquals("count " + n, logFactorial, logFactorials[n], 1e-13 * Math.max(1, logFactorial));
+        }
+
+        for (int n = 21; n <= MAX_COUNT; n++) {
+            final double expected = Gamma.logGamma(n + 1.0);
+            assertEquals("count " + n, expected, logFactorials[n], TOLERANCE_ULPS * Math.ulp(expected));
+        }
+    } // testLogFactorials
+
+    /**
+     * Looking densities up in ladders should give the same as evaluating them with log Beta.
+     */
+    @Test
+    public void testLogDensityByLookup() {
+        final DirichletMultinomial distribution = new DirichletMultinomial();
+        final double[] fractions = {0.0123, 0.37, 2.5, 2.8823};
+        final int maxCount = 5000;
+
+        final double[][] ladders = new double[fractions.length][];
+        for (int i = 0; i < fractions.length; i++)
+            ladders[i] = DirichletMultinomial.getLogGammaLadder(fractions[i], maxCount);
+        final double[] logFactorials = DirichletMultinomial.getLogFactorials(maxCount);
+
+        for (int[] counts : new int[][]{{0, 0, 0, 0}, {1, 0, 2, 3}, {17, 3, 40, 60}, {400, 1200, 3000, 4600}, {0, 0, 5000, 5000}}) {
+            final double expected = distribution.logDensity(counts, fractions);
+            assertEquals(expected, DirichletMultinomial.logDensity(counts, ladders, logFactorials),
+                    1e-9 * Math.max(1, Math.abs(expected)));
+        }
+    } // testLogDensityByLookup
+
+}
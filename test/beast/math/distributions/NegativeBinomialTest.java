@@ -0,0 +1,55 @@
+package beast.math.distributions;
+
+import org.apache.commons.math.special.Gamma;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks tables of log densities built with the recurrence against the closed form evaluated at each point, up to
+ * points large enough for rounding errors of the recurrence to accumulate.
+ */
+public class NegativeBinomialTest {
+
+    private final static double[] NR_OF_SUCCESS = {1e-3, 0.37, 1, 2.5, 41.2, 1e4};
+    private final static double[] PROP_OF_SUCCESS = {1e-6, 0.01, 0.5, 0.93};
+
+    private final static int MAX_COUNT = 200000;
+
+    // tolerance on each entry, in units in the last place of the largest term of the closed form; without restarting
+    // the recurrence, errors up to the maximum count reach hundreds of units
+    private final static int TOLERANCE_ULPS = 32;
+
+    @Test
+    public void testLogDensities() {
+        final NegativeBinomial distribution = new NegativeBinomial();
+
+        for (double r : NR_OF_SUCCESS) {
+            for (double p : PROP_OF_SUCCESS) {
+                final double[] table = NegativeBinomial.getLogDensities(r, p, MAX_COUNT);
+                assertEquals(MAX_COUNT + 1, table.length);
+
+                // terms of the closed form independent of x
+                final double constant = Math.max(Math.abs(Gamma.logGamma(r)), Math.abs(r * Math.log(1 / p - 1)));
+
+                for (int x = 0; x <= MAX_COUNT; x++) {
+                    final double scale = Math.max(Math.max(1, constant), Math.max(Math.abs(Gamma.logGamma(r + x)),
+                            Math.max(Math.abs(Gamma.logGamma(x + 1.0)), Math.abs((r + x) * Math.log(1 - p)))));
+
+                    assertEquals("nrOfSuccess " + r + ", propOfSuccess " + p + ", x " + x,
+                            distribution.logDensity(x, r, p), table[x], TOLERANCE_ULPS * Math.ulp(scale));
+                }
+            }
+        }
+    } // testLogDensities
+
+    @Test
+    public void testBoundaries() {
+        // all successes, so that only x = 0 is possible
+        final double[] table = NegativeBinomial.getLogDensities(2.5, 1, 100);
+        assertEquals(0, table[0], 0);
+        for (int x = 1; x <= 100; x++)
+            assertEquals(Double.NEGATIVE_INFINITY, table[x], 0);
+    } // testBoundaries
+
+}
@@ -0,0 +1,188 @@
+package beast.math.util;
+
+import beast.app.variantcaller.EstimatesTypeCollection;
+import org.junit.Test;
+import smile.stat.distribution.KernelDensity;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class MathFunctionsTest {
+
+    // relative tolerance on the density at the estimated modes
+    private final static double DENSITY_TOLERANCE = 1e-3;
+
+    @Test
+    public void testExactByDefault() {
+        final double[] data = unimodal(new Random(1), 5000);
+
+        assertEquals(MathFunctions.getExactModeEstimates(data.clone()), MathFunctions.getModeEstimates(data.clone()), 0);
+        assertEquals(MathFunctions.getExactModeEstimates(data.clone()),
+                MathFunctions.getModeEstimates(data.clone(), EstimatesTypeCollection.ModeKDEMethod.EXACT), 0);
+        assertEquals(MathFunctions.getBinnedModeEstimates(data),
+                MathFunctions.getModeEstimates(data.clone(), EstimatesTypeCollection.ModeKDEMethod.BINNED), 0);
+    } // testExactByDefault
+
+    /**
+     * The method is passed down to estimates of samples, so that callers in the same JVM may use different ones.
+     */
+    @Test
+    public void testMethodOfEstimates() {
+        // two mirrored peaks of equal densities, where rounding errors decide which one each method picks
+        final Random random = new Random(1);
+        final double[] data = new double[6000];
+        for (int i = 0; i < data.length; i += 2) {
+            data[i] = 5 + random.nextGaussian();
+            data[i + 1] = -data[i];
+        }
+
+        final double exact = MathFunctions.getExactModeEstimates(data.clone());
+        final double binned = MathFunctions.getBinnedModeEstimates(data);
+        assertTrue(exact != binned);
+
+        for (EstimatesTypeCollection.ModeKDEMethod method : EstimatesTypeCollection.ModeKDEMethod.values()) {
+            final double expected = method == EstimatesTypeCollection.ModeKDEMethod.BINNED ? binned : exact;
+
+            Map<String, Double> estimates = new HashMap<>();
+            MathFunctions.getEstimates(EstimatesTypeCollection.EstimatesType.MODE,
+                    EstimatesTypeCollection.ModeKDEType.GAUSSIAN, method, data.clone(), 0, data.length, estimates);
+            assertEquals(expected, estimates.get("gaussian"), 0);
+
+            Map<String, double[][]> arrEstimates = new HashMap<>();
+            MathFunctions.getArrEstimates(EstimatesTypeCollection.EstimatesType.MODE, method, data.clone(),
+                    arrEstimates, 1, 0, 2, 1);
+            assertEquals(expected, arrEstimates.get("gaussian")[0][1], 0);
+        }
+    } // testMethodOfEstimates
+
+    @Test
+    public void testSmallInputs() {
+        final Random random = new Random(2);
+
+        // below the grid size the binned method falls back to the exact one
+        for (int n : new int[]{2, 10, 500, 2048}) {
+            final double[] data = unimodal(random, n);
+            assertEquals(MathFunctions.getExactModeEstimates(data.clone()), MathFunctions.getBinnedModeEstimates(data), 0);
+        }
+    } // testSmallInputs
+
+    @Test
+    public void testUnimodal() {
+        final Random random = new Random(3);
+
+        for (int i = 0; i < 10; i++)
+            assertAgreement(unimodal(random, 3000 + random.nextInt(6000)));
+    } // testUnimodal
+
+    @Test
+    public void testBimodal() {
+        final Random random = new Random(4);
+
+        for (int i = 0; i < 10; i++) {
+            final double[] data = new double[3000 + random.nextInt(6000)];
+            final double weight = 0.3 + 0.4 * random.nextDouble();
+            for (int j = 0; j < data.length; j++)
+                data[j] = random.nextDouble() < weight ? random.nextGaussian() : 4 + 0.5 * random.nextGaussian();
+
+            assertAgreement(data);
+        }
+    } // testBimodal
+
+    @Test
+    public void testTies() {
+        final Random random = new Random(5);
+
+        // few distinct values, as in sampled discrete parameters
+        for (int i = 0; i < 10; i++) {
+            final double[] data = new double[3000 + random.nextInt(6000)];
+            for (int j = 0; j < data.length; j++)
+                data[j] = random.nextInt(12) * 0.25 + (random.nextBoolean() ? 0 : random.nextInt(3));
+
+            assertAgreement(data);
+        }
+    } // testTies
+
+    @Test
+    public void testBinnedKeepsInput() {
+        final double[] data = unimodal(new Random(6), 10000);
+        final double[] copy = data.clone();
+
+        MathFunctions.getBinnedModeEstimates(data);
+        for (int i = 0; i < data.length; i++)
+            assertEquals(copy[i], data[i], 0);
+    } // testBinnedKeepsInput
+
+    @Test
+    public void testWeightedSums() {
+        final Random random = new Random(7);
+
+        for (int k = 0; k < 100; k++) {
+            final int n = 1 + random.nextInt(20);
+            final double[] values = new double[n];
+            final int[] weights = new int[n];
+            for (int i = 0; i < n; i++) {
+                values[i] = -50 * random.nextDouble();
+                weights[i] = random.nextInt(5);
+            }
+            weights[random.nextInt(n)] = 1;
+
+            // the same elements, expanded
+            final double[] expanded = new double[Arrays.stream(weights).sum()];
+            int index = 0;
+            for (int i = 0; i < n; i++) {
+                for (int j = 0; j < weights[i]; j++)
+                    expanded[index++] = values[i];
+            }
+
+            assertEquals(MathFunctions.logSumExp(expanded), MathFunctions.logSumExp(values, weights), 1e-12);
+            assertEquals(MathFunctions.sum(expanded), MathFunctions.sum(values, weights), 1e-9);
+        }
+    } // testWeightedSums
+
+    /**
+     * Elements without any repetition do not contribute, even if they are infinite.
+     */
+    @Test
+    public void testWeightedSumsSkipZeroWeights() {
+        final double[] values = {-2, Double.NEGATIVE_INFINITY, -3, Double.POSITIVE_INFINITY};
+        final int[] weights = {2, 0, 1, 0};
+
+        final double expected = Math.log(2 * Math.exp(-2) + Math.exp(-3));
+        assertEquals(expected, MathFunctions.logSumExp(values, weights), 1e-12);
+        assertEquals(-7, MathFunctions.sum(values, weights), 0);
+
+        // an element with no repetitions being the largest
+        assertEquals(-3, MathFunctions.logSumExp(new double[]{-3, 0}, new int[]{1, 0}), 1e-12);
+    } // testWeightedSumsSkipZeroWeights
+
+    /**
+     * The binned mode should be a sample whose density is (almost) as high as that of the exact mode.
+     */
+    private static void assertAgreement(final double[] data) {
+        final KernelDensity kde = new KernelDensity(data.clone());
+
+        final double exact = MathFunctions.getExactModeEstimates(data.clone());
+        final double binned = MathFunctions.getBinnedModeEstimates(data);
+
+        final double exactDensity = kde.p(exact);
+        final double binnedDensity = kde.p(binned);
+
+        assertTrue("binned mode " + binned + " (density " + binnedDensity + ") vs exact mode " + exact +
+                        " (density " + exactDensity + ")",
+                binnedDensity >= exactDensity * (1 - DENSITY_TOLERANCE));
+    } // assertAgreement
+
+    private static double[] unimodal(final Random random, final int n) {
+        final double[] data = new double[n];
+        for (int i = 0; i < n; i++)
+            data[i] = 10 + 2 * random.nextGaussian() + random.nextDouble();
+
+        return data;
+    } // unimodal
+
+}
@@ -0,0 +1,124 @@
+package beast.math.util;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.function.DoubleSupplier;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class StreamingQuantileTest {
+
+    // bound on |F(estimate) - p|, where F is the empirical distribution of the observations
+    private final static double RANK_TOLERANCE = 0.02;
+
+    private final static double DRIFT_RANK_TOLERANCE = 0.15;
+
+    @Test
+    public void testFewObservations() {
+        final double[] values = {3, 1, 4, 1, 5};
+        final double[] expected = {3, 2, 3, 2, 3};
+
+        StreamingQuantile median = new StreamingQuantile(0.5);
+        assertTrue(Double.isNaN(median.getQuantile()));
+
+        for (int i = 0; i < values.length; i++) {
+            median.add(values[i]);
+            assertEquals(expected[i], median.getQuantile(), 0);
+        }
+    } // testFewObservations
+
+    @Test
+    public void testIndependentSamples() {
+        final Random random = new Random(1);
+
+        assertBounded(random::nextGaussian, 0.5);
+        assertBounded(random::nextDouble, 0.5);
+        assertBounded(() -> -Math.log(random.nextDouble()), 0.5);
+        assertBounded(() -> Math.exp(2 * random.nextGaussian()), 0.5);
+        assertBounded(random::nextGaussian, 0.1);
+        assertBounded(random::nextGaussian, 0.9);
+    } // testIndependentSamples
+
+    /**
+     * Autocorrelated samples, as in MCMC traces after burn-in.
+     */
+    @Test
+    public void testCorrelatedSamples() {
+        final Random random = new Random(2);
+
+        final double[] state = {0};
+        assertBounded(() -> state[0] = 0.95 * state[0] + random.nextGaussian(), 0.5);
+    } // testCorrelatedSamples
+
+    /**
+     * Samples drifting towards a stationary distribution, as in MCMC traces with too short a burn-in; the markers lag
+     * behind, so the error is larger, which is why exact medians are the default for allelic sequencing information.
+     */
+    @Test
+    public void testDriftingSamples() {
+        for (int seed = 0; seed < 5; seed++) {
+            final Random random = new Random(seed);
+
+            for (int n : new int[]{1000, 10000, 100000}) {
+                final double[] data = new double[n];
+                for (int i = 0; i < n; i++)
+                    data[i] = 50 * Math.exp(-i / 2000.0) + random.nextGaussian();
+
+                assertBounded(data, 0.5, DRIFT_RANK_TOLERANCE);
+            }
+        }
+    } // testDriftingSamples
+
+    @Test
+    public void testDiscreteSamples() {
+        final Random random = new Random(3);
+
+        // with many ties, the estimate should lie between the exact lower and upper quantiles
+        final double[] data = new double[20000];
+        for (int i = 0; i < data.length; i++)
+            data[i] = random.nextInt(5);
+
+        StreamingQuantile median = new StreamingQuantile(0.5);
+        for (double v : data) median.add(v);
+
+        final double estimate = median.getQuantile();
+        assertTrue(String.valueOf(estimate), estimate >= 1.5 && estimate <= 2.5);
+    } // testDiscreteSamples
+
+    private static void assertBounded(final DoubleSupplier supplier, final double p) {
+        for (int n : new int[]{100, 1000, 10000, 100000}) {
+            final double[] data = new double[n];
+            for (int i = 0; i < n; i++)
+                data[i] = supplier.getAsDouble();
+
+            // small inputs are allowed a larger error
+            assertBounded(data, p, Math.max(RANK_TOLERANCE, 2.0 / Math.sqrt(n)));
+        }
+    } // assertBounded
+
+    private static void assertBounded(final double[] data, final double p, final double tolerance) {
+        StreamingQuantile quantile = new StreamingQuantile(p);
+        for (double v : data) quantile.add(v);
+
+        final double estimate = quantile.getQuantile();
+
+        final double[] sorted = data.clone();
+        Arrays.sort(sorted);
+        final double rank = (double) lowerBound(sorted, estimate) / sorted.length;
+
+        assertTrue("p = " + p + ", n = " + data.length + ": estimate " + estimate + " has rank " + rank,
+                Math.abs(rank - p) <= tolerance);
+    } // assertBounded
+
+    private static int lowerBound(final double[] sorted, final double value) {
+        int index = Arrays.binarySearch(sorted, value);
+        if (index < 0) return -index - 1;
+
+        while (index > 0 && sorted[index - 1] == value) index--;
+        return index;
+    } // lowerBound
+
+}